@@ -0,0 +1,217 @@
+//
+package gov.nih.nlm.nls.clinical;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Recognizes the section headers of one document type in a single
+ * pass over a clinical note.
+ * <p>
+ * The indicator strings of all section indicators for the document
+ * type are compiled into one character trie (case folded) when the
+ * matcher is created.  A header is an indicator string at the start of
+ * a line (after optional blanks) followed by ':', '-' or the end of
+ * the line; the longest indicator matching at a line start is used.
+ * Lines may end with "\n", "\r\n" or "\r".  The note is split into
+ * sections at each header, text before the first header is a section
+ * with an empty tag.
+ */
+public class SectionHeaderMatcher {
+
+  /** section of a note */
+  public static class Section {
+    int start;
+    int bodyStart;
+    int end;
+    String tag;
+    Section(int start, int bodyStart, int end, String tag) {
+      this.start = start;
+      this.bodyStart = bodyStart;
+      this.end = end;
+      this.tag = tag;
+    }
+    /** @return start of section (start of header) */
+    public int getStart() { return this.start; }
+    /** @return start of text following header */
+    public int getBodyStart() { return this.bodyStart; }
+    /** @return end of section */
+    public int getEnd() { return this.end; }
+    /** @return section tag (NEW_TAG of indicator), empty if before first header */
+    public String getTag() { return this.tag; }
+    public String toString() {
+      return this.tag + "|" + this.start + "|" + this.bodyStart + "|" + this.end;
+    }
+  }
+
+  /** trie node, children are kept in sorted label arrays after compilation */
+  static class Node {
+    Map<Character,Node> childMap = new TreeMap<Character,Node>();
+    char[] labels;
+    Node[] children;
+    /** tag if an indicator string ends at this node */
+    String tag = null;
+
+    void compile() {
+      this.labels = new char[this.childMap.size()];
+      this.children = new Node[this.childMap.size()];
+      int i = 0;
+      for (Map.Entry<Character,Node> entry: this.childMap.entrySet()) {
+	this.labels[i] = entry.getKey();
+	this.children[i] = entry.getValue();
+	this.children[i].compile();
+	i++;
+      }
+      this.childMap = null;
+    }
+
+    Node next(char c) {
+      int low = 0;
+      int high = this.labels.length - 1;
+      while (low <= high) {
+	int mid = (low + high) >>> 1;
+	if (this.labels[mid] < c) {
+	  low = mid + 1;
+	} else if (this.labels[mid] > c) {
+	  high = mid - 1;
+	} else {
+	  return this.children[mid];
+	}
+      }
+      return null;
+    }
+  }
+
+  Node root = new Node();
+  int indicatorCount = 0;
+
+  /**
+   * @param indicatorList section indicators of a document type
+   */
+  public SectionHeaderMatcher(List<SectionIndicator> indicatorList) {
+    for (SectionIndicator indicator: indicatorList) {
+      if ((indicator.getIndicatorString() != null) && (indicator.getNewTag() != null)) {
+	this.add(indicator.getIndicatorString().trim(), indicator.getNewTag().trim());
+      }
+    }
+    this.root.compile();
+  }
+
+  void add(String indicatorString, String tag) {
+    if (indicatorString.length() == 0) {
+      return;
+    }
+    Node node = this.root;
+    for (int i = 0; i < indicatorString.length(); i++) {
+      char c = Character.toLowerCase(indicatorString.charAt(i));
+      Node child = node.childMap.get(c);
+      if (child == null) {
+	child = new Node();
+	node.childMap.put(c, child);
+      }
+      node = child;
+    }
+    if (node.tag == null) {
+      node.tag = tag;
+      this.indicatorCount++;
+    }
+  }
+
+  /** @return number of distinct indicator strings */
+  public int getIndicatorCount() {
+    return this.indicatorCount;
+  }
+
+  static boolean isBlank(char c) {
+    return (c == ' ') || (c == '\t');
+  }
+
+  /**
+   * Match header at line start.
+   * @param text note
+   * @param lineStart start of line
+   * @param tagHolder receives tag of matched header
+   * @return end of header (after ':' or '-' if present) or -1 if line does not start with a header.
+   */
+  int matchHeader(String text, int lineStart, String[] tagHolder) {
+    int length = text.length();
+    int i = lineStart;
+    while ((i < length) && isBlank(text.charAt(i))) {
+      i++;
+    }
+    Node node = this.root;
+    int headerEnd = -1;
+    while ((i < length) && ((node = node.next(Character.toLowerCase(text.charAt(i)))) != null)) {
+      i++;
+      if (node.tag != null) {
+	int j = i;
+	while ((j < length) && isBlank(text.charAt(j))) {
+	  j++;
+	}
+	if ((j == length) || (text.charAt(j) == '\n') || (text.charAt(j) == '\r')) {
+	  headerEnd = j;
+	  tagHolder[0] = node.tag;
+	} else if ((text.charAt(j) == ':') || (text.charAt(j) == '-')) {
+	  headerEnd = j + 1;
+	  tagHolder[0] = node.tag;
+	}
+      }
+    }
+    return headerEnd;
+  }
+
+  /**
+   * @param text note
+   * @param position position in line
+   * @return start of line following the line terminator ("\n", "\r\n"
+   *         or "\r") at or after position, -1 if there is none.
+   */
+  static int nextLineStart(String text, int position) {
+    int length = text.length();
+    for (int i = position; i < length; i++) {
+      char c = text.charAt(i);
+      if (c == '\n') {
+	return i + 1;
+      } else if (c == '\r') {
+	return ((i + 1 < length) && (text.charAt(i + 1) == '\n')) ? i + 2 : i + 1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Split note into sections.
+   * @param text note
+   * @return list of sections in order of occurrence, covering all of text.
+   */
+  public List<Section> findSections(String text) {
+    List<Section> sectionList = new ArrayList<Section>();
+    String[] tagHolder = new String[1];
+    int sectionStart = 0;
+    int bodyStart = 0;
+    String tag = "";
+    int lineStart = 0;
+    int length = text.length();
+    while (lineStart < length) {
+      int headerEnd = this.matchHeader(text, lineStart, tagHolder);
+      if (headerEnd >= 0) {
+	if (lineStart > sectionStart) {
+	  sectionList.add(new Section(sectionStart, bodyStart, lineStart, tag));
+	}
+	sectionStart = lineStart;
+	bodyStart = headerEnd;
+	tag = tagHolder[0];
+      }
+      lineStart = nextLineStart(text, Math.max(lineStart, headerEnd));
+      if (lineStart < 0) {
+	break;
+      }
+    }
+    if ((length > sectionStart) || sectionList.isEmpty()) {
+      sectionList.add(new Section(sectionStart, bodyStart, length, tag));
+    }
+    return sectionList;
+  }
+}
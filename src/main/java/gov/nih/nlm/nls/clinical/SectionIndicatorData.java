@@ -69,6 +69,20 @@ public class SectionIndicatorData {
     }
   }
 
+  /**
+   * Compile section headers of document type into one matcher.
+   * @param docType document type, if null use indicators of all document types.
+   * @return section header matcher, null if document type has no indicators.
+   */
+  public SectionHeaderMatcher createSectionHeaderMatcher(String docType) {
+    List<SectionIndicator> docTypeIndicatorList =
+      (docType == null) ? this.indicatorList : this.docTypeIndicatorMap.get(docType);
+    if (docTypeIndicatorList == null) {
+      return null;
+    }
+    return new SectionHeaderMatcher(docTypeIndicatorList);
+  }
+
   public static String loadFile(String inputFilename)
     throws FileNotFoundException, IOException
   {
@@ -2,14 +2,20 @@
 //
 package gov.nih.nlm.nls.metamap.dfbuilder;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.FileWriter;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.List;
+import java.util.Set;
 import java.security.NoSuchAlgorithmException;
 
 import irutils.BSPIndexCreateException;
@@ -42,7 +48,10 @@ import irutils.MultiKeyIndex.Extent;
  * <dt>vars.txt</dt>
  * <dd> term to term variants file. </dd>
  * </dl>
- *
+ * If --restrict_to_sts or --restrict_to_sources is specified, the
+ * three tables are reduced to concepts having at least one of the
+ * specified semantic types and at least one of the specified sources
+ * before the indexes are generated (a slim index).
  */
 
 public class CreateIndexes {
@@ -52,7 +61,9 @@ public class CreateIndexes {
 
 
   /**
-   * Create MetaMapLite Tables from MRCONSO.RRF and MRSTY.RRF UMLS files
+   * Create MetaMapLite Tables from MRCONSO.RRF and MRSTY.RRF UMLS
+   * files.  MRCONSO is read once for both the cuiconcept and
+   * cuisourceinfo tables (see ExtractMrconsoTables).
    *
    * @param mrconsofilename MRCONSO filename
    * @param mrstyfilename MRSTY filename
@@ -65,14 +76,104 @@ public class CreateIndexes {
     System.out.println("Creating tables from:\nmrconso: " + mrconsofilename +
 		       "\nmrsty: " + mrstyfilename);
     String cuiConceptFilename = ivfDir + "/tables/cuiconcept.txt";
-    ExtractMrconsoPreferredNames.createTable(mrconsofilename, cuiConceptFilename,
-					     "ENG", true, "RRF");
     String cuiSourceInfoFilename = ivfDir + "/tables/cuisourceinfo.txt";
-    ExtractMrconsoSources.createTable(mrconsofilename, cuiSourceInfoFilename,
-				      true, true, true, "RRF");
     String cuiSemanticTypesFilename = ivfDir + "/tables/cuist.txt";
-    ExtractMrstySemanticTypes.createTable(mrstyfilename, cuiSemanticTypesFilename,
-					  true, "RRF", null);
+    ExtractMrconsoTables.createTables(mrconsofilename, mrstyfilename,
+				      cuiConceptFilename, cuiSourceInfoFilename,
+				      cuiSemanticTypesFilename);
+  }
+
+  /**
+   * Read set of concepts (cuis) from column 0 of table whose value
+   * in column valueColumn is in valueSet.
+   * @param tableFilename table filename
+   * @param valueColumn column to test
+   * @param valueSet allowed values
+   * @return set of cuis
+   * @throws IOException i/o exception
+   */
+  static Set<String> readCuiSet(String tableFilename, int valueColumn, Set<String> valueSet)
+    throws IOException
+  {
+    Set<String> cuiSet = new HashSet<String>();
+    BufferedReader br = new BufferedReader(new FileReader(tableFilename));
+    String line;
+    while ((line = br.readLine()) != null) {
+      String[] fields = line.split("\\|");
+      if ((fields.length > valueColumn) && valueSet.contains(fields[valueColumn])) {
+	cuiSet.add(fields[0]);
+      }
+    }
+    br.close();
+    return cuiSet;
+  }
+
+  /**
+   * Rewrite table keeping only records whose cui (column 0) is in cuiSet.
+   * @param tableFilename table filename
+   * @param cuiSet cuis to keep
+   * @throws IOException i/o exception
+   */
+  static void filterTable(String tableFilename, Set<String> cuiSet)
+    throws IOException
+  {
+    File tableFile = new File(tableFilename);
+    File tmpFile = new File(tableFilename + ".tmp");
+    BufferedReader br = new BufferedReader(new FileReader(tableFile));
+    PrintWriter out = new PrintWriter(new FileWriter(tmpFile));
+    String line;
+    int count = 0;
+    while ((line = br.readLine()) != null) {
+      int i = line.indexOf('|');
+      if ((i > 0) && cuiSet.contains(line.substring(0, i))) {
+	out.println(line);
+	count++;
+      }
+    }
+    out.close();
+    br.close();
+    if ((! tableFile.delete()) || (! tmpFile.renameTo(tableFile))) {
+      throw new IOException("unable to replace " + tableFilename + " with " + tmpFile);
+    }
+    System.out.println("restricted " + tableFilename + " to " + count + " records.");
+  }
+
+  /**
+   * Restrict cuiconcept, cuisourceinfo and cuist tables to concepts
+   * with at least one semantic type in stSet and at least one source
+   * in sourceSet.  An empty set does not restrict.
+   *
+   * @param ivfDir inverted file directory
+   * @param stSet semantic types to keep
+   * @param sourceSet sources to keep
+   * @throws IOException i/o exception
+   */
+  static void restrictTables(String ivfDir, Set<String> stSet, Set<String> sourceSet)
+    throws IOException
+  {
+    if (stSet.isEmpty() && sourceSet.isEmpty()) {
+      return;
+    }
+    String cuiConceptFilename = ivfDir + "/tables/cuiconcept.txt";
+    String cuiSourceInfoFilename = ivfDir + "/tables/cuisourceinfo.txt";
+    String cuiSemanticTypesFilename = ivfDir + "/tables/cuist.txt";
+    System.out.println("Restricting tables to semantic types: " + stSet + ", sources: " + sourceSet);
+    Set<String> cuiSet = null;
+    if (! stSet.isEmpty()) {
+      cuiSet = readCuiSet(cuiSemanticTypesFilename, 1, stSet);
+    }
+    if (! sourceSet.isEmpty()) {
+      Set<String> sourceCuiSet = readCuiSet(cuiSourceInfoFilename, 4, sourceSet);
+      if (cuiSet == null) {
+	cuiSet = sourceCuiSet;
+      } else {
+	cuiSet.retainAll(sourceCuiSet);
+      }
+    }
+    System.out.println("keeping " + cuiSet.size() + " concepts.");
+    filterTable(cuiConceptFilename, cuiSet);
+    filterTable(cuiSourceInfoFilename, cuiSet);
+    filterTable(cuiSemanticTypesFilename, cuiSet);
   }
 
    /**
@@ -171,51 +272,48 @@ public class CreateIndexes {
   }
 
    /**
-   * Create Indices
+   * Create Indices, one after another.
    *
    * @param ivfDir inverted file directory
    * @param tableConfig map of dbname to associated configuration fields
-   * @throws FileNotFoundException file not found exception
-   * @throws IOException i/o exception
-   * @throws NoSuchAlgorithmException no such algorithm exception
-
+   * @throws Exception any exception
    */
   static void createIndices(String ivfDir, Map<String,String[]> tableConfig)
-    throws FileNotFoundException, IOException, NoSuchAlgorithmException
+    throws Exception
   {
-    for (Map.Entry<String,String[]> entry: tableConfig.entrySet()) {
-      String workingDir = ivfDir;
-      String indexName = entry.getKey();
-      String[] tableFields = entry.getValue();
-      String tableFilename = tableFields[0];
-      // get specified columns from table entry
-      String[] columnStrings = tableFields[3].split(",");
-      int columns[] = new int[columnStrings.length];
-      for (int i = 0; i < columnStrings.length; i++) {
-	columns[i] = Integer.parseInt(columnStrings[i]);
-      }
-      
-      String absTableFilename = workingDir + "/tables/" + tableFilename;
-      if (new File(absTableFilename).exists()) {
-	System.out.println("loading table for " + indexName + " from file: " + tableFilename + ".");
-	List<MultiKeyIndex.Record> recordTable = MultiKeyIndex.loadTable(absTableFilename);
-	System.out.println("Generating index for " + indexName);
-	MultiKeyIndexGeneration instance = new MultiKeyIndexGeneration();
-	System.out.println("Generating maps for columns " +
-			   MultiKeyIndexGeneration.renderColumns(columns) ); 
-	instance.generateMaps(recordTable, columns);
-	Map<String,Extent> digestExtentMap = instance.writePostings(workingDir, indexName);
-	instance.writePartitions(workingDir, indexName, digestExtentMap);
-      } else {
-	System.out.println("warning: table for " + indexName + " from file: " + tableFilename + " is not present, skipping table.");
-      }
-    }
+    createIndices(ivfDir, tableConfig, 1, 0, false);
+  }
+
+   /**
+   * Create Indices, building up to threads indexes at once within a
+   * memory budget (see IndexBuildScheduler).
+   *
+   * @param ivfDir inverted file directory
+   * @param tableConfig map of dbname to associated configuration fields
+   * @param threads maximum number of indexes built at once
+   * @param memoryBudgetMb heap available for builds in megabytes (0: 80 percent of maximum heap)
+   * @param hashedPostings if true, identify postings by row ordinal instead of SHA-1 digest
+   * @throws Exception any exception
+   */
+  static void createIndices(String ivfDir, Map<String,String[]> tableConfig,
+			    int threads, int memoryBudgetMb, boolean hashedPostings)
+    throws Exception
+  {
+    IndexBuildScheduler scheduler = new IndexBuildScheduler(ivfDir, threads, memoryBudgetMb);
+    scheduler.setHashedPostings(hashedPostings);
+    scheduler.createIndices(tableConfig);
   }
 
   /**
    * main program 
    * <p>
-   * usage: CreateIndexes {mrconsofile} {mrstyfile} {ivfdir}
+   * usage: CreateIndexes [--restrict_to_sts=st[,st...]] [--restrict_to_sources=src[,src...]] [--threads=n] [--memory_mb=n] [--hashed_postings] {mrconsofile} {mrstyfile} {ivfdir}
+   * <p>
+   * --threads sets the number of indexes built concurrently (default: 1),
+   * --memory_mb limits the heap used by concurrent builds (default: 80
+   * percent of maximum heap), --hashed_postings identifies postings
+   * by row ordinal and 64-bit hash instead of SHA-1 digest (see
+   * irutils.HashedMultiKeyIndexGeneration).
    * @param args argument vector.
    * @throws FileNotFoundException file not found exception
    * @throws IOException IO exception
@@ -229,17 +327,39 @@ public class CreateIndexes {
 	   java.io.IOException, BSPIndexCreateException, BSPIndexInvalidException, 
 	   ClassNotFoundException, Exception
   {
-    if (args.length > 2) {
-      String mrconsoFile = args[0];
-      String mrstyFile = args[1];
-      String ivfDir = args[2];
+    Set<String> stSet = new HashSet<String>();
+    Set<String> sourceSet = new HashSet<String>();
+    int threads = 1;
+    int memoryBudgetMb = 0;
+    boolean hashedPostings = false;
+    List<String> argList = new ArrayList<String>();
+    for (String arg: args) {
+      if (arg.startsWith("--restrict_to_sts=")) {
+	stSet.addAll(Arrays.asList(arg.substring("--restrict_to_sts=".length()).split(",")));
+      } else if (arg.startsWith("--restrict_to_sources=")) {
+	sourceSet.addAll(Arrays.asList(arg.substring("--restrict_to_sources=".length()).split(",")));
+      } else if (arg.startsWith("--threads=")) {
+	threads = Integer.parseInt(arg.substring("--threads=".length()));
+      } else if (arg.startsWith("--memory_mb=")) {
+	memoryBudgetMb = Integer.parseInt(arg.substring("--memory_mb=".length()));
+      } else if (arg.equals("--hashed_postings")) {
+	hashedPostings = true;
+      } else {
+	argList.add(arg);
+      }
+    }
+    if (argList.size() > 2) {
+      String mrconsoFile = argList.get(0);
+      String mrstyFile = argList.get(1);
+      String ivfDir = argList.get(2);
       prepareDirectories(ivfDir);
       createTables(mrconsoFile, mrstyFile, ivfDir);
+      restrictTables(ivfDir, stSet, sourceSet);
       Map<String,String[]> tableConfig = generateTableConfig(ivfDir);
       saveTableConfig(ivfDir + "/tables/ifconfig", tableConfig);
-      createIndices(ivfDir, tableConfig);
+      createIndices(ivfDir, tableConfig, threads, memoryBudgetMb, hashedPostings);
     } else {
-      System.out.println("usage: gov.nih.nlm.nls.metamap.dfbuilder.CreateIndexes <mrconsofile> <mrstyfile> <ivfdir>");
+      System.out.println("usage: gov.nih.nlm.nls.metamap.dfbuilder.CreateIndexes [--restrict_to_sts=<st>[,<st>...]] [--restrict_to_sources=<src>[,<src>...]] [--threads=<n>] [--memory_mb=<n>] [--hashed_postings] <mrconsofile> <mrstyfile> <ivfdir>");
     }
   }
 }
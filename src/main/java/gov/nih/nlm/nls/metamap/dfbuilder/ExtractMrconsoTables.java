@@ -0,0 +1,420 @@
+//
+package gov.nih.nlm.nls.metamap.dfbuilder;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generate cuiconcept.txt and cuisourceinfo.txt from a single pass
+ * over MRCONSO.RRF while cuist.txt is generated from MRSTY.RRF
+ * concurrently.
+ * <p>
+ * A reader thread reads MRCONSO in batches of lines, each batch is
+ * parsed by a pool of parser threads using a delimiter scanner that
+ * only extracts the fields used.  Parsed batches are handed, in
+ * input order, to one writer thread per table.  All queues between
+ * the stages are bounded, so memory use does not depend on the size
+ * of MRCONSO.
+ * <p>
+ * The tables are identical to the ones generated by
+ * ExtractMrconsoPreferredNames (language ENG), ExtractMrconsoSources
+ * (with sui information) and ExtractMrstySemanticTypes.  Only the
+ * Rich Release Format (RRF) is supported.
+ */
+public class ExtractMrconsoTables {
+  /** number of lines in a batch */
+  static final int BATCH_SIZE = 8192;
+  /** maximum number of batches waiting between two stages */
+  static final int QUEUE_CAPACITY = 16;
+  /** marks end of input */
+  static final Row[] END_BATCH = new Row[0];
+
+  /**
+   * Fields of one MRCONSO record used by the table writers.
+   */
+  static class Row {
+    String cui;
+    String lat;
+    String ts;
+    String stt;
+    String sui;
+    String sab;
+    String tty;
+    String str;
+  }
+
+  /**
+   * Parse MRCONSO (RRF) record, only fields CUI(0), LAT(1), TS(2),
+   * STT(4), SUI(5), SAB(11), TTY(12), and STR(14) are extracted.
+   * @param line mrconso record
+   * @return row containing used fields
+   */
+  static Row parseLine(String line) {
+    int[] starts = new int[15];
+    int[] ends = new int[15];
+    int field = 0;
+    int start = 0;
+    int length = line.length();
+    for (int i = 0; (i < length) && (field < 15); i++) {
+      if (line.charAt(i) == '|') {
+	starts[field] = start;
+	ends[field] = i;
+	field++;
+	start = i + 1;
+      }
+    }
+    if ((field == 14) && (start < length)) {
+      // last used field is not followed by a delimiter
+      starts[field] = start;
+      ends[field] = length;
+      field++;
+    }
+    if (field < 15) {
+      throw new ArrayIndexOutOfBoundsException("mrconso record has " + field +
+					       " fields, expected at least 15: " + line);
+    }
+    Row row = new Row();
+    row.cui = line.substring(starts[0], ends[0]);
+    row.lat = line.substring(starts[1], ends[1]);
+    row.ts  = line.substring(starts[2], ends[2]);
+    row.stt = line.substring(starts[4], ends[4]);
+    row.sui = line.substring(starts[5], ends[5]);
+    row.sab = line.substring(starts[11], ends[11]);
+    row.tty = line.substring(starts[12], ends[12]);
+    row.str = line.substring(starts[14], ends[14]);
+    return row;
+  }
+
+  /**
+   * Parse a batch of lines.
+   */
+  static class ParseTask implements Callable<Row[]> {
+    List<String> lineList;
+    ParseTask(List<String> lineList) {
+      this.lineList = lineList;
+    }
+    public Row[] call() {
+      Row[] batch = new Row[this.lineList.size()];
+      for (int i = 0; i < batch.length; i++) {
+	batch[i] = parseLine(this.lineList.get(i));
+      }
+      return batch;
+    }
+  }
+
+  /**
+   * Read batches of lines and submit them to parser pool, futures of
+   * parsed batches are queued in input order.
+   */
+  static class Reader implements Callable<Void> {
+    String filename;
+    ExecutorService parserPool;
+    BlockingQueue<Future<Row[]>> parsedQueue;
+    Reader(String filename, ExecutorService parserPool, BlockingQueue<Future<Row[]>> parsedQueue) {
+      this.filename = filename;
+      this.parserPool = parserPool;
+      this.parsedQueue = parsedQueue;
+    }
+    public Void call() throws Exception {
+      BufferedReader infile = new BufferedReader(new FileReader(this.filename));
+      try {
+	List<String> lineList = new ArrayList<String>(BATCH_SIZE);
+	String line;
+	while ((line = infile.readLine()) != null) {
+	  lineList.add(line);
+	  if (lineList.size() == BATCH_SIZE) {
+	    this.parsedQueue.put(this.parserPool.submit(new ParseTask(lineList)));
+	    lineList = new ArrayList<String>(BATCH_SIZE);
+	  }
+	}
+	if (lineList.size() > 0) {
+	  this.parsedQueue.put(this.parserPool.submit(new ParseTask(lineList)));
+	}
+      } finally {
+	infile.close();
+	FutureTask<Row[]> end = new FutureTask<Row[]>(new Callable<Row[]>() {
+	    public Row[] call() { return END_BATCH; }
+	  });
+	end.run();
+	this.parsedQueue.put(end);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Writer of one table, consumes parsed batches in input order.
+   */
+  abstract static class TableWriter implements Callable<Void> {
+    String filename;
+    BlockingQueue<Row[]> queue = new ArrayBlockingQueue<Row[]>(QUEUE_CAPACITY);
+    Future<Void> future;
+    PrintWriter outfile;
+
+    TableWriter(String filename) {
+      this.filename = filename;
+    }
+
+    /**
+     * Queue batch for writer, fails if the writer has terminated
+     * with an exception.
+     * @param batch parsed batch
+     * @throws Exception exception thrown by writer
+     */
+    void put(Row[] batch) throws Exception {
+      while (! this.queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+	if (this.future.isDone()) {
+	  this.future.get();
+	  throw new IllegalStateException("writer for " + this.filename + " terminated early");
+	}
+      }
+    }
+
+    public Void call() throws Exception {
+      this.outfile = new PrintWriter(new BufferedWriter(new FileWriter(this.filename)));
+      try {
+	Row[] batch;
+	while ((batch = this.queue.take()) != END_BATCH) {
+	  for (Row row: batch) {
+	    this.process(row);
+	  }
+	}
+	this.finish();
+      } finally {
+	this.outfile.close();
+      }
+      return null;
+    }
+
+    abstract void process(Row row);
+    abstract void finish();
+  }
+
+  /**
+   * cui -&gt; preferred name table, see ExtractMrconsoPreferredNames.
+   * As in that class, the preferred name is not reset between
+   * concepts.
+   */
+  static class PreferredNameWriter extends TableWriter {
+    String language;
+    String cui0 = "C......";
+    String preferredName = "X";
+
+    PreferredNameWriter(String filename, String language) {
+      super(filename);
+      this.language = language;
+    }
+
+    void process(Row row) {
+      if (! this.cui0.equals(row.cui)) {
+	if (! this.cui0.equals("C......")) {
+	  this.outfile.println(this.cui0 + "|" + this.preferredName);
+	}
+	this.cui0 = row.cui;
+      }
+      if (row.lat.equals(this.language) &&
+	  row.ts.equals("P") &&
+	  row.stt.equals("PF")) {
+	this.preferredName = row.str;
+      }
+    }
+
+    void finish() {
+      if (! this.cui0.equals("C......")) {
+	this.outfile.println(this.cui0 + "|" + this.preferredName);
+      }
+    }
+  }
+
+  /**
+   * cui -&gt; sui, i, str, src, tty table, see ExtractMrconsoSources.
+   */
+  static class SourceInfoWriter extends TableWriter {
+    boolean firstOfEachSourceOnly;
+    boolean includeSuiInfo;
+    String cui0 = "C......";
+    List<Row> rowList = new ArrayList<Row>();
+    Set<String> sourceSet = new HashSet<String>();
+
+    SourceInfoWriter(String filename, boolean firstOfEachSourceOnly, boolean includeSuiInfo) {
+      super(filename);
+      this.includeSuiInfo = includeSuiInfo;
+      this.firstOfEachSourceOnly = includeSuiInfo ? false : firstOfEachSourceOnly;
+    }
+
+    void process(Row row) {
+      if (this.cui0.equals(row.cui)) {
+	if ((! this.firstOfEachSourceOnly) || (! this.sourceSet.contains(row.sab))) {
+	  this.sourceSet.add(row.sab);
+	  this.rowList.add(row);
+	}
+      } else {
+	this.finish();
+	this.cui0 = row.cui;
+	this.rowList.clear();
+	this.sourceSet.clear();
+	this.sourceSet.add(row.sab);
+	this.rowList.add(row);
+      }
+    }
+
+    void finish() {
+      if (this.cui0.equals("C......")) {
+	return;
+      }
+      int n = 1;
+      for (Row row: this.rowList) {
+	if (this.includeSuiInfo) {
+	  this.outfile.println(row.cui + "|" + row.sui + "|" + n + "|" +
+			       row.str + "|" + row.sab + "|" + row.tty);
+	} else {
+	  this.outfile.println(row.cui + "|" + n + "|" +
+			       row.str + "|" + row.sab + "|" + row.tty);
+	}
+	n++;
+      }
+    }
+  }
+
+  /**
+   * Rethrow cause of execution exception.
+   */
+  static Exception unwrap(ExecutionException exception) {
+    Throwable cause = exception.getCause();
+    if (cause instanceof Exception) {
+      return (Exception)cause;
+    } else if (cause instanceof Error) {
+      throw (Error)cause;
+    }
+    return exception;
+  }
+
+  /**
+   * Create cuiconcept, cuisourceinfo and cuist tables.
+   *
+   * @param mrconsoFilename MRCONSO.RRF filename
+   * @param mrstyFilename MRSTY.RRF filename
+   * @param cuiConceptFilename cui -&gt; preferred name table filename
+   * @param cuiSourceInfoFilename cui -&gt; source information table filename
+   * @param cuiSemanticTypesFilename cui -&gt; semantic type table filename
+   * @param parserThreads number of parser threads
+   * @throws Exception any exception
+   */
+  public static void createTables(final String mrconsoFilename,
+				  final String mrstyFilename,
+				  String cuiConceptFilename,
+				  String cuiSourceInfoFilename,
+				  final String cuiSemanticTypesFilename,
+				  int parserThreads)
+    throws Exception
+  {
+    System.out.println("Processing " + mrconsoFilename + " --> " +
+		       cuiConceptFilename + ", " + cuiSourceInfoFilename + ".");
+    long startTime = System.currentTimeMillis();
+    ExecutorService parserPool = Executors.newFixedThreadPool(parserThreads);
+    ExecutorService stagePool = Executors.newFixedThreadPool(4);
+    try {
+      Future<Void> mrstyFuture = stagePool.submit(new Callable<Void>() {
+	  public Void call() throws Exception {
+	    ExtractMrstySemanticTypes.createTable(mrstyFilename, cuiSemanticTypesFilename,
+						  true, "RRF", null);
+	    return null;
+	  }
+	});
+      TableWriter[] writers = new TableWriter[] {
+	new PreferredNameWriter(cuiConceptFilename, "ENG"),
+	new SourceInfoWriter(cuiSourceInfoFilename, true, true) };
+      for (TableWriter writer: writers) {
+	writer.future = stagePool.submit(writer);
+      }
+      BlockingQueue<Future<Row[]>> parsedQueue = new ArrayBlockingQueue<Future<Row[]>>(QUEUE_CAPACITY);
+      Future<Void> readerFuture = stagePool.submit(new Reader(mrconsoFilename, parserPool, parsedQueue));
+      long rowCount = 0;
+      Row[] batch;
+      do {
+	try {
+	  batch = parsedQueue.take().get();
+	} catch (ExecutionException exception) {
+	  throw unwrap(exception);
+	}
+	for (TableWriter writer: writers) {
+	  writer.put(batch);
+	}
+	rowCount += batch.length;
+      } while (batch != END_BATCH);
+      try {
+	readerFuture.get();
+	for (TableWriter writer: writers) {
+	  writer.future.get();
+	}
+	mrstyFuture.get();
+      } catch (ExecutionException exception) {
+	throw unwrap(exception);
+      }
+      System.out.println("processed " + rowCount + " mrconso records in " +
+			 (System.currentTimeMillis() - startTime) + " milliseconds.");
+    } finally {
+      parserPool.shutdownNow();
+      stagePool.shutdownNow();
+    }
+  }
+
+  /**
+   * Create cuiconcept, cuisourceinfo and cuist tables using one parser
+   * thread per available processor.
+   *
+   * @param mrconsoFilename MRCONSO.RRF filename
+   * @param mrstyFilename MRSTY.RRF filename
+   * @param cuiConceptFilename cui -&gt; preferred name table filename
+   * @param cuiSourceInfoFilename cui -&gt; source information table filename
+   * @param cuiSemanticTypesFilename cui -&gt; semantic type table filename
+   * @throws Exception any exception
+   */
+  public static void createTables(String mrconsoFilename,
+				  String mrstyFilename,
+				  String cuiConceptFilename,
+				  String cuiSourceInfoFilename,
+				  String cuiSemanticTypesFilename)
+    throws Exception
+  {
+    createTables(mrconsoFilename, mrstyFilename,
+		 cuiConceptFilename, cuiSourceInfoFilename, cuiSemanticTypesFilename,
+		 Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+  }
+
+  /**
+   * main program
+   * <p>
+   * usage: ExtractMrconsoTables {mrconsofile} {mrstyfile} {tablesdir}
+   * @param args command line arguments
+   * @throws Exception any exception
+   */
+  public static void main(String[] args)
+    throws Exception
+  {
+    if (args.length > 2) {
+      createTables(args[0], args[1],
+		   args[2] + "/cuiconcept.txt",
+		   args[2] + "/cuisourceinfo.txt",
+		   args[2] + "/cuist.txt");
+    } else {
+      System.err.println("usage: gov.nih.nlm.nls.metamap.dfbuilder.ExtractMrconsoTables <mrconsofile> <mrstyfile> <tablesdir>");
+    }
+  }
+}
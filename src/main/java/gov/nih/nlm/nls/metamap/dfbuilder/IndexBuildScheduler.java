@@ -0,0 +1,261 @@
+//
+package gov.nih.nlm.nls.metamap.dfbuilder;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import irutils.HashedMultiKeyIndexGeneration;
+import irutils.MultiKeyIndex;
+import irutils.MultiKeyIndex.Extent;
+import irutils.MultiKeyIndexGeneration;
+
+/**
+ * Builds the inverted file indexes of a table configuration using a
+ * fixed number of threads.
+ * <p>
+ * Every table is built in memory (MultiKeyIndexGeneration), so the
+ * heap needed for a table is roughly proportional to the size of its
+ * table file.  The dispatching thread reserves the estimated memory
+ * (in megabytes) of a build from a budget before submitting it, so
+ * pool threads never wait for memory.  Pending tables are considered
+ * largest first; a large table that doesn't fit in the free budget
+ * is passed over, leaving the threads to smaller tables that do fit,
+ * until enough of the budget is released.  A build never reserves
+ * more than the whole budget, so every table can be built on its own.
+ * <p>
+ * The elapsed time of each build is printed when the build finishes,
+ * along with the peak heap use of the whole process (sampled) while
+ * it was running; concurrent builds share that figure.
+ */
+public class IndexBuildScheduler {
+  /** approximate heap bytes needed per byte of table file */
+  static final long HEAP_FACTOR = 20;
+  /** heap sample interval in milliseconds */
+  static final long SAMPLE_INTERVAL = 200;
+
+  String ivfDir;
+  int threads;
+  int memoryBudgetMb;
+  Semaphore memoryBudget;
+  /** if true, identify postings by row ordinal instead of SHA-1 digest */
+  boolean hashedPostings = false;
+  MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+  /** builds currently running, updated by heap sampler */
+  Set<IndexBuild> activeBuildSet =
+    Collections.newSetFromMap(new ConcurrentHashMap<IndexBuild,Boolean>());
+
+  /**
+   * @param ivfDir inverted file directory
+   * @param threads maximum number of indexes built at once
+   * @param memoryBudgetMb heap available for builds in megabytes,
+   *        if less than 1, 80 percent of maximum heap is used.
+   */
+  public IndexBuildScheduler(String ivfDir, int threads, int memoryBudgetMb) {
+    this.ivfDir = ivfDir;
+    this.threads = Math.max(1, threads);
+    if (memoryBudgetMb < 1) {
+      memoryBudgetMb = (int)Math.max(1L, (Runtime.getRuntime().maxMemory() / (1024L * 1024L)) * 8L / 10L);
+    }
+    this.memoryBudgetMb = memoryBudgetMb;
+    this.memoryBudget = new Semaphore(memoryBudgetMb);
+  }
+
+  /**
+   * @param hashedPostings if true, use HashedMultiKeyIndexGeneration
+   *        which identifies postings by row ordinal and 64-bit hash
+   *        instead of SHA-1 digest.
+   */
+  public void setHashedPostings(boolean hashedPostings) {
+    this.hashedPostings = hashedPostings;
+  }
+
+  /**
+   * Build of index for one table, the estimated memory of the build
+   * is reserved by the dispatcher and released when the build ends.
+   */
+  class IndexBuild implements Callable<Void> {
+    String indexName;
+    String[] tableFields;
+    File tableFile;
+    int estimateMb;
+    /** peak heap use of the process while build was running */
+    volatile long peakHeap = 0;
+
+    IndexBuild(String indexName, String[] tableFields) {
+      this.indexName = indexName;
+      this.tableFields = tableFields;
+      this.tableFile = new File(ivfDir + "/tables/" + tableFields[0]);
+      long estimate = (this.tableFile.length() * HEAP_FACTOR) / (1024L * 1024L);
+      this.estimateMb = (int)Math.max(1L, Math.min(estimate, (long)memoryBudgetMb));
+    }
+
+    public Void call() throws Exception {
+      try {
+	this.peakHeap = memoryBean.getHeapMemoryUsage().getUsed();
+	activeBuildSet.add(this);
+	long start = System.currentTimeMillis();
+	createIndex(ivfDir, this.indexName, this.tableFields, hashedPostings);
+	sample();
+	System.out.println("index " + this.indexName + ": " +
+			   (System.currentTimeMillis() - start) + " ms, process peak heap " +
+			   (this.peakHeap / (1024L * 1024L)) + " MB while running (estimated " +
+			   this.estimateMb + " MB for table).");
+      } finally {
+	activeBuildSet.remove(this);
+	memoryBudget.release(this.estimateMb);
+      }
+      return null;
+    }
+  }
+
+  /** record current heap use of process for running builds */
+  void sample() {
+    long used = this.memoryBean.getHeapMemoryUsage().getUsed();
+    for (IndexBuild build: this.activeBuildSet) {
+      if (used > build.peakHeap) {
+	build.peakHeap = used;
+      }
+    }
+  }
+
+  /**
+   * Create index for one table, tables that are not present are skipped.
+   *
+   * @param ivfDir inverted file directory
+   * @param indexName name of index
+   * @param tableFields table configuration fields
+   * @param hashedPostings if true, identify postings by row ordinal instead of SHA-1 digest
+   * @throws Exception any exception
+   */
+  public static void createIndex(String ivfDir, String indexName, String[] tableFields,
+				 boolean hashedPostings)
+    throws Exception
+  {
+    String tableFilename = tableFields[0];
+    // get specified columns from table entry
+    String[] columnStrings = tableFields[3].split(",");
+    int columns[] = new int[columnStrings.length];
+    for (int i = 0; i < columnStrings.length; i++) {
+      columns[i] = Integer.parseInt(columnStrings[i]);
+    }
+    String absTableFilename = ivfDir + "/tables/" + tableFilename;
+    if (new File(absTableFilename).exists() && hashedPostings) {
+      System.out.println("Generating index for " + indexName + " from file: " + tableFilename + ".");
+      HashedMultiKeyIndexGeneration instance = new HashedMultiKeyIndexGeneration();
+      System.out.println("Generating maps for columns " +
+			 MultiKeyIndexGeneration.renderColumns(columns) );
+      instance.generateMaps(absTableFilename, columns);
+      System.out.println(indexName + ": " + instance.getPostingCount() + " postings, " +
+			 instance.getCollisionCount() + " hash collisions.");
+      instance.writePostings(ivfDir, indexName);
+      instance.writePartitions(ivfDir, indexName);
+    } else if (new File(absTableFilename).exists()) {
+      System.out.println("loading table for " + indexName + " from file: " + tableFilename + ".");
+      List<MultiKeyIndex.Record> recordTable = MultiKeyIndex.loadTable(absTableFilename);
+      System.out.println("Generating index for " + indexName);
+      MultiKeyIndexGeneration instance = new MultiKeyIndexGeneration();
+      System.out.println("Generating maps for columns " +
+			 MultiKeyIndexGeneration.renderColumns(columns) );
+      instance.generateMaps(recordTable, columns);
+      Map<String,Extent> digestExtentMap = instance.writePostings(ivfDir, indexName);
+      instance.writePartitions(ivfDir, indexName, digestExtentMap);
+    } else {
+      System.out.println("warning: table for " + indexName + " from file: " + tableFilename + " is not present, skipping table.");
+    }
+  }
+
+  /**
+   * Build indexes for all tables in table configuration.
+   *
+   * @param tableConfig map of dbname to associated configuration fields
+   * @throws Exception exception thrown by any build
+   */
+  public void createIndices(Map<String,String[]> tableConfig)
+    throws Exception
+  {
+    List<IndexBuild> buildList = new ArrayList<IndexBuild>();
+    for (Map.Entry<String,String[]> entry: tableConfig.entrySet()) {
+      buildList.add(new IndexBuild(entry.getKey(), entry.getValue()));
+    }
+    Collections.sort(buildList, new Comparator<IndexBuild>() {
+	public int compare(IndexBuild a, IndexBuild b) {
+	  return Long.compare(b.tableFile.length(), a.tableFile.length());
+	}
+      });
+    System.out.println("Building " + buildList.size() + " indexes using " + this.threads +
+		       " threads and a memory budget of " + this.memoryBudgetMb + " MB.");
+    long start = System.currentTimeMillis();
+    ExecutorService buildPool = Executors.newFixedThreadPool(this.threads);
+    ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+    try {
+      sampler.scheduleAtFixedRate(new Runnable() {
+	  public void run() { sample(); }
+	}, SAMPLE_INTERVAL, SAMPLE_INTERVAL, TimeUnit.MILLISECONDS);
+      CompletionService<Void> completionService =
+	new ExecutorCompletionService<Void>(buildPool);
+      List<IndexBuild> pendingList = new LinkedList<IndexBuild>(buildList);
+      int running = 0;
+      while ((pendingList.size() > 0) || (running > 0)) {
+	// start the largest pending builds that fit in the free budget
+	Iterator<IndexBuild> iterator = pendingList.iterator();
+	while ((running < this.threads) && iterator.hasNext()) {
+	  IndexBuild build = iterator.next();
+	  if (this.memoryBudget.tryAcquire(build.estimateMb)) {
+	    iterator.remove();
+	    completionService.submit(build);
+	    running++;
+	  }
+	}
+	Future<Void> future = completionService.take();
+	running--;
+	try {
+	  future.get();
+	} catch (ExecutionException exception) {
+	  if (exception.getCause() instanceof Exception) {
+	    throw (Exception)exception.getCause();
+	  }
+	  throw exception;
+	}
+      }
+    } finally {
+      buildPool.shutdownNow();
+      sampler.shutdownNow();
+    }
+    System.out.println("Built " + buildList.size() + " indexes in " +
+		       (System.currentTimeMillis() - start) + " ms, peak heap " +
+		       peakHeapMb() + " MB.");
+  }
+
+  /** @return sum of peak usage of heap memory pools in megabytes */
+  static long peakHeapMb() {
+    long peak = 0;
+    for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+	peak += pool.getPeakUsage().getUsed();
+      }
+    }
+    return peak / (1024L * 1024L);
+  }
+}
@@ -0,0 +1,198 @@
+//
+package gov.nih.nlm.nls.metamap.lite;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import gov.nih.nlm.nls.clinical.SectionHeaderMatcher;
+import gov.nih.nlm.nls.clinical.SectionIndicator;
+import gov.nih.nlm.nls.clinical.SectionIndicatorData;
+import gov.nih.nlm.nls.types.Sentence;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import bioc.BioCPassage;
+import bioc.BioCSentence;
+
+/**
+ * Sentence extractor for clinical notes.
+ * <p>
+ * The note is split into sections in one pass using the section
+ * headers of the document type (see SectionHeaderMatcher, compiled
+ * when the extractor is created); the text of each section is then
+ * split into sentences by the OpenNLP sentence extractor.  Sentences
+ * carry the section tag (NEW_TAG of the section indicator) in infon
+ * "section".  Sections whose tag is listed in
+ * metamaplite.clinical.section.skip produce no sentences, so they
+ * never reach term lookup.
+ * <p>
+ * The document type of a passage is taken from passage infon
+ * "doctype" if present, otherwise from metamaplite.clinical.doctype.
+ * <p>
+ * Properties:
+ * <dl>
+ * <dt>metamaplite.clinical.section.file</dt><dd>section indicator file (CSV: doctype, new tag, indicator string, notes)</dd>
+ * <dt>metamaplite.clinical.doctype</dt><dd>default document type (default: indicators of all document types)</dd>
+ * <dt>metamaplite.clinical.section.skip</dt><dd>comma separated list of section tags to skip</dd>
+ * </dl>
+ */
+public class ClinicalSentenceExtractor implements SentenceExtractor
+{
+  private static final Logger logger = LogManager.getLogger(ClinicalSentenceExtractor.class);
+
+  /** passage and sentence infon containing section tag */
+  public static final String SECTION_INFON = "section";
+  /** passage infon containing document type */
+  public static final String DOCTYPE_INFON = "doctype";
+
+  SentenceExtractor sentenceExtractor;
+  SectionIndicatorData sectionIndicatorData = new SectionIndicatorData();
+  /** document type -&gt; section header matcher */
+  Map<String,SectionHeaderMatcher> docTypeMatcherMap = new HashMap<String,SectionHeaderMatcher>();
+  SectionHeaderMatcher defaultMatcher;
+  Set<String> skipSectionSet = new HashSet<String>();
+
+  public ClinicalSentenceExtractor(Properties properties)
+    throws FileNotFoundException, IOException
+  {
+    this(properties, new OpenNLPSentenceExtractor(properties));
+  }
+
+  /**
+   * @param properties configuration properties
+   * @param sentenceExtractor extractor used to split text of sections into sentences.
+   * @throws FileNotFoundException if section indicator file is not found
+   * @throws IOException i/o exception
+   */
+  public ClinicalSentenceExtractor(Properties properties, SentenceExtractor sentenceExtractor)
+    throws FileNotFoundException, IOException
+  {
+    this.sentenceExtractor = sentenceExtractor;
+    String sectionFilename = properties.getProperty("metamaplite.clinical.section.file");
+    if (sectionFilename != null) {
+      this.sectionIndicatorData.loadRecords(sectionFilename);
+    } else {
+      logger.warn("metamaplite.clinical.section.file not set, notes will not be split into sections.");
+    }
+    for (String docType: this.sectionIndicatorData.getIndicatorMap().keySet()) {
+      this.docTypeMatcherMap.put(docType, this.sectionIndicatorData.createSectionHeaderMatcher(docType));
+    }
+    String docType = properties.getProperty("metamaplite.clinical.doctype");
+    if (docType == null) {
+      this.defaultMatcher = this.sectionIndicatorData.createSectionHeaderMatcher(null);
+    } else {
+      this.defaultMatcher = this.docTypeMatcherMap.get(docType);
+      if (this.defaultMatcher == null) {
+	logger.warn("no section indicators for document type " + docType);
+      }
+    }
+    if (this.defaultMatcher == null) {
+      this.defaultMatcher = new SectionHeaderMatcher(new ArrayList<SectionIndicator>());
+    }
+    String skipList = properties.getProperty("metamaplite.clinical.section.skip");
+    if (skipList != null) {
+      for (String tag: skipList.split(",")) {
+	if (tag.trim().length() > 0) {
+	  this.skipSectionSet.add(tag.trim());
+	}
+      }
+    }
+  }
+
+  /**
+   * @param tag section tag
+   * @return true if sections with tag are skipped
+   */
+  public boolean isSkipped(String tag) {
+    return this.skipSectionSet.contains(tag);
+  }
+
+  SectionHeaderMatcher getMatcher(Map<String,String> infons) {
+    if ((infons != null) && infons.containsKey(DOCTYPE_INFON)) {
+      SectionHeaderMatcher matcher = this.docTypeMatcherMap.get(infons.get(DOCTYPE_INFON));
+      if (matcher != null) {
+	return matcher;
+      }
+    }
+    return this.defaultMatcher;
+  }
+
+  /**
+   * Split text into sections.
+   * @param text note
+   * @param infons passage infons (used to determine document type), may be null.
+   * @return sections of note, one untagged section if document type has no indicators.
+   */
+  public List<SectionHeaderMatcher.Section> findSections(String text, Map<String,String> infons) {
+    return this.getMatcher(infons).findSections(text);
+  }
+
+  /**
+   * Split sections of text that are not skipped into sentences; the
+   * body of each section is passed to the sentence extractor with its
+   * offset in the document, so sentence offsets are those reported by
+   * the sentence extractor.
+   * @param text note
+   * @param offset offset of text in document
+   * @param infons passage infons, copied to each sentence, may be null.
+   * @return sentences, infon "section" contains section tag.
+   */
+  List<Sentence> createSectionSentenceList(String text, int offset, Map<String,String> infons) {
+    List<Sentence> sentenceList = new ArrayList<Sentence>();
+    for (SectionHeaderMatcher.Section section: this.findSections(text, infons)) {
+      if (this.skipSectionSet.contains(section.getTag())) {
+	continue;
+      }
+      String body = text.substring(section.getBodyStart(), section.getEnd());
+      if (body.trim().length() == 0) {
+	continue;
+      }
+      for (Sentence sentence: this.sentenceExtractor.createSentenceList(body, offset + section.getBodyStart())) {
+	OpenNLPSentenceExtractor.SentenceImpl sentenceImpl =
+	  new OpenNLPSentenceExtractor.SentenceImpl("", sentence.getText(), sentence.getOffset());
+	sentenceImpl.infons = new HashMap<String,String>();
+	if (infons != null) {
+	  sentenceImpl.infons.putAll(infons);
+	}
+	sentenceImpl.infons.put(SECTION_INFON, section.getTag());
+	sentenceList.add(sentenceImpl);
+      }
+    }
+    return sentenceList;
+  }
+
+  public List<Sentence> createSentenceList(String text) {
+    return this.createSectionSentenceList(text, 0, null);
+  }
+
+  public List<Sentence> createSentenceList(String text, int offset) {
+    return this.createSectionSentenceList(text, offset, null);
+  }
+
+  public int addBioCSentence(BioCPassage passage,
+			     String sentenceText, int offset, Map<String,String> infoNS) {
+    BioCSentence sentence = new BioCSentence();
+    sentence.setText(sentenceText);
+    sentence.setOffset(offset);
+    sentence.setInfons(infoNS);
+    passage.addSentence(sentence);
+    return offset + sentenceText.length();
+  }
+
+  public BioCPassage createSentences(BioCPassage passage) {
+    logger.debug("createSentences");
+    for (Sentence sentence: this.createSectionSentenceList(passage.getText(), passage.getOffset(),
+							   passage.getInfons())) {
+      this.addBioCSentence(passage, sentence.getText(), sentence.getOffset(), sentence.getInfons());
+    }
+    return passage;
+  }
+}
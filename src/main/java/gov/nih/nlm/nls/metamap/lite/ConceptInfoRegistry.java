@@ -0,0 +1,156 @@
+//
+package gov.nih.nlm.nls.metamap.lite;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import gov.nih.nlm.nls.metamap.lite.types.ConceptInfo;
+import gov.nih.nlm.nls.utils.LRUCache;
+
+/**
+ * Flyweight registry of concept information.
+ * <p>
+ * For each cui the registry holds one concept "core" (cui, preferred
+ * name, source set and semantic type set); concepts handed out for
+ * term matches share the core's fields and only differ in the matched
+ * concept string.  Source sets and semantic type sets are canonical:
+ * every concept with the same sources (or semantic types) refers to
+ * one unmodifiable set.
+ * <p>
+ * Properties (system properties):
+ * <dl>
+ * <dt>metamaplite.conceptinfo.registry.enable</dt><dd>share concept cores and sets (default: true)</dd>
+ * <dt>metamaplite.conceptinfo.registry.size</dt><dd>maximum number of concept cores kept (default: 100000)</dd>
+ * </dl>
+ */
+public class ConceptInfoRegistry {
+
+  static boolean enabled =
+    Boolean.parseBoolean(System.getProperty("metamaplite.conceptinfo.registry.enable", "true"));
+
+  /** cui -&gt; concept core (concept string is null) */
+  static LRUCache<String,ConceptInfo> cuiConceptCoreCache =
+    new LRUCache<String,ConceptInfo>
+    (Integer.parseInt
+     (System.getProperty("metamaplite.conceptinfo.registry.size","100000")));
+
+  /** source set -&gt; canonical unmodifiable source set */
+  static final Map<Set<String>,Set<String>> canonicalSourceSetMap =
+    new HashMap<Set<String>,Set<String>>();
+
+  /** semantic type bitset -&gt; canonical unmodifiable semantic type set */
+  static final Map<BitSet,Set<String>> canonicalSemanticTypeSetMap =
+    new HashMap<BitSet,Set<String>>();
+
+  /** @return true if concept information is shared */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Enable or disable sharing of concept information.
+   * @param enable if true share concept cores and sets
+   */
+  public static void setEnabled(boolean enable) {
+    enabled = enable;
+  }
+
+  /**
+   * @param sourceSet set of source abbreviations
+   * @return canonical unmodifiable set equal to sourceSet
+   */
+  public static Set<String> canonicalSourceSet(Set<String> sourceSet) {
+    synchronized (canonicalSourceSetMap) {
+      Set<String> canonicalSet = canonicalSourceSetMap.get(sourceSet);
+      if (canonicalSet == null) {
+	canonicalSet = Collections.unmodifiableSet(new HashSet<String>(sourceSet));
+	canonicalSourceSetMap.put(canonicalSet, canonicalSet);
+      }
+      return canonicalSet;
+    }
+  }
+
+  /**
+   * @param semanticTypeBitSet semantic type bitset (see CuiSemanticTypeSetIndex)
+   * @return canonical unmodifiable set of the semantic types in bitset
+   */
+  public static Set<String> canonicalSemanticTypeSet(BitSet semanticTypeBitSet) {
+    synchronized (canonicalSemanticTypeSetMap) {
+      Set<String> canonicalSet = canonicalSemanticTypeSetMap.get(semanticTypeBitSet);
+      if (canonicalSet == null) {
+	canonicalSet =
+	  Collections.unmodifiableSet(CuiSemanticTypeSetIndex.toSemanticTypeSet(semanticTypeBitSet));
+	canonicalSemanticTypeSetMap.put((BitSet)semanticTypeBitSet.clone(), canonicalSet);
+      }
+      return canonicalSet;
+    }
+  }
+
+  /**
+   * @param cui concept unique identifier
+   * @return concept core for cui or null if not registered.
+   */
+  public static ConceptInfo getCore(String cui) {
+    synchronized (cuiConceptCoreCache) {
+      return cuiConceptCoreCache.get(cui);
+    }
+  }
+
+  /**
+   * Register concept core for cui, replacing sets by their canonical
+   * versions.
+   * @param cui concept unique identifier
+   * @param preferredName preferred name of concept
+   * @param sourceSet sources of concept
+   * @param semanticTypeBitSet semantic types of concept
+   * @return registered concept core
+   */
+  public static ConceptInfo register(String cui, String preferredName,
+				     Set<String> sourceSet, BitSet semanticTypeBitSet) {
+    ConceptInfo core = ConceptInfo.createCore(cui, preferredName,
+					      canonicalSourceSet(sourceSet),
+					      canonicalSemanticTypeSet(semanticTypeBitSet));
+    synchronized (cuiConceptCoreCache) {
+      ConceptInfo registeredCore = cuiConceptCoreCache.get(cui);
+      if (registeredCore != null) {
+	return registeredCore;
+      }
+      cuiConceptCoreCache.put(cui, core);
+    }
+    return core;
+  }
+
+  /**
+   * @param core concept core
+   * @param conceptString metathesaurus string that matched the input term
+   * @return concept sharing core's fields with matched string conceptString
+   */
+  public static ConceptInfo conceptInfo(ConceptInfo core, String conceptString) {
+    return new ConceptInfo(core, conceptString);
+  }
+
+  /** @return number of registered concept cores */
+  public static int getCoreCount() {
+    synchronized (cuiConceptCoreCache) {
+      return cuiConceptCoreCache.size();
+    }
+  }
+
+  /** @return number of distinct source sets */
+  public static int getSourceSetCount() {
+    synchronized (canonicalSourceSetMap) {
+      return canonicalSourceSetMap.size();
+    }
+  }
+
+  /** @return number of distinct semantic type sets */
+  public static int getSemanticTypeSetCount() {
+    synchronized (canonicalSemanticTypeSetMap) {
+      return canonicalSemanticTypeSetMap.size();
+    }
+  }
+}
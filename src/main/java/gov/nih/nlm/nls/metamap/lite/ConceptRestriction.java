@@ -0,0 +1,95 @@
+//
+package gov.nih.nlm.nls.metamap.lite;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import gov.nih.nlm.nls.metamap.lite.types.ConceptInfo;
+
+/**
+ * Semantic type and source restriction applied by
+ * TermConceptInfoCache before concept information is built.  The
+ * semantic type test is a bitset intersection against the cui's
+ * cached semantic type bitset (see CuiSemanticTypeSetIndex).
+ * <p>
+ * An empty restrict set or one containing "all" does not restrict,
+ * as in ConceptInfoUtils.
+ */
+public class ConceptRestriction {
+  Set<String> semanticTypeRestrictSet;
+  Set<String> sourceRestrictSet;
+  BitSet semanticTypeBitSet;
+  boolean allSemanticTypes;
+  boolean allSources;
+  /** key used to separate cached lookup results by restriction */
+  String key;
+
+  /**
+   * @param semanticTypeRestrictSet semantic types to keep
+   * @param sourceRestrictSet sources to keep
+   */
+  public ConceptRestriction(Set<String> semanticTypeRestrictSet, Set<String> sourceRestrictSet) {
+    this.semanticTypeRestrictSet = new HashSet<String>(semanticTypeRestrictSet);
+    this.sourceRestrictSet = new HashSet<String>(sourceRestrictSet);
+    this.allSemanticTypes = semanticTypeRestrictSet.isEmpty() || semanticTypeRestrictSet.contains("all");
+    this.allSources = sourceRestrictSet.isEmpty() || sourceRestrictSet.contains("all");
+    this.semanticTypeBitSet = CuiSemanticTypeSetIndex.toBitSet(semanticTypeRestrictSet);
+    this.key = "st:" + (this.allSemanticTypes ? "all" : new TreeSet<String>(semanticTypeRestrictSet).toString()) +
+      ";src:" + (this.allSources ? "all" : new TreeSet<String>(sourceRestrictSet).toString());
+  }
+
+  /**
+   * Create restriction for restrict sets, or null if the sets do not
+   * restrict anything.
+   * @param semanticTypeRestrictSet semantic types to keep
+   * @param sourceRestrictSet sources to keep
+   * @return restriction or null
+   */
+  public static ConceptRestriction create(Set<String> semanticTypeRestrictSet, Set<String> sourceRestrictSet) {
+    ConceptRestriction restriction = new ConceptRestriction(semanticTypeRestrictSet, sourceRestrictSet);
+    return (restriction.allSemanticTypes && restriction.allSources) ? null : restriction;
+  }
+
+  /**
+   * @param semanticTypeRestrictSet semantic types to keep
+   * @param sourceRestrictSet sources to keep
+   * @return true if restriction was created from equal restrict sets.
+   */
+  public boolean isFor(Set<String> semanticTypeRestrictSet, Set<String> sourceRestrictSet) {
+    return this.semanticTypeRestrictSet.equals(semanticTypeRestrictSet) &&
+      this.sourceRestrictSet.equals(sourceRestrictSet);
+  }
+
+  /**
+   * @param conceptSemanticTypeBitSet semantic type bitset of concept
+   * @return true if concept has at least one allowed semantic type
+   */
+  public boolean acceptSemanticTypes(BitSet conceptSemanticTypeBitSet) {
+    return this.allSemanticTypes || this.semanticTypeBitSet.intersects(conceptSemanticTypeBitSet);
+  }
+
+  /**
+   * @param conceptSourceSet source set of concept
+   * @return true if concept is in at least one allowed source
+   */
+  public boolean acceptSources(Set<String> conceptSourceSet) {
+    return this.allSources || ConceptInfoUtils.inSourceRestrictSet(conceptSourceSet, this.sourceRestrictSet);
+  }
+
+  /**
+   * @param conceptInfo concept information
+   * @return true if concept satisfies semantic type and source restrictions
+   */
+  public boolean accept(ConceptInfo conceptInfo) {
+    return (this.allSemanticTypes ||
+	    ConceptInfoUtils.inSemanticTypeRestrictSet(conceptInfo.getSemanticTypeSet(),
+						       this.semanticTypeRestrictSet)) &&
+      this.acceptSources(conceptInfo.getSourceSet());
+  }
+
+  public String getKey() {
+    return this.key;
+  }
+}
@@ -40,6 +40,9 @@ public class CuiPreferredNameCache {
     (Integer.parseInt
      (System.getProperty
       ("metamaplite.entity.lookup4.cui.preferred.name.cache.size","10000")));
+
+  /** pre-built cui to preferred name cache, null if not enabled */
+  WarmCache warmCache = null;
   
   /**
    * Creates a new <code>CuiPreferredNameCache</code> instance.
@@ -60,6 +63,14 @@ public class CuiPreferredNameCache {
     this.mmIndexes = mmIndexes;
   }
 
+  /**
+   * Set warm cache to consult before inverted file.
+   * @param warmCache pre-built warm cache
+   */
+  public void setWarmCache(WarmCache warmCache) {
+    this.warmCache = warmCache;
+  }
+
   /**
    * 
    *
@@ -82,6 +93,7 @@ public class CuiPreferredNameCache {
   public String lookupPreferredNameIVF(String cui)
     throws FileNotFoundException, IOException
   {
+    Metrics.indexLookup("cuiconcept");
     List<String> hitList = 
       this.mmIndexes.cuiConceptIndex.lookup(cui, 0);
     if (hitList.size() > 0) {
@@ -101,10 +113,20 @@ public class CuiPreferredNameCache {
   public String findPreferredName(String cui)
     throws FileNotFoundException, IOException
   {
+    if (this.warmCache != null) {
+      String preferredName = this.warmCache.lookupPreferredName(cui);
+      boolean hit = (preferredName != null) && (preferredName.length() > 0);
+      Metrics.cacheAccess("warm.preferredname", hit);
+      if (hit) {
+	return preferredName;
+      }
+    }
     if (enableCuiPreferredNameCache) {
       if (this.cuiPreferredNameCache.containsKey(cui)) {
+	Metrics.cacheAccess("preferredname", true);
 	return this.cuiPreferredNameCache.get(cui);
       } else {
+	Metrics.cacheAccess("preferredname", false);
 	String preferredName = lookupPreferredNameIVF(cui);
 	this.cachePreferredTerm(cui, preferredName);
 	return preferredName;
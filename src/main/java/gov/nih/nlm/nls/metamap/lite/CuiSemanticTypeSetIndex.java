@@ -1,7 +1,11 @@
 package gov.nih.nlm.nls.metamap.lite;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
@@ -9,6 +13,7 @@ import java.io.IOException;
 import java.io.FileNotFoundException;
 
 import gov.nih.nlm.nls.metamap.lite.metamap.MetaMapIvfIndexes;
+import gov.nih.nlm.nls.utils.LRUCache;
 
 /**
  * Describe class CuiSemanticTypeIndex here.
@@ -27,6 +32,18 @@ public class CuiSemanticTypeSetIndex {
   /** cui column for semantic type and cuisourceinfo index */
   int cuiColumn = 0;		
 
+  /** semantic type abbreviation -&gt; bit number, bits are assigned
+   * as semantic types are first seen. */
+  static final Map<String,Integer> semanticTypeBitMap = new HashMap<String,Integer>();
+  /** bit number -&gt; semantic type abbreviation */
+  static final List<String> bitSemanticTypeList = new ArrayList<String>();
+
+  /** cache of cui -&gt; semantic type bitset */
+  public static LRUCache<String,BitSet> cuiSemanticTypeBitSetCache =
+    new LRUCache<String,BitSet>
+    (Integer.parseInt
+     (System.getProperty("metamaplite.cui.semantictype.bitset.cache.size","100000")));
+
   /**
    * Creates a new <code>CuiSemanticTypeSetIndex</code> instance.
    * @param mmIndexes metamaplite inverted file indexes container
@@ -46,6 +63,7 @@ public class CuiSemanticTypeSetIndex {
     throws FileNotFoundException, IOException
   {
     Set<String> semanticTypeSet = new HashSet<String>();
+    Metrics.indexLookup("cuist");
     List<String> hitList = 
       this.mmIndexes.cuiSemanticTypeIndex.lookup(cui, this.cuiColumn);
     for (String hit: hitList) {
@@ -54,4 +72,73 @@ public class CuiSemanticTypeSetIndex {
     }
     return semanticTypeSet;
   }
+
+  /**
+   * Get bit number for semantic type, assigning one if necessary.
+   * @param semanticType semantic type abbreviation
+   * @return bit number
+   */
+  public static int semanticTypeBit(String semanticType) {
+    synchronized (semanticTypeBitMap) {
+      Integer bit = semanticTypeBitMap.get(semanticType);
+      if (bit == null) {
+	bit = bitSemanticTypeList.size();
+	semanticTypeBitMap.put(semanticType, bit);
+	bitSemanticTypeList.add(semanticType);
+      }
+      return bit;
+    }
+  }
+
+  /**
+   * Convert semantic type set to bitset.
+   * @param semanticTypeSet set of semantic type abbreviations
+   * @return bitset with bit set for each semantic type.
+   */
+  public static BitSet toBitSet(Set<String> semanticTypeSet) {
+    BitSet bitSet = new BitSet();
+    for (String semanticType: semanticTypeSet) {
+      bitSet.set(semanticTypeBit(semanticType));
+    }
+    return bitSet;
+  }
+
+  /**
+   * Convert bitset to semantic type set.
+   * @param bitSet semantic type bitset
+   * @return set of semantic type abbreviations.
+   */
+  public static Set<String> toSemanticTypeSet(BitSet bitSet) {
+    Set<String> semanticTypeSet = new HashSet<String>();
+    synchronized (semanticTypeBitMap) {
+      for (int i = bitSet.nextSetBit(0); i >= 0; i = bitSet.nextSetBit(i + 1)) {
+	semanticTypeSet.add(bitSemanticTypeList.get(i));
+      }
+    }
+    return semanticTypeSet;
+  }
+
+  /**
+   * Get semantic types for cui as a bitset, the bitset is cached and
+   * must not be modified.
+   * @param cui target cui
+   * @return semantic type bitset for cui
+   * @throws FileNotFoundException File Not Found Exception
+   * @throws IOException IO Exception
+   */
+  public BitSet getSemanticTypeBitSet(String cui)
+    throws FileNotFoundException, IOException
+  {
+    BitSet bitSet;
+    synchronized (cuiSemanticTypeBitSetCache) {
+      bitSet = cuiSemanticTypeBitSetCache.get(cui);
+    }
+    if (bitSet == null) {
+      bitSet = toBitSet(this.getSemanticTypeSet(cui));
+      synchronized (cuiSemanticTypeBitSetCache) {
+	cuiSemanticTypeBitSetCache.put(cui, bitSet);
+      }
+    }
+    return bitSet;
+  }
 }
@@ -46,6 +46,7 @@ public class CuiSourceSetIndex {
     throws FileNotFoundException, IOException
   {
     Set<String> sourceSet = new HashSet<String>();
+    Metrics.indexLookup("cuisourceinfo");
     List<String> hitList =
       this.mmIndexes.cuiSourceInfoIndex.lookup(cui, cuiColumn);
     for (String hit: hitList) {
@@ -448,42 +448,7 @@ public class EntityLookup3 implements EntityLookup {
 
   // static methods
   public static Set<Entity> removeSubsumingEntities(Set<Entity> entitySet) {
-    Map <Integer,Entity> startMap = new HashMap<Integer,Entity>();
-    logger.debug("-input entity set spans-");
-    for (Entity entity: entitySet) {
-      // logger.debug(entity.getStart() + "," + entity.getLength());
-      Integer key = new Integer(entity.getStart());
-      if (startMap.containsKey(key)) {
-	if (startMap.get(key).getLength() < entity.getLength()) {
-	  // replace entity with larger span
-	  startMap.put(key,entity);
-	}
-      } else {
-	startMap.put(key, entity);
-      }
-    }
-    logger.debug("-shorter entities with same start have been removed-");
-    Map <Integer,Entity> endMap = new HashMap<Integer,Entity>();
-    for (Entity entity: startMap.values()) {
-      // logger.debug(entity.getStart() + "," + entity.getLength());
-      Integer key = new Integer(entity.getStart() + entity.getLength());
-      if (endMap.containsKey(key)) {
-	if (endMap.get(key).getStart() > entity.getStart()) {
-	  // replace entity with larger span
-	  endMap.put(key,entity);
-	}
-      } else {
-	endMap.put(key, entity);
-      }
-    }
-
-    logger.debug("-final entity set spans-");
-    Set<Entity> newEntitySet = new HashSet<Entity>();
-    for (Entity entity: endMap.values()) {
-      // logger.debug(entity.getStart() + "," + entity.getLength() + ":" + entity);
-      newEntitySet.add(entity);
-    }
-    return newEntitySet;
+    return SpanPruning.removeSharedBoundaryEntities(entitySet);
   }
 
   static EntityStartComparator entityComparator = new EntityStartComparator();
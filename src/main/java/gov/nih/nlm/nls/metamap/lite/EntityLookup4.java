@@ -83,6 +83,11 @@ public class EntityLookup4 implements EntityLookup {
   public TermConceptInfoCache termConceptInfoCache;
   /** word to variant lookup */
   VariantLookupIVF variantLookup;
+  /** time and work budget for pathological documents */
+  ProcessingBudget budget;
+  /** apply semantic type and source restrictions during term lookup,
+   * set by property "metamaplite.restrict.at.lookup" */
+  boolean restrictAtLookup = false;
 
   SentenceAnnotator sentenceAnnotator;
   NegationDetector negationDetector;
@@ -171,6 +176,9 @@ public class EntityLookup4 implements EntityLookup {
 							 this.cuiSourceSetIndex,
 							 this.excludedTerms);
     this.variantLookup = new VariantLookupIVF(this.mmIndexes);
+    this.budget = new ProcessingBudget(properties);
+    this.restrictAtLookup =
+      Boolean.parseBoolean(properties.getProperty("metamaplite.restrict.at.lookup", "false"));
 
     // user defined acronyms
     if (properties.containsKey("metamaplite.uda.filename")) {
@@ -416,14 +424,20 @@ public class EntityLookup4 implements EntityLookup {
 					      Set<String> sourceRestrictSet)
     throws IOException, FileNotFoundException {
     Set<Entity> entitySet = new HashSet<Entity>();
+    if (this.restrictAtLookup) {
+      this.termConceptInfoCache.setRestriction(semTypeRestrictSet, sourceRestrictSet);
+    }
+    ProcessingBudget budget = this.budget.document(docid);
     int i = 0;
     while (i<sentenceTokenList.size()) {
+      budget.checkSentence();
       SpanEntityMapAndTokenLength spanEntityMapAndTokenLength = 
 	this.findLongestMatch
 	(docid,
 	 fieldid,
 	 i,
-	 sentenceTokenList.subList(i,Math.min(i+MAX_TOKEN_SIZE,sentenceTokenList.size())));
+	 sentenceTokenList.subList(i,Math.min(i+budget.windowSize(MAX_TOKEN_SIZE),
+					      sentenceTokenList.size())));
       for (Entity entity: spanEntityMapAndTokenLength.getEntityList()) {
 	if (entity.getEvList().size() > 0) {
 	  entitySet.add(entity);
@@ -464,13 +478,7 @@ public class EntityLookup4 implements EntityLookup {
    * @return entitySet with any subsumed entities removed.
    */
   public static Set<Entity> removeSubsumedEntities(Set<Entity> entitySet) {
-    Set<Entity> newEntitySet = new HashSet<Entity>();
-    for (Entity entity: entitySet) {
-      if (! isEntitySubsumed(entity, entitySet)) {
-	newEntitySet.add(entity);
-      }
-    }
-    return newEntitySet;
+    return SpanPruning.removeSubsumedEntities(entitySet);
   }
 
   static EntityStartComparator entityComparator = new EntityStartComparator();
@@ -505,6 +513,20 @@ public class EntityLookup4 implements EntityLookup {
     return entityList;
   }
 
+  /**
+   * Start processing budget of a new document in the current thread;
+   * passages processed until endDocument share the document budget.
+   * @param docid document id
+   */
+  public void startDocument(String docid) {
+    this.budget.startDocument(docid);
+  }
+
+  /** End document started by startDocument in the current thread. */
+  public void endDocument() {
+    this.budget.endDocument();
+  }
+
   /** Process passage */
   public List<Entity> processPassage(String docid, BioCPassage passage,
 				     boolean detectNegationsFlag,
@@ -512,17 +534,29 @@ public class EntityLookup4 implements EntityLookup {
 				     Set<String> sourceRestrictSet) 
   {
     String fieldid = passage.getInfon("section");
+    boolean openedDocument = (! this.budget.isDocumentOpen());
+    if (openedDocument) {
+      this.budget.startDocument(docid);
+    }
     try {
+      ProcessingBudget budget = this.budget.document(docid);
       Set<Entity> entitySet0 = new HashSet<Entity>();
       int i = 0;
       for (BioCSentence sentence: passage.getSentences()) {
+	long tokenizeStart = Metrics.start();
 	List<ERToken> tokenList = Scanner.analyzeText(sentence);
-	if (this.addPartOfSpeechTagsFlag) {
+	Metrics.stop("tokenize", tokenizeStart);
+	budget.startSentence(tokenList.size());
+	if (this.addPartOfSpeechTagsFlag && (! budget.isDegraded())) {
+	  long postagStart = Metrics.start();
 	  sentenceAnnotator.addPartOfSpeech(tokenList);
+	  Metrics.stop("postag", postagStart);
 	}
+	long lookupStart = Metrics.start();
 	Set<Entity> sentenceEntitySet = this.processSentenceTokenList(docid, fieldid, tokenList,
 								      semTypeRestrictSet,
 								      sourceRestrictSet);
+	Metrics.stop("lookup", lookupStart);
 	sentenceEntitySet.addAll(UserDefinedAcronym.generateEntities(docid, this.udaMap, tokenList));
 	for (Entity entity: sentenceEntitySet) {
 	  entity.setLocationPosition(i);
@@ -547,7 +581,9 @@ public class EntityLookup4 implements EntityLookup {
 	// end of dbg
 	entitySet0.addAll(abbrevEntitySet);
 	if (detectNegationsFlag) {
+	  long negationStart = Metrics.start();
 	  detectNegations(entitySet0, sentence.getText(), tokenList);
+	  Metrics.stop("negation", negationStart);
 	}
       }
 
@@ -569,6 +605,10 @@ public class EntityLookup4 implements EntityLookup {
       throw new RuntimeException(ioe);
     } catch (Exception e) {
       throw new RuntimeException(e);
+    } finally {
+      if (openedDocument) {
+	this.budget.endDocument();
+      }
     }
   }
 
@@ -581,24 +621,36 @@ public class EntityLookup4 implements EntityLookup {
     String fieldid = "text";
     Set<Entity> entitySet0 = new HashSet<Entity>();
     int i = 0;
-    for (Sentence sentence: sentenceList) {
-      List<ERToken> tokenList = Scanner.analyzeText(sentence);
-      if (this.addPartOfSpeechTagsFlag) {
-	sentenceAnnotator.addPartOfSpeech(tokenList);
-      }
-      Set<Entity> sentenceEntitySet = this.processSentenceTokenList(docid, fieldid, tokenList,
-								    semTypeRestrictSet,
-								    sourceRestrictSet);
-      for (Entity entity: sentenceEntitySet) {
-	entity.setLocationPosition(i);
+    boolean openedDocument = (! this.budget.isDocumentOpen());
+    if (openedDocument) {
+      this.budget.startDocument(docid);
+    }
+    try {
+      ProcessingBudget budget = this.budget.document(docid);
+      for (Sentence sentence: sentenceList) {
+	List<ERToken> tokenList = Scanner.analyzeText(sentence);
+	budget.startSentence(tokenList.size());
+	if (this.addPartOfSpeechTagsFlag && (! budget.isDegraded())) {
+	  sentenceAnnotator.addPartOfSpeech(tokenList);
+	}
+	Set<Entity> sentenceEntitySet = this.processSentenceTokenList(docid, fieldid, tokenList,
+								      semTypeRestrictSet,
+								      sourceRestrictSet);
+	for (Entity entity: sentenceEntitySet) {
+	  entity.setLocationPosition(i);
+	}
+	entitySet0.addAll(sentenceEntitySet);
+	// fix this for ConText
+	// look for negation and other relations using Context.
+	if (detectNegationsFlag) {
+	  // detectNegation(sentenceEntitySet, sentence, tokenList);
+	}
+	i++;
       }
-      entitySet0.addAll(sentenceEntitySet);
-      // fix this for ConText
-      // look for negation and other relations using Context.
-      if (detectNegationsFlag) {
-	// detectNegation(sentenceEntitySet, sentence, tokenList);
+    } finally {
+      if (openedDocument) {
+	this.budget.endDocument();
       }
-      i++;
     }
     Set<Entity> entitySet = removeSubsumedEntities(entitySet0);
     List<Entity> resultList = new ArrayList<Entity>(entitySet);
@@ -88,6 +88,14 @@ public class EntityLookup5 implements EntityLookup {
   public TermConceptInfoCache termConceptInfoCache;
   /** word to variant lookup */
   VariantLookupIVF variantLookup;
+  /** time and work budget for pathological documents */
+  ProcessingBudget budget;
+  /** apply semantic type and source restrictions during term lookup,
+   * set by property "metamaplite.restrict.at.lookup" */
+  boolean restrictAtLookup = false;
+  /** entities of repeated sentences, null unless property
+   * "metamaplite.sentence.cache.size" is greater than zero */
+  public SentenceCache sentenceCache = null;
 
   SentenceAnnotator sentenceAnnotator;
   NegationDetector negationDetector;
@@ -196,6 +204,14 @@ public class EntityLookup5 implements EntityLookup {
 							 this.cuiSourceSetIndex,
 							 this.excludedTerms);
     this.variantLookup = new VariantLookupIVF(this.mmIndexes);
+    this.budget = new ProcessingBudget(properties);
+    this.restrictAtLookup =
+      Boolean.parseBoolean(properties.getProperty("metamaplite.restrict.at.lookup", "false"));
+    int sentenceCacheSize =
+      Integer.parseInt(properties.getProperty("metamaplite.sentence.cache.size", "0"));
+    if (sentenceCacheSize > 0) {
+      this.sentenceCache = new SentenceCache(sentenceCacheSize);
+    }
 
     // user defined acronyms
     if (properties.containsKey("metamaplite.uda.filename")) {
@@ -300,105 +316,101 @@ public class EntityLookup5 implements EntityLookup {
 						      List<ERToken> phraseTokenList,
 						      String phraseType)
     throws FileNotFoundException, IOException
+  {
+    return findLongestMatch(docid, fieldid, sentenceNumber, tokenList,
+			    new PhraseScoringContext(phraseTokenList, phraseType));
+  }
+
+  /**
+   * Find longest matches in tokenList, scoring candidate terms with
+   * the scoring context of the enclosing phrase.
+   * @param docid document id
+   * @param fieldid id of field in document
+   * @param sentenceNumber number of sentence in field
+   * @param tokenList tokenlist of document
+   * @param context scoring context of phrase, shared by all calls for the phrase
+   * @return Span to entity map + token length map instance
+   * @throws FileNotFoundException file not found exception
+   * @throws IOException IO exception
+   */
+  public SpanEntityMapAndTokenLength findLongestMatch(String docid, 
+						      String fieldid,
+						      int sentenceNumber,
+						      List<ERToken> tokenList,
+						      PhraseScoringContext context)
+    throws FileNotFoundException, IOException
   {
     logger.debug("findLongestMatch");
+    String phraseType = context.phraseType;
     String normTerm ="";
     int longestMatchedTokenLength = 0;
     // span -> entity list map
     Map<String,Entity> spanMap = new HashMap<String,Entity>();
     List<List<? extends Token>> listOfTokenSubLists = TokenListUtils.createSubListsOpt(tokenList);
+    // collect candidate terms, then resolve them in one batch
+    List<List<? extends Token>> candidateTokenSubLists = new ArrayList<List<? extends Token>>();
+    List<String> originalTermList = new ArrayList<String>();
+    List<String> normTermList = new ArrayList<String>();
+    List<Integer> termLengthList = new ArrayList<Integer>();
     for (List<? extends Token> tokenSubList: listOfTokenSubLists) {
-      List<String> tokenTextSubList = new ArrayList<String>();
-      for (Token token: tokenSubList) {
-       	tokenTextSubList.add(token.getText());
-      }
       ERToken firstToken = (ERToken)tokenSubList.get(0);
       ERToken lastToken = (ERToken)tokenSubList.get(tokenSubList.size() - 1);
       if ((! firstToken.getText().toLowerCase().equals("other")) &&
        	  (this.allowedPartOfSpeechSet.contains(firstToken.getPartOfSpeech()) ||
 	   this.allowedPhraseTypeSet.contains(phraseType))) {
+	List<String> tokenTextSubList = new ArrayList<String>();
+	for (Token token: tokenSubList) {
+	  tokenTextSubList.add(token.getText());
+	}
        	int termLength = (tokenSubList.size() > 1) ?
        	  (lastToken.getOffset() + lastToken.getText().length()) - firstToken.getOffset() : 
        	  firstToken.getText().length();
        	String originalTerm = StringUtils.join(tokenTextSubList, "");
 	if ((originalTerm.length() > 2) &&
-	    (CharUtils.isAlphaNumeric(originalTerm.charAt(originalTerm.length() - 1)))) {
-	 
-	  // String term = originalTerm;
-	  // String query = term;
+	    (CharUtils.isAlphaNumeric(originalTerm.charAt(originalTerm.length() - 1))) &&
+	    CharUtils.isAlpha(originalTerm.charAt(0))) {
 	  normTerm = NormalizedStringCache.normalizeString(originalTerm);
-	  int offset = ((PosToken)tokenSubList.get(0)).getOffset();
-	  if (CharUtils.isAlpha(originalTerm.charAt(0))) {
-	    Set<Ev> evSet = new HashSet<Ev>();
-	    Integer tokenListLength = new Integer(tokenSubList.size());
-	    for (ConceptInfo concept: this.termConceptInfoCache.lookupTermConceptInfo(originalTerm,
-							    normTerm,
-							    tokenSubList)) {
-	      //   if (this.termConceptCache.containsKey(normTerm)) {
-	      //     for (ConceptInfo concept: this.termConceptCache.get(normTerm)) {
-	      String cui = concept.getCUI();
-	      Ev ev = new Ev(concept,
-			     originalTerm,
-			     normTerm,
-			     ((PosToken)tokenSubList.get(0)).getOffset(),
-			     termLength,
-			     scoreTerm(originalTerm, concept.getConceptString(),
-				       ((PosToken)tokenSubList.get(0)).getOffset(),
-				       phraseTokenList, phraseType),
-			     ((ERToken)tokenSubList.get(0)).getPartOfSpeech());
-	      if (! evSet.contains(ev)) {
-		logger.debug("add ev: " + ev);
-		evSet.add(ev);
-	      }
-	      //   } else {
-	      //     // if not in cache then lookup term 
-	      //     for (String doc: this.mmIndexes.cuiSourceInfoIndex.lookup(normTerm, 3)) {
-	      // 	String[] fields = doc.split("\\|");
-	      // 	String cui = fields[0];
-	      // 	String docStr = fields[3];
-	      
-	      // 	// If term is not in excluded term list and term or
-	      // 	// normalized form of term matches lookup string or
-	      // 	// normalized form of lookup string then get
-	      // 	// information about lookup string.
-	      // 	if ((! excludedTerms.isExcluded(cui,normTerm)) && isLikelyMatch(term,normTerm,docStr)) {
-	      // 	  if (tokenSubList.get(0) instanceof PosToken) {
-	      // 	    ConceptInfo concept = new ConceptInfo(cui, 
-	      // 						  this.findPreferredName(cui),
-	      // 						  this.getSourceSet(cui),
-	      // 						  this.getSemanticTypeSet(cui));
-	      // 	    this.cacheConcept(normTerm, concept);
-	      // 	    cui = concept.getCUI();
-	      // 	    Ev ev = new Ev(concept,
-	      // 			   originalTerm,
-	      // 			   docStr,
-	      // 			   offset,
-	      // 			   termLength,
-	      // 			   0.0,
-	      // 			   ((ERToken)tokenSubList.get(0)).getPartOfSpeech());
-	      // 	    if (! evSet.contains(ev)) {
-	      // 	      logger.debug("add ev: " + ev);
-	      // 	      evSet.add(ev);
-	      // 	    }
-	      // 	  } /*if token instance of PosToken*/
-	      // 	} /*if term equals doc string */
-	      //     } /* for doc in documentList */
-	    } /* if term in concept cache */
-	    if (evSet.size() > 0) {
-	      this.addEvSetToSpanMap(spanMap, evSet, 
-	  			     docid,
-				     fieldid,
-	  			     originalTerm,
-				     ((ERToken)tokenSubList.get(0)).getPartOfSpeech(), // should this be noun/verb/adj phrase?
-				     sentenceNumber,
-	  			     offset, termLength);
-	      longestMatchedTokenLength = Math.max(longestMatchedTokenLength,tokenTextSubList.size());
-	    }
-	    
-	  } /* if term alphabetic */
-	} /* if term length > 0 */
+	  candidateTokenSubLists.add(tokenSubList);
+	  originalTermList.add(originalTerm);
+	  normTermList.add(normTerm);
+	  termLengthList.add(termLength);
+	} /* if term length > 2 and term alphabetic */
       } /* first token has allowed partOfSpeech */
     } /* for token-sublist in list-of-token-sublists */
+    List<Set<ConceptInfo>> conceptInfoSetList =
+      this.termConceptInfoCache.lookupTermConceptInfo(originalTermList, normTermList, candidateTokenSubLists);
+    for (int i = 0; i < candidateTokenSubLists.size(); i++) {
+      List<? extends Token> tokenSubList = candidateTokenSubLists.get(i);
+      String originalTerm = originalTermList.get(i);
+      normTerm = normTermList.get(i);
+      int termLength = termLengthList.get(i);
+      int offset = ((PosToken)tokenSubList.get(0)).getOffset();
+      Set<Ev> evSet = new HashSet<Ev>();
+      for (ConceptInfo concept: conceptInfoSetList.get(i)) {
+	Ev ev = new Ev(concept,
+		       originalTerm,
+		       normTerm,
+		       offset,
+		       termLength,
+		       scoreTerm(originalTerm, concept.getConceptString(),
+				 offset, context),
+		       ((ERToken)tokenSubList.get(0)).getPartOfSpeech());
+	if (! evSet.contains(ev)) {
+	  logger.debug("add ev: " + ev);
+	  evSet.add(ev);
+	}
+      }
+      if (evSet.size() > 0) {
+	this.addEvSetToSpanMap(spanMap, evSet, 
+			       docid,
+			       fieldid,
+			       originalTerm,
+			       ((ERToken)tokenSubList.get(0)).getPartOfSpeech(), // should this be noun/verb/adj phrase?
+			       sentenceNumber,
+			       offset, termLength);
+	longestMatchedTokenLength = Math.max(longestMatchedTokenLength, tokenSubList.size());
+      }
+    } /* for candidate term */
     return new SpanEntityMapAndTokenLength(spanMap, longestMatchedTokenLength);
   }
 
@@ -498,6 +510,15 @@ public class EntityLookup5 implements EntityLookup {
   }
 
   public int findHeadPos(List<ERToken> phraseTokenList, String phraseType) {
+    return headPosition(phraseTokenList, phraseType);
+  }
+
+  /**
+   * @param phraseTokenList tokens of phrase
+   * @param phraseType type of phrase (NP, VP, PP, ...)
+   * @return position of head of phrase, zero if not found
+   */
+  static int headPosition(List<ERToken> phraseTokenList, String phraseType) {
     // Does entity start at head of phrase?
       int headPos = 0;
       if (phraseType.equals("NP")) {
@@ -523,16 +544,74 @@ public class EntityLookup5 implements EntityLookup {
       return headPos;
   }
 
+  /**
+   * Phrase information shared by all candidate terms scored in a
+   * phrase: head position is computed once, when first needed, and
+   * tokenizations of matched texts and Metathesaurus strings are
+   * memoized.  processSentenceTokenList creates one per phrase.
+   */
+  static class PhraseScoringContext {
+    List<ERToken> phraseTokenList;
+    String phraseType;
+    int headPos = -1;
+    Map<String,List<ERToken>> tokenListMap = new HashMap<String,List<ERToken>>();
+
+    PhraseScoringContext(List<ERToken> phraseTokenList, String phraseType) {
+      this.phraseTokenList = phraseTokenList;
+      this.phraseType = phraseType;
+    }
+
+    /** @return position of head of phrase */
+    int getHeadPos() {
+      if (this.headPos < 0) {
+	this.headPos = this.computeHeadPos();
+      }
+      return this.headPos;
+    }
+
+    int computeHeadPos() {
+      return headPosition(this.phraseTokenList, this.phraseType);
+    }
+
+    /**
+     * @param text text to tokenize
+     * @return non-whitespace tokens of text
+     */
+    List<ERToken> tokenize(String text) {
+      List<ERToken> tokenList = this.tokenListMap.get(text);
+      if (tokenList == null) {
+	tokenList = Scanner.analyzeTextNoWS(text);
+	this.tokenListMap.put(text, tokenList);
+      }
+      return tokenList;
+    }
+  }
+
+  /**
+   * Score term against a phrase without a shared scoring context.
+   * @deprecated creates a scoring context for every call, use
+   * scoreTerm(String, String, int, PhraseScoringContext) with one
+   * context per phrase.
+   */
+  @Deprecated
   public double scoreTerm(String matchedText, String metaTerm,
 			  int matchedTermOffset,
 			  List<ERToken> phraseTokenList, String phraseType) {
+    return scoreTerm(matchedText, metaTerm, matchedTermOffset,
+		     new PhraseScoringContext(phraseTokenList, phraseType));
+  }
+
+  public double scoreTerm(String matchedText, String metaTerm,
+			  int matchedTermOffset,
+			  PhraseScoringContext context) {
+    List<ERToken> phraseTokenList = context.phraseTokenList;
     logger.debug("scoreTerm");
     logger.debug("phraseTokenList: " + phraseTokenList);
-    logger.debug("phraseType: " + phraseType);
+    logger.debug("phraseType: " + context.phraseType);
 
-    List<ERToken> matchTokenList = Scanner.analyzeTextNoWS(matchedText);
+    List<ERToken> matchTokenList = context.tokenize(matchedText);
     logger.debug("matchTokenList: " + matchTokenList);
-    int headPos = findHeadPos(phraseTokenList, phraseType);
+    int headPos = context.getHeadPos();
     double sum = 0;
     double centrality =
       isHeadInMatchedTokenList(phraseTokenList, matchTokenList, headPos, matchedTermOffset) ? 1.0 : 0.0;
@@ -553,7 +632,7 @@ public class EntityLookup5 implements EntityLookup {
     double phraseSpan = (double)(phraseUpperBound - phraseLowerBound);
     //  4. compute lower and upper bounds of metathesaurus string
     // computeBounds(metaComponents);
-    List<ERToken> metaTokenList = Scanner.analyzeTextNoWS(metaTerm);
+    List<ERToken> metaTokenList = context.tokenize(metaTerm);
     int metaLowerBound = phraseTokenList.indexOf(metaTokenList.get(0));
     logger.debug("metaLowerBound: " + metaLowerBound);
     int metaUpperBound = metaLowerBound + metaTokenList.size();
@@ -580,9 +659,17 @@ public class EntityLookup5 implements EntityLookup {
   
   public void scoreEntity(Entity entity, List<ERToken> phraseTokenList, String phraseType)
   {
+    if (entity.getEvList().size() > 0) {
+      scoreEntity(entity, new PhraseScoringContext(phraseTokenList, phraseType));
+    }
+  }
+
+  public void scoreEntity(Entity entity, PhraseScoringContext context)
+  {
+    List<ERToken> phraseTokenList = context.phraseTokenList;
     logger.debug("scoreEntity");
     logger.debug("phraseTokenList: " + phraseTokenList);
-    logger.debug("phraseType: " + phraseType);
+    logger.debug("phraseType: " + context.phraseType);
 
     if (entity.getEvList().size() > 0) {
       // List<ERToken> matchTokenList = Scanner.analyzeTextNoWS(entity.getMatchedText());
@@ -590,10 +677,10 @@ public class EntityLookup5 implements EntityLookup {
       // int headPos = findHeadPos(phraseTokenList, phraseType);
       double sum = 0;
       for (Ev ev: entity.getEvList()) {
-	List<ERToken> metaTokenList = Scanner.analyzeTextNoWS(ev.getConceptInfo().getConceptString());
+	List<ERToken> metaTokenList = context.tokenize(ev.getConceptInfo().getConceptString());
 	double score = scoreTerm(entity.getMatchedText(), ev.getConceptString(),
 				 phraseTokenList.indexOf(metaTokenList.get(0)),
-				 phraseTokenList, phraseType);
+				 context);
 	ev.setScore(score);
 	sum = score + sum;
       }
@@ -685,42 +772,65 @@ public class EntityLookup5 implements EntityLookup {
       }
     }
     logger.debug("minimalSentenceTokenList: " + minimalSentenceTokenList);
-    if (this.addPartOfSpeechTagsFlag) {
+    if (this.restrictAtLookup) {
+      this.termConceptInfoCache.setRestriction(semTypeRestrictSet, sourceRestrictSet);
+    }
+    ProcessingBudget budget = this.budget.document(docid);
+    budget.startSentence(minimalSentenceTokenList.size());
+    if (this.addPartOfSpeechTagsFlag && (! budget.isDegraded())) {
+      long postagStart = Metrics.start();
       sentenceAnnotator.addPartOfSpeech(minimalSentenceTokenList);
+      Metrics.stop("postag", postagStart);
     }
     List<Phrase> phraseList;
-    if (this.disableChunker) {
+    if (budget.isDegraded()) {
+      // over budget: no tagging or chunking, use punctuation
+      // delimited segments of limited length as phrases.
+      phraseList = new ArrayList<Phrase>();
+      for (List<ERToken> segment: budget.splitOnPunctuation(minimalSentenceTokenList)) {
+	phraseList.add(new PhraseImpl(segment, "NP"));
+      }
+    } else if (this.disableChunker) {
       phraseList = new ArrayList<Phrase>();
       phraseList.add(new PhraseImpl(minimalSentenceTokenList, "NP")); // not really a noun phrase
     } else {
     // chunk first, then find entities in the chunks
+      long chunkStart = Metrics.start();
       phraseList = this.chunkerMethod.applyChunker(minimalSentenceTokenList);
+      Metrics.stop("chunk", chunkStart);
     }
+    long lookupStart = Metrics.start();
     List<Phrase> newPhraseList = glomNounPhrasePrepPhrase(phraseList);
     for (Phrase phrase: newPhraseList) {
       logger.debug("phrase: " + phrase);
       List<ERToken> phraseTokenList = mapToTokenList(sentenceTokenList, phrase.getPhrase());
       logger.debug("phraseTokenList: " + phraseTokenList);
+      // shared by all candidate terms and entities of the phrase
+      PhraseScoringContext scoringContext = new PhraseScoringContext(phrase.getPhrase(), phrase.getTag());
       int i = 0;
       while (i<phraseTokenList.size()) {
+	budget.checkSentence();
 	SpanEntityMapAndTokenLength spanEntityMapAndTokenLength = 
 	  this.findLongestMatch
 	  (docid,
 	   fieldid,
 	   i,
-	   phraseTokenList.subList(i,Math.min(i+MAX_TOKEN_SIZE,phraseTokenList.size())),
-	   phrase.getPhrase(),
-	   phrase.getTag());
+	   phraseTokenList.subList(i,Math.min(i+budget.windowSize(MAX_TOKEN_SIZE),
+					      phraseTokenList.size())),
+	   scoringContext);
 
 	if (spanEntityMapAndTokenLength.size() > 0) {
 	  for (Entity entity: spanEntityMapAndTokenLength.getEntityList()) {
-	    scoreEntity(entity, phrase.getPhrase(), phrase.getTag());
+	    if (entity.getEvList().size() > 0) {
+	      scoreEntity(entity, scoringContext);
+	    }
 	    entitySet.add(entity);
 	  }
 	}
 	i++;
       } /*while*/
     }
+    Metrics.stop("lookup", lookupStart);
     return entitySet;
   }
 
@@ -754,13 +864,7 @@ public class EntityLookup5 implements EntityLookup {
    * @return entitySet with any subsumed entities removed.
    */
   public static Set<Entity> removeSubsumedEntities(Set<Entity> entitySet) {
-    Set<Entity> newEntitySet = new HashSet<Entity>();
-    for (Entity entity: entitySet) {
-      if (! isEntitySubsumed(entity, entitySet)) {
-	newEntitySet.add(entity);
-      }
-    }
-    return newEntitySet;
+    return SpanPruning.removeSubsumedEntities(entitySet);
   }
 
   static EntityStartComparator entityComparator = new EntityStartComparator();
@@ -795,6 +899,41 @@ public class EntityLookup5 implements EntityLookup {
     return entityList;
   }
 
+  /**
+   * Cached entities carry their negation status, so whether negations
+   * were detected is part of the key; the negation detector itself is
+   * fixed when the instance is created, as is the sentence cache.
+   * @param sentenceText text of sentence
+   * @param detectNegationsFlag true if negations of entities are detected
+   * @param semTypeRestrictSet semantic type restriction
+   * @param sourceRestrictSet source restriction
+   * @return sentence cache key, restrictions are part of key only if applied at lookup.
+   */
+  String sentenceCacheKey(String sentenceText,
+			  boolean detectNegationsFlag,
+			  Set<String> semTypeRestrictSet,
+			  Set<String> sourceRestrictSet) {
+    String negationKey = detectNegationsFlag ? "N|" : "-|";
+    if (this.restrictAtLookup) {
+      return negationKey + semTypeRestrictSet + "|" + sourceRestrictSet + "|" + sentenceText;
+    }
+    return negationKey + sentenceText;
+  }
+
+  /**
+   * Start processing budget of a new document in the current thread;
+   * passages processed until endDocument share the document budget.
+   * @param docid document id
+   */
+  public void startDocument(String docid) {
+    this.budget.startDocument(docid);
+  }
+
+  /** End document started by startDocument in the current thread. */
+  public void endDocument() {
+    this.budget.endDocument();
+  }
+
   /** Process passage */
   public List<Entity> processPassage(String docid, BioCPassage passage,
 				     boolean detectNegationsFlag,
@@ -805,31 +944,82 @@ public class EntityLookup5 implements EntityLookup {
     if (fieldid == null) {
       fieldid = "text";
     }
+    boolean openedDocument = (! this.budget.isDocumentOpen());
+    if (openedDocument) {
+      this.budget.startDocument(docid);
+    }
     try {
+      ProcessingBudget budget = this.budget.document(docid);
       Set<Entity> entitySet0 = new HashSet<Entity>();
+      List<BioCSentence> sentenceList = passage.getSentences();
+      // entities of sentences to be added to sentence cache, by
+      // sentence position; null for sentences found in cache or
+      // looked up in degraded mode.
+      List<Set<Entity>> newSentenceEntitySetList = new ArrayList<Set<Entity>>();
+      // true for sentences whose entities came from the sentence cache
+      List<Boolean> cachedSentenceList = new ArrayList<Boolean>();
+      // entity sentence numbers set by processSentenceTokenList are
+      // relative to the sentence (token positions in its phrases),
+      // cached entities are re-based to sentence number 0.
       int i = 0;
-      for (BioCSentence sentence: passage.getSentences()) {
-	List<ERToken> tokenList = Scanner.analyzeText(sentence);
-	Set<Entity> sentenceEntitySet = this.processSentenceTokenList(docid, fieldid, tokenList,
-								      semTypeRestrictSet,
-								      sourceRestrictSet);
-	sentenceEntitySet.addAll(UserDefinedAcronym.generateEntities(docid, this.udaMap, tokenList));	
+      for (BioCSentence sentence: sentenceList) {
+	Set<Entity> sentenceEntitySet = null;
+	Set<Entity> newSentenceEntitySet = null;
+	if (this.sentenceCache != null) {
+	  sentenceEntitySet =
+	    this.sentenceCache.get(this.sentenceCacheKey(sentence.getText(), detectNegationsFlag,
+							 semTypeRestrictSet, sourceRestrictSet),
+				   docid, fieldid, sentence.getOffset(), 0);
+	}
+	cachedSentenceList.add(sentenceEntitySet != null);
+	if (sentenceEntitySet == null) {
+	  long tokenizeStart = Metrics.start();
+	  List<ERToken> tokenList = Scanner.analyzeText(sentence);
+	  Metrics.stop("tokenize", tokenizeStart);
+	  sentenceEntitySet = this.processSentenceTokenList(docid, fieldid, tokenList,
+							    semTypeRestrictSet,
+							    sourceRestrictSet);
+	  sentenceEntitySet.addAll(UserDefinedAcronym.generateEntities(docid, this.udaMap, tokenList));	
+	  // results of degraded processing are not cached
+	  if (! budget.isDegraded()) {
+	    newSentenceEntitySet = sentenceEntitySet;
+	  }
+	}
 	for (Entity entity: sentenceEntitySet) {
 	  entity.setLocationPosition(i);
 	}
+	newSentenceEntitySetList.add(newSentenceEntitySet);
 	entitySet0.addAll(sentenceEntitySet);
 	i++;
       }
 
       // look for negation and other relations using Context.
-      for (BioCSentence sentence: passage.getSentences()) {
-	List<ERToken> tokenList = Scanner.analyzeText(sentence);
-
+      boolean abbreviationsAdded = false;
+      i = 0;
+      for (BioCSentence sentence: sentenceList) {
 	// mark abbreviations that are entities and add them to sentence entity set.
 	Set<Entity> abbrevEntitySet = new HashSet(MarkAbbreviations.markAbbreviations(passage, new ArrayList(entitySet0)));
-	entitySet0.addAll(abbrevEntitySet);
-	if (detectNegationsFlag) {
+	abbreviationsAdded |= entitySet0.addAll(abbrevEntitySet);
+	// negation status of entities of sentences found in the
+	// sentence cache is already set, unless abbreviations added
+	// entities that haven't been examined.
+	if (detectNegationsFlag && ((! cachedSentenceList.get(i)) || abbreviationsAdded)) {
+	  List<ERToken> tokenList = Scanner.analyzeText(sentence);
+	  long negationStart = Metrics.start();
 	  detectNegations(entitySet0, sentence.getText(), tokenList);
+	  Metrics.stop("negation", negationStart);
+	}
+	i++;
+      }
+      if (this.sentenceCache != null) {
+	i = 0;
+	for (BioCSentence sentence: sentenceList) {
+	  if (newSentenceEntitySetList.get(i) != null) {
+	    this.sentenceCache.put(this.sentenceCacheKey(sentence.getText(), detectNegationsFlag,
+							 semTypeRestrictSet, sourceRestrictSet),
+				   sentence.getOffset(), 0, newSentenceEntitySetList.get(i));
+	  }
+	  i++;
 	}
       }
       
@@ -853,6 +1043,10 @@ public class EntityLookup5 implements EntityLookup {
       throw new RuntimeException(ioe);
     } catch (Exception e) {
       throw new RuntimeException(e);
+    } finally {
+      if (openedDocument) {
+	this.budget.endDocument();
+      }
     }
   }
 
@@ -865,21 +1059,31 @@ public class EntityLookup5 implements EntityLookup {
     String fieldid = "text";
     Set<Entity> entitySet0 = new HashSet<Entity>();
     int i = 0;
-    for (Sentence sentence: sentenceList) {
-      List<ERToken> tokenList = Scanner.analyzeText(sentence);
-      Set<Entity> sentenceEntitySet = this.processSentenceTokenList(docid, fieldid, tokenList,
-								    semTypeRestrictSet,
-								    sourceRestrictSet);
-      for (Entity entity: sentenceEntitySet) {
-	entity.setLocationPosition(i);
+    boolean openedDocument = (! this.budget.isDocumentOpen());
+    if (openedDocument) {
+      this.budget.startDocument(docid);
+    }
+    try {
+      for (Sentence sentence: sentenceList) {
+	List<ERToken> tokenList = Scanner.analyzeText(sentence);
+	Set<Entity> sentenceEntitySet = this.processSentenceTokenList(docid, fieldid, tokenList,
+								      semTypeRestrictSet,
+								      sourceRestrictSet);
+	for (Entity entity: sentenceEntitySet) {
+	  entity.setLocationPosition(i);
+	}
+	entitySet0.addAll(sentenceEntitySet);
+	// fix this for ConText
+	// look for negation and other relations using Context.
+	if (detectNegationsFlag) {
+	  // detectNegation(sentenceEntitySet, sentence, tokenList);
+	}
+	i++;
       }
-      entitySet0.addAll(sentenceEntitySet);
-      // fix this for ConText
-      // look for negation and other relations using Context.
-      if (detectNegationsFlag) {
-	// detectNegation(sentenceEntitySet, sentence, tokenList);
+    } finally {
+      if (openedDocument) {
+	this.budget.endDocument();
       }
-      i++;
     }
     Set<Entity> entitySet = removeSubsumedEntities(entitySet0);
     List<Entity> resultList = new ArrayList<Entity>(entitySet);
@@ -0,0 +1,174 @@
+//
+package gov.nih.nlm.nls.metamap.lite;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Single pass line scanner over a string or a reader.
+ * <p>
+ * Lines are terminated by "\n", "\r\n" or "\r"; the line text
+ * excludes the terminator and the offset of each line is exact,
+ * counted in chars from the start of the input plus the initial
+ * offset.  When reading from a Reader only the current line and a
+ * fixed size buffer are held in memory.
+ * <p>
+ * Usage:
+ * <pre>
+ * LineScanner scanner = new LineScanner(reader, 0);
+ * while (scanner.nextLine()) {
+ *   process(scanner.getLineText(), scanner.getLineOffset());
+ * }
+ * </pre>
+ */
+public class LineScanner {
+  static final int BUFFER_SIZE = 8192;
+  /** number of consecutive empty reads tolerated before giving up */
+  static final int MAX_EMPTY_READS = 16;
+
+  Reader reader;
+  char[] buf;
+  /** position of next char in buf */
+  int position = 0;
+  /** number of valid chars in buf */
+  int limit = 0;
+  /** offset of buf[0] */
+  int bufOffset;
+  boolean eof = false;
+  StringBuilder lineBuffer = new StringBuilder();
+
+  String lineText = null;
+  int lineOffset;
+  String lineTerminator = "";
+
+  /**
+   * @param reader input
+   * @param offset offset of first char of input
+   */
+  public LineScanner(Reader reader, int offset) {
+    this.reader = reader;
+    this.buf = new char[BUFFER_SIZE];
+    this.bufOffset = offset;
+  }
+
+  /**
+   * @param text input
+   * @param offset offset of first char of text
+   */
+  public LineScanner(String text, int offset) {
+    this.reader = null;
+    this.buf = text.toCharArray();
+    this.limit = this.buf.length;
+    this.bufOffset = offset;
+    this.eof = true;
+  }
+
+  /** @return false if no chars are available */
+  boolean fill()
+    throws IOException
+  {
+    if (this.position < this.limit) {
+      return true;
+    }
+    if (this.eof) {
+      return false;
+    }
+    this.bufOffset += this.limit;
+    this.position = 0;
+    this.limit = 0;
+    // Reader.read blocks until at least one char is available, a
+    // reader that returns zero anyway is retried a bounded number of
+    // times rather than spun on.
+    int count = this.reader.read(this.buf, 0, this.buf.length);
+    for (int emptyReads = 1; count == 0; emptyReads++) {
+      if (emptyReads >= MAX_EMPTY_READS) {
+	throw new IOException("reader returned no chars after " + emptyReads + " reads");
+      }
+      count = this.reader.read(this.buf, 0, this.buf.length);
+    }
+    if (count < 0) {
+      this.eof = true;
+      return false;
+    }
+    this.limit = count;
+    return true;
+  }
+
+  /**
+   * Advance to next line.
+   * @return false if input is exhausted.
+   * @throws IOException i/o exception
+   */
+  public boolean nextLine()
+    throws IOException
+  {
+    if (! this.fill()) {
+      this.lineText = null;
+      return false;
+    }
+    this.lineOffset = this.bufOffset + this.position;
+    this.lineBuffer.setLength(0);
+    this.lineTerminator = "";
+    boolean inBuffer = true;
+    for (;;) {
+      int start = this.position;
+      while ((this.position < this.limit) &&
+	     (this.buf[this.position] != '\n') && (this.buf[this.position] != '\r')) {
+	this.position++;
+      }
+      if (inBuffer && (this.position < this.limit)) {
+	this.lineText = new String(this.buf, start, this.position - start);
+      } else {
+	this.lineBuffer.append(this.buf, start, this.position - start);
+	inBuffer = false;
+      }
+      if (this.position < this.limit) {
+	break;
+      }
+      if (! this.fill()) {
+	this.lineText = this.lineBuffer.toString();
+	return true;
+      }
+    }
+    if (! inBuffer) {
+      this.lineText = this.lineBuffer.toString();
+    }
+    if (this.buf[this.position] == '\n') {
+      this.position++;
+      this.lineTerminator = "\n";
+    } else {
+      this.position++;
+      this.lineTerminator = "\r";
+      if (this.fill() && (this.buf[this.position] == '\n')) {
+	this.position++;
+	this.lineTerminator = "\r\n";
+      }
+    }
+    return true;
+  }
+
+  /** @return text of current line without terminator */
+  public String getLineText() {
+    return this.lineText;
+  }
+
+  /** @return offset of first char of current line */
+  public int getLineOffset() {
+    return this.lineOffset;
+  }
+
+  /** @return terminator of current line, empty if line ends at end of input */
+  public String getLineTerminator() {
+    return this.lineTerminator;
+  }
+
+  /** @return true if current line contains only whitespace */
+  public boolean isBlank() {
+    for (int i = 0; i < this.lineText.length(); i++) {
+      if (! Character.isWhitespace(this.lineText.charAt(i))) {
+	return false;
+      }
+    }
+    return true;
+  }
+}
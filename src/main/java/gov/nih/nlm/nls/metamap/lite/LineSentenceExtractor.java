@@ -0,0 +1,98 @@
+//
+package gov.nih.nlm.nls.metamap.lite;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import gov.nih.nlm.nls.types.Sentence;
+
+import bioc.BioCPassage;
+import bioc.BioCSentence;
+
+/**
+ * Sentence extractor that makes a sentence of each non-blank line
+ * (LINES segmentation).
+ * <p>
+ * The text is scanned once (see LineScanner); sentence text excludes
+ * the line terminator ("\n", "\r\n" or "\r") and sentence offsets are
+ * exact.  Large inputs can be segmented from a Reader with
+ * nextSentence(LineScanner) without holding the input in memory.
+ */
+public class LineSentenceExtractor implements SentenceExtractor
+{
+  /**
+   * @param scanner line scanner over input
+   * @return next sentence or null if input is exhausted.
+   * @throws IOException i/o exception
+   */
+  public Sentence nextSentence(LineScanner scanner)
+    throws IOException
+  {
+    while (scanner.nextLine()) {
+      if (! scanner.isBlank()) {
+	return new OpenNLPSentenceExtractor.SentenceImpl("", scanner.getLineText(), scanner.getLineOffset());
+      }
+    }
+    return null;
+  }
+
+  List<Sentence> createSentenceList(LineScanner scanner) {
+    List<Sentence> sentenceList = new ArrayList<Sentence>();
+    try {
+      Sentence sentence;
+      while ((sentence = this.nextSentence(scanner)) != null) {
+	sentenceList.add(sentence);
+      }
+    } catch (IOException exception) {
+      // not thrown when scanning a string
+      throw new RuntimeException(exception);
+    }
+    return sentenceList;
+  }
+
+  public List<Sentence> createSentenceList(String text) {
+    return this.createSentenceList(new LineScanner(text, 0));
+  }
+
+  public List<Sentence> createSentenceList(String text, int offset) {
+    return this.createSentenceList(new LineScanner(text, offset));
+  }
+
+  /**
+   * @param reader input
+   * @param offset offset of first char of input
+   * @return sentences of input
+   * @throws IOException i/o exception
+   */
+  public List<Sentence> createSentenceList(Reader reader, int offset)
+    throws IOException
+  {
+    List<Sentence> sentenceList = new ArrayList<Sentence>();
+    LineScanner scanner = new LineScanner(reader, offset);
+    Sentence sentence;
+    while ((sentence = this.nextSentence(scanner)) != null) {
+      sentenceList.add(sentence);
+    }
+    return sentenceList;
+  }
+
+  public int addBioCSentence(BioCPassage passage,
+			     String sentenceText, int offset, Map<String,String> infoNS) {
+    BioCSentence sentence = new BioCSentence();
+    sentence.setText(sentenceText);
+    sentence.setOffset(offset);
+    sentence.setInfons(infoNS);
+    passage.addSentence(sentence);
+    return offset + sentenceText.length();
+  }
+
+  public BioCPassage createSentences(BioCPassage passage) {
+    for (Sentence sentence: this.createSentenceList(passage.getText(), passage.getOffset())) {
+      this.addBioCSentence(passage, sentence.getText(), sentence.getOffset(), passage.getInfons());
+    }
+    return passage;
+  }
+}
@@ -0,0 +1,429 @@
+//
+package gov.nih.nlm.nls.metamap.lite;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Process-wide registry of counters and timers for pipeline stages,
+ * index lookups and caches, plus per-document latency histogram and
+ * a report of the slowest documents.
+ * <p>
+ * Recording is disabled unless property "metamaplite.metrics.enable"
+ * is true, in which case the registry is registered with the platform
+ * MBean server as "gov.nih.nlm.nls.metamap.lite:type=Metrics" and a
+ * report is logged periodically.
+ * <p>
+ * Properties:
+ * <dl>
+ * <dt>metamaplite.metrics.enable</dt><dd>enable metrics (default: false)</dd>
+ * <dt>metamaplite.metrics.report.interval</dt><dd>seconds between reports, 0 disables periodic reports (default: 60)</dd>
+ * <dt>metamaplite.metrics.json.output</dt><dd>if set, write JSON form of report to this file at each report</dd>
+ * <dt>metamaplite.metrics.slowest.size</dt><dd>number of slowest documents to keep (default: 10)</dd>
+ * </dl>
+ * Timer names used by the pipeline: segment, tokenize, postag,
+ * chunk, lookup, negation, format.  Counter names: index.{name}.lookups
+ * for inverted file lookups, cache.{name}.hits and cache.{name}.misses
+ * for caches.
+ */
+public class Metrics implements MetricsMBean {
+  private static final Logger logger = LogManager.getLogger(Metrics.class);
+
+  /** upper bounds of document latency histogram buckets in milliseconds */
+  static final long[] bucketBounds = {1, 2, 5, 10, 20, 50, 100, 200, 500,
+				      1000, 2000, 5000, 10000, Long.MAX_VALUE};
+
+  /** true if metrics are being recorded */
+  static volatile boolean enabled =
+    Boolean.getBoolean("metamaplite.metrics.enable");
+
+  static final Map<String,AtomicLong> counterMap = new ConcurrentHashMap<String,AtomicLong>();
+  static final Map<String,Timer> timerMap = new ConcurrentHashMap<String,Timer>();
+  static final AtomicLongArray documentHistogram = new AtomicLongArray(bucketBounds.length);
+  static final AtomicLong documentCount = new AtomicLong(0);
+  static final AtomicLong documentNanos = new AtomicLong(0);
+  static int slowestSize = 10;
+  /** min-heap of slowest documents, smallest latency at head */
+  static final PriorityQueue<DocumentLatency> slowestQueue =
+    new PriorityQueue<DocumentLatency>(11, new Comparator<DocumentLatency>() {
+	public int compare(DocumentLatency a, DocumentLatency b) {
+	  return Long.compare(a.nanos, b.nanos);
+	}
+      });
+
+  static Metrics instance = null;
+  static ScheduledExecutorService reporter = null;
+  static String jsonOutputFilename = null;
+
+  /** call count and elapsed time of a stage */
+  public static class Timer {
+    AtomicLong count = new AtomicLong(0);
+    AtomicLong totalNanos = new AtomicLong(0);
+    AtomicLong maxNanos = new AtomicLong(0);
+
+    public void record(long nanos) {
+      this.count.incrementAndGet();
+      this.totalNanos.addAndGet(nanos);
+      long max = this.maxNanos.get();
+      while ((nanos > max) && (! this.maxNanos.compareAndSet(max, nanos))) {
+	max = this.maxNanos.get();
+      }
+    }
+    public long getCount() { return this.count.get(); }
+    public long getTotalNanos() { return this.totalNanos.get(); }
+    public long getMaxNanos() { return this.maxNanos.get(); }
+  }
+
+  /** latency of one document */
+  static class DocumentLatency {
+    String docid;
+    long nanos;
+    DocumentLatency(String docid, long nanos) {
+      this.docid = docid;
+      this.nanos = nanos;
+    }
+  }
+
+  /**
+   * Enable metrics if property "metamaplite.metrics.enable" is true,
+   * register management bean and start periodic reporting.  Only the
+   * first call has any effect.
+   * @param properties application properties
+   */
+  public static synchronized void init(Properties properties) {
+    if ((instance != null) ||
+	(! Boolean.parseBoolean(properties.getProperty("metamaplite.metrics.enable",
+						       Boolean.toString(enabled))))) {
+      return;
+    }
+    enabled = true;
+    slowestSize = Integer.parseInt(properties.getProperty("metamaplite.metrics.slowest.size", "10"));
+    jsonOutputFilename = properties.getProperty("metamaplite.metrics.json.output");
+    instance = new Metrics();
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      server.registerMBean(instance, new ObjectName("gov.nih.nlm.nls.metamap.lite:type=Metrics"));
+    } catch (Exception e) {
+      logger.warn("unable to register metrics management bean: " + e.getMessage());
+    }
+    long interval = Long.parseLong(properties.getProperty("metamaplite.metrics.report.interval", "60"));
+    if (interval > 0) {
+      reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+	  public Thread newThread(Runnable r) {
+	    Thread thread = new Thread(r, "metamaplite-metrics");
+	    thread.setDaemon(true);
+	    return thread;
+	  }
+	});
+      reporter.scheduleAtFixedRate(new Runnable() {
+	  public void run() {
+	    report();
+	  }
+	}, interval, interval, TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Stop periodic reporting and emit final report.
+   */
+  public static synchronized void shutdown() {
+    if (reporter != null) {
+      reporter.shutdown();
+      reporter = null;
+    }
+    if (instance != null) {
+      report();
+    }
+  }
+
+  /** @return true if metrics are being recorded */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Get counter, creating it if necessary.
+   * @param name name of counter
+   * @return counter
+   */
+  public static AtomicLong counter(String name) {
+    AtomicLong counter = counterMap.get(name);
+    if (counter == null) {
+      synchronized (counterMap) {
+	counter = counterMap.get(name);
+	if (counter == null) {
+	  counter = new AtomicLong(0);
+	  counterMap.put(name, counter);
+	}
+      }
+    }
+    return counter;
+  }
+
+  /**
+   * Get timer, creating it if necessary.
+   * @param name name of timer
+   * @return timer
+   */
+  public static Timer timer(String name) {
+    Timer timer = timerMap.get(name);
+    if (timer == null) {
+      synchronized (timerMap) {
+	timer = timerMap.get(name);
+	if (timer == null) {
+	  timer = new Timer();
+	  timerMap.put(name, timer);
+	}
+      }
+    }
+    return timer;
+  }
+
+  /** @return start time for a later call to stop, 0 if metrics are disabled */
+  public static long start() {
+    return enabled ? System.nanoTime() : 0L;
+  }
+
+  /**
+   * Record time elapsed since start in timer.
+   * @param name name of timer
+   * @param startNanos value returned by start
+   */
+  public static void stop(String name, long startNanos) {
+    if (enabled) {
+      timer(name).record(System.nanoTime() - startNanos);
+    }
+  }
+
+  /** @param name name of counter to increment */
+  public static void increment(String name) {
+    if (enabled) {
+      counter(name).incrementAndGet();
+    }
+  }
+
+  /** @param indexName name of inverted file index that was consulted */
+  public static void indexLookup(String indexName) {
+    if (enabled) {
+      counter("index." + indexName + ".lookups").incrementAndGet();
+    }
+  }
+
+  /**
+   * @param cacheName name of cache
+   * @param hit true if value was found in cache
+   */
+  public static void cacheAccess(String cacheName, boolean hit) {
+    if (enabled) {
+      counter("cache." + cacheName + (hit ? ".hits" : ".misses")).incrementAndGet();
+    }
+  }
+
+  /**
+   * Record processing time of a document.
+   * @param docid document id
+   * @param startNanos value returned by start when processing began
+   */
+  public static void recordDocument(String docid, long startNanos) {
+    if (! enabled) {
+      return;
+    }
+    long nanos = System.nanoTime() - startNanos;
+    documentCount.incrementAndGet();
+    documentNanos.addAndGet(nanos);
+    long millis = nanos / 1000000L;
+    int i = 0;
+    while (millis > bucketBounds[i]) {
+      i++;
+    }
+    documentHistogram.incrementAndGet(i);
+    synchronized (slowestQueue) {
+      if (slowestQueue.size() < slowestSize) {
+	slowestQueue.add(new DocumentLatency(docid, nanos));
+      } else if (nanos > slowestQueue.peek().nanos) {
+	slowestQueue.poll();
+	slowestQueue.add(new DocumentLatency(docid, nanos));
+      }
+    }
+  }
+
+  /** @return slowest documents, slowest first */
+  static List<DocumentLatency> slowestDocuments() {
+    List<DocumentLatency> latencyList;
+    synchronized (slowestQueue) {
+      latencyList = new ArrayList<DocumentLatency>(slowestQueue);
+    }
+    Collections.sort(latencyList, new Comparator<DocumentLatency>() {
+	public int compare(DocumentLatency a, DocumentLatency b) {
+	  return Long.compare(b.nanos, a.nanos);
+	}
+      });
+    return latencyList;
+  }
+
+  static long counterValue(String name) {
+    AtomicLong counter = counterMap.get(name);
+    return counter == null ? 0L : counter.get();
+  }
+
+  static double hitRate(String cacheName) {
+    long hits = counterValue("cache." + cacheName + ".hits");
+    long misses = counterValue("cache." + cacheName + ".misses");
+    return (hits + misses) == 0 ? 0.0 : (double)hits / (double)(hits + misses);
+  }
+
+  static String quote(String value) {
+    StringBuilder sb = new StringBuilder("\"");
+    for (char ch: value.toCharArray()) {
+      if ((ch == '"') || (ch == '\\')) {
+	sb.append('\\').append(ch);
+      } else if (ch < ' ') {
+	sb.append(String.format("\\u%04x", (int)ch));
+      } else {
+	sb.append(ch);
+      }
+    }
+    return sb.append('"').toString();
+  }
+
+  /** @return counters, timers and document statistics in JSON form */
+  public static String toJSON() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("{\"counters\":{");
+    String sep = "";
+    for (Map.Entry<String,AtomicLong> entry: new TreeMap<String,AtomicLong>(counterMap).entrySet()) {
+      sb.append(sep).append(quote(entry.getKey())).append(":").append(entry.getValue().get());
+      sep = ",";
+    }
+    sb.append("},\"timers\":{");
+    sep = "";
+    for (Map.Entry<String,Timer> entry: new TreeMap<String,Timer>(timerMap).entrySet()) {
+      Timer timer = entry.getValue();
+      sb.append(sep).append(quote(entry.getKey()))
+	.append(":{\"count\":").append(timer.getCount())
+	.append(",\"totalMs\":").append(timer.getTotalNanos() / 1000000L)
+	.append(",\"maxMs\":").append(timer.getMaxNanos() / 1000000L)
+	.append("}");
+      sep = ",";
+    }
+    sb.append("},\"documents\":{\"count\":").append(documentCount.get())
+      .append(",\"totalMs\":").append(documentNanos.get() / 1000000L)
+      .append(",\"histogram\":{");
+    for (int i = 0; i < bucketBounds.length; i++) {
+      sb.append(i > 0 ? "," : "")
+	.append(quote(bucketBounds[i] == Long.MAX_VALUE ? "inf" : ("<=" + bucketBounds[i] + "ms")))
+	.append(":").append(documentHistogram.get(i));
+    }
+    sb.append("},\"slowest\":[");
+    sep = "";
+    for (DocumentLatency latency: slowestDocuments()) {
+      sb.append(sep).append("{\"docid\":").append(quote(latency.docid))
+	.append(",\"ms\":").append(latency.nanos / 1000000L).append("}");
+      sep = ",";
+    }
+    sb.append("]}}");
+    return sb.toString();
+  }
+
+  /**
+   * Log current metrics and, if property
+   * "metamaplite.metrics.json.output" is set, write JSON form to file.
+   */
+  public static void report() {
+    for (Map.Entry<String,Timer> entry: new TreeMap<String,Timer>(timerMap).entrySet()) {
+      Timer timer = entry.getValue();
+      logger.info("timer " + entry.getKey() + ": calls: " + timer.getCount() +
+		  ", ms: " + (timer.getTotalNanos() / 1000000L) +
+		  ", max ms: " + (timer.getMaxNanos() / 1000000L));
+    }
+    for (Map.Entry<String,AtomicLong> entry: new TreeMap<String,AtomicLong>(counterMap).entrySet()) {
+      logger.info("counter " + entry.getKey() + ": " + entry.getValue().get());
+      if (entry.getKey().startsWith("cache.") && entry.getKey().endsWith(".hits")) {
+	String cacheName = entry.getKey().substring(6, entry.getKey().length() - 5);
+	logger.info("cache " + cacheName + " hit rate: " + hitRate(cacheName));
+      }
+    }
+    logger.info("documents: " + documentCount.get() +
+		", ms: " + (documentNanos.get() / 1000000L));
+    for (DocumentLatency latency: slowestDocuments()) {
+      logger.info("slow document " + latency.docid + ": " + (latency.nanos / 1000000L) + " ms");
+    }
+    if (jsonOutputFilename != null) {
+      try {
+	PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(jsonOutputFilename)));
+	pw.println(toJSON());
+	pw.close();
+      } catch (IOException ioe) {
+	logger.warn("unable to write metrics to " + jsonOutputFilename + ": " + ioe.getMessage());
+      }
+    }
+  }
+
+  /** reset all counters, timers and document statistics */
+  public static void resetAll() {
+    counterMap.clear();
+    timerMap.clear();
+    for (int i = 0; i < bucketBounds.length; i++) {
+      documentHistogram.set(i, 0);
+    }
+    documentCount.set(0);
+    documentNanos.set(0);
+    synchronized (slowestQueue) {
+      slowestQueue.clear();
+    }
+  }
+
+  // MetricsMBean
+
+  public String getJSON() {
+    return toJSON();
+  }
+
+  public long getDocumentCount() {
+    return documentCount.get();
+  }
+
+  public String[] getSlowestDocuments() {
+    List<String> resultList = new ArrayList<String>();
+    for (DocumentLatency latency: slowestDocuments()) {
+      resultList.add(latency.docid + ": " + (latency.nanos / 1000000L));
+    }
+    return resultList.toArray(new String[0]);
+  }
+
+  public long getCounter(String name) {
+    return counterValue(name);
+  }
+
+  public double getHitRate(String name) {
+    return hitRate(name);
+  }
+
+  public void reset() {
+    resetAll();
+  }
+}
@@ -0,0 +1,26 @@
+//
+package gov.nih.nlm.nls.metamap.lite;
+
+/**
+ * JMX management interface for Metrics.
+ */
+public interface MetricsMBean {
+  /** @return all counters, timers and document latency statistics in JSON form */
+  String getJSON();
+  /** @return number of documents processed */
+  long getDocumentCount();
+  /** @return slowest documents, one "docid: milliseconds" per element */
+  String[] getSlowestDocuments();
+  /**
+   * @param name name of counter
+   * @return current value of counter
+   */
+  long getCounter(String name);
+  /**
+   * @param name name of cache
+   * @return hit rate of cache (0.0 to 1.0)
+   */
+  double getHitRate(String name);
+  /** reset all counters, timers and document statistics */
+  void reset();
+}
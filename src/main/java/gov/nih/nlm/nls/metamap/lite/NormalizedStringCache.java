@@ -22,6 +22,17 @@ public class NormalizedStringCache {
   public static boolean enableCache =
     Boolean.parseBoolean(System.getProperty("metamaplite.normalized.string.cache.enable", "false"));
 
+  /** pre-built string -&gt; normalized string cache, null if not enabled. */
+  static WarmCache warmCache = null;
+
+  /**
+   * Set warm cache to consult before normalizing string.
+   * @param newWarmCache pre-built warm cache
+   */
+  public static void setWarmCache(WarmCache newWarmCache) {
+    warmCache = newWarmCache;
+  }
+
   /**
    * Set to true to enable cache, false to disable cache.
    * @param status status to set enable cache.
@@ -36,15 +47,24 @@ public class NormalizedStringCache {
    * @return normalized version of input string.
    */
   static String normalizeString(String originalString) {
+    if (warmCache != null) {
+      String normalizedString = warmCache.lookupNormalizedString(originalString);
+      Metrics.cacheAccess("warm.normstring", normalizedString != null);
+      if (normalizedString != null) {
+	return normalizedString;
+      }
+    }
     if (enableCache) {
       /* in the name of premature optimization, I'm memoizing normalizeAstString */
       if (normalizeStringCache.containsKey(originalString)) {
+	Metrics.cacheAccess("normstring", true);
 	String result;
 	synchronized (normalizeStringCache) {
 	  result = normalizeStringCache.get(originalString);
 	}
 	return result;
       } else {
+	Metrics.cacheAccess("normstring", false);
 	String normalizedString = Normalization.normalizeLiteString(originalString);
 	synchronized (normalizeStringCache) {
 	  normalizeStringCache.put(originalString, normalizedString);
@@ -17,6 +17,7 @@ import java.util.Properties;
 
 import opennlp.tools.sentdetect.SentenceModel;
 import opennlp.tools.sentdetect.SentenceDetectorME;
+import opennlp.tools.util.Span;
 
 import gov.nih.nlm.nls.types.Sentence;
 import gov.nih.nlm.nls.types.Annotation;
@@ -122,15 +123,19 @@ public class OpenNLPSentenceExtractor implements SentenceExtractor
     return sentenceList;
   }
 
+  /**
+   * @param text input text
+   * @param offset offset of text in document
+   * @return sentences of text, offset of each sentence is the offset
+   *         of its first character in the document.
+   */
   public List<Sentence> createSentenceList(String text, int offset) {
     logger.debug("createSentenceList");
-    int sentenceCount = 0;
-    String[] sentenceArray = sentenceDetector.sentDetect(text);
+    Span[] spanArray = sentenceDetector.sentPosDetect(text);
     List<Sentence> sentenceList = new ArrayList<Sentence>();
-    for (String sentenceText: sentenceArray) {
-      sentenceList.add(new SentenceImpl("", sentenceText, offset));
-      offset = offset + sentenceText.length();
-      sentenceCount++;
+    for (Span span: spanArray) {
+      sentenceList.add(new SentenceImpl("", text.substring(span.getStart(), span.getEnd()),
+					offset + span.getStart()));
     }
     return sentenceList;
   }
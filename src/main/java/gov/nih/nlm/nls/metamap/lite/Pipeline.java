@@ -84,13 +84,7 @@ public class Pipeline {
     throws IllegalAccessException, InvocationTargetException
   {
     logger.debug("enter processSentence");
-    List<Plugin> pipeSequence = PipelineRegistry.get("simple.sentence");
-    Object current = sentence;
-    Object result = null;
-    for (Plugin plugin: pipeSequence) {
-      result = plugin.getMethod().invoke(plugin.getClassInstance(), current);
-      current = result;
-    }
+    Object result = PipelineRegistry.apply("simple.sentence", sentence);
     logger.debug("exit processSentence");
     return result;
   }
@@ -162,12 +156,7 @@ public class Pipeline {
     throws IllegalAccessException, InvocationTargetException
   {
     logger.debug("enter processText");
-    List<Plugin> pipeSequence = PipelineRegistry.get("simple.text");
-    Object current = text;
-    for (Plugin plugin: pipeSequence) {
-      Object result = plugin.getMethod().invoke(plugin.getClassInstance(), current);
-      current = result;
-    }
+    PipelineRegistry.apply("simple.text", text);
     logger.debug("exit processText");
   }
 
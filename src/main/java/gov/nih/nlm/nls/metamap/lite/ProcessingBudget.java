@@ -0,0 +1,210 @@
+//
+package gov.nih.nlm.nls.metamap.lite;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import gov.nih.nlm.nls.metamap.prefix.ERToken;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Time and work budget for a document and its sentences.  When a
+ * budget is exhausted the entity lookup switches to cheaper
+ * processing for the rest of the document: part-of-speech tagging
+ * and chunking are skipped, sentences are split into phrases at
+ * delimiting punctuation (with a maximum phrase length) and the
+ * lookup window is reduced.
+ * <p>
+ * The instance created from the properties holds the limits and
+ * belongs to an entity lookup instance.  The clock and degraded
+ * state of a document are kept in a separate instance opened by
+ * startDocument for the calling thread and closed by endDocument, so
+ * every document starts with a fresh budget, whatever its id, and
+ * threads sharing an entity lookup don't share document state.  All
+ * limits default to 0 (no limit), so output is unchanged unless a
+ * limit is set.
+ * <p>
+ * Properties:
+ * <dl>
+ * <dt>metamaplite.budget.document.ms</dt><dd>time limit for a document in milliseconds</dd>
+ * <dt>metamaplite.budget.sentence.ms</dt><dd>time limit for a sentence in milliseconds</dd>
+ * <dt>metamaplite.budget.sentence.tokens</dt><dd>sentences with more tokens than this are processed in degraded mode</dd>
+ * <dt>metamaplite.budget.degraded.maxtokensize</dt><dd>lookup window in degraded mode (default: 5)</dd>
+ * <dt>metamaplite.budget.degraded.maxphraselength</dt><dd>maximum phrase length in degraded mode (default: 40)</dd>
+ * </dl>
+ */
+public class ProcessingBudget {
+  private static final Logger logger = LogManager.getLogger(ProcessingBudget.class);
+
+  long documentLimitNanos = 0;
+  long sentenceLimitNanos = 0;
+  int sentenceTokenLimit = 0;
+  int degradedWindowSize = 5;
+  int degradedMaxPhraseLength = 40;
+
+  /** budget of document open in current thread, see startDocument */
+  final ThreadLocal<ProcessingBudget> openDocument = new ThreadLocal<ProcessingBudget>();
+
+  String currentDocid = null;
+  long documentStartNanos;
+  long sentenceStartNanos;
+  /** true if current document is being processed in degraded mode */
+  boolean degraded = false;
+
+  public ProcessingBudget(Properties properties) {
+    this.documentLimitNanos =
+      Long.parseLong(properties.getProperty("metamaplite.budget.document.ms", "0")) * 1000000L;
+    this.sentenceLimitNanos =
+      Long.parseLong(properties.getProperty("metamaplite.budget.sentence.ms", "0")) * 1000000L;
+    this.sentenceTokenLimit =
+      Integer.parseInt(properties.getProperty("metamaplite.budget.sentence.tokens", "0"));
+    this.degradedWindowSize =
+      Integer.parseInt(properties.getProperty("metamaplite.budget.degraded.maxtokensize",
+					      Integer.toString(this.degradedWindowSize)));
+    this.degradedMaxPhraseLength =
+      Integer.parseInt(properties.getProperty("metamaplite.budget.degraded.maxphraselength",
+					      Integer.toString(this.degradedMaxPhraseLength)));
+  }
+
+  /** @return true if any limit is set */
+  public boolean isEnabled() {
+    return (this.documentLimitNanos > 0) || (this.sentenceLimitNanos > 0) || (this.sentenceTokenLimit > 0);
+  }
+
+  /**
+   * Budget of a single document, with the limits of budget.
+   * @param budget budget holding limits
+   * @param docid document id
+   */
+  ProcessingBudget(ProcessingBudget budget, String docid) {
+    this.documentLimitNanos = budget.documentLimitNanos;
+    this.sentenceLimitNanos = budget.sentenceLimitNanos;
+    this.sentenceTokenLimit = budget.sentenceTokenLimit;
+    this.degradedWindowSize = budget.degradedWindowSize;
+    this.degradedMaxPhraseLength = budget.degradedMaxPhraseLength;
+    this.currentDocid = docid;
+    this.documentStartNanos = System.nanoTime();
+    this.sentenceStartNanos = this.documentStartNanos;
+  }
+
+  /**
+   * Start new document in current thread, replacing any document
+   * still open.
+   * @param docid document id
+   */
+  public void startDocument(String docid) {
+    this.openDocument.set(new ProcessingBudget(this, docid));
+  }
+
+  /** End document open in current thread. */
+  public void endDocument() {
+    this.openDocument.remove();
+  }
+
+  /** @return true if a document is open in current thread */
+  public boolean isDocumentOpen() {
+    return this.openDocument.get() != null;
+  }
+
+  /**
+   * Budget of document open in current thread, or a new budget if
+   * no document is open.
+   * @param docid document id, used if no document is open
+   * @return document budget
+   */
+  public ProcessingBudget document(String docid) {
+    ProcessingBudget documentBudget = this.openDocument.get();
+    return (documentBudget == null) ? new ProcessingBudget(this, docid) : documentBudget;
+  }
+
+  /**
+   * Start processing sentence, switching to degraded mode if the
+   * document budget is exhausted or the sentence is too long.
+   * @param tokenCount number of (non-whitespace) tokens in sentence
+   */
+  public void startSentence(int tokenCount) {
+    this.sentenceStartNanos = System.nanoTime();
+    if (this.degraded) {
+      return;
+    }
+    if ((this.sentenceTokenLimit > 0) && (tokenCount > this.sentenceTokenLimit)) {
+      this.degrade("sentence has " + tokenCount + " tokens");
+    } else if ((this.documentLimitNanos > 0) &&
+	       ((this.sentenceStartNanos - this.documentStartNanos) > this.documentLimitNanos)) {
+      this.degrade("document time budget exhausted");
+    }
+  }
+
+  /**
+   * Check sentence time budget, switching to degraded mode if it is
+   * exhausted.
+   * @return true if in degraded mode
+   */
+  public boolean checkSentence() {
+    if ((! this.degraded) && (this.sentenceLimitNanos > 0) &&
+	((System.nanoTime() - this.sentenceStartNanos) > this.sentenceLimitNanos)) {
+      this.degrade("sentence time budget exhausted");
+    }
+    return this.degraded;
+  }
+
+  /**
+   * Switch current document to degraded mode.
+   * @param reason reason for switch
+   */
+  void degrade(String reason) {
+    this.degraded = true;
+    logger.warn("degraded processing of document " + this.currentDocid + ": " + reason);
+    Metrics.increment("budget.degraded.documents");
+  }
+
+  /** @return true if current document is being processed in degraded mode */
+  public boolean isDegraded() {
+    return this.degraded;
+  }
+
+  /**
+   * @param windowSize normal lookup window size
+   * @return lookup window size to use
+   */
+  public int windowSize(int windowSize) {
+    return this.degraded ? Math.min(windowSize, this.degradedWindowSize) : windowSize;
+  }
+
+  /** punctuation used as phrase boundaries in degraded mode */
+  static final String phraseDelimiters = ",;:()[]{}|=<>\"";
+
+  /**
+   * Split token list into segments at punctuation, segments longer
+   * than the maximum degraded phrase length are split further.
+   * @param tokenList list of non-whitespace tokens
+   * @return list of segments
+   */
+  public List<List<ERToken>> splitOnPunctuation(List<ERToken> tokenList) {
+    List<List<ERToken>> segmentList = new ArrayList<List<ERToken>>();
+    List<ERToken> segment = new ArrayList<ERToken>();
+    for (ERToken token: tokenList) {
+      if (token.getTokenClass().equals("pn") &&
+	  (token.getText().length() == 1) &&
+	  (phraseDelimiters.indexOf(token.getText().charAt(0)) >= 0)) {
+	if (segment.size() > 0) {
+	  segmentList.add(segment);
+	  segment = new ArrayList<ERToken>();
+	}
+      } else {
+	segment.add(token);
+	if (segment.size() >= this.degradedMaxPhraseLength) {
+	  segmentList.add(segment);
+	  segment = new ArrayList<ERToken>();
+	}
+      }
+    }
+    if (segment.size() > 0) {
+      segmentList.add(segment);
+    }
+    return segmentList;
+  }
+}
@@ -0,0 +1,562 @@
+//
+package gov.nih.nlm.nls.metamap.lite;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import bioc.BioCPassage;
+
+import gov.nih.nlm.nls.metamap.lite.resultformats.binary.BinaryFormat;
+import gov.nih.nlm.nls.metamap.lite.resultformats.binary.BinaryResultReader;
+import gov.nih.nlm.nls.metamap.lite.types.Entity;
+import gov.nih.nlm.nls.utils.LRUCache;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Cache of passage results keyed by a SHA-256 digest of the passage
+ * text (trailing whitespace removed), the passage infons other than
+ * docid, and the options that affect entity lookup, so repeated
+ * passages (templated notes, boilerplate sections, re-submitted
+ * documents) are not looked up again.
+ * <p>
+ * Results are kept in the binary result format (see BinaryFormat)
+ * with the offset of the passage they were found in; on a hit the
+ * entities are reconstructed with the docid of the requesting
+ * passage and re-based to its offset.  An in-memory LRU tier holds
+ * the most recently used results; if property
+ * "metamaplite.result.cache.file" is set, results are also appended
+ * to a local log file which is memory-mapped and indexed when
+ * opened, so later runs start with the results of earlier ones.
+ * The log is opened once per process and must not be written by
+ * more than one process at a time.
+ * <p>
+ * Results depend on the index contents and on the code that produced
+ * them, neither of which is in the properties: the key and the log
+ * header include a fingerprint of the index directories (number,
+ * total size and latest modification time of their files) and of the
+ * code (implementation version of the package and the same summary
+ * of the jar or class directory it was loaded from).  A log written
+ * with another fingerprint or log version is emptied when opened.
+ * <p>
+ * Hits and misses are recorded in Metrics as cache.result.hits and
+ * cache.result.misses.
+ * <p>
+ * Properties:
+ * <dl>
+ * <dt>metamaplite.result.cache.enable</dt><dd>enable result cache (default: false)</dd>
+ * <dt>metamaplite.result.cache.size</dt><dd>number of passage results kept in memory (default: 10000)</dd>
+ * <dt>metamaplite.result.cache.file</dt><dd>append log of passage results, created if it doesn't exist</dd>
+ * </dl>
+ * Log layout: int magic ("MMLR"), int version, fingerprint digest
+ * (32 bytes), followed by records of the form:
+ * <pre>
+ *  | key digest (32 bytes) | passage offset (int) | length (int) | binary result segment (length bytes) |
+ * </pre>
+ * A partially written record at the end of the log is truncated
+ * when the log is opened.
+ */
+public class ResultCache {
+  private static final Logger logger = LogManager.getLogger(ResultCache.class);
+
+  static final int MAGIC = 0x4d4d4c52;	// "MMLR"
+  static final int VERSION = 2;
+  static final int DIGEST_SIZE = 32;
+  static final int HEADER_SIZE = 8 + DIGEST_SIZE;
+  static final int RECORD_HEADER_SIZE = DIGEST_SIZE + 8;
+
+  static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * Prefixes of properties that do not affect entity lookup and are
+   * left out of the options part of the key.
+   */
+  static final String[] ignoredPropertyPrefixes = {
+    "metamaplite.result.cache.",
+    "metamaplite.result.formatter.",
+    "metamaplite.binary.result.formatter.",
+    "metamaplite.outputformat",
+    "metamaplite.outputextension",
+    "metamaplite.inputfilelist",
+    "metamaplite.document.inputtype",
+    "metamaplite.list.",
+    "metamaplite.property.file",
+    "metamaplite.metrics.",
+    "metamaplite.staged.",
+    "metamaplite.compact.results",
+    "metamaplite.warmcache.",
+    "metamaplite.ivf.warmup.",
+  };
+
+  /** properties naming index directories or files included in the fingerprint */
+  static final String[] indexPropertyNames = {
+    "metamaplite.index.directory",
+    "metamaplite.ivf.cuiconceptindex",
+    "metamaplite.ivf.firstwordsofonewideindex",
+    "metamaplite.ivf.cuisourceinfoindex",
+    "metamaplite.ivf.cuisemantictypeindex",
+    "metamaplite.ivf.varsindex",
+    "metamaplite.ivf.meshtcrelaxedindex",
+  };
+
+  /** opened logs by filename, shared by all cache instances in a process. */
+  static final Map<String,AppendLog> openLogMap = new HashMap<String,AppendLog>();
+
+  /** cached result: binary result segment and offset of passage it was found in */
+  static class Result {
+    int offset;
+    byte[] segment;
+    Result(int offset, byte[] segment) {
+      this.offset = offset;
+      this.segment = segment;
+    }
+  }
+
+  /** location of a result in the log */
+  static class Location {
+    long position;
+    int offset;
+    int length;
+    Location(long position, int offset, int length) {
+      this.position = position;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  /**
+   * Append log of results.  Records present when the log is opened
+   * are read from a memory-mapped buffer, records appended later by
+   * positional reads of the channel.
+   */
+  static class AppendLog {
+    RandomAccessFile file;
+    FileChannel channel;
+    MappedByteBuffer buffer;
+    long end;
+    Map<String,Location> index = new HashMap<String,Location>();
+
+    /**
+     * @param filename name of log file, created if it doesn't exist
+     * @param fingerprint fingerprint of index and code, see fingerprint()
+     * @throws IOException i/o exception or file is not a result cache log
+     */
+    AppendLog(String filename, byte[] fingerprint)
+      throws IOException
+    {
+      this.file = new RandomAccessFile(new File(filename), "rw");
+      this.channel = this.file.getChannel();
+      long size = this.channel.size();
+      if (size > Integer.MAX_VALUE) {
+	throw new IOException(filename + ": result cache log is larger than 2GB.");
+      }
+      if (size >= 4) {
+	ByteBuffer magic = ByteBuffer.allocate(4);
+	readFully(this.channel, magic, 0);
+	if (magic.getInt(0) != MAGIC) {
+	  throw new IOException(filename + " is not a result cache log.");
+	}
+      }
+      if ((size >= HEADER_SIZE) && (! matchesHeader(fingerprint))) {
+	logger.info(filename + ": index, code or log version changed, discarding " +
+		    size + " bytes of cached results.");
+	size = 0;
+      }
+      if (size < HEADER_SIZE) {
+	ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+	header.putInt(MAGIC).putInt(VERSION).put(fingerprint).flip();
+	this.channel.truncate(0);
+	writeFully(this.channel, header, 0);
+	size = HEADER_SIZE;
+      }
+      this.buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      int position = HEADER_SIZE;
+      byte[] digest = new byte[DIGEST_SIZE];
+      while (position + RECORD_HEADER_SIZE <= size) {
+	this.buffer.position(position);
+	this.buffer.get(digest);
+	int offset = this.buffer.getInt();
+	int length = this.buffer.getInt();
+	if ((length < 0) || (position + RECORD_HEADER_SIZE + (long)length > size)) {
+	  break;
+	}
+	this.index.put(toHex(digest),
+		       new Location(position + RECORD_HEADER_SIZE, offset, length));
+	position += RECORD_HEADER_SIZE + length;
+      }
+      if (position < size) {
+	logger.warn(filename + ": truncating incomplete result record at " + position);
+	this.channel.truncate(position);
+	this.buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, position);
+      }
+      this.end = position;
+      logger.info("result cache log " + filename + ": " + this.index.size() + " results");
+    }
+
+    /**
+     * @param fingerprint fingerprint of index and code
+     * @return true if log version and fingerprint of header are the current ones
+     */
+    boolean matchesHeader(byte[] fingerprint)
+      throws IOException
+    {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      readFully(this.channel, header, 0);
+      header.flip();
+      header.getInt();
+      if (header.getInt() != VERSION) {
+	return false;
+      }
+      byte[] headerFingerprint = new byte[DIGEST_SIZE];
+      header.get(headerFingerprint);
+      return MessageDigest.isEqual(headerFingerprint, fingerprint);
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException
+    {
+      while (buffer.hasRemaining()) {
+	int count = channel.read(buffer, position);
+	if (count < 0) {
+	  throw new IOException("unexpected end of result cache log");
+	}
+	position += count;
+      }
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException
+    {
+      while (buffer.hasRemaining()) {
+	position += channel.write(buffer, position);
+      }
+    }
+
+    synchronized Result get(String key)
+      throws IOException
+    {
+      Location location = this.index.get(key);
+      if (location == null) {
+	return null;
+      }
+      byte[] segment = new byte[location.length];
+      if (location.position + location.length <= this.buffer.limit()) {
+	ByteBuffer view = this.buffer.duplicate();
+	view.position((int)location.position);
+	view.get(segment);
+      } else {
+	readFully(this.channel, ByteBuffer.wrap(segment), location.position);
+      }
+      return new Result(location.offset, segment);
+    }
+
+    synchronized void append(String key, byte[] digest, Result result)
+      throws IOException
+    {
+      if (this.index.containsKey(key)) {
+	return;
+      }
+      ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + result.segment.length);
+      record.put(digest).putInt(result.offset).putInt(result.segment.length).put(result.segment).flip();
+      writeFully(this.channel, record, this.end);
+      this.index.put(key, new Location(this.end + RECORD_HEADER_SIZE,
+				       result.offset, result.segment.length));
+      this.end += RECORD_HEADER_SIZE + result.segment.length;
+    }
+
+    synchronized void close()
+      throws IOException
+    {
+      this.channel.force(false);
+      this.file.close();
+    }
+  }
+
+  Map<String,Result> memoryCache;
+  AppendLog log = null;
+  /** properties affecting lookup in key form, see optionsKey */
+  String propertiesKey;
+  BinaryFormat binaryFormat = new BinaryFormat();
+
+  /**
+   * @param properties application properties
+   * @throws IOException i/o exception while opening log
+   */
+  public ResultCache(Properties properties)
+    throws IOException
+  {
+    int size = Integer.parseInt(properties.getProperty("metamaplite.result.cache.size", "10000"));
+    this.memoryCache = Collections.synchronizedMap(new LRUCache<String,Result>(size));
+    byte[] fingerprint = fingerprint(properties);
+    this.propertiesKey = toHex(fingerprint) + '\n' + propertiesKey(properties);
+    String filename = properties.getProperty("metamaplite.result.cache.file");
+    if (filename != null) {
+      synchronized (openLogMap) {
+	if (! openLogMap.containsKey(filename)) {
+	  openLogMap.put(filename, new AppendLog(filename, fingerprint));
+	}
+	this.log = openLogMap.get(filename);
+      }
+    }
+  }
+
+  static boolean isIgnoredProperty(String name) {
+    for (String prefix: ignoredPropertyPrefixes) {
+      if (name.startsWith(prefix)) {
+	return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param properties application properties
+   * @return sorted metamaplite and opennlp properties that affect lookup
+   */
+  static String propertiesKey(Properties properties) {
+    Map<String,String> propertyMap = new TreeMap<String,String>();
+    for (String name: properties.stringPropertyNames()) {
+      if ((name.startsWith("metamaplite.") || name.startsWith("opennlp.")) &&
+	  (! isIgnoredProperty(name))) {
+	propertyMap.put(name, properties.getProperty(name));
+      }
+    }
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String,String> entry: propertyMap.entrySet()) {
+      sb.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Add number, total size and latest modification time of files
+   * under file to summary.
+   * @param file file or directory
+   * @param summary count, total size and latest modification time
+   */
+  static void summarizeFiles(File file, long[] summary) {
+    File[] children = file.listFiles();
+    if (children == null) {
+      summary[0]++;
+      summary[1] += file.length();
+      summary[2] = Math.max(summary[2], file.lastModified());
+    } else {
+      for (File child: children) {
+	summarizeFiles(child, summary);
+      }
+    }
+  }
+
+  /**
+   * Describe contents of file or directory without reading it.
+   * @param file file or directory
+   * @return path, number of files, total size and latest modification time
+   */
+  static String describeFiles(File file) {
+    long[] summary = new long[3];
+    if (file.exists()) {
+      summarizeFiles(file, summary);
+    }
+    return file.getPath() + ':' + summary[0] + ':' + summary[1] + ':' + summary[2] + '\n';
+  }
+
+  /**
+   * @return implementation version of package and summary of the jar
+   *         or class directory the cache was loaded from
+   */
+  static String codeVersion() {
+    StringBuilder sb = new StringBuilder();
+    Package classPackage = ResultCache.class.getPackage();
+    if ((classPackage != null) && (classPackage.getImplementationVersion() != null)) {
+      sb.append(classPackage.getImplementationVersion()).append('\n');
+    }
+    try {
+      CodeSource codeSource = ResultCache.class.getProtectionDomain().getCodeSource();
+      if ((codeSource != null) && (codeSource.getLocation() != null)) {
+	sb.append(describeFiles(new File(codeSource.getLocation().toURI())));
+      }
+    } catch (Exception e) {
+      logger.debug("unable to locate code of result cache: " + e.getMessage());
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Fingerprint of the index directories named in properties and of
+   * the code; results cached under another fingerprint are not used.
+   * @param properties application properties
+   * @return SHA-256 digest of index and code summaries
+   */
+  static byte[] fingerprint(Properties properties) {
+    Set<String> indexPathSet = new TreeSet<String>();
+    for (String name: indexPropertyNames) {
+      String value = properties.getProperty(name);
+      if (value != null) {
+	indexPathSet.add(new File(value).getAbsolutePath());
+      }
+    }
+    StringBuilder sb = new StringBuilder();
+    sb.append(VERSION).append('\n');
+    sb.append(codeVersion());
+    for (String path: indexPathSet) {
+      sb.append(describeFiles(new File(path)));
+    }
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(sb.toString().getBytes(UTF8));
+    } catch (NoSuchAlgorithmException nsae) {
+      throw new RuntimeException(nsae);
+    }
+  }
+
+  static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b: bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Text of passage used in key: trailing whitespace does not change
+   * entities and is removed; leading whitespace is kept as entity
+   * offsets depend on it.
+   * @param text passage text
+   * @return normalized passage text
+   */
+  static String normalizeText(String text) {
+    int end = text.length();
+    while ((end > 0) && Character.isWhitespace(text.charAt(end - 1))) {
+      end--;
+    }
+    return text.substring(0, end);
+  }
+
+  /**
+   * Compute digest of key of passage.
+   * @param options lookup options not held in properties (semantic
+   *                group, sources, segmentation method, ...) in string form
+   * @param passage passage to be processed
+   * @return SHA-256 digest of key
+   */
+  public byte[] digest(String options, BioCPassage passage) {
+    MessageDigest messageDigest;
+    try {
+      messageDigest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException nsae) {
+      throw new RuntimeException(nsae);
+    }
+    StringBuilder sb = new StringBuilder(this.propertiesKey);
+    sb.append(options).append('\u0000');
+    if (passage.getInfons() != null) {
+      for (Map.Entry<String,String> entry: new TreeMap<String,String>(passage.getInfons()).entrySet()) {
+	if (! entry.getKey().equals("docid")) {
+	  sb.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+	}
+      }
+    }
+    sb.append('\u0000');
+    messageDigest.update(sb.toString().getBytes(UTF8));
+    messageDigest.update(normalizeText(passage.getText()).getBytes(UTF8));
+    return messageDigest.digest();
+  }
+
+  /**
+   * Get cached entities of a passage re-based to passage.
+   * @param digest digest returned by digest()
+   * @param docid document id of passage
+   * @param offset offset of passage
+   * @return entities or null if passage is not in cache
+   */
+  public List<Entity> get(byte[] digest, String docid, int offset) {
+    String key = toHex(digest);
+    Result result = this.memoryCache.get(key);
+    if ((result == null) && (this.log != null)) {
+      try {
+	result = this.log.get(key);
+      } catch (IOException ioe) {
+	logger.warn("unable to read result cache log: " + ioe.getMessage());
+      }
+      if (result != null) {
+	this.memoryCache.put(key, result);
+      }
+    }
+    Metrics.cacheAccess("result", result != null);
+    if (result == null) {
+      return null;
+    }
+    List<Entity> entityList = new ArrayList<Entity>();
+    try {
+      BinaryResultReader reader = new BinaryResultReader(new ByteArrayInputStream(result.segment));
+      while (reader.nextDocument()) {
+	entityList.addAll(reader.getEntityList(docid, offset - result.offset));
+      }
+    } catch (IOException ioe) {
+      throw new RuntimeException(ioe);
+    }
+    return entityList;
+  }
+
+  /**
+   * Add entities of a passage to cache.
+   * @param digest digest returned by digest()
+   * @param offset offset of passage
+   * @param entityList entities found in passage
+   */
+  public void put(byte[] digest, int offset, List<Entity> entityList) {
+    String key = toHex(digest);
+    ByteArrayOutputStream segmentStream = new ByteArrayOutputStream();
+    try {
+      this.binaryFormat.entityListFormatter(segmentStream, entityList);
+    } catch (IOException ioe) {
+      throw new RuntimeException(ioe);
+    }
+    Result result = new Result(offset, segmentStream.toByteArray());
+    this.memoryCache.put(key, result);
+    if (this.log != null) {
+      try {
+	this.log.append(key, digest, result);
+      } catch (IOException ioe) {
+	logger.warn("unable to append to result cache log: " + ioe.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Close logs of all caches in process.
+   */
+  public static void closeAll() {
+    synchronized (openLogMap) {
+      for (AppendLog log: openLogMap.values()) {
+	try {
+	  log.close();
+	} catch (IOException ioe) {
+	  logger.warn("unable to close result cache log: " + ioe.getMessage());
+	}
+      }
+      openLogMap.clear();
+    }
+  }
+}
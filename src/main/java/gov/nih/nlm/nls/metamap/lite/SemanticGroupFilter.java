@@ -45,7 +45,7 @@ public class SemanticGroupFilter {
       for (Ev ev: entity.getEvList()) {
 	if (semanticGroup.contains("all")) {
 	  newEvList.add(ev);
-	} else if (ev.getConceptInfo().getSemanticTypeSet() instanceof HashSet) {
+	} else if (ev.getConceptInfo().getSemanticTypeSet() != null) {
 	  Set<String> semanticTypeSet = ev.getConceptInfo().getSemanticTypeSet();
 	  logger.debug("entity has semantic type set: " + semanticTypeSet );
 	  // retainAll for intersection test? that's intuitive! (NOTE: retainAll is destructive.)
@@ -81,7 +81,7 @@ public class SemanticGroupFilter {
 	  for (Ev ev: entity.getEvList()) {
 	    if (semanticGroup.contains("all")) {
 	      newEvList.add(ev);
-	    } else if (ev.getConceptInfo().getSemanticTypeSet() instanceof HashSet) {
+	    } else if (ev.getConceptInfo().getSemanticTypeSet() != null) {
 	      Set<String> semanticTypeSet = ev.getConceptInfo().getSemanticTypeSet();
 	      logger.debug("entity has semantic type set: " + semanticTypeSet );
 	      // retainAll for intersection test? that's intuitive! (NOTE: retainAll is destructive.)
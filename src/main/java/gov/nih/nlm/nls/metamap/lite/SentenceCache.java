@@ -0,0 +1,196 @@
+//
+package gov.nih.nlm.nls.metamap.lite;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import gov.nih.nlm.nls.metamap.lite.types.Entity;
+import gov.nih.nlm.nls.metamap.lite.types.Ev;
+
+/**
+ * Bounded cache of the entities found in a sentence, keyed by the
+ * exact sentence text, used by EntityLookup5 to skip tokenization,
+ * tagging, chunking and lookup of sentences that repeat across
+ * documents ("No known drug allergies.", "Patient denies chest
+ * pain.").
+ * <p>
+ * Entities are stored with offsets relative to the start of the
+ * sentence and sentence numbers relative to the number of the
+ * sentence, along with their negation status and temporality, and
+ * are copied on every get, re-based to the offset and number of the
+ * requesting sentence and given the document and field ids of the
+ * requesting passage.
+ * Negation status is the one the sentence received in the passage it
+ * was first found in; with NegEx, which only examines the tokens of
+ * the sentence, it is the same in every passage.  Callers that look
+ * up sentences both with and without negation detection must make
+ * that part of the key (EntityLookup5 does).
+ * <p>
+ * Eviction is segmented LRU: new sentences enter a probation segment
+ * and move to a protected segment (PROTECTED_RATIO of the capacity)
+ * when they are found again; entries evicted from the protected
+ * segment go back to probation.  Sentences seen once therefore only
+ * displace other sentences seen once, and a stream of unique
+ * sentences doesn't flush the frequent ones.
+ * <p>
+ * Hits and misses are recorded in Metrics as cache.sentence.hits and
+ * cache.sentence.misses.
+ */
+public class SentenceCache {
+  static final double PROTECTED_RATIO = 0.8;
+
+  /** entities of a sentence, offsets relative to sentence */
+  static class SentenceResult {
+    List<Entity> entityList;
+    SentenceResult(List<Entity> entityList) {
+      this.entityList = entityList;
+    }
+  }
+
+  int capacity;
+  int protectedCapacity;
+  /** entries seen once, in access order */
+  LinkedHashMap<String,SentenceResult> probationMap =
+    new LinkedHashMap<String,SentenceResult>(16, 0.75F, true);
+  /** entries found at least once, in access order */
+  LinkedHashMap<String,SentenceResult> protectedMap =
+    new LinkedHashMap<String,SentenceResult>(16, 0.75F, true);
+
+  AtomicLong hits = new AtomicLong(0);
+  AtomicLong misses = new AtomicLong(0);
+
+  /**
+   * @param capacity maximum number of sentences kept
+   */
+  public SentenceCache(int capacity) {
+    this.capacity = Math.max(capacity, 1);
+    this.protectedCapacity = (int)(this.capacity * PROTECTED_RATIO);
+  }
+
+  /**
+   * Copy entity, shifting offsets of entity and evidences and
+   * sentence number of entity.
+   * @param entity entity to copy
+   * @param docid document id of copy
+   * @param fieldid field id of copy
+   * @param offsetDelta amount added to offsets
+   * @param sentenceNumberDelta amount added to sentence number
+   * @return copy of entity
+   */
+  static Entity copyEntity(Entity entity, String docid, String fieldid,
+			   int offsetDelta, int sentenceNumberDelta) {
+    Set<Ev> evSet = new HashSet<Ev>();
+    for (Ev ev: entity.getEvSet()) {
+      Ev newEv = new Ev(ev.getConceptInfo(), ev.getMatchedText(), ev.getConceptString(),
+			ev.getStart() + offsetDelta, ev.getLength(), ev.getScore(),
+			ev.getPartOfSpeech());
+      newEv.setId(ev.getId());
+      evSet.add(newEv);
+    }
+    Entity newEntity = new Entity(entity.getId(), docid, fieldid,
+				  entity.getMatchedText(), entity.getLexicalCategory(),
+				  entity.getSentenceNumber() + sentenceNumberDelta,
+				  entity.getStart() + offsetDelta, entity.getLength(),
+				  entity.getScore(), evSet);
+    newEntity.setNegated(entity.isNegated());
+    newEntity.setTemporality(entity.getTemporality());
+    newEntity.setLocationPosition(entity.getLocationPosition());
+    return newEntity;
+  }
+
+  /**
+   * Get entities of sentence.
+   * @param sentenceText text of sentence
+   * @param docid document id of sentence
+   * @param fieldid field id of sentence
+   * @param offset offset of sentence
+   * @param sentenceNumber number of sentence, added to the stored relative sentence numbers
+   * @return new entities re-based to offset and number of sentence or null if sentence is not in cache
+   */
+  public Set<Entity> get(String sentenceText, String docid, String fieldid,
+			 int offset, int sentenceNumber) {
+    SentenceResult result;
+    synchronized (this) {
+      result = this.protectedMap.get(sentenceText);
+      if (result == null) {
+	result = this.probationMap.remove(sentenceText);
+	if (result != null) {
+	  this.promote(sentenceText, result);
+	}
+      }
+    }
+    Metrics.cacheAccess("sentence", result != null);
+    if (result == null) {
+      this.misses.incrementAndGet();
+      return null;
+    }
+    this.hits.incrementAndGet();
+    Set<Entity> entitySet = new HashSet<Entity>();
+    for (Entity entity: result.entityList) {
+      entitySet.add(copyEntity(entity, docid, fieldid, offset, sentenceNumber));
+    }
+    return entitySet;
+  }
+
+  /** move entry to protected segment, demoting least recently used protected entry if full */
+  void promote(String sentenceText, SentenceResult result) {
+    this.protectedMap.put(sentenceText, result);
+    if (this.protectedMap.size() > this.protectedCapacity) {
+      Iterator<Map.Entry<String,SentenceResult>> iterator = this.protectedMap.entrySet().iterator();
+      Map.Entry<String,SentenceResult> eldest = iterator.next();
+      iterator.remove();
+      this.probationMap.put(eldest.getKey(), eldest.getValue());
+      this.trimProbation();
+    }
+  }
+
+  /** evict least recently used probation entries until cache is within capacity */
+  void trimProbation() {
+    Iterator<Map.Entry<String,SentenceResult>> iterator = this.probationMap.entrySet().iterator();
+    while ((this.probationMap.size() + this.protectedMap.size() > this.capacity) &&
+	   iterator.hasNext()) {
+      iterator.next();
+      iterator.remove();
+    }
+  }
+
+  /**
+   * Add entities of sentence; entities are copied, later changes to
+   * them don't affect the cache.
+   * @param sentenceText text of sentence
+   * @param offset offset of sentence
+   * @param sentenceNumber number of sentence, subtracted from sentence numbers of entities
+   * @param entityColl entities found in sentence
+   */
+  public void put(String sentenceText, int offset, int sentenceNumber,
+		  Collection<Entity> entityColl) {
+    List<Entity> entityList = new ArrayList<Entity>(entityColl.size());
+    for (Entity entity: entityColl) {
+      entityList.add(copyEntity(entity, null, null, -offset, -sentenceNumber));
+    }
+    SentenceResult result = new SentenceResult(entityList);
+    synchronized (this) {
+      if (this.protectedMap.containsKey(sentenceText)) {
+	this.protectedMap.put(sentenceText, result);
+      } else {
+	this.probationMap.put(sentenceText, result);
+	this.trimProbation();
+      }
+    }
+  }
+
+  /** @return number of sentences in cache */
+  public synchronized int size() {
+    return this.probationMap.size() + this.protectedMap.size();
+  }
+
+  public long getHits() { return this.hits.get(); }
+  public long getMisses() { return this.misses.get(); }
+}
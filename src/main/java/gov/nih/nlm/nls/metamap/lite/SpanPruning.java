@@ -0,0 +1,102 @@
+//
+package gov.nih.nlm.nls.metamap.lite;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import gov.nih.nlm.nls.metamap.lite.types.Entity;
+
+/**
+ * Removal of overlapping entities by sorting spans and sweeping
+ * through them once, replacing pairwise comparison of every entity
+ * with every other entity.
+ */
+public class SpanPruning {
+
+  /** order by start, longest span first for equal starts */
+  static final Comparator<Entity> startLongestFirst = new Comparator<Entity>() {
+      public int compare(Entity a, Entity b) {
+	if (a.getStart() != b.getStart()) {
+	  return a.getStart() < b.getStart() ? -1 : 1;
+	}
+	return b.getLength() < a.getLength() ? -1 : (b.getLength() == a.getLength() ? 0 : 1);
+      }
+    };
+
+  /** order by end, earliest start first for equal ends */
+  static final Comparator<Entity> endEarliestStartFirst = new Comparator<Entity>() {
+      public int compare(Entity a, Entity b) {
+	int aEnd = a.getStart() + a.getLength();
+	int bEnd = b.getStart() + b.getLength();
+	if (aEnd != bEnd) {
+	  return aEnd < bEnd ? -1 : 1;
+	}
+	return a.getStart() < b.getStart() ? -1 : (a.getStart() == b.getStart() ? 0 : 1);
+      }
+    };
+
+  /**
+   * Remove any entity whose span is contained in the span of another
+   * entity.  Entities with identical spans are treated as one entity
+   * (the first one encountered is kept).
+   * <p>
+   * After sorting by start and decreasing length, an entity is
+   * subsumed exactly when an earlier entity ends at or after its end,
+   * so a running maximum of end positions decides each entity.
+   *
+   * @param entityColl collection of entities to test for subsumption.
+   * @return set of entities not subsumed by any other entity.
+   */
+  public static Set<Entity> removeSubsumedEntities(Collection<Entity> entityColl) {
+    List<Entity> entityList = new ArrayList<Entity>(entityColl);
+    Collections.sort(entityList, startLongestFirst);
+    Set<Entity> newEntitySet = new HashSet<Entity>();
+    int maxEnd = Integer.MIN_VALUE;
+    for (Entity entity: entityList) {
+      int end = entity.getStart() + entity.getLength();
+      if (end > maxEnd) {
+	newEntitySet.add(entity);
+	maxEnd = end;
+      }
+    }
+    return newEntitySet;
+  }
+
+  /**
+   * Keep only the longest entity for each start position, then only
+   * the entity with the earliest start for each end position.
+   * Entities that are strictly inside another span without sharing
+   * either boundary are kept.
+   *
+   * @param entityColl collection of entities to prune.
+   * @return pruned set of entities.
+   */
+  public static Set<Entity> removeSharedBoundaryEntities(Collection<Entity> entityColl) {
+    List<Entity> entityList = new ArrayList<Entity>(entityColl);
+    Collections.sort(entityList, startLongestFirst);
+    List<Entity> longestByStartList = new ArrayList<Entity>();
+    Entity previous = null;
+    for (Entity entity: entityList) {
+      if ((previous == null) || (previous.getStart() != entity.getStart())) {
+	longestByStartList.add(entity);
+      }
+      previous = entity;
+    }
+    Collections.sort(longestByStartList, endEarliestStartFirst);
+    Set<Entity> newEntitySet = new HashSet<Entity>();
+    previous = null;
+    for (Entity entity: longestByStartList) {
+      if ((previous == null) ||
+	  ((previous.getStart() + previous.getLength()) != (entity.getStart() + entity.getLength()))) {
+	newEntitySet.add(entity);
+      }
+      previous = entity;
+    }
+    return newEntitySet;
+  }
+}
@@ -1,5 +1,7 @@
 package gov.nih.nlm.nls.metamap.lite;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -53,6 +55,12 @@ public class TermConceptInfoCache {
 
   SpecialTerms excludedTerms;
 
+  /** pre-built term cache, consulted before indexes, null if not enabled */
+  WarmCache warmCache = null;
+
+  /** semantic type and source restriction, null if not restricted */
+  ConceptRestriction restriction = null;
+
   /**
    * Creates a new <code>TermConceptInfoCache</code> instance.
    *
@@ -89,6 +97,7 @@ public class TermConceptInfoCache {
     }
     this.cuiSemanticTypeSetIndex = new CuiSemanticTypeSetIndex(mmIndexes);
     this.cuiSourceSetIndex = new CuiSourceSetIndex(mmIndexes);
+    this.initWarmCache(properties);
   }
 
   /**
@@ -119,6 +128,137 @@ public class TermConceptInfoCache {
     }
     this.cuiSemanticTypeSetIndex = cuiSemanticTypeSetIndex;
     this.cuiSourceSetIndex = cuiSourceSetIndex;
+    this.initWarmCache(properties);
+  }
+
+  /**
+   * Open warm cache if property "metamaplite.warmcache.file" is set
+   * and share it with the preferred name and normalized string
+   * caches; enable recording of term profile if property
+   * "metamaplite.warmcache.profile.output" is set.
+   * @param properties application properties
+   */
+  void initWarmCache(Properties properties) {
+    this.warmCache = WarmCache.getInstance(properties);
+    if (this.warmCache != null) {
+      this.cuiPreferredNameCache.setWarmCache(this.warmCache);
+      NormalizedStringCache.setWarmCache(this.warmCache);
+    }
+    WarmCache.initProfile(properties);
+  }
+
+  /**
+   * Restrict concepts returned by lookups to concepts with at least
+   * one of the semantic types and sources in the restrict sets.
+   * Concepts outside the restriction are rejected before their
+   * preferred name is looked up.
+   * @param semanticTypeRestrictSet semantic types to keep (empty or "all" for all)
+   * @param sourceRestrictSet sources to keep (empty or "all" for all)
+   */
+  public void setRestriction(Set<String> semanticTypeRestrictSet, Set<String> sourceRestrictSet) {
+    if (semanticTypeRestrictSet == null) {
+      semanticTypeRestrictSet = new HashSet<String>();
+    }
+    if (sourceRestrictSet == null) {
+      sourceRestrictSet = new HashSet<String>();
+    }
+    if ((this.restriction == null) ||
+	(! this.restriction.isFor(semanticTypeRestrictSet, sourceRestrictSet))) {
+      this.restriction = ConceptRestriction.create(semanticTypeRestrictSet, sourceRestrictSet);
+    }
+  }
+
+  /**
+   * @param normTerm normalized term
+   * @return key for term in term to concept cache under current restriction.
+   */
+  String cacheKey(String normTerm) {
+    return (this.restriction == null) ? normTerm : this.restriction.getKey() + "|" + normTerm;
+  }
+
+  /**
+   * Build concept information for cui, checking restriction (if any)
+   * first.
+   * @param cui concept unique identifier
+   * @param docStr matched string from index
+   * @return concept information or null if cui is outside restriction.
+   * @throws FileNotFoundException File Not Found Exception
+   * @throws IOException IO Exception
+   */
+  ConceptInfo buildConceptInfo(String cui, String docStr)
+    throws FileNotFoundException, IOException
+  {
+    if (ConceptInfoRegistry.isEnabled()) {
+      return this.buildRegisteredConceptInfo(cui, docStr);
+    }
+    if (this.restriction == null) {
+      return new ConceptInfo(cui,
+			     this.cuiPreferredNameCache.findPreferredName(cui),
+			     docStr,
+			     this.cuiSourceSetIndex.getSourceSet(cui),
+			     this.cuiSemanticTypeSetIndex.getSemanticTypeSet(cui));
+    }
+    BitSet semanticTypeBitSet = this.cuiSemanticTypeSetIndex.getSemanticTypeBitSet(cui);
+    if (! this.restriction.acceptSemanticTypes(semanticTypeBitSet)) {
+      return null;
+    }
+    Set<String> sourceSet = this.cuiSourceSetIndex.getSourceSet(cui);
+    if (! this.restriction.acceptSources(sourceSet)) {
+      return null;
+    }
+    return new ConceptInfo(cui,
+			   this.cuiPreferredNameCache.findPreferredName(cui),
+			   docStr,
+			   sourceSet,
+			   CuiSemanticTypeSetIndex.toSemanticTypeSet(semanticTypeBitSet));
+  }
+
+  /**
+   * Build concept information for cui sharing the concept core held
+   * by ConceptInfoRegistry, registering the core if necessary.
+   * @param cui concept unique identifier
+   * @param docStr matched string from index
+   * @return concept information or null if cui is outside restriction.
+   * @throws FileNotFoundException File Not Found Exception
+   * @throws IOException IO Exception
+   */
+  ConceptInfo buildRegisteredConceptInfo(String cui, String docStr)
+    throws FileNotFoundException, IOException
+  {
+    ConceptInfo core = ConceptInfoRegistry.getCore(cui);
+    if (core == null) {
+      BitSet semanticTypeBitSet = this.cuiSemanticTypeSetIndex.getSemanticTypeBitSet(cui);
+      if ((this.restriction != null) && (! this.restriction.acceptSemanticTypes(semanticTypeBitSet))) {
+	return null;
+      }
+      Set<String> sourceSet = this.cuiSourceSetIndex.getSourceSet(cui);
+      if ((this.restriction != null) && (! this.restriction.acceptSources(sourceSet))) {
+	return null;
+      }
+      core = ConceptInfoRegistry.register(cui, this.cuiPreferredNameCache.findPreferredName(cui),
+					  sourceSet, semanticTypeBitSet);
+    } else if ((this.restriction != null) && (! this.restriction.accept(core))) {
+      return null;
+    }
+    return ConceptInfoRegistry.conceptInfo(core, docStr);
+  }
+
+  /**
+   * Remove concepts outside current restriction from set of concepts.
+   * @param conceptInfoSet set of concepts
+   * @return set of concepts inside restriction
+   */
+  Set<ConceptInfo> applyRestriction(Set<ConceptInfo> conceptInfoSet) {
+    if (this.restriction == null) {
+      return conceptInfoSet;
+    }
+    Set<ConceptInfo> newConceptInfoSet = new HashSet<ConceptInfo>();
+    for (ConceptInfo conceptInfo: conceptInfoSet) {
+      if (this.restriction.accept(conceptInfo)) {
+	newConceptInfoSet.add(conceptInfo);
+      }
+    }
+    return newConceptInfoSet;
   }
 
   public static boolean isLikelyMatch(String term, String normTerm, String docStr) {
@@ -161,9 +301,30 @@ public class TermConceptInfoCache {
 						   String normTerm) 
     throws FileNotFoundException, IOException
   {
-    Set<ConceptInfo> conceptInfoSet = new HashSet<ConceptInfo>();
+    Metrics.indexLookup("cuisourceinfo");
     // if not in cache then lookup term 
-    for (String doc: this.mmIndexes.cuiSourceInfoIndex.lookup(normTerm, 3)) {
+    return this.conceptInfoSetFromPostings(originalTerm, normTerm,
+					   this.mmIndexes.cuiSourceInfoIndex.lookup(normTerm, 3), true);
+  }
+
+  /**
+   * Build set of concepts from cuisourceinfo postings of term.
+   * @param originalTerm term looked up
+   * @param normTerm normalized version of originalTerm
+   * @param postingList cuisourceinfo postings matching normTerm
+   * @param keep if false, matching postings are not added to set
+   * @return set of concepts matching term
+   * @throws FileNotFoundException File Not Found Exception
+   * @throws IOException IO Exception
+   */
+  Set<ConceptInfo> conceptInfoSetFromPostings(String originalTerm,
+					      String normTerm,
+					      List<String> postingList,
+					      boolean keep)
+    throws FileNotFoundException, IOException
+  {
+    Set<ConceptInfo> conceptInfoSet = new HashSet<ConceptInfo>();
+    for (String doc: postingList) {
       String[] fields = doc.split("\\|");
       String cui = fields[0];
       String docStr = fields[3];
@@ -173,17 +334,69 @@ public class TermConceptInfoCache {
       // normalized form of lookup string then get
       // information about lookup string.
       if ((! excludedTerms.isExcluded(cui,normTerm)) && isLikelyMatch(originalTerm,normTerm,docStr)) {
-	ConceptInfo conceptInfo = new ConceptInfo(cui,
-						  this.cuiPreferredNameCache.findPreferredName(cui),
-						  docStr,
-						  this.cuiSourceSetIndex.getSourceSet(cui),
-						  this.cuiSemanticTypeSetIndex.getSemanticTypeSet(cui));
-	conceptInfoSet.add(conceptInfo);
+	if (keep) {
+	  ConceptInfo conceptInfo = this.buildConceptInfo(cui, docStr);
+	  if (conceptInfo != null) {
+	    conceptInfoSet.add(conceptInfo);
+	  }
+	}
       }
     }
     return conceptInfoSet;
   }
 
+  /**
+   * Lookup term in warm cache if present, otherwise lookup term in index.
+   * @param originalTerm Term to lookup
+   * @param normTerm normalized version of originalTerm 
+   * @return set of concepts matching term
+   * @throws FileNotFoundException File Not Found Exception
+   * @throws IOException IO Exception
+   */
+  public Set<ConceptInfo> lookupTermConceptInfoWarm(String originalTerm,
+						    String normTerm)
+    throws FileNotFoundException, IOException
+  {
+    if (this.warmCache != null) {
+      Set<ConceptInfo> conceptInfoSet =
+	this.warmCache.lookupTermConceptInfo(originalTerm, normTerm, this.excludedTerms);
+      Metrics.cacheAccess("warm.termconcept", conceptInfoSet != null);
+      if (conceptInfoSet != null) {
+	return this.applyRestriction(conceptInfoSet);
+      }
+    }
+    return this.lookupTermConceptInfoIVF(originalTerm, normTerm);
+  }
+
+  /**
+   * Lookup term in warm cache if present, otherwise lookup term in index.
+   * @param originalTerm Term to lookup
+   * @param normTerm normalized version of originalTerm 
+   * @param tokenlist tokenized version of normTerm
+   * @return set of concepts matching term
+   * @throws FileNotFoundException File Not Found Exception
+   * @throws IOException IO Exception
+   */
+  public Set<ConceptInfo> lookupTermConceptInfoWarm(String originalTerm,
+						    String normTerm,
+						    List<? extends Token> tokenlist)
+    throws FileNotFoundException, IOException
+  {
+    if (this.warmCache != null) {
+      Set<ConceptInfo> conceptInfoSet =
+	this.warmCache.lookupTermConceptInfo(originalTerm, normTerm, this.excludedTerms);
+      Metrics.cacheAccess("warm.termconcept", conceptInfoSet != null);
+      if (conceptInfoSet != null) {
+	if (tokenlist.get(0) instanceof PosToken) {
+	  return this.applyRestriction(conceptInfoSet);
+	} else {
+	  return new HashSet<ConceptInfo>();
+	}
+      }
+    }
+    return this.lookupTermConceptInfoIVF(originalTerm, normTerm, tokenlist);
+  }
+
   /**
    * Lookup Term - if term info is already in cache then use cached
    * term info, otherwise, lookup term info in index.
@@ -200,20 +413,24 @@ public class TermConceptInfoCache {
     // System.out.println("originalTerm: " + originalTerm);
     // System.out.println("normTerm: " + normTerm);
     
+    WarmCache.recordTerm(originalTerm, normTerm);
     if (this.enableTermConceptInfoCache) {
-      if (this.termConceptCache.containsKey(normTerm) ) {
+      String key = this.cacheKey(normTerm);
+      if (this.termConceptCache.containsKey(key) ) {
+	Metrics.cacheAccess("termconcept", true);
 	Set<ConceptInfo> result;
 	synchronized(this.termConceptCache) {
-	  result = this.termConceptCache.get(normTerm);
+	  result = this.termConceptCache.get(key);
 	}
 	return result;
       } else {
-	Set<ConceptInfo> conceptInfoSet = this.lookupTermConceptInfoIVF(originalTerm, normTerm);
-	this.cacheConceptInfoSet(normTerm, conceptInfoSet);
+	Metrics.cacheAccess("termconcept", false);
+	Set<ConceptInfo> conceptInfoSet = this.lookupTermConceptInfoWarm(originalTerm, normTerm);
+	this.cacheConceptInfoSet(key, conceptInfoSet);
 	return conceptInfoSet;
       }
     } else {
-      return this.lookupTermConceptInfoIVF(originalTerm, normTerm);
+      return this.lookupTermConceptInfoWarm(originalTerm, normTerm);
     }
   }
 
@@ -222,29 +439,11 @@ public class TermConceptInfoCache {
 						   List<? extends Token> tokenlist) 
     throws FileNotFoundException, IOException
   {
-    Set<ConceptInfo> conceptInfoSet = new HashSet<ConceptInfo>();
+    Metrics.indexLookup("cuisourceinfo");
     // if not in cache then lookup term 
-    for (String doc: this.mmIndexes.cuiSourceInfoIndex.lookup(normTerm, 3)) {
-      String[] fields = doc.split("\\|");
-      String cui = fields[0];
-      String docStr = fields[3];
-      
-      // If term is not in excluded term list and term or
-      // normalized form of term matches lookup string or
-      // normalized form of lookup string then get
-      // information about lookup string.
-      if ((! excludedTerms.isExcluded(cui,normTerm)) && isLikelyMatch(originalTerm,normTerm,docStr)) {
-	if (tokenlist.get(0) instanceof PosToken) {
-	  ConceptInfo conceptInfo = new ConceptInfo(cui,
-                                                    this.cuiPreferredNameCache.findPreferredName(cui),
-						    docStr,
-						    this.cuiSourceSetIndex.getSourceSet(cui),
-						    this.cuiSemanticTypeSetIndex.getSemanticTypeSet(cui));
-	  conceptInfoSet.add(conceptInfo);
-	}
-      }
-    }
-    return conceptInfoSet;
+    return this.conceptInfoSetFromPostings(originalTerm, normTerm,
+					   this.mmIndexes.cuiSourceInfoIndex.lookup(normTerm, 3),
+					   tokenlist.get(0) instanceof PosToken);
   }
 
   /**
@@ -266,20 +465,126 @@ public class TermConceptInfoCache {
     // System.out.println("normTerm: " + normTerm);
     // System.out.println("tokenlist: " + tokenlist);
     
+    WarmCache.recordTerm(originalTerm, normTerm);
     if (this.enableTermConceptInfoCache) {
-      if (this.termConceptCache.containsKey(normTerm) ) {
+      String key = this.cacheKey(normTerm);
+      if (this.termConceptCache.containsKey(key) ) {
+	Metrics.cacheAccess("termconcept", true);
 	Set<ConceptInfo> result;
 	synchronized(this.termConceptCache) {
-	  result = this.termConceptCache.get(normTerm);
+	  result = this.termConceptCache.get(key);
 	}
 	return result;
       } else {
-	Set<ConceptInfo> conceptInfoSet = this.lookupTermConceptInfoIVF(originalTerm, normTerm, tokenlist);
-	this.cacheConceptInfoSet(normTerm, conceptInfoSet);
+	Metrics.cacheAccess("termconcept", false);
+	Set<ConceptInfo> conceptInfoSet = this.lookupTermConceptInfoWarm(originalTerm, normTerm, tokenlist);
+	this.cacheConceptInfoSet(key, conceptInfoSet);
 	return conceptInfoSet;
       }
     } else {
-      return this.lookupTermConceptInfoIVF(originalTerm, normTerm, tokenlist);
+      return this.lookupTermConceptInfoWarm(originalTerm, normTerm, tokenlist);
+    }
+  }
+
+  /**
+   * @param normTermList normalized terms
+   * @return cuisourceinfo postings of each term, in order of terms
+   * @throws FileNotFoundException File Not Found Exception
+   * @throws IOException IO Exception
+   */
+  List<List<String>> lookupPostings(List<String> normTermList)
+    throws FileNotFoundException, IOException
+  {
+    return this.mmIndexes.cuiSourceInfoIndex.lookup(normTermList, this.strColumn);
+  }
+
+  /**
+   * Lookup many terms at once.  Each term is resolved from the term
+   * to concept cache or the warm cache as by lookupTermConceptInfo;
+   * the remaining terms are looked up in the cuisourceinfo index in
+   * one batch (see MappedMultiKeyIndexLookup.lookup(List,int)), each
+   * distinct term once.
+   * @param originalTermList terms to lookup
+   * @param normTermList normalized version of each term
+   * @param tokenlistList tokenized version of each term
+   * @return set of concepts matching each term, in order of terms
+   * @throws FileNotFoundException File Not Found Exception
+   * @throws IOException IO Exception
+   */
+  public List<Set<ConceptInfo>> lookupTermConceptInfo(List<String> originalTermList,
+						      List<String> normTermList,
+						      List<? extends List<? extends Token>> tokenlistList)
+    throws FileNotFoundException, IOException
+  {
+    int termCount = normTermList.size();
+    List<Set<ConceptInfo>> resultList = new ArrayList<Set<ConceptInfo>>(termCount);
+    List<Integer> missIndexList = new ArrayList<Integer>();
+    // slot in missTermList of each missed term
+    List<Integer> missSlotList = new ArrayList<Integer>();
+    // distinct missed terms, looked up once each
+    List<String> missTermList = new ArrayList<String>();
+    Map<String,Integer> missSlotMap = new HashMap<String,Integer>();
+    for (int i = 0; i < termCount; i++) {
+      String originalTerm = originalTermList.get(i);
+      String normTerm = normTermList.get(i);
+      WarmCache.recordTerm(originalTerm, normTerm);
+      Set<ConceptInfo> conceptInfoSet = null;
+      if (this.enableTermConceptInfoCache) {
+	String key = this.cacheKey(normTerm);
+	synchronized(this.termConceptCache) {
+	  conceptInfoSet = this.termConceptCache.get(key);
+	}
+	Metrics.cacheAccess("termconcept", conceptInfoSet != null);
+      }
+      if ((conceptInfoSet == null) && (this.warmCache != null)) {
+	Set<ConceptInfo> warmConceptInfoSet =
+	  this.warmCache.lookupTermConceptInfo(originalTerm, normTerm, this.excludedTerms);
+	Metrics.cacheAccess("warm.termconcept", warmConceptInfoSet != null);
+	if (warmConceptInfoSet != null) {
+	  conceptInfoSet = (tokenlistList.get(i).get(0) instanceof PosToken) ?
+	    this.applyRestriction(warmConceptInfoSet) : new HashSet<ConceptInfo>();
+	  if (this.enableTermConceptInfoCache) {
+	    this.cacheConceptInfoSet(this.cacheKey(normTerm), conceptInfoSet);
+	  }
+	}
+      }
+      if (conceptInfoSet == null) {
+	Integer slot = missSlotMap.get(normTerm);
+	if (slot == null) {
+	  slot = missTermList.size();
+	  missSlotMap.put(normTerm, slot);
+	  missTermList.add(normTerm);
+	}
+	missIndexList.add(i);
+	missSlotList.add(slot);
+      }
+      resultList.add(conceptInfoSet);
+    }
+    if (! missTermList.isEmpty()) {
+      List<List<String>> postingListList = this.lookupPostings(missTermList);
+      for (int j = 0; j < missTermList.size(); j++) {
+	Metrics.indexLookup("cuisourceinfo");
+      }
+      // A term missed more than once in the batch gets the set cached
+      // for its first occurrence, as a later single lookup would.
+      Map<String,Set<ConceptInfo>> batchCacheMap = new HashMap<String,Set<ConceptInfo>>();
+      for (int j = 0; j < missIndexList.size(); j++) {
+	int i = missIndexList.get(j);
+	String key = this.cacheKey(normTermList.get(i));
+	Set<ConceptInfo> conceptInfoSet = this.enableTermConceptInfoCache ? batchCacheMap.get(key) : null;
+	if (conceptInfoSet == null) {
+	  conceptInfoSet =
+	    this.conceptInfoSetFromPostings(originalTermList.get(i), normTermList.get(i),
+					    postingListList.get(missSlotList.get(j)),
+					    tokenlistList.get(i).get(0) instanceof PosToken);
+	  if (this.enableTermConceptInfoCache) {
+	    this.cacheConceptInfoSet(key, conceptInfoSet);
+	    batchCacheMap.put(key, conceptInfoSet);
+	  }
+	}
+	resultList.set(i, conceptInfoSet);
+      }
     }
+    return resultList;
   }
 }
@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.io.FileNotFoundException;
 
 import gov.nih.nlm.nls.metamap.lite.metamap.MetaMapIvfIndexes;
+import gov.nih.nlm.nls.utils.LRUCache;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -27,6 +28,15 @@ public class VariantLookupIVF implements VariantLookup {
 
   public MetaMapIvfIndexes mmIndexes;
 
+  /** number of independently locked segments of variant distance cache */
+  static final int CACHE_SEGMENTS = 16;
+
+  /** cache of (term, word) -&gt; variant distance for the variant
+   * index of this instance, split into segments by key hash so
+   * threads sharing the instance rarely wait for the same lock; total
+   * size set by property "metamaplite.variant.distance.cache.size" */
+  List<LRUCache<String,Integer>> variantDistanceCache;
+
   /**
    * Creates a new <code>TermConceptInfoCache</code> instance.
    *
@@ -34,6 +44,12 @@ public class VariantLookupIVF implements VariantLookup {
    */
   public VariantLookupIVF(MetaMapIvfIndexes mmIndexes) {
     this.mmIndexes = mmIndexes;
+    int cacheSize =
+      Integer.parseInt(System.getProperty("metamaplite.variant.distance.cache.size","100000"));
+    this.variantDistanceCache = new ArrayList<LRUCache<String,Integer>>(CACHE_SEGMENTS);
+    for (int i = 0; i < CACHE_SEGMENTS; i++) {
+      this.variantDistanceCache.add(new LRUCache<String,Integer>(cacheSize / CACHE_SEGMENTS + 1));
+    }
   }
 
 
@@ -47,6 +63,7 @@ public class VariantLookupIVF implements VariantLookup {
     throws IOException {
     List<String[]> variantList = new ArrayList<String[]>();
     if (this.mmIndexes.varsIndex != null) {
+      Metrics.indexLookup("vars");
       List<String> hitList = this.mmIndexes.varsIndex.lookup(term, 0);
       for (String hit: hitList) {
 	String[] fields = hit.split("\\|");
@@ -66,6 +83,7 @@ public class VariantLookupIVF implements VariantLookup {
     throws IOException {
     List<String[]> variantList = new ArrayList<String[]>();
     if (this.mmIndexes.varsIndex != null) {
+      Metrics.indexLookup("vars");
       List<String> hitList = this.mmIndexes.varsIndex.lookup(word, 2);
       for (String hit: hitList) {
 	String[] fields = hit.split("\\|");
@@ -75,7 +93,40 @@ public class VariantLookupIVF implements VariantLookup {
     return variantList;
   }
 
+  /**
+   * Get variant distance of word from term, using cached value if
+   * present.
+   * @param term user supplied term
+   * @param word user supplied word
+   * @return variant distance (9 if word is not a variant of term)
+   */
   public int lookupVariant(String term, String word)
+  {
+    String key = term.toLowerCase() + "|" + word.toLowerCase();
+    LRUCache<String,Integer> segment =
+      this.variantDistanceCache.get((key.hashCode() & 0x7fffffff) % CACHE_SEGMENTS);
+    Integer cachedVariance;
+    synchronized (segment) {
+      cachedVariance = segment.get(key);
+    }
+    Metrics.cacheAccess("variant", cachedVariance != null);
+    if (cachedVariance != null) {
+      return cachedVariance.intValue();
+    }
+    int variance = this.lookupVariantIVF(term, word);
+    synchronized (segment) {
+      segment.put(key, variance);
+    }
+    return variance;
+  }
+
+  /**
+   * Get variant distance of word from term using variant index.
+   * @param term user supplied term
+   * @param word user supplied word
+   * @return variant distance (9 if word is not a variant of term)
+   */
+  public int lookupVariantIVF(String term, String word)
   {
     /* lookup term variants */
     /* if word is in variant list return varlevel (column 4)*/
@@ -98,7 +149,17 @@ public class VariantLookupIVF implements VariantLookup {
     return variance;
   }
 
+  /**
+   * Get variant distance of term from itself, same as
+   * lookupVariant(term, term).
+   * @param term user supplied term
+   * @return variant distance (9 if term is not in variant index)
+   */
   public int lookupVariant(String term) {
+    return this.lookupVariant(term, term);
+  }
+
+  public int lookupVariantIVF(String term) {
      int variance = 9;		// maximum variance (should this value be larger?)
     try {
       logger.debug("term: " + term);
@@ -0,0 +1,626 @@
+//
+package gov.nih.nlm.nls.metamap.lite;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import gov.nih.nlm.nls.metamap.lite.metamap.MetaMapIvfIndexes;
+import gov.nih.nlm.nls.metamap.lite.types.ConceptInfo;
+
+/**
+ * Pre-built, memory-mapped cache of the most frequent normalized
+ * terms with their resolved concept information, consulted by
+ * TermConceptInfoCache, CuiPreferredNameCache and
+ * NormalizedStringCache before falling back to the inverted file
+ * indexes, so a new JVM starts with steady-state hit rates.
+ * <p>
+ * The cache is built offline from a term frequency profile.  A
+ * profile is recorded by setting the property
+ * <code>metamaplite.warmcache.profile.output</code> to a filename,
+ * each line of the profile has three tab-separated fields:
+ * <pre>
+ *  count&lt;TAB&gt;original term&lt;TAB&gt;normalized term
+ * </pre>
+ * with backslash, tab, newline and carriage return in the terms
+ * escaped as \\, \t, \n and \r.  At most
+ * <code>metamaplite.warmcache.profile.size</code> (default 1000000)
+ * distinct term pairs are recorded in a run; once the profile is full
+ * only the pairs already in it are counted.
+ * Build the cache using:
+ * <pre>
+ *  java gov.nih.nlm.nls.metamap.lite.WarmCache indexdir profilefile topN outputfile
+ * </pre>
+ * and enable it with the property <code>metamaplite.warmcache.file</code>.
+ * <p>
+ * File layout: three sorted tables (normalized term -&gt; concept
+ * records, cui -&gt; preferred name, original string -&gt; normalized
+ * string).  Keys and values are UTF-8 strings stored in a data area,
+ * each table has an index of fixed-width entries:
+ * <pre>
+ *  | key offset (long) | key length (int) | value offset (long) | value length (int) |
+ * </pre>
+ * sorted by unsigned byte order of the key.  A trailer at the end of
+ * the file holds, for each table, the offset of its index (long) and
+ * its entry count (int), followed by the version (int) and magic
+ * number (int).  Concept records for a term are separated by
+ * newlines, each record has the form:
+ * <pre>
+ *  cui|preferred name|concept string|source,source,...|semtype,semtype,...
+ * </pre>
+ */
+public class WarmCache {
+  static final int MAGIC = 0x4d4d4c57;	// "MMLW"
+  static final int VERSION = 1;
+  /** normalized term -&gt; concept records table */
+  static final int TERMS = 0;
+  /** cui -&gt; preferred name table */
+  static final int CUIS = 1;
+  /** original string -&gt; normalized string table */
+  static final int NORMSTRINGS = 2;
+  static final int TABLE_COUNT = 3;
+  static final int INDEX_ENTRY_SIZE = 24;
+  static final int TRAILER_SIZE = (TABLE_COUNT * 12) + 8;
+
+  static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /** opened caches by filename, shared by all lookup instances in a process. */
+  static final Map<String,WarmCache> openCacheMap = new HashMap<String,WarmCache>();
+
+  MappedByteBuffer buffer;
+  long[] indexOffset = new long[TABLE_COUNT];
+  int[] entryCount = new int[TABLE_COUNT];
+
+  AtomicLong termHits = new AtomicLong(0);
+  AtomicLong termMisses = new AtomicLong(0);
+
+  /**
+   * Open memory-mapped warm cache file.
+   * @param filename name of warm cache file
+   * @throws FileNotFoundException file not found exception
+   * @throws IOException i/o exception
+   */
+  public WarmCache(String filename)
+    throws FileNotFoundException, IOException
+  {
+    FileInputStream inputStream = new FileInputStream(new File(filename));
+    FileChannel fileChannel = inputStream.getChannel();
+    this.buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+    inputStream.close();
+    int trailer = this.buffer.limit() - TRAILER_SIZE;
+    if ((trailer < 0) ||
+	(this.buffer.getInt(trailer + (TABLE_COUNT * 12) + 4) != MAGIC)) {
+      throw new IOException(filename + " is not a warm cache file.");
+    }
+    if (this.buffer.getInt(trailer + (TABLE_COUNT * 12)) != VERSION) {
+      throw new IOException(filename + ": unsupported warm cache version.");
+    }
+    for (int i = 0; i < TABLE_COUNT; i++) {
+      this.indexOffset[i] = this.buffer.getLong(trailer + (i * 12));
+      this.entryCount[i] = this.buffer.getInt(trailer + (i * 12) + 8);
+    }
+  }
+
+  /**
+   * Get warm cache specified by property "metamaplite.warmcache.file",
+   * opening it if it hasn't already been opened.
+   * @param properties application properties
+   * @return warm cache or null if property is not set.
+   */
+  public static WarmCache getInstance(Properties properties) {
+    String filename = properties.getProperty("metamaplite.warmcache.file");
+    if (filename == null) {
+      return null;
+    }
+    synchronized (openCacheMap) {
+      if (! openCacheMap.containsKey(filename)) {
+	try {
+	  openCacheMap.put(filename, new WarmCache(filename));
+	} catch (IOException ioe) {
+	  throw new RuntimeException(ioe);
+	}
+      }
+      return openCacheMap.get(filename);
+    }
+  }
+
+  /**
+   * Compare key with key at index entry using unsigned byte order.
+   * Uses absolute gets only so lookups are safe from multiple threads.
+   */
+  int compareKey(byte[] key, long entryAddress) {
+    int keyOffset = (int)this.buffer.getLong((int)entryAddress);
+    int keyLength = this.buffer.getInt((int)entryAddress + 8);
+    int len = Math.min(key.length, keyLength);
+    for (int i = 0; i < len; i++) {
+      int a = key[i] & 0xff;
+      int b = this.buffer.get(keyOffset + i) & 0xff;
+      if (a != b) {
+	return a - b;
+      }
+    }
+    return key.length - keyLength;
+  }
+
+  /**
+   * Find value for key in table.
+   * @param table table number
+   * @param keyString key
+   * @return value or null if key is not in table.
+   */
+  String get(int table, String keyString) {
+    byte[] key = keyString.getBytes(UTF8);
+    int low = 0;
+    int high = this.entryCount[table];
+    while (low < high) {
+      int mid = low + (high - low) / 2;
+      long entryAddress = this.indexOffset[table] + ((long)mid * INDEX_ENTRY_SIZE);
+      int cond = compareKey(key, entryAddress);
+      if (cond < 0) {
+	high = mid;
+      } else if (cond > 0) {
+	low = mid + 1;
+      } else {
+	int valueOffset = (int)this.buffer.getLong((int)entryAddress + 12);
+	int valueLength = this.buffer.getInt((int)entryAddress + 20);
+	byte[] value = new byte[valueLength];
+	for (int i = 0; i < valueLength; i++) {
+	  value[i] = this.buffer.get(valueOffset + i);
+	}
+	return new String(value, UTF8);
+      }
+    }
+    return null;
+  }
+
+  static Set<String> parseSet(String field) {
+    Set<String> newSet = new HashSet<String>();
+    if (field.length() > 0) {
+      for (String element: field.split(",")) {
+	newSet.add(element);
+      }
+    }
+    return newSet;
+  }
+
+  /**
+   * Lookup concepts for term in warm cache.
+   * @param originalTerm original term
+   * @param normTerm normalized version of original term
+   * @param excludedTerms terms to be excluded from result
+   * @return set of concepts matching term or null if term is not in cache.
+   */
+  public Set<ConceptInfo> lookupTermConceptInfo(String originalTerm, String normTerm,
+						SpecialTerms excludedTerms) {
+    String value = this.get(TERMS, normTerm);
+    if (value == null) {
+      this.termMisses.incrementAndGet();
+      return null;
+    }
+    this.termHits.incrementAndGet();
+    Set<ConceptInfo> conceptInfoSet = new HashSet<ConceptInfo>();
+    if (value.length() > 0) {
+      for (String record: value.split("\n")) {
+	String[] fields = record.split("\\|", -1);
+	// cache holds every posting for the normalized term, apply the
+	// same tests as the index lookup.
+	if ((! excludedTerms.isExcluded(fields[0], normTerm)) &&
+	    TermConceptInfoCache.isLikelyMatch(originalTerm, normTerm, fields[2])) {
+	  if (ConceptInfoRegistry.isEnabled()) {
+	    ConceptInfo core = ConceptInfoRegistry.getCore(fields[0]);
+	    if (core == null) {
+	      core = ConceptInfoRegistry.register(fields[0], fields[1], parseSet(fields[3]),
+						  CuiSemanticTypeSetIndex.toBitSet(parseSet(fields[4])));
+	    }
+	    conceptInfoSet.add(ConceptInfoRegistry.conceptInfo(core, fields[2]));
+	  } else {
+	    conceptInfoSet.add(new ConceptInfo(fields[0], fields[1], fields[2],
+					       parseSet(fields[3]), parseSet(fields[4])));
+	  }
+	}
+      }
+    }
+    return conceptInfoSet;
+  }
+
+  /**
+   * @param cui concept unique identifier
+   * @return preferred name of cui or null if not in cache.
+   */
+  public String lookupPreferredName(String cui) {
+    return this.get(CUIS, cui);
+  }
+
+  /**
+   * @param originalString input string
+   * @return normalized form of string or null if not in cache.
+   */
+  public String lookupNormalizedString(String originalString) {
+    return this.get(NORMSTRINGS, originalString);
+  }
+
+  public long getTermHits() { return this.termHits.get(); }
+  public long getTermMisses() { return this.termMisses.get(); }
+
+  // Profile recording
+
+  /** original term and normalized term of a profile entry */
+  static final class TermPair {
+    final String originalTerm;
+    final String normTerm;
+    TermPair(String originalTerm, String normTerm) {
+      this.originalTerm = originalTerm;
+      this.normTerm = normTerm;
+    }
+    public boolean equals(Object obj) {
+      if (! (obj instanceof TermPair)) {
+	return false;
+      }
+      TermPair other = (TermPair)obj;
+      return this.originalTerm.equals(other.originalTerm) &&
+	this.normTerm.equals(other.normTerm);
+    }
+    public int hashCode() {
+      return 31 * this.originalTerm.hashCode() + this.normTerm.hashCode();
+    }
+  }
+
+  /** term pair -&gt; count, null if not recording */
+  static ConcurrentHashMap<TermPair,AtomicLong> termProfile = null;
+  /** maximum number of distinct term pairs in profile */
+  static int termProfileLimit = 1000000;
+
+  /**
+   * Enable recording of term frequency profile if property
+   * "metamaplite.warmcache.profile.output" is set.
+   * @param properties application properties
+   */
+  public static synchronized void initProfile(Properties properties) {
+    if ((termProfile == null) &&
+	(properties.getProperty("metamaplite.warmcache.profile.output") != null)) {
+      termProfileLimit =
+	Integer.parseInt(properties.getProperty("metamaplite.warmcache.profile.size", "1000000"));
+      termProfile = new ConcurrentHashMap<TermPair,AtomicLong>();
+    }
+  }
+
+  /**
+   * Record lookup of term in profile if profile recording is enabled.
+   * New terms are dropped once the profile holds termProfileLimit
+   * term pairs.
+   * @param originalTerm original term
+   * @param normTerm normalized version of original term
+   */
+  public static void recordTerm(String originalTerm, String normTerm) {
+    if (termProfile != null) {
+      TermPair key = new TermPair(originalTerm, normTerm);
+      AtomicLong count = termProfile.get(key);
+      if (count == null) {
+	if (termProfile.size() >= termProfileLimit) {
+	  return;
+	}
+	AtomicLong newCount = new AtomicLong(0);
+	count = termProfile.putIfAbsent(key, newCount);
+	if (count == null) {
+	  count = newCount;
+	}
+      }
+      count.incrementAndGet();
+    }
+  }
+
+  /**
+   * Escape backslash, tab, newline and carriage return in profile field.
+   * @param field profile field
+   * @return escaped field
+   */
+  static String escapeField(String field) {
+    StringBuilder sb = new StringBuilder(field.length());
+    for (int i = 0; i < field.length(); i++) {
+      char ch = field.charAt(i);
+      switch (ch) {
+      case '\\': sb.append("\\\\"); break;
+      case '\t': sb.append("\\t"); break;
+      case '\n': sb.append("\\n"); break;
+      case '\r': sb.append("\\r"); break;
+      default: sb.append(ch);
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Undo escapeField.
+   * @param field escaped profile field
+   * @return original field
+   */
+  static String unescapeField(String field) {
+    if (field.indexOf('\\') < 0) {
+      return field;
+    }
+    StringBuilder sb = new StringBuilder(field.length());
+    for (int i = 0; i < field.length(); i++) {
+      char ch = field.charAt(i);
+      if ((ch == '\\') && (i + 1 < field.length())) {
+	i++;
+	switch (field.charAt(i)) {
+	case 't': sb.append('\t'); break;
+	case 'n': sb.append('\n'); break;
+	case 'r': sb.append('\r'); break;
+	default: sb.append(field.charAt(i));
+	}
+      } else {
+	sb.append(ch);
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Format profile entry as a line of the profile file.
+   * @param count number of lookups of term pair
+   * @param originalTerm original term
+   * @param normTerm normalized term
+   * @return profile line without line terminator
+   */
+  static String formatProfileLine(long count, String originalTerm, String normTerm) {
+    return count + "\t" + escapeField(originalTerm) + "\t" + escapeField(normTerm);
+  }
+
+  /**
+   * Parse line of profile file.
+   * @param line profile line
+   * @return array of count, original term and normalized term, or null if line is malformed
+   */
+  static String[] parseProfileLine(String line) {
+    String[] fields = line.split("\t", -1);
+    if (fields.length != 3) {
+      return null;
+    }
+    return new String[] { fields[0], unescapeField(fields[1]), unescapeField(fields[2]) };
+  }
+
+  /**
+   * Write recorded profile to file specified by property
+   * "metamaplite.warmcache.profile.output", appending to any
+   * existing profile.
+   * @param properties application properties
+   * @throws IOException i/o exception
+   */
+  public static void writeProfile(Properties properties)
+    throws IOException
+  {
+    String filename = properties.getProperty("metamaplite.warmcache.profile.output");
+    if ((termProfile != null) && (filename != null)) {
+      PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(filename, true)));
+      for (Map.Entry<TermPair,AtomicLong> entry: termProfile.entrySet()) {
+	pw.println(formatProfileLine(entry.getValue().get(),
+				     entry.getKey().originalTerm, entry.getKey().normTerm));
+      }
+      pw.close();
+    }
+  }
+
+  // Builder
+
+  /** order keys by unsigned byte order of their UTF-8 encoding. */
+  static final Comparator<byte[]> byteOrder = new Comparator<byte[]>() {
+      public int compare(byte[] a, byte[] b) {
+	int len = Math.min(a.length, b.length);
+	for (int i = 0; i < len; i++) {
+	  int cond = (a[i] & 0xff) - (b[i] & 0xff);
+	  if (cond != 0) {
+	    return cond;
+	  }
+	}
+	return a.length - b.length;
+      }
+    };
+
+  static String joinSet(Set<String> stringSet) {
+    StringBuilder sb = new StringBuilder();
+    for (String element: stringSet) {
+      if (sb.length() > 0) {
+	sb.append(",");
+      }
+      sb.append(element);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Return keys of countMap with the highest counts.
+   */
+  static List<String> topKeys(final Map<String,Long> countMap, int topN) {
+    List<String> keyList = new ArrayList<String>(countMap.keySet());
+    Collections.sort(keyList, new Comparator<String>() {
+	public int compare(String a, String b) {
+	  return Long.compare(countMap.get(b), countMap.get(a));
+	}
+      });
+    return keyList.subList(0, Math.min(topN, keyList.size()));
+  }
+
+  /**
+   * Write tables to file in warm cache format.
+   */
+  static void writeTables(String outputFilename, List<Map<String,String>> tableList)
+    throws IOException
+  {
+    DataOutputStream out =
+      new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFilename)));
+    List<long[]> layoutList = new ArrayList<long[]>();
+    List<List<byte[]>> sortedKeysList = new ArrayList<List<byte[]>>();
+    // data area: keys and values, table by table
+    for (Map<String,String> table: tableList) {
+      Map<byte[],byte[]> sortedTable = new TreeMap<byte[],byte[]>(byteOrder);
+      for (Map.Entry<String,String> entry: table.entrySet()) {
+	sortedTable.put(entry.getKey().getBytes(UTF8), entry.getValue().getBytes(UTF8));
+      }
+      long[] layout = new long[sortedTable.size() * 4];
+      int i = 0;
+      for (Map.Entry<byte[],byte[]> entry: sortedTable.entrySet()) {
+	layout[i++] = out.size();
+	layout[i++] = entry.getKey().length;
+	out.write(entry.getKey());
+	layout[i++] = out.size();
+	layout[i++] = entry.getValue().length;
+	out.write(entry.getValue());
+      }
+      layoutList.add(layout);
+    }
+    // indexes
+    long[] tableIndexOffset = new long[TABLE_COUNT];
+    int[] tableEntryCount = new int[TABLE_COUNT];
+    for (int t = 0; t < TABLE_COUNT; t++) {
+      long[] layout = layoutList.get(t);
+      tableIndexOffset[t] = out.size();
+      tableEntryCount[t] = layout.length / 4;
+      for (int i = 0; i < layout.length; i += 4) {
+	out.writeLong(layout[i]);
+	out.writeInt((int)layout[i + 1]);
+	out.writeLong(layout[i + 2]);
+	out.writeInt((int)layout[i + 3]);
+      }
+    }
+    // trailer
+    for (int t = 0; t < TABLE_COUNT; t++) {
+      out.writeLong(tableIndexOffset[t]);
+      out.writeInt(tableEntryCount[t]);
+    }
+    out.writeInt(VERSION);
+    out.writeInt(MAGIC);
+    out.close();
+  }
+
+  /**
+   * Build warm cache from term frequency profile.
+   * @param properties application properties (index locations)
+   * @param profileFilename term frequency profile
+   * @param topN number of normalized terms (and original strings) to include
+   * @param outputFilename name of warm cache file to create
+   * @throws FileNotFoundException file not found exception
+   * @throws IOException i/o exception
+   */
+  public static void build(Properties properties, String profileFilename,
+			   int topN, String outputFilename)
+    throws FileNotFoundException, IOException
+  {
+    Map<String,Long> normTermCountMap = new HashMap<String,Long>();
+    Map<String,Long> originalCountMap = new HashMap<String,Long>();
+    Map<String,String> originalNormMap = new HashMap<String,String>();
+    BufferedReader br = new BufferedReader(new FileReader(profileFilename));
+    String line;
+    while ((line = br.readLine()) != null) {
+      String[] fields = parseProfileLine(line);
+      if (fields != null) {
+	long count = Long.parseLong(fields[0]);
+	Long normCount = normTermCountMap.get(fields[2]);
+	normTermCountMap.put(fields[2], (normCount == null) ? count : normCount + count);
+	Long originalCount = originalCountMap.get(fields[1]);
+	originalCountMap.put(fields[1], (originalCount == null) ? count : originalCount + count);
+	originalNormMap.put(fields[1], fields[2]);
+      }
+    }
+    br.close();
+
+    MetaMapIvfIndexes mmIndexes = new MetaMapIvfIndexes(properties);
+    CuiPreferredNameCache cuiPreferredNameCache = new CuiPreferredNameCache(mmIndexes);
+    CuiSourceSetIndex cuiSourceSetIndex = new CuiSourceSetIndex(mmIndexes);
+    CuiSemanticTypeSetIndex cuiSemanticTypeSetIndex = new CuiSemanticTypeSetIndex(mmIndexes);
+
+    Map<String,String> termTable = new HashMap<String,String>();
+    Map<String,String> cuiTable = new HashMap<String,String>();
+    Map<String,String> cuiAttributeMap = new HashMap<String,String>();
+    for (String normTerm: topKeys(normTermCountMap, topN)) {
+      StringBuilder sb = new StringBuilder();
+      for (String doc: mmIndexes.cuiSourceInfoIndex.lookup(normTerm, 3)) {
+	String[] fields = doc.split("\\|");
+	String cui = fields[0];
+	String docStr = fields[3];
+	if (! cuiAttributeMap.containsKey(cui)) {
+	  String preferredName = cuiPreferredNameCache.lookupPreferredNameIVF(cui);
+	  if (preferredName == null) {
+	    preferredName = "";
+	  }
+	  cuiTable.put(cui, preferredName);
+	  cuiAttributeMap.put(cui,
+			      preferredName + "|" +
+			      joinSet(cuiSourceSetIndex.getSourceSet(cui)) + "|" +
+			      joinSet(cuiSemanticTypeSetIndex.getSemanticTypeSet(cui)));
+	}
+	String[] attributes = cuiAttributeMap.get(cui).split("\\|", -1);
+	if (sb.length() > 0) {
+	  sb.append("\n");
+	}
+	sb.append(cui).append("|")
+	  .append(attributes[0]).append("|")
+	  .append(docStr).append("|")
+	  .append(attributes[1]).append("|")
+	  .append(attributes[2]);
+      }
+      termTable.put(normTerm, sb.toString());
+    }
+    Map<String,String> normStringTable = new HashMap<String,String>();
+    for (String original: topKeys(originalCountMap, topN)) {
+      normStringTable.put(original, originalNormMap.get(original));
+    }
+    List<Map<String,String>> tableList = new ArrayList<Map<String,String>>();
+    tableList.add(termTable);
+    tableList.add(cuiTable);
+    tableList.add(normStringTable);
+    writeTables(outputFilename, tableList);
+  }
+
+  /**
+   * Build warm cache.
+   * <pre>
+   * usage: WarmCache indexdir profilefile topN outputfile
+   * </pre>
+   * @param args command line arguments
+   * @throws FileNotFoundException file not found exception
+   * @throws IOException i/o exception
+   */
+  public static void main(String[] args)
+    throws FileNotFoundException, IOException
+  {
+    if (args.length == 4) {
+      String indexDirName = args[0];
+      Properties properties = new Properties();
+      properties.setProperty("metamaplite.ivf.cuiconceptindex", indexDirName + "/indices/cuiconcept");
+      properties.setProperty("metamaplite.ivf.cuisourceinfoindex", indexDirName + "/indices/cuisourceinfo");
+      properties.setProperty("metamaplite.ivf.cuisemantictypeindex", indexDirName + "/indices/cuist");
+      properties.setProperty("metamaplite.ivf.varsindex", indexDirName + "/indices/vars");
+      properties.setProperty("metamaplite.ivf.meshtcrelaxedindex", indexDirName + "/indices/meshtcrelaxed");
+      build(properties, args[1], Integer.parseInt(args[2]), args[3]);
+    } else {
+      System.err.println("usage: WarmCache indexdir profilefile topN outputfile");
+    }
+  }
+}
@@ -0,0 +1,296 @@
+//
+package gov.nih.nlm.nls.metamap.lite.metamap;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import irutils.MappedMultiKeyIndex;
+import irutils.MappedMultiKeyIndexLookup;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Background warm-up of the inverted file indexes.  Term dictionary
+ * and extent partitions are opened and loaded into physical memory
+ * in order of expected use so the first documents processed after a
+ * restart do not wait on page faults.  Lookups may run while the
+ * warm-up is in progress.
+ * <p>
+ * The order is taken from an access profile (recorded with
+ * metamaplite.ivf.warmup.profile.output) most used partitions first;
+ * partitions not in the profile follow, ordered by index, column and
+ * term length.  Indexes are warmed once per JVM; the page cache is
+ * shared, so further MetaMapIvfIndexes instances for the same
+ * directories do not start another warm-up.  A finished warm-up
+ * releases its indexes, and the most recently started warm-up is
+ * only held weakly (see getCurrent).
+ * <p>
+ * Properties:
+ * <dl>
+ * <dt>metamaplite.ivf.warmup.enable</dt><dd>warm up indexes in the background (default: false)</dd>
+ * <dt>metamaplite.ivf.warmup.profile</dt><dd>partition access profile used to order warm-up</dd>
+ * <dt>metamaplite.ivf.warmup.profile.output</dt><dd>append partition access profile to this file (see writeProfile)</dd>
+ * <dt>metamaplite.ivf.warmup.postings</dt><dd>also load postings files (default: false)</dd>
+ * </dl>
+ * Profile records: count|indexname|column|termlength
+ */
+public class IndexWarmup implements Runnable {
+  private static final Logger logger = LogManager.getLogger(IndexWarmup.class);
+
+  /** directories of indexes already being warmed */
+  static Set<String> warmedIndexSet = new HashSet<String>();
+  /** most recently started warm-up, held weakly so that it doesn't keep its indexes reachable */
+  static volatile WeakReference<IndexWarmup> current = new WeakReference<IndexWarmup>(null);
+
+  /** partition to be warmed */
+  static class PartitionTask {
+    MappedMultiKeyIndex index;
+    int column;
+    int termLength;
+    long count;
+    int indexOrder;
+    PartitionTask(MappedMultiKeyIndex index, int indexOrder, int column, int termLength) {
+      this.index = index;
+      this.indexOrder = indexOrder;
+      this.column = column;
+      this.termLength = termLength;
+    }
+    String getKey() {
+      return this.index.getIndexname() + "|" + this.column + "|" + this.termLength;
+    }
+  }
+
+  /** partitions to be warmed, released when warm-up finishes */
+  List<PartitionTask> taskList;
+  /** indexes to be warmed, released when warm-up finishes */
+  List<MappedMultiKeyIndex> indexList;
+  int total;
+  boolean loadPostings;
+  volatile int completed = 0;
+  volatile long bytesLoaded = 0;
+  volatile boolean finished = false;
+
+  IndexWarmup(List<MappedMultiKeyIndex> indexList, Map<String,Long> profileMap, boolean loadPostings) {
+    this.indexList = indexList;
+    this.loadPostings = loadPostings;
+    this.taskList = new ArrayList<PartitionTask>();
+    for (int i = 0; i < indexList.size(); i++) {
+      for (int[] partition: indexList.get(i).listPartitions()) {
+	PartitionTask task = new PartitionTask(indexList.get(i), i, partition[0], partition[1]);
+	Long count = profileMap.get(task.getKey());
+	task.count = (count == null) ? 0 : count.longValue();
+	this.taskList.add(task);
+      }
+    }
+    Collections.sort(this.taskList, new Comparator<PartitionTask>() {
+	public int compare(PartitionTask a, PartitionTask b) {
+	  if (a.count != b.count) {
+	    return a.count > b.count ? -1 : 1;
+	  }
+	  if (a.indexOrder != b.indexOrder) {
+	    return a.indexOrder - b.indexOrder;
+	  }
+	  if (a.column != b.column) {
+	    return a.column - b.column;
+	  }
+	  return a.termLength - b.termLength;
+	}
+      });
+    this.total = this.taskList.size();
+  }
+
+  public void run() {
+    long start = System.nanoTime();
+    int total = this.total;
+    int reported = 0;
+    logger.info("index warm-up started: " + total + " partitions.");
+    try {
+      for (PartitionTask task: this.taskList) {
+	this.bytesLoaded += task.index.preloadPartition(task.column, task.termLength);
+	this.completed++;
+	int percent = (100 * this.completed) / total;
+	if (percent >= reported + 10) {
+	  reported = percent - (percent % 10);
+	  logger.info("index warm-up: " + this.completed + "/" + total + " partitions (" +
+		      reported + "%), " + (this.bytesLoaded / (1024L * 1024L)) + " MB loaded.");
+	}
+      }
+      if (this.loadPostings) {
+	for (MappedMultiKeyIndex index: this.indexList) {
+	  this.bytesLoaded += index.preloadPostings();
+	}
+      }
+      logger.info("index warm-up finished: " + total + " partitions, " +
+		  (this.bytesLoaded / (1024L * 1024L)) + " MB in " +
+		  TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+    } catch (IOException exception) {
+      logger.warn("index warm-up stopped: " + exception.getMessage());
+    } finally {
+      synchronized (this) {
+	this.taskList = null;
+	this.indexList = null;
+	this.finished = true;
+	this.notifyAll();
+      }
+    }
+  }
+
+  /** @return fraction of partitions warmed (0.0 to 1.0) */
+  public double getProgress() {
+    return (this.total == 0) ? 1.0 : ((double)this.completed / this.total);
+  }
+
+  /** @return true if warm-up has finished */
+  public boolean isFinished() {
+    return this.finished;
+  }
+
+  /**
+   * Wait for warm-up to finish.
+   * @param millis maximum time to wait in milliseconds
+   * @return true if warm-up has finished
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public synchronized boolean awaitCompletion(long millis)
+    throws InterruptedException
+  {
+    long deadline = System.currentTimeMillis() + millis;
+    while (! this.finished) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+	break;
+      }
+      this.wait(remaining);
+    }
+    return this.finished;
+  }
+
+  /**
+   * Read access profile.
+   * @param filename profile filename
+   * @return map of indexname|column|termlength -&gt; access count
+   * @throws IOException i/o exception
+   */
+  static Map<String,Long> readProfile(String filename)
+    throws IOException
+  {
+    Map<String,Long> profileMap = new HashMap<String,Long>();
+    BufferedReader br = new BufferedReader(new FileReader(filename));
+    String line;
+    while ((line = br.readLine()) != null) {
+      int i = line.indexOf('|');
+      if (i > 0) {
+	String key = line.substring(i + 1);
+	long count = Long.parseLong(line.substring(0, i));
+	Long previous = profileMap.get(key);
+	profileMap.put(key, (previous == null) ? count : previous + count);
+      }
+    }
+    br.close();
+    return profileMap;
+  }
+
+  /**
+   * Start warm-up of indexes in the background if enabled and not
+   * already started for these indexes, and enable recording of the
+   * access profile if requested.
+   * @param indexes MetaMap inverted file indexes
+   * @param properties configuration properties
+   * @return warm-up instance or null if no warm-up was started
+   */
+  public static IndexWarmup start(MetaMapIvfIndexes indexes, Properties properties) {
+    if (properties.getProperty("metamaplite.ivf.warmup.profile.output") != null) {
+      MappedMultiKeyIndex.setRecordPartitionAccess(true);
+    }
+    if (! Boolean.parseBoolean(properties.getProperty("metamaplite.ivf.warmup.enable", "false"))) {
+      return null;
+    }
+    List<MappedMultiKeyIndex> indexList = new ArrayList<MappedMultiKeyIndex>();
+    for (MappedMultiKeyIndexLookup lookup: new MappedMultiKeyIndexLookup[] {
+	indexes.getCuiSourceInfoIndex(), indexes.getCuiConceptIndex(),
+	indexes.getCuiSemanticTypeIndex(), indexes.getVarsIndex(),
+	indexes.getMeshTcRelaxedIndex() }) {
+      if (lookup != null) {
+	indexList.add(lookup.getIndex());
+      }
+    }
+    return start(indexes.getRoot(), indexList, properties);
+  }
+
+  /**
+   * Start warm-up of indexes in the background unless already started
+   * for index root.
+   * @param root index root directory
+   * @param indexList indexes to warm
+   * @param properties configuration properties
+   * @return warm-up instance or null if warm-up was already started for root
+   */
+  static IndexWarmup start(String root, List<MappedMultiKeyIndex> indexList, Properties properties) {
+    synchronized (warmedIndexSet) {
+      if (warmedIndexSet.contains(root)) {
+	return null;
+      }
+      warmedIndexSet.add(root);
+    }
+    Map<String,Long> profileMap = new HashMap<String,Long>();
+    String profileFilename = properties.getProperty("metamaplite.ivf.warmup.profile");
+    if ((profileFilename != null) && new File(profileFilename).exists()) {
+      try {
+	profileMap = readProfile(profileFilename);
+      } catch (IOException exception) {
+	logger.warn("unable to read index warm-up profile " + profileFilename + ": " + exception.getMessage());
+      }
+    }
+    IndexWarmup warmup =
+      new IndexWarmup(indexList, profileMap,
+		      Boolean.parseBoolean(properties.getProperty("metamaplite.ivf.warmup.postings", "false")));
+    Thread thread = new Thread(warmup, "index-warmup");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+    current = new WeakReference<IndexWarmup>(warmup);
+    return warmup;
+  }
+
+  /** @return most recently started warm-up, null if none or if it is no longer referenced */
+  public static IndexWarmup getCurrent() {
+    return current.get();
+  }
+
+  /**
+   * Append recorded partition access profile to file specified by
+   * metamaplite.ivf.warmup.profile.output.
+   * @param properties configuration properties
+   * @throws IOException i/o exception
+   */
+  public static void writeProfile(Properties properties)
+    throws IOException
+  {
+    String filename = properties.getProperty("metamaplite.ivf.warmup.profile.output");
+    if (filename != null) {
+      PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(filename, true)));
+      for (Map.Entry<String,AtomicLong> entry: MappedMultiKeyIndex.getPartitionAccessCountMap().entrySet()) {
+	pw.println(entry.getValue().get() + "|" + entry.getKey());
+      }
+      pw.close();
+    }
+  }
+}
@@ -101,6 +101,7 @@ public class MetaMapIvfIndexes {
 	 (properties.getProperty("metamaplite.ivf.meshtcrelaxedindex", defaultRoot + "/indices/meshtcrelaxed")));
     }
     this.root = properties.getProperty("metamaplite.index.directory", defaultRoot);
+    IndexWarmup.start(this, properties);
   }
 
   
@@ -0,0 +1,41 @@
+//
+package gov.nih.nlm.nls.metamap.lite.pipeline.plugins;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Pipeline stage backed by a method handle bound to the plugin
+ * instance and adapted to the signature (Object)Object, so each
+ * invocation is an invokeExact call rather than a reflective one.
+ */
+
+public class MethodHandleStage implements PluginStage {
+  /** (Object)Object method type used for all stages. */
+  static final MethodType STAGE_TYPE = MethodType.methodType(Object.class, Object.class);
+
+  final MethodHandle handle;
+
+  /**
+   * Bind plugin method to instance.
+   * @param classInstance instance of plugin class (ignored for static methods)
+   * @param method target method, must take exactly one parameter
+   * @throws IllegalAccessException if target method is not accessible
+   */
+  public MethodHandleStage(Object classInstance, Method method)
+    throws IllegalAccessException
+  {
+    MethodHandle target = MethodHandles.publicLookup().unreflect(method);
+    if (! Modifier.isStatic(method.getModifiers())) {
+      target = target.bindTo(classInstance);
+    }
+    this.handle = target.asType(STAGE_TYPE);
+  }
+
+  public Object process(Object input) throws Throwable {
+    return this.handle.invokeExact(input);
+  }
+}
@@ -9,6 +9,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Properties;
 
+import java.lang.reflect.InvocationTargetException;
+
 /**
  *
  */
@@ -44,13 +46,43 @@ public class PipelineRegistry {
       StringBuilder sb = new StringBuilder();
       sb.append (entry.getKey()).append(" -> ");
       for (Plugin plugin: entry.getValue()) {
-	sb.append(plugin.getName()).append(", ");
+	sb.append(plugin.getName())
+	  .append(" (calls: ").append(plugin.getCallCount())
+	  .append(", ms: ").append(plugin.getElapsedNanos() / 1000000L)
+	  .append("), ");
       }
       contentList.add(sb.toString());
     }
     return contentList;
   }
 
+  /**
+   * Apply plugin sequence with supplied name to input, the result of
+   * each plugin is the input of the next.
+   * @param name name of plugin sequence.
+   * @param input input to first plugin in sequence
+   * @return result from final plugin in sequence
+   * @throws InvocationTargetException exception thrown by a plugin
+   */
+  public static Object apply(String name, Object input)
+    throws InvocationTargetException
+  {
+    Object current = input;
+    for (Plugin plugin: pipeSequenceMap.get(name)) {
+      current = plugin.invoke(current);
+    }
+    return current;
+  }
+
+  /** Reset call counters and timers of all plugins in all sequences. */
+  public static void resetStatistics() {
+    for (List<Plugin> sequence: pipeSequenceMap.values()) {
+      for (Plugin plugin: sequence) {
+	plugin.resetStatistics();
+      }
+    }
+  }
+
   public static void registerPipeSequences(String prefix, Properties properties) {
     for (Map.Entry<Object,Object> entry: properties.entrySet()) {
       if ((((String)entry.getKey()).length() > prefix.length()) &&
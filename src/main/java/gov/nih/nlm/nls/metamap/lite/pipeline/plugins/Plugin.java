@@ -1,25 +1,41 @@
-
 //
 package gov.nih.nlm.nls.metamap.lite.pipeline.plugins;
 
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *
  */
 
-public class Plugin 
+public class Plugin
 {
   String name;
   String description;
   Object classInstance;
   Method method;
+  /** target method bound to instance once at registration */
+  PluginStage stage;
+  /** number of invocations */
+  AtomicLong callCount = new AtomicLong(0);
+  /** cumulative time spent in plugin in nanoseconds */
+  AtomicLong elapsedNanos = new AtomicLong(0);
+
+  public Plugin(String name, String description, Object classInstance, Method method)
+    throws IllegalAccessException
+  {
+    this(name, description, classInstance, method,
+	 new MethodHandleStage(classInstance, method));
+  }
 
-  public Plugin(String name, String description, Object classInstance, Method method) {
+  public Plugin(String name, String description, Object classInstance, Method method,
+		PluginStage stage) {
     this.name = name;
     this.description = description;
     this.classInstance = classInstance;
     this.method = method;
+    this.stage = stage;
   }
   public String getName() {
     return this.name;
@@ -33,4 +49,47 @@ public class Plugin
   public Method getMethod() {
     return this.method;
   }
+  public PluginStage getStage() {
+    return this.stage;
+  }
+
+  /**
+   * Apply plugin to input using bound stage, updating call count and
+   * elapsed time.
+   * @param input input to plugin
+   * @return result of plugin
+   * @throws InvocationTargetException wraps any exception thrown by
+   * plugin; errors (e.g. OutOfMemoryError) are rethrown unchanged.
+   */
+  public Object invoke(Object input)
+    throws InvocationTargetException
+  {
+    long start = System.nanoTime();
+    try {
+      return this.stage.process(input);
+    } catch (Error error) {
+      throw error;
+    } catch (Throwable t) {
+      throw new InvocationTargetException(t);
+    } finally {
+      this.elapsedNanos.addAndGet(System.nanoTime() - start);
+      this.callCount.incrementAndGet();
+    }
+  }
+
+  /** @return number of times plugin has been invoked */
+  public long getCallCount() {
+    return this.callCount.get();
+  }
+
+  /** @return cumulative time spent in plugin in nanoseconds */
+  public long getElapsedNanos() {
+    return this.elapsedNanos.get();
+  }
+
+  /** reset call counter and timer */
+  public void resetStatistics() {
+    this.callCount.set(0);
+    this.elapsedNanos.set(0);
+  }
 }
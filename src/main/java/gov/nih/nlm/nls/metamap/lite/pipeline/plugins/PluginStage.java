@@ -0,0 +1,18 @@
+//
+package gov.nih.nlm.nls.metamap.lite.pipeline.plugins;
+
+/**
+ * A single pipeline stage bound to its plugin target once at
+ * registration time.  Invoking a stage does not go through
+ * java.lang.reflect.Method.invoke.
+ */
+
+public interface PluginStage {
+  /**
+   * Apply stage to input.
+   * @param input output of previous stage (or initial input)
+   * @return result of stage, null if target method returns void
+   * @throws Throwable any exception thrown by the target method
+   */
+  Object process(Object input) throws Throwable;
+}
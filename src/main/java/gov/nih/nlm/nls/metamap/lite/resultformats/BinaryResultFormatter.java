@@ -0,0 +1,22 @@
+//
+package gov.nih.nlm.nls.metamap.lite.resultformats;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Properties;
+import gov.nih.nlm.nls.metamap.lite.types.Entity;
+
+/**
+ * Result formatter producing binary output, which must be written to
+ * an output stream rather than a PrintWriter.  Binary formatters are
+ * registered in BinaryResultFormatterRegistry, not in
+ * ResultFormatterRegistry.
+ */
+
+public interface BinaryResultFormatter {
+  void entityListFormatter(OutputStream out,
+			   List<Entity> entityList)
+    throws IOException;
+  void initProperties(Properties properties);
+}
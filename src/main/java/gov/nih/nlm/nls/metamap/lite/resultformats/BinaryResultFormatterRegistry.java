@@ -0,0 +1,87 @@
+//
+package gov.nih.nlm.nls.metamap.lite.resultformats;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * list binary result formatters in properties file in the following format:
+ * <pre>
+ * metamaplite.binary.result.formatter.{name}: classname
+ * </pre>
+ * Binary formatters write to an output stream and are kept apart
+ * from the text formatters of ResultFormatterRegistry.
+ */
+
+public class BinaryResultFormatterRegistry {
+  /** Map of Binary Result Formatters by format name */
+  static final Map<String,BinaryResultFormatter> formatterMap =
+    new HashMap<String,BinaryResultFormatter>();
+  /** Map of Binary Result Formatter description by format name */
+  static final Map<String,String> descriptionMap = new HashMap<String,String>();
+
+  /**
+   * Register formatter.
+   * @param name name of formatter
+   * @param description description of formatter
+   * @param className full classname of formatter
+   * @throws ClassNotFoundException Class Not Found Exception
+   * @throws IllegalAccessException illegal access of class
+   * @throws InstantiationException exception while instantiating class 
+   */
+  public static void register(String name, String description, 
+			      String className)
+    throws ClassNotFoundException, InstantiationException, IllegalAccessException
+  {
+    Object classInstance = Class.forName(className).newInstance();
+    if (classInstance instanceof BinaryResultFormatter) {
+      register(name, description, (BinaryResultFormatter)classInstance);
+    } else {
+      throw new RuntimeException("Class instance " + className +
+				 " for binary result formatter " + name +
+				 " does not implement the BinaryResultFormatter interface.");
+    }
+  }
+
+  /**
+   * Register formatter.
+   * @param name name of formatter
+   * @param description description of formatter
+   * @param instance class instance of formatter
+   */
+  public static void register(String name, String description, 
+			      BinaryResultFormatter instance)
+  {
+    synchronized(formatterMap) {
+      formatterMap.put(name, instance);
+    }
+    synchronized(descriptionMap) {
+      descriptionMap.put(name,description);
+    }
+  }
+
+  public static Set<String> listNameSet() {
+    return formatterMap.keySet();
+  }
+
+  public static boolean contains(String name) {
+    return formatterMap.containsKey(name);
+  }
+
+  public static BinaryResultFormatter get(String name) {
+    return formatterMap.get(name);
+  }
+
+  public static void register(Properties properties) 
+     throws ClassNotFoundException, InstantiationException, IllegalAccessException
+  {
+    for (String propname: properties.stringPropertyNames()) {
+      if (propname.startsWith("metamaplite.binary.result.formatter.")) {
+	String name = propname.substring("metamaplite.binary.result.formatter.".length());
+	register(name,"",properties.getProperty(propname));
+      }
+    }
+  }
+}
@@ -16,6 +16,7 @@ import gov.nih.nlm.nls.tools.standoff.TextBoundAnnotation;
 
 import java.io.PrintWriter;
 import java.io.PrintStream;
+import java.io.StringWriter;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -141,13 +142,186 @@ public class Brat implements ResultFormatter {
     return annotationSetToString(annotationSet);
   } /* annotationListToString */
 
+  /**
+   * Normalization annotation of writeAnnotationList; equality and
+   * hash code are those of NormalizationAnnotation, the hash code is
+   * computed without concatenating the fields.
+   */
+  static final class Reference {
+    final String rid;
+    final String eid;
+    final String text;
+    final int hash;
+
+    Reference(String rid, String eid, String text) {
+      this.rid = rid.trim();
+      this.eid = eid.trim();
+      this.text = text.trim();
+      int h = this.rid.hashCode();
+      h = h * pow31(this.eid.length()) + this.eid.hashCode();
+      h = h * pow31(this.text.length()) + this.text.hashCode();
+      this.hash = h;
+    }
+
+    public boolean equals(Object obj) {
+      return (this.rid.equals(((Reference)obj).rid) &&
+	      this.eid.equals(((Reference)obj).eid) &&
+	      this.text.equals(((Reference)obj).text));
+    }
+
+    public int hashCode() {
+      return this.hash;
+    }
+  }
+
+  /**
+   * Text bound annotation of writeAnnotationList; hash code and
+   * identity equality are those of TextBoundAnnotation.
+   */
+  static final class TextBound {
+    final int start;
+    final int end;
+    final String text;
+    final int hash;
+    Set<Reference> referenceSet;
+
+    TextBound(String type, int start, int end, String text) {
+      this.start = start;
+      this.end = end;
+      this.text = text;
+      this.hash = type.hashCode() + start + end + text.hashCode();
+    }
+
+    public int hashCode() {
+      return this.hash;
+    }
+  }
+
+  /** @return 31 to the power n, modulo 2^32, as used by String.hashCode */
+  static int pow31(int n) {
+    int result = 1;
+    int base = 31;
+    while (n > 0) {
+      if ((n & 1) != 0) {
+	result *= base;
+      }
+      base *= base;
+      n >>= 1;
+    }
+    return result;
+  }
+
+  /**
+   * Same as text.replaceAll("\n","\\n") in TextBoundAnnotation, which
+   * replaces each newline by "n".
+   */
+  static String escapeText(String text) {
+    return text.indexOf('\n') < 0 ? text : text.replace('\n', 'n');
+  }
+
+  /** Same as generateReferenceSet, using Reference instances. */
+  static Set<Reference> generateReferences(Entity entity) {
+    Set<Reference> referenceSet = new HashSet<Reference>();
+    if (entity.getScore() > 0.0) {
+      String score = Double.toString(entity.getScore());
+      referenceSet.add(new Reference("Score", score, score));
+    }
+    for (Ev ev: entity.getEvSet()) {
+      String cui = ev.getConceptInfo().getCUI();
+      String preferredName = ev.getConceptInfo().getPreferredName();
+      if ((cui == null) || (preferredName == null)) {
+	System.out.println("cui or preferred name is null for entity: " + entity);
+      } else {
+	referenceSet.add(new Reference("ConceptId", cui, preferredName));
+      }
+      for (String semtype: ev.getConceptInfo().getSemanticTypeSet()) {
+	referenceSet.add(new Reference("SemanticType", semtype, semtype));
+      }
+      if (entity.isNegated()) {
+	referenceSet.add(new Reference("Negated", ev.getMatchedText(), ev.getMatchedText()));
+      }
+      if (entity.getTemporality().trim().length() > 0) {
+	referenceSet.add(new Reference("Temporality", entity.getTemporality(), entity.getTemporality()));
+      }
+    }
+    return referenceSet;
+  }
+
+  /**
+   * Write entities in Standoff annotation format directly to writer.
+   * The output, including the order of annotations, is the same as
+   * that of annotationListToString: the entities are grouped and the
+   * annotations collected in hash maps and sets with the same keys
+   * and hash codes, but annotation strings, normalization annotation
+   * instances and the string of the whole list are not built.
+   *
+   * @param writer buffered result writer used for output
+   * @param recognizerName name to use for entity annotation typename 
+   * @param entityList list of entities to be converted to annotations
+   */
+  public static void writeAnnotationList(BufferedResultWriter writer,
+					 String recognizerName,
+					 List<Entity> entityList) {
+    StringBuilder keyBuilder = new StringBuilder();
+    Map<String,List<Entity>> locationMap = new HashMap<String,List<Entity>>();
+    for (Entity entity: entityList) {
+      keyBuilder.setLength(0);
+      String location = keyBuilder.append(entity.getStart()).append(':').append(entity.getLength()).toString();
+      List<Entity> annotationList = locationMap.get(location);
+      if (annotationList == null) {
+	annotationList = new ArrayList<Entity>();
+	locationMap.put(location, annotationList);
+      }
+      annotationList.add(entity);
+    }
+    int typeHash = recognizerName.hashCode();
+    Map<String,TextBound> annotationMap = new HashMap<String,TextBound>();
+    for (List<Entity> annotationList: locationMap.values()) {
+      for (Entity entity: annotationList) {
+        int start = entity.getStart();
+	int end = start + entity.getLength();
+	String term = escapeText(entity.getText());
+	keyBuilder.setLength(0);
+	String key = keyBuilder.append(typeHash).append(':').append(start).append(':').append(end)
+	  .append('|').append(term.hashCode()).toString();
+	if (! annotationMap.containsKey(key)) {
+	  TextBound textBound = new TextBound(recognizerName, start, end, term);
+	  textBound.referenceSet = generateReferences(entity);
+	  annotationMap.put(key, textBound);
+	}
+      }
+    }
+    Set<TextBound> annotationSet = new HashSet<TextBound>(annotationMap.values());
+    int cindex = 0;
+    int nindex = 0;
+    for (TextBound annotation: annotationSet) {
+      cindex++;
+      writer.write('T').write(cindex).write('\t').write(recognizerName).write(' ')
+	.write(annotation.start).write(' ').write(annotation.end).write('\t')
+	.write(annotation.text).write('\n');
+      for (Reference reference: annotation.referenceSet) {
+	nindex++;
+	writer.write('N').write(nindex).write("\tReference T").write(cindex).write(' ')
+	  .write(reference.rid).write(':').write(reference.eid).write('\t')
+	  .write(reference.text).write('\n');
+      }
+    }
+  } /* writeAnnotationList */
+
   public void entityListFormatter(PrintWriter writer,
 				  List<Entity> entityList) {
-    writer.println(annotationListToString(this.textLabel, entityList));
+    BufferedResultWriter resultWriter = new BufferedResultWriter(writer);
+    writeAnnotationList(resultWriter, this.textLabel, entityList);
+    resultWriter.newLine();
+    resultWriter.flushBuffer();
   }
 
   public String entityListFormatToString(List<Entity> entityList) {
-    return annotationListToString(this.textLabel, entityList);
+    StringWriter sw = new StringWriter();
+    BufferedResultWriter resultWriter = new BufferedResultWriter(sw);
+    writeAnnotationList(resultWriter, this.textLabel, entityList);
+    resultWriter.flushBuffer();
+    return sw.toString();
   }
 
   public void initProperties(Properties properties) {
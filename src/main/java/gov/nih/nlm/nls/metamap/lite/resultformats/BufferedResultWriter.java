@@ -0,0 +1,184 @@
+//
+package gov.nih.nlm.nls.metamap.lite.resultformats;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.FieldPosition;
+import java.text.NumberFormat;
+import java.util.Arrays;
+
+/**
+ * Buffered writer used by result formatters to append fields of
+ * result records directly to the output.
+ * <p>
+ * Strings are copied into a char buffer which is written to the
+ * underlying writer when full (the buffer starts small and grows to
+ * BUFFER_SIZE chars, so formatting short results is cheap); ints are
+ * formatted into the
+ * buffer without creating strings and numbers formatted by a
+ * NumberFormat reuse one StringBuffer.  The underlying writer is only
+ * written by flushBuffer() or when the buffer is full, it is never
+ * flushed or closed.
+ * <p>
+ * As PrintWriter does, errors of the underlying writer are recorded
+ * rather than thrown, see checkError().
+ */
+public class BufferedResultWriter {
+  static final int INITIAL_BUFFER_SIZE = 256;
+  static final int BUFFER_SIZE = 8192;
+  static final String LINE_SEPARATOR = System.lineSeparator();
+
+  Writer out;
+  String lineSeparator;
+  /** grows up to BUFFER_SIZE before contents are written to out */
+  char[] buf = new char[INITIAL_BUFFER_SIZE];
+  int position = 0;
+  /** scratch space for formatting ints */
+  char[] digits = new char[11];
+  StringBuffer numberBuffer = null;
+  FieldPosition fieldPosition = null;
+  IOException error = null;
+
+  /**
+   * @param out underlying writer
+   */
+  public BufferedResultWriter(Writer out) {
+    this(out, LINE_SEPARATOR);
+  }
+
+  /**
+   * @param out underlying writer
+   * @param lineSeparator string written by newLine()
+   */
+  public BufferedResultWriter(Writer out, String lineSeparator) {
+    this.out = out;
+    this.lineSeparator = lineSeparator;
+  }
+
+  /**
+   * Write contents of buffer to underlying writer.
+   */
+  public void flushBuffer() {
+    if (this.position > 0) {
+      try {
+	this.out.write(this.buf, 0, this.position);
+      } catch (IOException ioe) {
+	this.error = ioe;
+      }
+      this.position = 0;
+    }
+  }
+
+  /**
+   * Make room for count chars, growing buffer or writing its
+   * contents to underlying writer.
+   */
+  void reserve(int count) {
+    if (this.buf.length - this.position >= count) {
+      return;
+    }
+    if (this.buf.length < BUFFER_SIZE) {
+      int capacity = this.buf.length;
+      while ((capacity < BUFFER_SIZE) && (capacity - this.position < count)) {
+	capacity *= 4;
+      }
+      this.buf = Arrays.copyOf(this.buf, Math.min(capacity, BUFFER_SIZE));
+      if (this.buf.length - this.position >= count) {
+	return;
+      }
+    }
+    this.flushBuffer();
+  }
+
+  /** @return true if the underlying writer has thrown an exception */
+  public boolean checkError() {
+    return this.error != null;
+  }
+
+  public BufferedResultWriter write(char c) {
+    if (this.position == this.buf.length) {
+      this.reserve(1);
+    }
+    this.buf[this.position++] = c;
+    return this;
+  }
+
+  /**
+   * @param s string, if null "null" is written as by PrintWriter.print.
+   * @return this writer
+   */
+  public BufferedResultWriter write(String s) {
+    if (s == null) {
+      s = "null";
+    }
+    int length = s.length();
+    int offset = 0;
+    this.reserve(Math.min(length, BUFFER_SIZE));
+    while (offset < length) {
+      if (this.position == this.buf.length) {
+	this.flushBuffer();
+      }
+      int count = Math.min(length - offset, this.buf.length - this.position);
+      s.getChars(offset, offset + count, this.buf, this.position);
+      this.position += count;
+      offset += count;
+    }
+    return this;
+  }
+
+  /**
+   * Write decimal representation of value, same as Integer.toString.
+   * @param value integer
+   * @return this writer
+   */
+  public BufferedResultWriter write(int value) {
+    if (value == Integer.MIN_VALUE) {
+      return this.write(Integer.toString(value));
+    }
+    if (value < 0) {
+      this.write('-');
+      value = -value;
+    }
+    int i = this.digits.length;
+    do {
+      this.digits[--i] = (char)('0' + (value % 10));
+      value /= 10;
+    } while (value > 0);
+    this.reserve(this.digits.length - i);
+    System.arraycopy(this.digits, i, this.buf, this.position, this.digits.length - i);
+    this.position += this.digits.length - i;
+    return this;
+  }
+
+  /**
+   * Write value formatted by numberFormat, same as numberFormat.format(value).
+   * @param numberFormat number format
+   * @param value number
+   * @return this writer
+   */
+  public BufferedResultWriter write(NumberFormat numberFormat, double value) {
+    if (this.numberBuffer == null) {
+      this.numberBuffer = new StringBuffer();
+      this.fieldPosition = new FieldPosition(0);
+    }
+    this.numberBuffer.setLength(0);
+    numberFormat.format(value, this.numberBuffer, this.fieldPosition);
+    int length = this.numberBuffer.length();
+    if (length > BUFFER_SIZE) {
+      return this.write(this.numberBuffer.toString());
+    }
+    this.reserve(length);
+    this.numberBuffer.getChars(0, length, this.buf, this.position);
+    this.position += length;
+    return this;
+  }
+
+  /**
+   * Write line separator, by default the system line separator as
+   * PrintWriter.println does.
+   * @return this writer
+   */
+  public BufferedResultWriter newLine() {
+    return this.write(this.lineSeparator);
+  }
+}
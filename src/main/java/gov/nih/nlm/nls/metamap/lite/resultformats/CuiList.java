@@ -1,6 +1,7 @@
 package gov.nih.nlm.nls.metamap.lite.resultformats;
 
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -42,9 +43,20 @@ public class CuiList implements ResultFormatter {
 
   public static void displayEntityList(PrintWriter pw, List<Entity> entityList) 
   {
-    Set<String> cuiSet = entityListToCuiSet(entityList);
-    for (String resultString: cuiSet) {
-      pw.print(resultString + "\n");
+    BufferedResultWriter writer = new BufferedResultWriter(pw);
+    writeEntityList(writer, entityList);
+    writer.flushBuffer();
+  }
+
+  /**
+   * Write cuis of entities directly to writer, one per line.
+   * @param writer buffered result writer used for output
+   * @param entityList list of entities
+   */
+  public static void writeEntityList(BufferedResultWriter writer, List<Entity> entityList)
+  {
+    for (String cui: entityListToCuiSet(entityList)) {
+      writer.write(cui).write('\n');
     }
   }
 
@@ -55,12 +67,11 @@ public class CuiList implements ResultFormatter {
   }
   
   public String entityListFormatToString(List<Entity> entityList) {
-    StringBuilder sb = new StringBuilder();
-    Set<String> cuiSet = entityListToCuiSet(entityList);
-    for (String resultString: cuiSet) {
-      sb.append(resultString).append("\n");
-    }
-    return sb.toString();
+    StringWriter sw = new StringWriter();
+    BufferedResultWriter writer = new BufferedResultWriter(sw);
+    writeEntityList(writer, entityList);
+    writer.flushBuffer();
+    return sw.toString();
   }
   
   public void initProperties(Properties properties) {
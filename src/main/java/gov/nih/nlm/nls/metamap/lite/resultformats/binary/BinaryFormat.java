@@ -0,0 +1,251 @@
+//
+package gov.nih.nlm.nls.metamap.lite.resultformats.binary;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import gov.nih.nlm.nls.metamap.lite.resultformats.BinaryResultFormatter;
+import gov.nih.nlm.nls.metamap.lite.types.ConceptInfo;
+import gov.nih.nlm.nls.metamap.lite.types.Entity;
+import gov.nih.nlm.nls.metamap.lite.types.Ev;
+
+/**
+ * Binary columnar result format.
+ * <p>
+ * Each call of entityListFormatter writes one segment: a header, a
+ * dictionary page and one block per document.  Strings, semantic
+ * types and concepts are stored once in the dictionary page and
+ * referred to by their index in the blocks.  Files may contain
+ * several segments (one per formatter call), each with its own
+ * dictionary.
+ * <p>
+ * Layout (big-endian, see DataOutputStream):
+ * <pre>
+ * segment:    int magic ("MMLB"), int version
+ * dictionary: int n, n strings (int byte length, UTF-8 bytes)
+ *             int n, n semantic types (string index)
+ *             int n, n concepts (cui, preferred name: string index;
+ *               semantic types: int count, semantic type indexes;
+ *               sources: int count, string indexes)
+ * documents:  int n, n document blocks
+ * block:      docid (string index), int entity count m,
+ *             entity columns of m values each: start, length, score (double),
+ *               flags (byte, 1: negated), sentence number, location position,
+ *               id, field id, lexical category, temporality, matched text (string indexes),
+ *               evidence count
+ *             int evidence count k,
+ *             evidence columns of k values each: concept index,
+ *               concept string of concept, concept string, matched text (string indexes),
+ *               start, length, score (double), part of speech (string index)
+ * </pre>
+ * A string index of -1 is a null string.  Semantic types and sources
+ * of a concept are kept in the iteration order of their sets, MMI
+ * output depends on it; the reader derives a semantic type bitset
+ * per concept for filtering.  See BinaryResultReader for reading and
+ * BinaryResultConverter for conversion to MMI and Brat.
+ */
+public class BinaryFormat implements BinaryResultFormatter {
+  /** "MMLB" */
+  public static final int MAGIC = 0x4D4D4C42;
+  public static final int VERSION = 1;
+  public static final int NEGATED = 0x1;
+
+  /** dictionary of strings, semantic types and concepts of a segment */
+  static class Dictionary {
+    List<String> stringList = new ArrayList<String>();
+    Map<String,Integer> stringIndexMap = new HashMap<String,Integer>();
+    List<String> semanticTypeList = new ArrayList<String>();
+    Map<String,Integer> semanticTypeIndexMap = new HashMap<String,Integer>();
+    /** first concept of each cui */
+    List<ConceptInfo> conceptList = new ArrayList<ConceptInfo>();
+    Map<String,Integer> conceptIndexMap = new HashMap<String,Integer>();
+
+    int stringIndex(String value) {
+      if (value == null) {
+	return -1;
+      }
+      Integer index = this.stringIndexMap.get(value);
+      if (index == null) {
+	index = this.stringList.size();
+	this.stringList.add(value);
+	this.stringIndexMap.put(value, index);
+      }
+      return index;
+    }
+
+    int semanticTypeIndex(String semanticType) {
+      Integer index = this.semanticTypeIndexMap.get(semanticType);
+      if (index == null) {
+	index = this.semanticTypeList.size();
+	this.semanticTypeList.add(semanticType);
+	this.semanticTypeIndexMap.put(semanticType, index);
+      }
+      return index;
+    }
+
+    int conceptIndex(ConceptInfo conceptInfo) {
+      Integer index = this.conceptIndexMap.get(conceptInfo.getCUI());
+      if (index == null) {
+	index = this.conceptList.size();
+	this.conceptList.add(conceptInfo);
+	this.conceptIndexMap.put(conceptInfo.getCUI(), index);
+	this.stringIndex(conceptInfo.getCUI());
+	this.stringIndex(conceptInfo.getPreferredName());
+	for (String semanticType: conceptInfo.getSemanticTypeSet()) {
+	  this.stringIndex(semanticType);
+	  this.semanticTypeIndex(semanticType);
+	}
+	for (String source: conceptInfo.getSourceSet()) {
+	  this.stringIndex(source);
+	}
+      }
+      return index;
+    }
+  }
+
+  public BinaryFormat() {
+  }
+
+  static void writeString(DataOutputStream out, String value)
+    throws IOException
+  {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static void writeDictionary(DataOutputStream out, Dictionary dictionary)
+    throws IOException
+  {
+    out.writeInt(dictionary.stringList.size());
+    for (String value: dictionary.stringList) {
+      writeString(out, value);
+    }
+    out.writeInt(dictionary.semanticTypeList.size());
+    for (String semanticType: dictionary.semanticTypeList) {
+      out.writeInt(dictionary.stringIndex(semanticType));
+    }
+    out.writeInt(dictionary.conceptList.size());
+    for (ConceptInfo conceptInfo: dictionary.conceptList) {
+      out.writeInt(dictionary.stringIndex(conceptInfo.getCUI()));
+      out.writeInt(dictionary.stringIndex(conceptInfo.getPreferredName()));
+      out.writeInt(conceptInfo.getSemanticTypeSet().size());
+      for (String semanticType: conceptInfo.getSemanticTypeSet()) {
+	out.writeInt(dictionary.semanticTypeIndex(semanticType));
+      }
+      out.writeInt(conceptInfo.getSourceSet().size());
+      for (String source: conceptInfo.getSourceSet()) {
+	out.writeInt(dictionary.stringIndex(source));
+      }
+    }
+  }
+
+  static void writeDocument(DataOutputStream out, Dictionary dictionary,
+			    String docid, List<Entity> entityList)
+    throws IOException
+  {
+    List<List<Ev>> evListList = new ArrayList<List<Ev>>(entityList.size());
+    int evCount = 0;
+    for (Entity entity: entityList) {
+      List<Ev> evList = entity.getEvList();
+      evListList.add(evList);
+      evCount += evList.size();
+    }
+    out.writeInt(dictionary.stringIndex(docid));
+    out.writeInt(entityList.size());
+    for (Entity entity: entityList) { out.writeInt(entity.getStart()); }
+    for (Entity entity: entityList) { out.writeInt(entity.getLength()); }
+    for (Entity entity: entityList) { out.writeDouble(entity.getScore()); }
+    for (Entity entity: entityList) { out.writeByte(entity.isNegated() ? NEGATED : 0); }
+    for (Entity entity: entityList) { out.writeInt(entity.getSentenceNumber()); }
+    for (Entity entity: entityList) { out.writeInt(entity.getLocationPosition()); }
+    for (Entity entity: entityList) { out.writeInt(dictionary.stringIndex(entity.getId())); }
+    for (Entity entity: entityList) { out.writeInt(dictionary.stringIndex(entity.getFieldId())); }
+    for (Entity entity: entityList) { out.writeInt(dictionary.stringIndex(entity.getLexicalCategory())); }
+    for (Entity entity: entityList) { out.writeInt(dictionary.stringIndex(entity.getTemporality())); }
+    for (Entity entity: entityList) { out.writeInt(dictionary.stringIndex(entity.getMatchedText())); }
+    for (List<Ev> evList: evListList) { out.writeInt(evList.size()); }
+    out.writeInt(evCount);
+    for (List<Ev> evList: evListList) {
+      for (Ev ev: evList) { out.writeInt(dictionary.conceptIndex(ev.getConceptInfo())); }
+    }
+    for (List<Ev> evList: evListList) {
+      for (Ev ev: evList) { out.writeInt(dictionary.stringIndex(ev.getConceptInfo().getConceptString())); }
+    }
+    for (List<Ev> evList: evListList) {
+      for (Ev ev: evList) { out.writeInt(dictionary.stringIndex(ev.getConceptString())); }
+    }
+    for (List<Ev> evList: evListList) {
+      for (Ev ev: evList) { out.writeInt(dictionary.stringIndex(ev.getMatchedText())); }
+    }
+    for (List<Ev> evList: evListList) {
+      for (Ev ev: evList) { out.writeInt(ev.getStart()); }
+    }
+    for (List<Ev> evList: evListList) {
+      for (Ev ev: evList) { out.writeInt(ev.getLength()); }
+    }
+    for (List<Ev> evList: evListList) {
+      for (Ev ev: evList) { out.writeDouble(ev.getScore()); }
+    }
+    for (List<Ev> evList: evListList) {
+      for (Ev ev: evList) { out.writeInt(dictionary.stringIndex(ev.getPartOfSpeech())); }
+    }
+  }
+
+  /**
+   * Write entities as one segment.
+   * @param out output stream, not closed.
+   * @param entityList entities of one or more documents
+   * @throws IOException i/o exception
+   */
+  public void entityListFormatter(OutputStream out, List<Entity> entityList)
+    throws IOException
+  {
+    // group entities by document in order of first occurrence and
+    // fill dictionary before writing it.
+    Map<String,List<Entity>> docidEntityListMap = new LinkedHashMap<String,List<Entity>>();
+    Dictionary dictionary = new Dictionary();
+    for (Entity entity: entityList) {
+      List<Entity> docEntityList = docidEntityListMap.get(entity.getDocid());
+      if (docEntityList == null) {
+	docEntityList = new ArrayList<Entity>();
+	docidEntityListMap.put(entity.getDocid(), docEntityList);
+	dictionary.stringIndex(entity.getDocid());
+      }
+      docEntityList.add(entity);
+      dictionary.stringIndex(entity.getId());
+      dictionary.stringIndex(entity.getFieldId());
+      dictionary.stringIndex(entity.getLexicalCategory());
+      dictionary.stringIndex(entity.getTemporality());
+      dictionary.stringIndex(entity.getMatchedText());
+      for (Ev ev: entity.getEvSet()) {
+	dictionary.conceptIndex(ev.getConceptInfo());
+	dictionary.stringIndex(ev.getConceptInfo().getConceptString());
+	dictionary.stringIndex(ev.getConceptString());
+	dictionary.stringIndex(ev.getMatchedText());
+	dictionary.stringIndex(ev.getPartOfSpeech());
+      }
+    }
+    DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out, 65536));
+    dos.writeInt(MAGIC);
+    dos.writeInt(VERSION);
+    writeDictionary(dos, dictionary);
+    dos.writeInt(docidEntityListMap.size());
+    for (Map.Entry<String,List<Entity>> entry: docidEntityListMap.entrySet()) {
+      writeDocument(dos, dictionary, entry.getKey(), entry.getValue());
+    }
+    dos.flush();
+  }
+
+  public void initProperties(Properties properties) {
+  }
+}
@@ -0,0 +1,127 @@
+//
+package gov.nih.nlm.nls.metamap.lite.resultformats.binary;
+
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import gov.nih.nlm.nls.metamap.lite.resultformats.Brat;
+import gov.nih.nlm.nls.metamap.lite.resultformats.CuiList;
+import gov.nih.nlm.nls.metamap.lite.resultformats.ResultFormatter;
+import gov.nih.nlm.nls.metamap.lite.resultformats.mmi.MMI;
+import gov.nih.nlm.nls.metamap.lite.types.Entity;
+
+/**
+ * Convert binary result files to MMI, Brat or CUI list output.
+ * <p>
+ * The entities of each segment of the binary file (the entities of
+ * one formatter call) are passed to the text formatter in one call,
+ * so the output is the same as that of running MetaMapLite with the
+ * text output format.  MMI output uses MeSH treecodes only when an
+ * index directory is supplied.
+ * <p>
+ * Usage:
+ * <pre>
+ * BinaryResultConverter [--format=mmi|brat|cuilist] [--indexdir=directory] inputfile [outputfile]
+ * </pre>
+ */
+public class BinaryResultConverter {
+
+  /**
+   * @param formatName mmi, brat or cuilist
+   * @param properties properties passed to initProperties of formatter, null to skip initialization.
+   * @return text result formatter
+   */
+  public static ResultFormatter createFormatter(String formatName, Properties properties) {
+    ResultFormatter formatter;
+    if (formatName.equals("mmi")) {
+      formatter = new MMI();
+    } else if (formatName.equals("brat")) {
+      formatter = new Brat();
+    } else if (formatName.equals("cuilist")) {
+      formatter = new CuiList();
+    } else {
+      throw new IllegalArgumentException("unsupported output format: " + formatName);
+    }
+    if (properties != null) {
+      formatter.initProperties(properties);
+    }
+    return formatter;
+  }
+
+  /**
+   * Convert binary result stream to text.
+   * @param reader binary result reader
+   * @param formatter text result formatter
+   * @param pw output writer
+   * @throws IOException i/o exception or malformed input
+   */
+  public static void convert(BinaryResultReader reader, ResultFormatter formatter, PrintWriter pw)
+    throws IOException
+  {
+    List<Entity> segmentEntityList = new ArrayList<Entity>();
+    int segmentNumber = 0;
+    while (reader.nextDocument()) {
+      if ((reader.getSegmentNumber() != segmentNumber) && (segmentNumber != 0)) {
+	formatter.entityListFormatter(pw, segmentEntityList);
+	segmentEntityList.clear();
+      }
+      segmentNumber = reader.getSegmentNumber();
+      segmentEntityList.addAll(reader.getEntityList());
+    }
+    if (segmentNumber != 0) {
+      formatter.entityListFormatter(pw, segmentEntityList);
+    }
+    pw.flush();
+  }
+
+  public static void main(String[] args)
+    throws IOException
+  {
+    String formatName = "mmi";
+    String indexDirName = null;
+    List<String> filenameList = new ArrayList<String>();
+    for (String arg: args) {
+      if (arg.startsWith("--format=")) {
+	formatName = arg.substring("--format=".length());
+      } else if (arg.startsWith("--indexdir=")) {
+	indexDirName = arg.substring("--indexdir=".length());
+      } else {
+	filenameList.add(arg);
+      }
+    }
+    if (filenameList.size() < 1) {
+      System.err.println("usage: BinaryResultConverter [--format=mmi|brat|cuilist] [--indexdir=directory] inputfile [outputfile]");
+      System.exit(1);
+    }
+    Properties properties = null;
+    if (indexDirName != null) {
+      properties = new Properties();
+      properties.putAll(System.getProperties());
+      properties.setProperty("metamaplite.ivf.cuiconceptindex", indexDirName + "/indices/cuiconcept");
+      properties.setProperty("metamaplite.ivf.cuisourceinfoindex", indexDirName + "/indices/cuisourceinfo");
+      properties.setProperty("metamaplite.ivf.cuisemantictypeindex", indexDirName + "/indices/cuist");
+      properties.setProperty("metamaplite.ivf.varsindex", indexDirName + "/indices/vars");
+      properties.setProperty("metamaplite.ivf.meshtcrelaxedindex", indexDirName + "/indices/meshtcrelaxed");
+    } else if (! formatName.equals("mmi")) {
+      properties = System.getProperties();
+    }
+    ResultFormatter formatter = createFormatter(formatName, properties);
+    BinaryResultReader reader = new BinaryResultReader(new FileInputStream(filenameList.get(0)));
+    PrintWriter pw;
+    if (filenameList.size() > 1) {
+      pw = new PrintWriter(new BufferedWriter(new FileWriter(filenameList.get(1))));
+    } else {
+      pw = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+    }
+    convert(reader, formatter, pw);
+    reader.close();
+    pw.close();
+  }
+}
@@ -0,0 +1,360 @@
+//
+package gov.nih.nlm.nls.metamap.lite.resultformats.binary;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import gov.nih.nlm.nls.metamap.lite.types.ConceptInfo;
+import gov.nih.nlm.nls.metamap.lite.types.Entity;
+import gov.nih.nlm.nls.metamap.lite.types.Ev;
+
+/**
+ * Reader of files written by BinaryFormat.
+ * <p>
+ * Documents are read one at a time; the columns of the current
+ * document are available through the accessors without creating
+ * Entity instances, getEntityList() reconstructs the entities of the
+ * current document.
+ * <p>
+ * Usage:
+ * <pre>
+ * BinaryResultReader reader = new BinaryResultReader(new FileInputStream(filename));
+ * while (reader.nextDocument()) {
+ *   for (int i = 0; i &lt; reader.getEntityCount(); i++) {
+ *     ... reader.getStart(i), reader.getLength(i), reader.getCUI(i, 0) ...
+ *   }
+ * }
+ * reader.close();
+ * </pre>
+ */
+public class BinaryResultReader {
+  DataInputStream in;
+
+  /** number of segments read */
+  int segmentNumber = 0;
+  int documentsRemaining = 0;
+
+  /* dictionary of current segment */
+  String[] strings;
+  String[] semanticTypes;
+  /** concept cores, without concept string */
+  ConceptInfo[] concepts;
+  /** semantic types of each concept as bitset over semanticTypes */
+  BitSet[] conceptSemanticTypeBitSets;
+
+  /* columns of current document */
+  String docid;
+  int entityCount;
+  int[] starts;
+  int[] lengths;
+  double[] scores;
+  byte[] flags;
+  int[] sentenceNumbers;
+  int[] locationPositions;
+  int[] idIndexes;
+  int[] fieldIdIndexes;
+  int[] lexicalCategoryIndexes;
+  int[] temporalityIndexes;
+  int[] matchedTextIndexes;
+  int[] evCounts;
+  /** index of first evidence of each entity */
+  int[] evFirst;
+  int evCount;
+  int[] evConcepts;
+  int[] evConceptInfoStringIndexes;
+  int[] evConceptStringIndexes;
+  int[] evMatchedTextIndexes;
+  int[] evStarts;
+  int[] evLengths;
+  double[] evScores;
+  int[] evPartOfSpeechIndexes;
+
+  public BinaryResultReader(InputStream in) {
+    this.in = new DataInputStream(new BufferedInputStream(in, 65536));
+  }
+
+  String readString()
+    throws IOException
+  {
+    byte[] bytes = new byte[this.in.readInt()];
+    this.in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  String string(int index) {
+    return index < 0 ? null : this.strings[index];
+  }
+
+  int[] readIntColumn(int count)
+    throws IOException
+  {
+    int[] column = new int[count];
+    for (int i = 0; i < count; i++) { column[i] = this.in.readInt(); }
+    return column;
+  }
+
+  double[] readDoubleColumn(int count)
+    throws IOException
+  {
+    double[] column = new double[count];
+    for (int i = 0; i < count; i++) { column[i] = this.in.readDouble(); }
+    return column;
+  }
+
+  /** @return false if end of input was reached before a segment header */
+  boolean readSegment()
+    throws IOException
+  {
+    int magic;
+    try {
+      magic = this.in.readInt();
+    } catch (EOFException eofe) {
+      return false;
+    }
+    if (magic != BinaryFormat.MAGIC) {
+      throw new IOException("not a binary result file: bad magic number " + Integer.toHexString(magic));
+    }
+    int version = this.in.readInt();
+    if (version != BinaryFormat.VERSION) {
+      throw new IOException("unsupported binary result version " + version);
+    }
+    this.strings = new String[this.in.readInt()];
+    for (int i = 0; i < this.strings.length; i++) {
+      this.strings[i] = this.readString();
+    }
+    this.semanticTypes = new String[this.in.readInt()];
+    for (int i = 0; i < this.semanticTypes.length; i++) {
+      this.semanticTypes[i] = this.strings[this.in.readInt()];
+    }
+    this.concepts = new ConceptInfo[this.in.readInt()];
+    this.conceptSemanticTypeBitSets = new BitSet[this.concepts.length];
+    for (int i = 0; i < this.concepts.length; i++) {
+      String cui = this.strings[this.in.readInt()];
+      String preferredName = this.strings[this.in.readInt()];
+      int semanticTypeCount = this.in.readInt();
+      Set<String> semanticTypeSet = new LinkedHashSet<String>();
+      BitSet semanticTypeBitSet = new BitSet(this.semanticTypes.length);
+      for (int j = 0; j < semanticTypeCount; j++) {
+	int semanticTypeIndex = this.in.readInt();
+	semanticTypeSet.add(this.semanticTypes[semanticTypeIndex]);
+	semanticTypeBitSet.set(semanticTypeIndex);
+      }
+      this.conceptSemanticTypeBitSets[i] = semanticTypeBitSet;
+      int sourceCount = this.in.readInt();
+      Set<String> sourceSet = new LinkedHashSet<String>();
+      for (int j = 0; j < sourceCount; j++) {
+	sourceSet.add(this.strings[this.in.readInt()]);
+      }
+      this.concepts[i] = ConceptInfo.createCore(cui, preferredName, sourceSet, semanticTypeSet);
+    }
+    this.documentsRemaining = this.in.readInt();
+    this.segmentNumber++;
+    return true;
+  }
+
+  /**
+   * Advance to next document.
+   * @return false if no documents remain.
+   * @throws IOException i/o exception or malformed input
+   */
+  public boolean nextDocument()
+    throws IOException
+  {
+    while (this.documentsRemaining == 0) {
+      if (! this.readSegment()) {
+	this.docid = null;
+	this.entityCount = 0;
+	this.evCount = 0;
+	return false;
+      }
+    }
+    this.documentsRemaining--;
+    this.docid = this.strings[this.in.readInt()];
+    int count = this.in.readInt();
+    this.entityCount = count;
+    this.starts = this.readIntColumn(count);
+    this.lengths = this.readIntColumn(count);
+    this.scores = this.readDoubleColumn(count);
+    this.flags = new byte[count];
+    this.in.readFully(this.flags);
+    this.sentenceNumbers = this.readIntColumn(count);
+    this.locationPositions = this.readIntColumn(count);
+    this.idIndexes = this.readIntColumn(count);
+    this.fieldIdIndexes = this.readIntColumn(count);
+    this.lexicalCategoryIndexes = this.readIntColumn(count);
+    this.temporalityIndexes = this.readIntColumn(count);
+    this.matchedTextIndexes = this.readIntColumn(count);
+    this.evCounts = this.readIntColumn(count);
+    this.evFirst = new int[count];
+    int first = 0;
+    for (int i = 0; i < count; i++) {
+      this.evFirst[i] = first;
+      first += this.evCounts[i];
+    }
+    int evTotal = this.in.readInt();
+    this.evCount = evTotal;
+    this.evConcepts = this.readIntColumn(evTotal);
+    this.evConceptInfoStringIndexes = this.readIntColumn(evTotal);
+    this.evConceptStringIndexes = this.readIntColumn(evTotal);
+    this.evMatchedTextIndexes = this.readIntColumn(evTotal);
+    this.evStarts = this.readIntColumn(evTotal);
+    this.evLengths = this.readIntColumn(evTotal);
+    this.evScores = this.readDoubleColumn(evTotal);
+    this.evPartOfSpeechIndexes = this.readIntColumn(evTotal);
+    return true;
+  }
+
+  /** @return ordinal number of segment (formatter call) of current document, starting at 1 */
+  public int getSegmentNumber() { return this.segmentNumber; }
+
+  public String getDocid() { return this.docid; }
+  public int getEntityCount() { return this.entityCount; }
+  public int getStart(int i) { return this.starts[i]; }
+  public int getLength(int i) { return this.lengths[i]; }
+  public double getScore(int i) { return this.scores[i]; }
+  public boolean isNegated(int i) { return (this.flags[i] & BinaryFormat.NEGATED) != 0; }
+  public int getSentenceNumber(int i) { return this.sentenceNumbers[i]; }
+  public int getLocationPosition(int i) { return this.locationPositions[i]; }
+  public String getId(int i) { return this.string(this.idIndexes[i]); }
+  public String getFieldId(int i) { return this.string(this.fieldIdIndexes[i]); }
+  public String getLexicalCategory(int i) { return this.string(this.lexicalCategoryIndexes[i]); }
+  public String getTemporality(int i) { return this.string(this.temporalityIndexes[i]); }
+  public String getMatchedText(int i) { return this.string(this.matchedTextIndexes[i]); }
+  /** @return number of evidences of entity i */
+  public int getEvCount(int i) { return this.evCounts[i]; }
+
+  /**
+   * @param i entity
+   * @param j evidence of entity
+   * @return cui of evidence j of entity i
+   */
+  public String getCUI(int i, int j) {
+    return this.concepts[this.evConcepts[this.evFirst[i] + j]].getCUI();
+  }
+
+  /**
+   * @param i entity
+   * @param j evidence of entity
+   * @return preferred name of evidence j of entity i
+   */
+  public String getPreferredName(int i, int j) {
+    return this.concepts[this.evConcepts[this.evFirst[i] + j]].getPreferredName();
+  }
+
+  /**
+   * @param i entity
+   * @param j evidence of entity
+   * @return semantic types of evidence j of entity i
+   */
+  public Set<String> getSemanticTypeSet(int i, int j) {
+    return this.concepts[this.evConcepts[this.evFirst[i] + j]].getSemanticTypeSet();
+  }
+
+  /**
+   * @param semanticType semantic type abbreviation
+   * @return index of semantic type in bitsets of current segment, -1 if no concept has it.
+   */
+  public int getSemanticTypeIndex(String semanticType) {
+    for (int i = 0; i < this.semanticTypes.length; i++) {
+      if (this.semanticTypes[i].equals(semanticType)) {
+	return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @param i entity
+   * @param j evidence of entity
+   * @return semantic types of evidence j of entity i as bitset, see getSemanticTypeIndex; must not be modified.
+   */
+  public BitSet getSemanticTypeBitSet(int i, int j) {
+    return this.conceptSemanticTypeBitSets[this.evConcepts[this.evFirst[i] + j]];
+  }
+
+  Ev createEv(int k, int offsetDelta) {
+    ConceptInfo conceptInfo =
+      new ConceptInfo(this.concepts[this.evConcepts[k]],
+		      this.string(this.evConceptInfoStringIndexes[k]));
+    return new Ev(conceptInfo,
+		  this.string(this.evMatchedTextIndexes[k]),
+		  this.string(this.evConceptStringIndexes[k]),
+		  this.evStarts[k] + offsetDelta, this.evLengths[k], this.evScores[k],
+		  this.string(this.evPartOfSpeechIndexes[k]));
+  }
+
+  /**
+   * Reconstruct entities of current document; evidences keep the
+   * order of the original sets, evidence ids are not stored and are
+   * not restored.
+   * @return entities of current document in original order
+   */
+  public List<Entity> getEntityList() {
+    return this.getEntityList(this.docid, 0);
+  }
+
+  /**
+   * Reconstruct entities of current document under another document
+   * id with entity and evidence offsets shifted, as for results of a
+   * passage that are reused for a passage with the same text at
+   * another offset (see ResultCache).
+   * @param docid document id of reconstructed entities
+   * @param offsetDelta amount added to start of entities and evidences
+   * @return entities of current document in original order
+   */
+  public List<Entity> getEntityList(String docid, int offsetDelta) {
+    List<Entity> entityList = new ArrayList<Entity>(this.entityCount);
+    for (int i = 0; i < this.entityCount; i++) {
+      Set<Ev> evSet = new LinkedHashSet<Ev>();
+      for (int k = this.evFirst[i]; k < this.evFirst[i] + this.evCounts[i]; k++) {
+	evSet.add(this.createEv(k, offsetDelta));
+      }
+      Entity entity = new Entity(this.getId(i), docid, this.getFieldId(i),
+				 this.getMatchedText(i), this.getLexicalCategory(i),
+				 this.sentenceNumbers[i], this.starts[i] + offsetDelta, this.lengths[i],
+				 this.scores[i], evSet);
+      entity.setNegated(this.isNegated(i));
+      entity.setTemporality(this.getTemporality(i));
+      entity.setLocationPosition(this.locationPositions[i]);
+      entityList.add(entity);
+    }
+    return entityList;
+  }
+
+  public void close()
+    throws IOException
+  {
+    this.in.close();
+  }
+
+  /**
+   * Read all entities of a file.
+   * @param filename binary result file
+   * @return entities of all documents of file
+   * @throws IOException i/o exception or malformed input
+   */
+  public static List<Entity> readEntityList(String filename)
+    throws IOException
+  {
+    BinaryResultReader reader = new BinaryResultReader(new FileInputStream(filename));
+    List<Entity> entityList = new ArrayList<Entity>();
+    try {
+      while (reader.nextDocument()) {
+	entityList.addAll(reader.getEntityList());
+      }
+    } finally {
+      reader.close();
+    }
+    return entityList;
+  }
+}
@@ -2,6 +2,7 @@
 package gov.nih.nlm.nls.metamap.lite.resultformats.mmi;
 
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.io.IOException;
 import java.text.NumberFormat;
 import java.util.Arrays;
@@ -26,6 +27,7 @@ import gov.nih.nlm.nls.metamap.lite.types.Entity;
 import gov.nih.nlm.nls.metamap.lite.types.Ev;
 import gov.nih.nlm.nls.metamap.lite.types.Position;
 import gov.nih.nlm.nls.metamap.lite.types.PositionImpl;
+import gov.nih.nlm.nls.metamap.lite.resultformats.BufferedResultWriter;
 import gov.nih.nlm.nls.metamap.lite.resultformats.ResultFormatter;
 import gov.nih.nlm.nls.metamap.lite.types.TriggerInfo;
 import gov.nih.nlm.nls.metamap.lite.types.MatchInfo;
@@ -309,18 +311,65 @@ public class MMI implements ResultFormatter {
    */
   public void renderEntityList(PrintWriter pw, String docid, List<Entity> entityList) 
   {
-    List<TermFrequency> tfList = this.entityToTermFrequencyInfo(entityList);
-    List<AATF> aatfList = Ranking.processTF(tfList, 1000);
-    Collections.sort(aatfList);
-    for (AATF aatf: aatfList) {
-      pw.println(docid + "|MMI|" +
-		 scoreFormat.format(-10000 *aatf.getNegNRank()) + "|" +
-		 aatf.getConcept() +"|" +
-		 aatf.getCui() +"|" +
-		 aatf.getSemanticTypes() +"|" +
-		 aatf.getTuplelist().stream().map(i -> this.renderTupleInfo(i)).collect(Collectors.joining(","))  + "|" +
-		 aatf.getTuplelist().stream().map(i -> this.renderPositionInfo(i)).collect(Collectors.joining(";"))  + "|" +
-		 aatf.getTreeCodes().stream().map(i -> i.toString()).collect(Collectors.joining(";")));
+    BufferedResultWriter writer = new BufferedResultWriter(pw);
+    this.renderEntityList(writer, docid, entityList);
+    writer.flushBuffer();
+  }
+
+  /**
+   * Write records directly to writer, the output is the same as that
+   * of renderEntityList(StringBuilder, String, List) without building
+   * intermediate strings.
+   * @param writer buffered result writer used for output
+   * @param docid document identifier
+   * @param entityList entitylist to be rendered for output
+   */
+  public void renderEntityList(BufferedResultWriter writer, String docid, List<Entity> entityList)
+  {
+    for (AATF aatf: this.rankEntityList(entityList)) {
+      writer.write(docid).write("|MMI|").write(this.scoreFormat, -10000 * aatf.getNegNRank()).write('|')
+	.write(aatf.getConcept()).write('|')
+	.write(aatf.getCui()).write('|');
+      List<String> semanticTypes = aatf.getSemanticTypes();
+      if (semanticTypes == null) {
+	writer.write("null");
+      } else {
+	writer.write('[');
+	for (int i = 0; i < semanticTypes.size(); i++) {
+	  if (i > 0) { writer.write(", "); }
+	  writer.write(semanticTypes.get(i));
+	}
+	writer.write(']');
+      }
+      writer.write('|');
+      List<Tuple> tupleList = aatf.getTuplelist();
+      for (int i = 0; i < tupleList.size(); i++) {
+	Tuple tuple = tupleList.get(i);
+	if (i > 0) { writer.write(','); }
+	writer.write('"').write(tuple.getTerm()).write("\"-")
+	  .write(tuple.getField()).write('-')
+	  .write(tuple.getNSent()).write("-\"")
+	  .write(tuple.getText()).write("\"-")
+	  .write(tuple.getLexCat()).write('-')
+	  .write(tuple.getNeg());
+      }
+      writer.write('|');
+      for (int i = 0; i < tupleList.size(); i++) {
+	if (i > 0) { writer.write(';'); }
+	List<Position> posInfo = tupleList.get(i).getPosInfo();
+	for (int j = 0; j < posInfo.size(); j++) {
+	  Position position = posInfo.get(j);
+	  if (j > 0) { writer.write(','); }
+	  writer.write(position.getStart()).write('/').write(position.getY() - position.getStart());
+	}
+      }
+      writer.write('|');
+      List<String> treeCodes = aatf.getTreeCodes();
+      for (int i = 0; i < treeCodes.size(); i++) {
+	if (i > 0) { writer.write(';'); }
+	writer.write(treeCodes.get(i));
+      }
+      writer.newLine();
     }
   }
   
@@ -351,10 +400,11 @@ public class MMI implements ResultFormatter {
    */
   public void entityListFormatter(PrintWriter writer,
 				  List<Entity> entityList) {
-    
+    BufferedResultWriter resultWriter = new BufferedResultWriter(writer);
     for (Map.Entry<String,List<Entity>> entry: genDocidEntityMap(entityList).entrySet() ) {
-      this.renderEntityList(writer, entry.getKey(), entry.getValue());
+      this.renderEntityList(resultWriter, entry.getKey(), entry.getValue());
     }
+    resultWriter.flushBuffer();
   }
 
   /**
@@ -364,9 +414,7 @@ public class MMI implements ResultFormatter {
    */
   public void renderEntityList(StringBuilder sb, String docid, List<Entity> entityList)
   {
-    List<TermFrequency> tfList = this.entityToTermFrequencyInfo(entityList);
-    List<AATF> aatfList = Ranking.processTF(tfList, 1000);
-    Collections.sort(aatfList);
+    List<AATF> aatfList = this.rankEntityList(entityList);
     for (AATF aatf: aatfList) {
       sb.append(docid).append("|MMI|").append(scoreFormat.format(-10000 * aatf.getNegNRank())).append("|")
 	.append(aatf.getConcept()).append("|")
@@ -380,12 +428,25 @@ public class MMI implements ResultFormatter {
 
   public String entityListFormatToString(List<Entity> entityList)
   {
-    int seqno = 0;
-    StringBuilder sb = new StringBuilder();
+    StringWriter sw = new StringWriter();
+    BufferedResultWriter resultWriter = new BufferedResultWriter(sw, "\n");
     for (Map.Entry<String,List<Entity>> entry: genDocidEntityMap(entityList).entrySet() ) {
-      renderEntityList(sb, entry.getKey(), entry.getValue());
+      this.renderEntityList(resultWriter, entry.getKey(), entry.getValue());
     }
-    return sb.toString();
+    resultWriter.flushBuffer();
+    return sw.toString();
+  }
+
+  /**
+   * Rank concepts of entities of a document.
+   * @param entityList entities of document
+   * @return AATF instances in rank order
+   */
+  public List<AATF> rankEntityList(List<Entity> entityList) {
+    MMIRanking ranking =
+      new MMIRanking(this.mmIndexes == null ? null : this.mmIndexes.meshTcRelaxedIndex);
+    ranking.addAll(entityList);
+    return ranking.rank(1000);
   }
 
   public List<TermFrequency> entityToTermFrequencyInfo(List<Entity> entityList) {
@@ -0,0 +1,238 @@
+//
+package gov.nih.nlm.nls.metamap.lite.resultformats.mmi;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import irutils.MappedMultiKeyIndexLookup;
+import gov.nih.nlm.nls.metamap.lite.types.Entity;
+import gov.nih.nlm.nls.metamap.lite.types.Ev;
+import gov.nih.nlm.nls.metamap.lite.types.Position;
+import gov.nih.nlm.nls.metamap.lite.types.PositionImpl;
+import gov.nih.nlm.nls.metamap.mmi.AATF;
+import gov.nih.nlm.nls.metamap.mmi.Ranking;
+import gov.nih.nlm.nls.metamap.mmi.Tuple;
+import gov.nih.nlm.nls.metamap.mmi.Tuple7;
+import gov.nih.nlm.nls.utils.LRUCache;
+
+/**
+ * Incremental MMI ranking of the entities of one document.
+ * <p>
+ * Entities are added as they are produced; term frequencies are
+ * accumulated per cui in primitive arrays and rank() computes the
+ * AATF ranks without building TermFrequency instances.  The MeSH
+ * treecodes of a concept and their tree-depth sum are looked up once
+ * per concept string and kept in a cache shared by all documents
+ * ranked with the same treecode index.
+ * Ranks and their order are the same as those of Ranking.processTF
+ * applied to MMI.entityToTermFrequencyInfo.
+ * <p>
+ * System properties:
+ * <dl>
+ * <dt>metamaplite.mmi.treecode.cache.size</dt><dd>maximum number of concept strings with cached treecodes (default: 100000)</dd>
+ * </dl>
+ */
+public class MMIRanking {
+
+  /** MeSH treecodes of a concept string with their tree-depth sum */
+  static class TreecodeInfo {
+    final List<String> treecodes;
+    final int treeDepthSum;
+    TreecodeInfo(List<String> treecodes) {
+      this.treecodes = Collections.unmodifiableList(treecodes);
+      int sum = 0;
+      for (String treecode: treecodes) {
+	sum += Ranking.computeTreeDepth(treecode);
+      }
+      this.treeDepthSum = sum;
+    }
+  }
+
+  static final TreecodeInfo NO_TREECODES = new TreecodeInfo(Collections.<String>emptyList());
+
+  /** treecode index -&gt; concept string -&gt; treecode information;
+   * a cache is dropped when its index is no longer referenced */
+  static Map<MappedMultiKeyIndexLookup,LRUCache<String,TreecodeInfo>> treecodeInfoCacheMap =
+    new WeakHashMap<MappedMultiKeyIndexLookup,LRUCache<String,TreecodeInfo>>();
+
+  /**
+   * @param meshTcRelaxedIndex MeSH treecode index
+   * @return treecode cache of index
+   */
+  static synchronized LRUCache<String,TreecodeInfo> treecodeInfoCache(MappedMultiKeyIndexLookup meshTcRelaxedIndex) {
+    LRUCache<String,TreecodeInfo> cache = treecodeInfoCacheMap.get(meshTcRelaxedIndex);
+    if (cache == null) {
+      cache = new LRUCache<String,TreecodeInfo>
+	(Integer.parseInt
+	 (System.getProperty("metamaplite.mmi.treecode.cache.size","100000")));
+      treecodeInfoCacheMap.put(meshTcRelaxedIndex, cache);
+    }
+    return cache;
+  }
+
+  MappedMultiKeyIndexLookup meshTcRelaxedIndex;
+  /** concept string -&gt; treecode information for meshTcRelaxedIndex */
+  LRUCache<String,TreecodeInfo> treecodeInfoCache;
+
+  /** cui -&gt; slot of concept in arrays */
+  Map<String,Integer> cuiSlotMap = new HashMap<String,Integer>();
+  int count = 0;
+  int[] frequencyCount = new int[16];
+  double[] averageValue = new double[16];
+  boolean[] titleFlag = new boolean[16];
+  List<String> cuiList = new ArrayList<String>();
+  List<String> conceptList = new ArrayList<String>();
+  List<List<String>> semanticTypesList = new ArrayList<List<String>>();
+  List<Set<Tuple>> tupleSetList = new ArrayList<Set<Tuple>>();
+  List<TreecodeInfo> treecodeInfoList = new ArrayList<TreecodeInfo>();
+
+  /**
+   * @param meshTcRelaxedIndex MeSH treecode index, if null concepts have no treecodes.
+   */
+  public MMIRanking(MappedMultiKeyIndexLookup meshTcRelaxedIndex) {
+    this.meshTcRelaxedIndex = meshTcRelaxedIndex;
+    if (meshTcRelaxedIndex != null) {
+      this.treecodeInfoCache = treecodeInfoCache(meshTcRelaxedIndex);
+    }
+  }
+
+  TreecodeInfo getTreecodeInfo(String conceptString) {
+    if (this.meshTcRelaxedIndex == null) {
+      return NO_TREECODES;
+    }
+    TreecodeInfo info;
+    synchronized (this.treecodeInfoCache) {
+      info = this.treecodeInfoCache.get(conceptString);
+    }
+    if (info == null) {
+      try {
+	List<String> treecodeList = new ArrayList<String>();
+	for (String hit: this.meshTcRelaxedIndex.lookup(conceptString, 0)) {
+	  String[] fields = hit.split("\\|");
+	  treecodeList.add(fields[1]);
+	}
+	info = new TreecodeInfo(treecodeList);
+      } catch (IOException ioe) {
+	throw new RuntimeException(ioe);
+      }
+      synchronized (this.treecodeInfoCache) {
+	this.treecodeInfoCache.put(conceptString, info);
+      }
+    }
+    return info;
+  }
+
+  void grow() {
+    int capacity = this.frequencyCount.length * 2;
+    this.frequencyCount = Arrays.copyOf(this.frequencyCount, capacity);
+    this.averageValue = Arrays.copyOf(this.averageValue, capacity);
+    this.titleFlag = Arrays.copyOf(this.titleFlag, capacity);
+  }
+
+  /**
+   * Add concepts of entity to term frequencies.
+   * @param entity entity
+   */
+  public void add(Entity entity) {
+    for (Ev ev: entity.getEvList()) {
+      String cui = ev.getConceptInfo().getCUI();
+      List<Position> posInfo = new ArrayList<Position>();
+      posInfo.add(new PositionImpl(ev.getStart(), ev.getStart() + ev.getLength()));
+      Tuple tuple = new Tuple7(ev.getConceptInfo().getConceptString(),
+			       entity.getFieldId() == null ? "text" : entity.getFieldId(),
+			       entity.getSentenceNumber(),
+			       ev.getMatchedText(),
+			       entity.getLexicalCategory(),
+			       entity.isNegated() ? 1 : 0,
+			       posInfo);
+      Integer slot = this.cuiSlotMap.get(cui);
+      if (slot != null) {
+	this.tupleSetList.get(slot).add(tuple);
+	this.frequencyCount[slot]++;
+      } else {
+	if (this.count == this.frequencyCount.length) {
+	  this.grow();
+	}
+	this.cuiSlotMap.put(cui, this.count);
+	this.frequencyCount[this.count] = 1;
+	this.averageValue[this.count] = ev.getScore();
+	this.titleFlag[this.count] = entity.getFieldId() == null ? false :
+	  (entity.getFieldId().equals("title") || entity.getFieldId().equals("TI"));
+	Set<Tuple> tupleSet = new LinkedHashSet<Tuple>();
+	tupleSet.add(tuple);
+	this.cuiList.add(cui);
+	this.conceptList.add(ev.getConceptInfo().getPreferredName());
+	this.semanticTypesList.add(new ArrayList<String>(ev.getConceptInfo().getSemanticTypeSet()));
+	this.tupleSetList.add(tupleSet);
+	this.treecodeInfoList.add(this.getTreecodeInfo(ev.getConceptInfo().getConceptString()));
+	this.count++;
+      }
+    }
+  }
+
+  /**
+   * Add concepts of entities to term frequencies.
+   * @param entityList list of entities
+   */
+  public void addAll(List<Entity> entityList) {
+    for (Entity entity: entityList) {
+      this.add(entity);
+    }
+  }
+
+  /** @return number of distinct concepts added */
+  public int size() {
+    return this.count;
+  }
+
+  /**
+   * Rank concepts added so far.
+   * @param maxFreq maximum frequency (MMI uses 1000)
+   * @return AATF instances in rank order (see AATF.compareTo)
+   */
+  public List<AATF> rank(double maxFreq) {
+    final double[] negNRank = new double[this.count];
+    Integer[] order = new Integer[this.count];
+    for (int i = 0; i < this.count; i++) {
+      negNRank[i] = Ranking.computeNegNRank(this.frequencyCount[i], maxFreq, this.titleFlag[i],
+					    this.conceptList.get(i), this.averageValue[i],
+					    this.treecodeInfoList.get(i).treeDepthSum);
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+	public int compare(Integer a, Integer b) {
+	  if (negNRank[a] != negNRank[b]) {
+	    return Double.compare(negNRank[a], negNRank[b]);
+	  }
+	  return conceptList.get(a).compareTo(conceptList.get(b));
+	}
+      });
+    List<AATF> aatfList = new ArrayList<AATF>(this.count);
+    for (Integer i: order) {
+      aatfList.add(new AATF(negNRank[i], this.conceptList.get(i), this.semanticTypesList.get(i),
+			    this.cuiList.get(i), new ArrayList<Tuple>(this.tupleSetList.get(i)),
+			    this.treecodeInfoList.get(i).treecodes));
+    }
+    return aatfList;
+  }
+
+  /** Remove all concepts, for ranking of next document. */
+  public void clear() {
+    this.cuiSlotMap.clear();
+    this.count = 0;
+    this.cuiList.clear();
+    this.conceptList.clear();
+    this.semanticTypesList.clear();
+    this.tupleSetList.clear();
+    this.treecodeInfoList.clear();
+  }
+}
@@ -0,0 +1,536 @@
+//
+package gov.nih.nlm.nls.metamap.lite.types;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * List of entities stored as parallel arrays (struct of arrays).
+ * <p>
+ * Entities added to the list are packed into arrays of spans,
+ * scores, flags and string and concept table indexes; their evidence
+ * is packed the same way.  Strings shared by many entities (document
+ * id, field id, lexical category, temporality, part of speech) and
+ * concepts (cui, preferred name, sources and semantic types) are kept
+ * once in per-list tables; the matched string of each concept is kept
+ * with its evidence.  get(i) returns a light Entity view whose
+ * evidence is only built when it is requested; the view's setters
+ * write through to the arrays, changes to its evidence set do not.
+ * <p>
+ * set(i, entity) overwrites the evidence of entity i in place when the
+ * new evidence fits in its slots, otherwise the evidence is appended
+ * and the old slots are left unused; the evidence arrays are compacted
+ * when unused slots outnumber used ones.  sort reorders the arrays
+ * directly, storing evidence in the new entity order, instead of
+ * setting every element.  Views obtained before a set or sort are
+ * not updated.
+ * <p>
+ * Used for results of bulk runs when property
+ * metamaplite.compact.results is true.
+ */
+public class CompactEntityList extends AbstractList<Entity> {
+  static final int NEGATED = 0x1;
+
+  int size = 0;
+  /* entity arrays */
+  int[] starts;
+  int[] lengths;
+  double[] scores;
+  int[] flags;
+  int[] sentenceNumbers;
+  int[] locationPositions;
+  int[] idIndexes;
+  int[] docidIndexes;
+  int[] fieldIdIndexes;
+  int[] lexicalCategoryIndexes;
+  int[] temporalityIndexes;
+  String[] matchedTexts;
+  /** first evidence of entity in evidence arrays */
+  int[] evFirsts;
+  int[] evCounts;
+
+  int evSize = 0;
+  /** number of unused evidence slots left by set */
+  int evUnused = 0;
+  /* evidence arrays */
+  int[] evConceptIndexes;
+  int[] evStarts;
+  int[] evLengths;
+  double[] evScores;
+  int[] evIdIndexes;
+  int[] evPartOfSpeechIndexes;
+  String[] evMatchedTexts;
+  String[] evConceptStrings;
+  /** matched string of concept of evidence (ConceptInfo.getConceptString()) */
+  String[] evConceptInfoStrings;
+
+  /** string table */
+  List<String> stringList = new ArrayList<String>();
+  Map<String,Integer> stringIndexMap = new HashMap<String,Integer>();
+  /** concept table, first concept added for each cui */
+  List<ConceptInfo> conceptList = new ArrayList<ConceptInfo>();
+  Map<String,Integer> conceptIndexMap = new HashMap<String,Integer>();
+
+  public CompactEntityList() {
+    this(16);
+  }
+
+  /**
+   * @param capacity initial number of entities
+   */
+  public CompactEntityList(int capacity) {
+    capacity = Math.max(capacity, 1);
+    this.starts = new int[capacity];
+    this.lengths = new int[capacity];
+    this.scores = new double[capacity];
+    this.flags = new int[capacity];
+    this.sentenceNumbers = new int[capacity];
+    this.locationPositions = new int[capacity];
+    this.idIndexes = new int[capacity];
+    this.docidIndexes = new int[capacity];
+    this.fieldIdIndexes = new int[capacity];
+    this.lexicalCategoryIndexes = new int[capacity];
+    this.temporalityIndexes = new int[capacity];
+    this.matchedTexts = new String[capacity];
+    this.evFirsts = new int[capacity];
+    this.evCounts = new int[capacity];
+    int evCapacity = capacity * 2;
+    this.evConceptIndexes = new int[evCapacity];
+    this.evStarts = new int[evCapacity];
+    this.evLengths = new int[evCapacity];
+    this.evScores = new double[evCapacity];
+    this.evIdIndexes = new int[evCapacity];
+    this.evPartOfSpeechIndexes = new int[evCapacity];
+    this.evMatchedTexts = new String[evCapacity];
+    this.evConceptStrings = new String[evCapacity];
+    this.evConceptInfoStrings = new String[evCapacity];
+  }
+
+  /**
+   * @param entityCollection entities to pack
+   */
+  public CompactEntityList(Collection<? extends Entity> entityCollection) {
+    this(entityCollection.size());
+    this.addAll(entityCollection);
+  }
+
+  int stringIndex(String value) {
+    if (value == null) {
+      return -1;
+    }
+    Integer index = this.stringIndexMap.get(value);
+    if (index == null) {
+      index = this.stringList.size();
+      this.stringList.add(value);
+      this.stringIndexMap.put(value, index);
+    }
+    return index;
+  }
+
+  String string(int index) {
+    return (index < 0) ? null : this.stringList.get(index);
+  }
+
+  int conceptIndex(ConceptInfo conceptInfo) {
+    Integer index = this.conceptIndexMap.get(conceptInfo.getCUI());
+    if (index == null) {
+      index = this.conceptList.size();
+      this.conceptList.add(conceptInfo);
+      this.conceptIndexMap.put(conceptInfo.getCUI(), index);
+    }
+    return index;
+  }
+
+  void ensureCapacity(int capacity) {
+    if (capacity > this.starts.length) {
+      int newCapacity = Math.max(capacity, this.starts.length * 2);
+      this.starts = Arrays.copyOf(this.starts, newCapacity);
+      this.lengths = Arrays.copyOf(this.lengths, newCapacity);
+      this.scores = Arrays.copyOf(this.scores, newCapacity);
+      this.flags = Arrays.copyOf(this.flags, newCapacity);
+      this.sentenceNumbers = Arrays.copyOf(this.sentenceNumbers, newCapacity);
+      this.locationPositions = Arrays.copyOf(this.locationPositions, newCapacity);
+      this.idIndexes = Arrays.copyOf(this.idIndexes, newCapacity);
+      this.docidIndexes = Arrays.copyOf(this.docidIndexes, newCapacity);
+      this.fieldIdIndexes = Arrays.copyOf(this.fieldIdIndexes, newCapacity);
+      this.lexicalCategoryIndexes = Arrays.copyOf(this.lexicalCategoryIndexes, newCapacity);
+      this.temporalityIndexes = Arrays.copyOf(this.temporalityIndexes, newCapacity);
+      this.matchedTexts = Arrays.copyOf(this.matchedTexts, newCapacity);
+      this.evFirsts = Arrays.copyOf(this.evFirsts, newCapacity);
+      this.evCounts = Arrays.copyOf(this.evCounts, newCapacity);
+    }
+  }
+
+  void ensureEvCapacity(int capacity) {
+    if (capacity > this.evStarts.length) {
+      int newCapacity = Math.max(capacity, this.evStarts.length * 2);
+      this.evConceptIndexes = Arrays.copyOf(this.evConceptIndexes, newCapacity);
+      this.evStarts = Arrays.copyOf(this.evStarts, newCapacity);
+      this.evLengths = Arrays.copyOf(this.evLengths, newCapacity);
+      this.evScores = Arrays.copyOf(this.evScores, newCapacity);
+      this.evIdIndexes = Arrays.copyOf(this.evIdIndexes, newCapacity);
+      this.evPartOfSpeechIndexes = Arrays.copyOf(this.evPartOfSpeechIndexes, newCapacity);
+      this.evMatchedTexts = Arrays.copyOf(this.evMatchedTexts, newCapacity);
+      this.evConceptStrings = Arrays.copyOf(this.evConceptStrings, newCapacity);
+      this.evConceptInfoStrings = Arrays.copyOf(this.evConceptInfoStrings, newCapacity);
+    }
+  }
+
+  /**
+   * Pack evidence, evidence is appended to the evidence arrays.
+   * @param evCollection evidence of entity
+   * @return index of first evidence
+   */
+  int packEvidence(Collection<Ev> evCollection) {
+    int first = this.evSize;
+    this.ensureEvCapacity(this.evSize + evCollection.size());
+    this.evSize += evCollection.size();
+    this.packEvidence(evCollection, first);
+    return first;
+  }
+
+  /**
+   * Pack evidence into evidence arrays starting at first.
+   * @param evCollection evidence of entity
+   * @param first index of first evidence
+   */
+  void packEvidence(Collection<Ev> evCollection, int first) {
+    int i = first;
+    for (Ev ev: evCollection) {
+      this.evConceptIndexes[i] = this.conceptIndex(ev.conceptInfo);
+      this.evStarts[i] = ev.start;
+      this.evLengths[i] = ev.length;
+      this.evScores[i] = ev.score;
+      this.evIdIndexes[i] = this.stringIndex(ev.id);
+      this.evPartOfSpeechIndexes[i] = this.stringIndex(ev.partOfSpeech);
+      this.evMatchedTexts[i] = ev.matchedText;
+      this.evConceptStrings[i] = ev.conceptString;
+      this.evConceptInfoStrings[i] = ev.conceptInfo.getConceptString();
+      i++;
+    }
+  }
+
+  /**
+   * Pack entity into arrays.
+   * @param entity entity to add
+   * @return true
+   */
+  public boolean add(Entity entity) {
+    this.ensureCapacity(this.size + 1);
+    int i = this.size++;
+    this.packEntity(i, entity);
+    List<Ev> evList = entity.getEvList();
+    this.evFirsts[i] = this.packEvidence(evList);
+    this.evCounts[i] = evList.size();
+    return true;
+  }
+
+  /**
+   * Replace entity at index by packed copy of entity.
+   * @param i index of entity
+   * @param entity entity to store
+   * @return null, the previous entity is not materialized.
+   */
+  public Entity set(int i, Entity entity) {
+    if (i >= this.size) {
+      throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + this.size);
+    }
+    // build evidence before any slot is overwritten, entity may be a view of this list
+    List<Ev> evList = entity.getEvList();
+    this.packEntity(i, entity);
+    if (evList.size() <= this.evCounts[i]) {
+      this.packEvidence(evList, this.evFirsts[i]);
+      this.evUnused += this.evCounts[i] - evList.size();
+    } else {
+      this.evUnused += this.evCounts[i];
+      this.evFirsts[i] = this.packEvidence(evList);
+    }
+    this.evCounts[i] = evList.size();
+    if (this.evUnused > (this.evSize - this.evUnused)) {
+      this.reorder(null);
+    }
+    return null;
+  }
+
+  /**
+   * Pack scalar fields of entity into entity arrays.
+   * @param i index of entity
+   * @param entity entity to store
+   */
+  void packEntity(int i, Entity entity) {
+    this.starts[i] = entity.start;
+    this.lengths[i] = entity.length;
+    this.scores[i] = entity.score;
+    this.flags[i] = entity.negationStatus ? NEGATED : 0;
+    this.sentenceNumbers[i] = entity.sentenceNumber;
+    this.locationPositions[i] = entity.locationPosition;
+    this.idIndexes[i] = this.stringIndex(entity.id);
+    this.docidIndexes[i] = this.stringIndex(entity.docid);
+    this.fieldIdIndexes[i] = this.stringIndex(entity.fieldId);
+    this.lexicalCategoryIndexes[i] = this.stringIndex(entity.lexicalCategory);
+    this.temporalityIndexes[i] = this.stringIndex(entity.temporality);
+    this.matchedTexts[i] = entity.matchedText;
+  }
+
+  /**
+   * Sort entities by reordering the arrays; evidence is stored in the
+   * new order of the entities, leaving no unused slots.
+   * @param comparator entity comparator
+   */
+  public void sort(Comparator<? super Entity> comparator) {
+    Entity[] views = new Entity[this.size];
+    for (int i = 0; i < this.size; i++) {
+      views[i] = this.get(i);
+    }
+    Arrays.sort(views, comparator);
+    int[] order = new int[this.size];
+    for (int i = 0; i < this.size; i++) {
+      order[i] = ((EntityView)views[i]).index;
+    }
+    this.reorder(order);
+    this.modCount++;
+  }
+
+  /**
+   * Reorder entities and rewrite evidence arrays without unused slots.
+   * @param order index of old entity for each new position, null to keep order
+   */
+  void reorder(int[] order) {
+    if (order != null) {
+      this.starts = permute(this.starts, order);
+      this.lengths = permute(this.lengths, order);
+      double[] newScores = new double[this.scores.length];
+      String[] newMatchedTexts = new String[this.matchedTexts.length];
+      for (int i = 0; i < order.length; i++) {
+	newScores[i] = this.scores[order[i]];
+	newMatchedTexts[i] = this.matchedTexts[order[i]];
+      }
+      this.scores = newScores;
+      this.matchedTexts = newMatchedTexts;
+      this.flags = permute(this.flags, order);
+      this.sentenceNumbers = permute(this.sentenceNumbers, order);
+      this.locationPositions = permute(this.locationPositions, order);
+      this.idIndexes = permute(this.idIndexes, order);
+      this.docidIndexes = permute(this.docidIndexes, order);
+      this.fieldIdIndexes = permute(this.fieldIdIndexes, order);
+      this.lexicalCategoryIndexes = permute(this.lexicalCategoryIndexes, order);
+      this.temporalityIndexes = permute(this.temporalityIndexes, order);
+      this.evFirsts = permute(this.evFirsts, order);
+      this.evCounts = permute(this.evCounts, order);
+    }
+    int evCapacity = Math.max(this.evSize - this.evUnused, 1);
+    int[] newEvConceptIndexes = new int[evCapacity];
+    int[] newEvStarts = new int[evCapacity];
+    int[] newEvLengths = new int[evCapacity];
+    double[] newEvScores = new double[evCapacity];
+    int[] newEvIdIndexes = new int[evCapacity];
+    int[] newEvPartOfSpeechIndexes = new int[evCapacity];
+    String[] newEvMatchedTexts = new String[evCapacity];
+    String[] newEvConceptStrings = new String[evCapacity];
+    String[] newEvConceptInfoStrings = new String[evCapacity];
+    int j = 0;
+    for (int i = 0; i < this.size; i++) {
+      int first = this.evFirsts[i];
+      int count = this.evCounts[i];
+      System.arraycopy(this.evConceptIndexes, first, newEvConceptIndexes, j, count);
+      System.arraycopy(this.evStarts, first, newEvStarts, j, count);
+      System.arraycopy(this.evLengths, first, newEvLengths, j, count);
+      System.arraycopy(this.evScores, first, newEvScores, j, count);
+      System.arraycopy(this.evIdIndexes, first, newEvIdIndexes, j, count);
+      System.arraycopy(this.evPartOfSpeechIndexes, first, newEvPartOfSpeechIndexes, j, count);
+      System.arraycopy(this.evMatchedTexts, first, newEvMatchedTexts, j, count);
+      System.arraycopy(this.evConceptStrings, first, newEvConceptStrings, j, count);
+      System.arraycopy(this.evConceptInfoStrings, first, newEvConceptInfoStrings, j, count);
+      this.evFirsts[i] = j;
+      j += count;
+    }
+    this.evConceptIndexes = newEvConceptIndexes;
+    this.evStarts = newEvStarts;
+    this.evLengths = newEvLengths;
+    this.evScores = newEvScores;
+    this.evIdIndexes = newEvIdIndexes;
+    this.evPartOfSpeechIndexes = newEvPartOfSpeechIndexes;
+    this.evMatchedTexts = newEvMatchedTexts;
+    this.evConceptStrings = newEvConceptStrings;
+    this.evConceptInfoStrings = newEvConceptInfoStrings;
+    this.evSize = j;
+    this.evUnused = 0;
+  }
+
+  /**
+   * @param array entity array
+   * @param order index of old element for each new position
+   * @return new array of same length with elements in new order
+   */
+  static int[] permute(int[] array, int[] order) {
+    int[] newArray = new int[array.length];
+    for (int i = 0; i < order.length; i++) {
+      newArray[i] = array[order[i]];
+    }
+    return newArray;
+  }
+
+  /**
+   * @param i index of entity
+   * @return entity view of packed entity
+   */
+  public Entity get(int i) {
+    if (i >= this.size) {
+      throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + this.size);
+    }
+    return new EntityView(this, i);
+  }
+
+  public int size() {
+    return this.size;
+  }
+
+  public void clear() {
+    this.size = 0;
+    this.evSize = 0;
+    this.evUnused = 0;
+    this.stringList.clear();
+    this.stringIndexMap.clear();
+    this.conceptList.clear();
+    this.conceptIndexMap.clear();
+  }
+
+  /* primitive accessors, avoid building entity views */
+
+  public int getStart(int i) { return this.starts[i]; }
+  public int getLength(int i) { return this.lengths[i]; }
+  public double getScore(int i) { return this.scores[i]; }
+  public boolean isNegated(int i) { return (this.flags[i] & NEGATED) != 0; }
+  public String getDocid(int i) { return this.string(this.docidIndexes[i]); }
+  public String getMatchedText(int i) { return this.matchedTexts[i]; }
+  public int getEvCount(int i) { return this.evCounts[i]; }
+  /** @return cui of j-th evidence of entity i */
+  public String getEvCUI(int i, int j) {
+    return this.conceptList.get(this.evConceptIndexes[this.evFirsts[i] + j]).getCUI();
+  }
+
+  /**
+   * Build evidence of entity.
+   * @param i index of entity
+   * @return list of evidence in the order it was packed
+   */
+  List<Ev> buildEvList(int i) {
+    int count = this.evCounts[i];
+    List<Ev> evList = new ArrayList<Ev>(count);
+    for (int j = this.evFirsts[i]; j < this.evFirsts[i] + count; j++) {
+      Ev ev = new Ev(new ConceptInfo(this.conceptList.get(this.evConceptIndexes[j]),
+				     this.evConceptInfoStrings[j]),
+		     this.evMatchedTexts[j], this.evConceptStrings[j],
+		     this.evStarts[j], this.evLengths[j], this.evScores[j],
+		     this.string(this.evPartOfSpeechIndexes[j]));
+      ev.id = this.string(this.evIdIndexes[j]);
+      evList.add(ev);
+    }
+    return evList;
+  }
+
+  /**
+   * Entity backed by a CompactEntityList; scalar fields are copied
+   * from the arrays when the view is created, evidence is built when
+   * first requested.  Setters write through to the list.
+   */
+  static class EntityView extends Entity {
+    CompactEntityList list;
+    int index;
+    /** evidence in packed order, null until requested */
+    List<Ev> evList = null;
+
+    EntityView(CompactEntityList list, int i) {
+      super(list.string(list.idIndexes[i]),
+	    list.string(list.docidIndexes[i]),
+	    list.string(list.fieldIdIndexes[i]),
+	    list.matchedTexts[i],
+	    list.string(list.lexicalCategoryIndexes[i]),
+	    list.sentenceNumbers[i],
+	    list.starts[i], list.lengths[i],
+	    list.scores[i],
+	    (Set<Ev>)null);
+      this.list = list;
+      this.index = i;
+      this.negationStatus = (list.flags[i] & NEGATED) != 0;
+      this.temporality = list.string(list.temporalityIndexes[i]);
+      this.locationPosition = list.locationPositions[i];
+    }
+
+    List<Ev> evidence() {
+      if (this.evList == null) {
+	this.evList = this.list.buildEvList(this.index);
+      }
+      return this.evList;
+    }
+
+    /** build evidence set, after this the view's evidence is detached from the list. */
+    Set<Ev> materialize() {
+      if (this.evSet == null) {
+	this.evSet = new HashSet<Ev>(this.evidence());
+      }
+      return this.evSet;
+    }
+
+    public List<Ev> getEvList() {
+      return (this.evSet == null) ? new ArrayList<Ev>(this.evidence()) : super.getEvList();
+    }
+    public Set<Ev> getEvSet() { return this.materialize(); }
+    public void addEv(Ev ev) { this.materialize().add(ev); }
+    public void addAllEv(Collection<Ev> evCollection) { this.materialize().addAll(evCollection); }
+    public void setEvList(List<Ev> newEvList) { this.materialize().addAll(newEvList); }
+    public void setEvSet(Set<Ev> newEvSet) {
+      this.materialize().clear();
+      this.evSet.addAll(newEvSet);
+    }
+
+    public void setNegated(boolean value) {
+      super.setNegated(value);
+      if (value) {
+	this.list.flags[this.index] |= NEGATED;
+      } else {
+	this.list.flags[this.index] &= ~NEGATED;
+      }
+    }
+    public void setTemporality(String value) {
+      super.setTemporality(value);
+      this.list.temporalityIndexes[this.index] = this.list.stringIndex(value);
+    }
+    public void setLocationPosition(int i) {
+      super.setLocationPosition(i);
+      this.list.locationPositions[this.index] = i;
+    }
+    public void setScore(double value) {
+      super.setScore(value);
+      this.list.scores[this.index] = value;
+    }
+    public void setStart(int start) {
+      super.setStart(start);
+      this.list.starts[this.index] = start;
+    }
+    public void setLength(int length) {
+      super.setLength(length);
+      this.list.lengths[this.index] = length;
+    }
+    public void setMatchedText(String text) {
+      super.setMatchedText(text);
+      this.list.matchedTexts[this.index] = text;
+    }
+    public void setText(String text) {
+      this.setMatchedText(text);
+    }
+
+    public String toString() {
+      this.materialize();
+      return super.toString();
+    }
+  }
+}
@@ -54,6 +54,43 @@ public class ConceptInfo {
     this.semanticTypeSet = conceptInfo.getSemanticTypeSet();
   }
 
+  /**
+   * Concept sharing the cui, preferred name and sets of core (see
+   * ConceptInfoRegistry), only the matched string differs.
+   * @param core concept core
+   * @param conceptString metathesaurus string that matched the input term
+   */
+  public ConceptInfo(ConceptInfo core, String conceptString) {
+    this.cui = core.cui;
+    this.preferredName = core.preferredName;
+    this.conceptString = conceptString;
+    this.sourceSet = core.sourceSet;
+    this.semanticTypeSet = core.semanticTypeSet;
+  }
+
+  private ConceptInfo() {
+  }
+
+  /**
+   * Create concept core: the preferred name is not interned and the
+   * sets are expected to be shared and unmodifiable.
+   * @param cui concept unique identifier
+   * @param prefname preferred name
+   * @param sourceSet sources of concept
+   * @param semanticTypeSet semantic types of concept
+   * @return concept without concept string
+   */
+  public static ConceptInfo createCore(String cui, String prefname,
+				       Set<String> sourceSet,
+				       Set<String> semanticTypeSet) {
+    ConceptInfo core = new ConceptInfo();
+    core.cui = cui;
+    core.preferredName = prefname;
+    core.sourceSet = sourceSet;
+    core.semanticTypeSet = semanticTypeSet;
+    return core;
+  }
+
   public String getCUI() { return this.cui; }
   public void setCUI(String cui) { this.cui = cui.intern(); }
   public String getPreferredName() { return this.preferredName; }
@@ -178,6 +178,43 @@ public class Ranking {
     return aatfList;
   }
   
+  /**
+   * Compute negated normalized AATF rank of a concept from primitive
+   * values, giving the same result as processTF for the concept's
+   * term frequency.
+   * @param frequencyCount frequency of concept in document
+   * @param maxFreq maximum frequency
+   * @param titleFlag true if concept occurred in title
+   * @param concept concept name
+   * @param mmValue MetaMap value of concept
+   * @param treeDepthSum sum of depths of concept's MeSH treecodes
+   * @return negated normalized rank.
+   */
+  public static double computeNegNRank(int frequencyCount, double maxFreq, boolean titleFlag,
+				       String concept, double mmValue, int treeDepthSum) {
+    double freq = frequencyCount / maxFreq;
+    double nFreq = normalizeValue(nf, freq);
+    double nmmSpec = normalizeValue(nmm, mmValue / 1000);
+    double mSpec = Math.max(wd, treeDepthSum) / MMI_TREE_DEPTH_SPECIFICITY_DIVISOR;
+    double nmSpec = normalizeValue(nm, mSpec);
+    // word and character specificities only contribute if weighted.
+    double nwSpec = 0.0;
+    if (ww != 0.0) {
+      double wSpec = tokenizeTextMore(concept).length / MMI_WORD_SPECIFICITY_DIVISOR;
+      nwSpec = normalizeValue(nw, wSpec);
+    }
+    double ncSpec = 0.0;
+    if (wc != 0.0) {
+      int cSpec = concept.length() / MMI_CHARACTER_SPECIFICITY_DIVISOR;
+      ncSpec = normalizeValue(nc, cSpec);
+    }
+    double sum = (((wmm * nmmSpec) + (wm * nmSpec)) + (ww * nwSpec)) + (wc * ncSpec);
+    double n = ((wmm + wm) + ww) + wc;
+    double spec = sum / n;
+    double rank = setAATFRank(titleFlag, spec, nFreq);
+    return -1 * normalizeValue(nz, rank);
+  }
+
   public static List<AATF> processTF(List<TermFrequency> tfInfo, double maxFreq) {
     return processTF1(tfInfo, maxFreq, nc, nf, nm, nmm, nw, nz, wc, wd, wm, wmm, ww);
   }
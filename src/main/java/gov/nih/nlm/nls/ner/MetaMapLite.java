@@ -11,6 +11,9 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 
@@ -18,6 +21,7 @@ import java.lang.reflect.Method;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -32,16 +36,27 @@ import gov.nih.nlm.nls.metamap.lite.pipeline.plugins.Plugin;
 import gov.nih.nlm.nls.metamap.lite.pipeline.plugins.PluginRegistry;
 import gov.nih.nlm.nls.metamap.lite.pipeline.plugins.PipelineRegistry;
 
+import gov.nih.nlm.nls.metamap.lite.types.CompactEntityList;
 import gov.nih.nlm.nls.metamap.lite.types.Entity;
 import gov.nih.nlm.nls.metamap.lite.MarkAbbreviations;
 import gov.nih.nlm.nls.metamap.lite.SentenceExtractor;
 import gov.nih.nlm.nls.metamap.lite.OpenNLPSentenceExtractor;
+import gov.nih.nlm.nls.metamap.lite.ClinicalSentenceExtractor;
+import gov.nih.nlm.nls.metamap.lite.BlankLineSentenceExtractor;
+import gov.nih.nlm.nls.metamap.lite.LineSentenceExtractor;
+import gov.nih.nlm.nls.tools.Masking;
 import gov.nih.nlm.nls.metamap.lite.SentenceAnnotator;
 import gov.nih.nlm.nls.metamap.lite.OpenNLPPoSTagger;
 import gov.nih.nlm.nls.metamap.lite.EntityLookup;
 import gov.nih.nlm.nls.metamap.lite.EntityLookup3;
 import gov.nih.nlm.nls.metamap.lite.EntityLookup4;
 import gov.nih.nlm.nls.metamap.lite.EntityLookup5;
+import gov.nih.nlm.nls.metamap.lite.WarmCache;
+import gov.nih.nlm.nls.metamap.lite.metamap.IndexWarmup;
+import gov.nih.nlm.nls.metamap.lite.Metrics;
+import gov.nih.nlm.nls.metamap.lite.ProcessingBudget;
+import gov.nih.nlm.nls.metamap.lite.ResultCache;
+import gov.nih.nlm.nls.metamap.lite.SentenceCache;
 import gov.nih.nlm.nls.metamap.lite.SemanticGroupFilter;
 import gov.nih.nlm.nls.metamap.lite.SemanticGroups;
 import gov.nih.nlm.nls.metamap.lite.EntityAnnotation;
@@ -49,6 +64,9 @@ import gov.nih.nlm.nls.metamap.lite.resultformats.mmi.MMI;
 import gov.nih.nlm.nls.metamap.lite.resultformats.Brat;
 import gov.nih.nlm.nls.metamap.lite.resultformats.CuiList;
 import gov.nih.nlm.nls.metamap.lite.resultformats.BcEvaluate;
+import gov.nih.nlm.nls.metamap.lite.resultformats.BinaryResultFormatter;
+import gov.nih.nlm.nls.metamap.lite.resultformats.BinaryResultFormatterRegistry;
+import gov.nih.nlm.nls.metamap.lite.resultformats.binary.BinaryFormat;
 import gov.nih.nlm.nls.metamap.lite.BioCUtilities;
 import gov.nih.nlm.nls.metamap.lite.Phrase;
 import gov.nih.nlm.nls.metamap.lite.OpenNLPChunker;
@@ -128,7 +146,14 @@ import gov.nih.nlm.nls.metamap.mmi.Ranking;
  * <dl>
  * <dt>metamaplite.semanticgroup</dt><dd>restrict output to concepts with specified semantic types</dd>
  * <dt>metamaplite.sourceset</dt><dd>restrict output to concepts in specified sources</dd>
+ * <dt>metamaplite.restrict.at.lookup</dt><dd>apply semantic type and source restrictions during term lookup, before longest match and subsumption (default: false)</dd>
  * <dt>metamaplite.segmentation.method</dt><dd>Set method for text segmentation (values: SENTENCES, BLANKLINES, LINES; default: SENTENCES)</dd>
+ * <dt>metamaplite.sentence.extractor</dt><dd>sentence extractor used by SENTENCES segmentation (values: opennlp, clinical; default: opennlp)</dd>
+ * <dt>metamaplite.clinical.section.file</dt><dd>section indicator file for clinical sentence extractor, see ClinicalSentenceExtractor</dd>
+ * <dt>metamaplite.clinical.doctype</dt><dd>default document type of clinical notes</dd>
+ * <dt>metamaplite.clinical.section.skip</dt><dd>comma separated list of clinical note section tags not processed</dd>
+ * <dt>metamaplite.masking.enable</dt><dd>mask terms in sentences before lookup, see Masking (default: false)</dd>
+ * <dt>metamaplite.masking.termfile</dt><dd>file of terms to mask, one per line (default: Masking.troublesomeList)</dd>
  * <dt>metamaplite.negation.detector</dt><dd>negation detector class: default: gov.nih.nlm.nls.metamap.lite.NegEx</dd>
  * <dt>opennlp.models.directory</dt><dd>parent location of opennlp models</dd>
  * <dt>opennlp.en-pos.bin.path</dt><dd> path for part-of-speech model (default: data/models/en-pos-maxent.bin)</dd>
@@ -138,6 +163,20 @@ import gov.nih.nlm.nls.metamap.mmi.Ranking;
  * <dt>metamaplite.ivf.cuisemantictypeindex</dt><dd>location of cui-semantictype index</dd>
  * <dt>metamaplite.document.inputtype</dt><dd>document input type (default: freetext)</dd>
  * <dt>metamaplite.property.file</dt><dd>load configuration from file (default: ./config/metamaplite.properties)</dd>
+ * <dt>metamaplite.staged.enable</dt><dd>process documents using StagedPipeline (default: false)</dd>
+ * <dt>metamaplite.warmcache.file</dt><dd>pre-built term cache consulted before indexes, see WarmCache</dd>
+ * <dt>metamaplite.budget.document.ms</dt><dd>per-document time budget before degraded processing, see ProcessingBudget (default: 0, no limit)</dd>
+ * <dt>metamaplite.metrics.enable</dt><dd>record stage timings, index lookups and cache hit rates, see Metrics</dd>
+ * <dt>metamaplite.warmcache.profile.output</dt><dd>append term frequency profile for building warm cache to file</dd>
+ * <dt>metamaplite.warmcache.profile.size</dt><dd>maximum number of distinct terms recorded in profile (default 1000000)</dd>
+ * <dt>metamaplite.compact.results</dt><dd>keep results of document lists in a CompactEntityList (default: false)</dd>
+ * <dt>metamaplite.ivf.warmup.enable</dt><dd>load index partitions in the background at startup, see IndexWarmup (default: false)</dd>
+ * <dt>metamaplite.ivf.warmup.profile</dt><dd>partition access profile used to order index warm-up</dd>
+ * <dt>metamaplite.ivf.warmup.profile.output</dt><dd>append partition access profile for index warm-up to file</dd>
+ * <dt>metamaplite.result.cache.enable</dt><dd>reuse results of passages already processed, see ResultCache (default: false; not used when a processing budget is set)</dd>
+ * <dt>metamaplite.result.cache.size</dt><dd>number of passage results kept in memory by result cache (default: 10000)</dd>
+ * <dt>metamaplite.result.cache.file</dt><dd>append log of passage results kept across runs by result cache</dd>
+ * <dt>metamaplite.sentence.cache.size</dt><dd>number of sentences whose entities are kept for reuse when scoring is enabled, see SentenceCache (default: 0, disabled)</dd>
  * </dl>
  * <p>
  * Command line frontend properties 
@@ -177,6 +216,15 @@ import gov.nih.nlm.nls.metamap.mmi.Ranking;
  * <dt>metamaplite.result.formatter.cuilist</dt><dd>gov.nih.nlm.nls.metamap.lite.resultformats.CuiList</dd>
  * <dt>metamaplite.result.formatter.brat</dt><dd>gov.nih.nlm.nls.metamap.lite.resultformats.Brat</dd>
  * </dl>
+ * Binary result formatters, which write to an output stream, are
+ * listed separately:
+ * <dl>
+ * <dt>metamaplite.binary.result.formatter.{name}</dt><dd>classname</dd>
+ * </dl>
+ * The class must implement BinaryResultFormatter, for example:
+ * <dl>
+ * <dt>metamaplite.binary.result.formatter.binary</dt><dd>gov.nih.nlm.nls.metamap.lite.resultformats.binary.BinaryFormat</dd>
+ * </dl>
  */
 public class MetaMapLite {
   /** log4j logger instance */
@@ -191,6 +239,7 @@ public class MetaMapLite {
     outputExtensionMap.put("mmi",".mmi");
     outputExtensionMap.put("cdi",".cdi");
     outputExtensionMap.put("cuilist",".cuis");
+    outputExtensionMap.put("binary",".mmlb");
   }
 
   Set<String> semanticGroup = new HashSet<String>(); // initially empty
@@ -203,7 +252,13 @@ public class MetaMapLite {
   boolean detectNegationsFlag = false;
   SentenceAnnotator sentenceAnnotator;
   SentenceExtractor sentenceExtractor;
+  SentenceExtractor blankLineSentenceExtractor = new BlankLineSentenceExtractor();
+  SentenceExtractor lineSentenceExtractor = new LineSentenceExtractor();
+  /** masking of terms before lookup, null if not enabled */
+  Masking masking = null;
   EntityLookup entityLookup;
+  /** cache of passage results, null if not enabled */
+  ResultCache resultCache = null;
   enum SegmentatonType {
     SENTENCES,
     BLANKLINES,
@@ -225,7 +280,16 @@ public class MetaMapLite {
 	   IOException
   {
     this.properties = properties;
-    this.sentenceExtractor = new OpenNLPSentenceExtractor(properties);
+    Metrics.init(properties);
+    if (properties.getProperty("metamaplite.sentence.extractor", "opennlp").equals("clinical")) {
+      this.sentenceExtractor = new ClinicalSentenceExtractor(properties);
+    } else {
+      this.sentenceExtractor = new OpenNLPSentenceExtractor(properties);
+    }
+
+    if (Boolean.parseBoolean(properties.getProperty("metamaplite.masking.enable", "false"))) {
+      this.masking = new Masking(properties);
+    }
 
     this.addPartOfSpeechTagsFlag =
       Boolean.parseBoolean(properties.getProperty("metamaplite.enable.postagging",
@@ -298,10 +362,14 @@ public class MetaMapLite {
     ResultFormatterRegistry.register("cuilist",
 				     "UMLS CUI List Output",
 				     new CuiList());
+    BinaryResultFormatterRegistry.register("binary",
+					   "Binary columnar output (.mmlb, see BinaryResultConverter)",
+					   new BinaryFormat());
 
     /** augment or override any built-in formats with ones specified by property file. */
     BioCDocumentLoaderRegistry.register(properties);
     ResultFormatterRegistry.register(properties);
+    BinaryResultFormatterRegistry.register(properties);
 
     this.setSemanticGroup(properties.getProperty("metamaplite.semanticgroup", "all").split(","));
     this.setSourceSet(properties.getProperty("metamaplite.sourceset","all").split(","));
@@ -312,6 +380,15 @@ public class MetaMapLite {
       Boolean.parseBoolean(properties.getProperty("metamaplite.detect.negations", "true"));
     this.setSegmentationMethod
       (properties.getProperty("metamaplite.segmentation.method","SENTENCE"));
+    if (Boolean.parseBoolean(properties.getProperty("metamaplite.result.cache.enable", "false"))) {
+      if (new ProcessingBudget(properties).isEnabled()) {
+	// results of degraded processing depend on timing and on
+	// earlier passages of the document, don't reuse them.
+	logger.warn("result cache not used: processing budget is set.");
+      } else {
+	this.resultCache = new ResultCache(properties);
+      }
+    }
   }
 
   /**
@@ -418,54 +495,64 @@ public class MetaMapLite {
   {
     logger.debug("enter processPassage");
     logger.debug(passage.getText());
+    List<Entity> entityList;
+    if ((this.resultCache != null) && passage.getAnnotations().isEmpty()) {
+      byte[] digest = this.resultCache.digest(this.resultCacheOptions(), passage);
+      entityList = this.resultCache.get(digest, passageDocid(passage), passage.getOffset());
+      if (entityList == null) {
+	entityList = this.lookupPassage(this.segmentPassage(passage));
+	this.resultCache.put(digest, passage.getOffset(), entityList);
+      }
+    } else {
+      entityList = this.lookupPassage(this.segmentPassage(passage));
+    }
+    logger.debug("exit processPassage");
+    return entityList;
+  }
+
+  /**
+   * @return lookup options not held in properties, part of result cache key.
+   */
+  String resultCacheOptions() {
+    List<String> semanticGroupList = new ArrayList<String>(this.semanticGroup);
+    List<String> sourceList = new ArrayList<String>(this.sourceSet);
+    Collections.sort(semanticGroupList);
+    Collections.sort(sourceList);
+    return this.segmentationMethod + "|" + this.detectNegationsFlag + "|" +
+      semanticGroupList + "|" + sourceList;
+  }
+
+  /**
+   * @param passage BioC passage
+   * @return document id of passage from its infons
+   */
+  static String passageDocid(BioCPassage passage) {
+    return (passage.getInfon("docid") != null) ? passage.getInfon("docid") : "00000000";
+  }
+
+  /**
+   * Segment passage using current segmentation method and mark any
+   * abbreviations found in the resulting sentences.
+   * @param passage BioC passage to be segmented
+   * @return new passage containing sentences, abbreviation annotations and relations
+   */
+  public BioCPassage segmentPassage(BioCPassage passage)
+  {
+    logger.debug("enter segmentPassage");
+    long segmentStart = Metrics.start();
     BioCPassage passage0;
     List<BioCSentence> sentenceList;
     int offset;
-    int passageOffset;
-    String text;
-    String[] segmentList;
     switch (segmentationMethod) {
     case SENTENCES:
       passage0 = this.sentenceExtractor.createSentences(passage);
       passage0.setInfons(passage.getInfons()); // copy docid and section info
       break;
     case BLANKLINES:
-      sentenceList = new ArrayList<BioCSentence>();
-      offset = passage.getOffset();
-      passageOffset = passage.getOffset();
-      text = passage.getText();
-      segmentList = text.split("\n\n");
-      for (String segment: segmentList) {
-	BioCSentence sentence = new BioCSentence();
-	offset = text.indexOf(segment, offset);
-	sentence.setOffset(offset);
-	sentence.setText(segment);
-	sentence.setInfons(passage.getInfons());
-	sentenceList.add(sentence);
-	passage.addSentence(sentence);
-	offset = segment.length(); 
-      }
-      passage0 = passage;
+      passage0 = this.blankLineSentenceExtractor.createSentences(passage);
       break;
     case LINES:
-      sentenceList = new ArrayList<BioCSentence>();
-      offset = passage.getOffset();
-      passageOffset = passage.getOffset();
-      text = passage.getText();
-      segmentList = text.split("\n");
-      for (String segment: segmentList) {
-	offset = text.indexOf(segment, offset);
-	if (segment.trim().length() > 0) {
-	  BioCSentence sentence = new BioCSentence();
-	  sentence.setOffset(offset);
-	  sentence.setText(segment);
-	  sentence.setInfons(passage.getInfons());
-	  sentenceList.add(sentence);
-	  passage.addSentence(sentence);
-	}
-	offset = segment.length(); // preserve offsets even for blank lines.
-      }
-      passage0 = passage;
+      passage0 = this.lineSentenceExtractor.createSentences(passage);
       break;
     default:
       // copy entire text of passage into one sentence
@@ -480,6 +567,12 @@ public class MetaMapLite {
       passage0 = passage;
       break;
     }
+    if (this.masking != null) {
+      // masking keeps text length, sentence offsets are unchanged.
+      for (BioCSentence sentence: passage0.getSentences()) {
+	sentence.setText(this.masking.mask(sentence.getText()));
+      }
+    }
     BioCPassage passageWithSentsAndAbbrevs = new BioCPassage();
     passageWithSentsAndAbbrevs.setInfons( passage0.getInfons() );
     passageWithSentsAndAbbrevs.setOffset( passage0.getOffset() );
@@ -505,31 +598,75 @@ public class MetaMapLite {
     }
     logger.info("passage relations: " + passageWithSentsAndAbbrevs.getRelations());
     logger.info("passage annotations: " + passageWithSentsAndAbbrevs.getAnnotations());
-    // BioCPassage newPassage = processSentences(passageWithSentsAndAbbrevs);
-    String docid = (passage.getInfon("docid") != null) ? passage.getInfon("docid") : "00000000";
-    List<Entity> entityList =
-      this.entityLookup.processPassage(docid,
-				       passageWithSentsAndAbbrevs,
-				       this.detectNegationsFlag,
-				       this.semanticGroup,
-				       this.sourceSet);
-    logger.debug("exit processPassage");
-    return entityList;
+    Metrics.stop("segment", segmentStart);
+    logger.debug("exit segmentPassage");
+    return passageWithSentsAndAbbrevs;
   }
 
-  public List<Entity> processDocument(BioCDocument document) 
-    throws IllegalAccessException, InvocationTargetException, IOException, Exception
+  /**
+   * Find entities in a passage that has already been segmented by segmentPassage.
+   * @param segmentedPassage passage containing sentences
+   * @return list of entities found in passage
+   */
+  public List<Entity> lookupPassage(BioCPassage segmentedPassage)
+  {
+    return this.entityLookup.processPassage(passageDocid(segmentedPassage),
+					    segmentedPassage,
+					    this.detectNegationsFlag,
+					    this.semanticGroup,
+					    this.sourceSet);
+  }
+
+  /**
+   * Start a fresh processing budget for document in the current
+   * thread, see ProcessingBudget.
+   * @param docid document id
+   */
+  void startDocument(String docid)
+  {
+    if (this.entityLookup instanceof EntityLookup5) {
+      ((EntityLookup5)this.entityLookup).startDocument(docid);
+    } else if (this.entityLookup instanceof EntityLookup4) {
+      ((EntityLookup4)this.entityLookup).startDocument(docid);
+    }
+  }
+
+  /** End document started by startDocument in the current thread. */
+  void endDocument()
+  {
+    if (this.entityLookup instanceof EntityLookup5) {
+      ((EntityLookup5)this.entityLookup).endDocument();
+    } else if (this.entityLookup instanceof EntityLookup4) {
+      ((EntityLookup4)this.entityLookup).endDocument();
+    }
+  }
+
+  /**
+   * Instantiate entity lookup instance appropriate to current
+   * properties if one does not already exist.
+   * @throws IOException IO Exception
+   */
+  void initEntityLookup()
+    throws IOException
   {
     if (Boolean.parseBoolean(this.getProperties().getProperty("metamaplite.enable.scoring"))) {
-      // Don't re-instantiate EntityLookup5 if instance exists.
       if ((this.entityLookup == null) ||
 	  (! (this.entityLookup instanceof EntityLookup5))) {
 	this.entityLookup = new EntityLookup5(properties);
       }
-    } else {
+    } else if ((this.entityLookup == null) ||
+	       (! (this.entityLookup instanceof EntityLookup4))) {
       this.entityLookup = new EntityLookup4(properties);
     }
-    List<Entity> entityList = new ArrayList<Entity>();
+  }
+
+  /**
+   * Make sure document has an id and copy document id into the
+   * information namespace (infons) of document and its passages.
+   * @param document BioC document
+   */
+  static void prepareDocument(BioCDocument document)
+  {
     if (document.getID() == null) {
       document.setID("0000000.TXT");
     } else if (document.getID().trim().equals("")) {
@@ -547,24 +684,35 @@ public class MetaMapLite {
       if (! passageInfons.containsKey("docid")) {
 	passageInfons.put("docid", document.getID());
       }
-      entityList.addAll(processPassage(passage));
     }
-    return entityList;
   }
 
-  public List<Entity> processDocumentList(List<BioCDocument> documentList)
+  public List<Entity> processDocument(BioCDocument document) 
     throws IllegalAccessException, InvocationTargetException, IOException, Exception
   {
-    if (Boolean.parseBoolean(this.getProperties().getProperty("metamaplite.enable.scoring"))) {
-      // Don't re-instantiate EntityLookup5 if instance exists.
-      if ((this.entityLookup == null) ||
-	  (! (this.entityLookup instanceof EntityLookup5))) {
-	this.entityLookup = new EntityLookup5(properties);
+    this.initEntityLookup();
+    long documentStart = Metrics.start();
+    List<Entity> entityList = new ArrayList<Entity>();
+    prepareDocument(document);
+    this.startDocument(document.getID());
+    try {
+      for (BioCPassage passage: document.getPassages()) {
+	entityList.addAll(processPassage(passage));
       }
-    } else {
-      this.entityLookup = new EntityLookup4(properties);
+    } finally {
+      this.endDocument();
     }
-    List<Entity> entityList = new ArrayList<Entity>();    
+    Metrics.recordDocument(document.getID(), documentStart);
+    return entityList;
+  }
+
+  public List<Entity> processDocumentList(List<BioCDocument> documentList)
+    throws IllegalAccessException, InvocationTargetException, IOException, Exception
+  {
+    this.initEntityLookup();
+    List<Entity> entityList =
+      Boolean.parseBoolean(this.properties.getProperty("metamaplite.compact.results", "false")) ?
+      new CompactEntityList() : new ArrayList<Entity>();
     for (BioCDocument document: documentList) {
       entityList.addAll(this.processDocument(document));
     }
@@ -630,9 +778,13 @@ public class MetaMapLite {
     for (String name: ResultFormatterRegistry.listNameSet()) {
       System.err.println("      " + name);
     }
+    for (String name: BinaryResultFormatterRegistry.listNameSet()) {
+      System.err.println("      " + name + " (binary, not available with --staged)");
+    }
     System.err.println("processing options:");
     System.err.println("  --restrict_to_sts=<semtype>[,<semtype>...]");
     System.err.println("  --restrict_to_sources=<source>[,<source>...]");
+    System.err.println("  --restrict_at_lookup   apply semantic type and source restrictions during term lookup");
     System.err.println("  --segmentation_method=SENTENCES|BLANKLINES|LINES    set method for text segmentation");
     System.err.println("  --segment_sentences    Set method for text segmentation to sentences");
     System.err.println("  --segment_blanklines   Set method for text segmentation to one text segment between each blankline");
@@ -640,6 +792,8 @@ public class MetaMapLite {
     System.err.println("  --usecontext           Use ConText negation algorithm.");
     System.err.println("  --disable_chunker");
     System.err.println("  --enable_postagging=[true|false]  Use part-of-speech tagging (default: true).");
+    System.err.println("  --staged               Run segmentation, lookup and formatting as separate stages.");
+    System.err.println("  --staged_workers=<segment>,<lookup>  number of segmentation and lookup threads.");
     // System.err.println("performance/effectiveness options:");
     // System.err.println("  --luceneresultlen=<length>");
     System.err.println("alternate output options:");
@@ -756,6 +910,8 @@ public class MetaMapLite {
 				     "gov.nih.nlm.nls.metamap.lite.resultformats.Brat");
     defaultConfiguration.setProperty("metamaplite.result.formatter.mmi",
 				     "gov.nih.nlm.nls.metamap.lite.resultformats.mmi.MMI");
+    defaultConfiguration.setProperty("metamaplite.binary.result.formatter.binary",
+				     "gov.nih.nlm.nls.metamap.lite.resultformats.binary.BinaryFormat");
     defaultConfiguration.setProperty("metamaplite.negation.detector",
 				     "gov.nih.nlm.nls.metamap.lite.NegEx");
     return defaultConfiguration;
@@ -825,21 +981,81 @@ public class MetaMapLite {
 		    String outputFormatOption)
     throws IllegalAccessException, InvocationTargetException, IOException, Exception
   {
+    ResultFormatter formatter = ResultFormatterRegistry.get(outputFormatOption);
+    if ((formatter != null) &&
+	Boolean.parseBoolean(this.properties.getProperty("metamaplite.staged.enable", "false"))) {
+      formatter.initProperties(this.properties);
+      new StagedPipeline(this.properties).process(documentList.iterator(), formatter, pw);
+      pw.flush();
+      return;
+    }
     // process documents
     List<Entity> entityList = this.processDocumentList(documentList);
 
     logger.info("outputing results to standard output." );
     // format output
-    ResultFormatter formatter = ResultFormatterRegistry.get(outputFormatOption);
     if (formatter != null) {
       formatter.initProperties(this.properties);
+      long formatStart = Metrics.start();
       formatter.entityListFormatter(pw, entityList);
+      Metrics.stop("format", formatStart);
     } else {
       System.out.println("! Couldn't find formatter for output format option: " + outputFormatOption);
     }
     pw.flush();
   }
 
+  /**
+   * Process documents and write entities using binary result formatter.
+   * @param documentList list of BioC documents
+   * @param out output stream, flushed but not closed.
+   * @param formatter binary result formatter
+   */
+  void listEntities(List<BioCDocument> documentList,
+		    OutputStream out,
+		    BinaryResultFormatter formatter)
+    throws IllegalAccessException, InvocationTargetException, IOException, Exception
+  {
+    List<Entity> entityList = this.processDocumentList(documentList);
+    formatter.initProperties(this.properties);
+    long formatStart = Metrics.start();
+    formatter.entityListFormatter(out, entityList);
+    Metrics.stop("format", formatStart);
+    out.flush();
+  }
+
+  /**
+   * If output format is binary, process documents and write entities to file.
+   * @param outputFilename output filename, if null write to standard output.
+   * @param documentList list of BioC documents
+   * @param outputFormatOption output format
+   * @return false if output format is not binary, nothing is written.
+   * @throws IllegalArgumentException if staged processing is enabled,
+   *         StagedPipeline only writes text formats.
+   */
+  boolean listBinaryEntities(String outputFilename,
+			     List<BioCDocument> documentList,
+			     String outputFormatOption)
+    throws IllegalAccessException, InvocationTargetException, IOException, Exception
+  {
+    BinaryResultFormatter formatter = BinaryResultFormatterRegistry.get(outputFormatOption);
+    if (formatter == null) {
+      return false;
+    }
+    if (Boolean.parseBoolean(this.properties.getProperty("metamaplite.staged.enable", "false"))) {
+      throw new IllegalArgumentException("binary output format \"" + outputFormatOption +
+					 "\" is not supported with staged processing (--staged).");
+    }
+    if (outputFilename == null) {
+      listEntities(documentList, System.out, formatter);
+    } else {
+      OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFilename));
+      listEntities(documentList, out, formatter);
+      out.close();
+    }
+    return true;
+  }
+
   /** list entities using document list from stdin 
    * @param documentList list of BioC documents
    */
@@ -895,6 +1111,9 @@ public class MetaMapLite {
     throws IllegalAccessException, InvocationTargetException, IOException, Exception
   {
     logger.info("outputing results to standard output." );
+    if (listBinaryEntities(null, documentList, outputFormatOption)) {
+      return;
+    }
 
     // output results for file
     PrintWriter pw = new PrintWriter(new OutputStreamWriter(System.out));
@@ -1023,6 +1242,9 @@ public class MetaMapLite {
     }
     String outputFilename = basename + outputExtension;
     logger.info("outputing results to " + outputFilename);
+    if (listBinaryEntities(outputFilename, documentList, outputFormatOption)) {
+      return;
+    }
     
     // output results for file
     PrintWriter pw = new PrintWriter(new BufferedWriter
@@ -1047,6 +1269,9 @@ public class MetaMapLite {
     }
     String outputFilename = basename + outputExtension;
     logger.info("outputing results to " + outputFilename);
+    if (listBinaryEntities(outputFilename, documentList, outputFormatOption)) {
+      return;
+    }
     
     // output results for file
     PrintWriter pw = new PrintWriter(new BufferedWriter
@@ -1065,6 +1290,9 @@ public class MetaMapLite {
     throws IOException, IllegalAccessException, InvocationTargetException, Exception
   {
     logger.info("outputing results to " + outputFilename);
+    if (listBinaryEntities(outputFilename, documentList, outputFormatOption)) {
+      return;
+    }
     
     // output results for file
     PrintWriter pw = new PrintWriter(new BufferedWriter
@@ -1082,6 +1310,9 @@ public class MetaMapLite {
     throws IOException, IllegalAccessException, InvocationTargetException, Exception
   {
     logger.info("outputing results to " + outputFilename);
+    if (listBinaryEntities(outputFilename, documentList, outputFormatOption)) {
+      return;
+    }
     
     // output results for file
     PrintWriter pw = new PrintWriter(new BufferedWriter
@@ -1104,10 +1335,20 @@ public class MetaMapLite {
 		  ((EntityLookup5)entityLookup).cuiPreferredNameCache.cuiPreferredNameCache.size());
       logger.info("term -> concept cache size: " +
 		  ((EntityLookup5)entityLookup).termConceptInfoCache.termConceptCache.size());
-      
+      SentenceCache sentenceCache = ((EntityLookup5)entityLookup).sentenceCache;
+      if (sentenceCache != null) {
+	logger.info("sentence cache size: " + sentenceCache.size() +
+		    ", hits: " + sentenceCache.getHits() +
+		    ", misses: " + sentenceCache.getMisses());
+      }
     }
     logger.info("string -> normalized string cache size: " +
 		gov.nih.nlm.nls.metamap.lite.NormalizedStringCache.normalizeStringCache.size());
+    WarmCache warmCache = WarmCache.getInstance(this.properties);
+    if (warmCache != null) {
+      logger.info("warm cache term hits: " + warmCache.getTermHits() +
+		  ", misses: " + warmCache.getTermMisses());
+    }
   }
 
   /**
@@ -1244,6 +1485,8 @@ public class MetaMapLite {
 		       fields[0].equals("--restrict_to_sources") ||
 		       fields[0].equals("--restrict_to_src")) {
 	      optionsConfiguration.setProperty("metamaplite.sourceset", fields[1]);
+	    } else if (fields[0].equals("--restrict_at_lookup")) {
+	      optionsConfiguration.setProperty("metamaplite.restrict.at.lookup", "true");
 	    } else if (fields[0].equals("--negationDetectorClass")) {
 	      optionsConfiguration.setProperty("metamaplite.negation.detector", fields[1]);
 	    } else if (fields[0].equals("--usecontext")) {
@@ -1251,6 +1494,19 @@ public class MetaMapLite {
 					       "gov.nih.nlm.nls.metamap.lite.context.ContextWrapper");
 	    } else if (fields[0].equals("--enable_postagging")) {
 	      optionsConfiguration.setProperty("metamaplite.enable.postagging",fields[1]);
+	    } else if (fields[0].equals("--staged")) {
+	      optionsConfiguration.setProperty("metamaplite.staged.enable","true");
+	    } else if (fields[0].equals("--staged_workers")) {
+	      if (fields.length < 2) {
+		System.err.println("missing argument in \"" + args[i] + "\" option");
+	      } else {
+		String[] workerCounts = fields[1].split(",");
+		optionsConfiguration.setProperty("metamaplite.staged.enable","true");
+		optionsConfiguration.setProperty("metamaplite.staged.segment.workers", workerCounts[0]);
+		if (workerCounts.length > 1) {
+		  optionsConfiguration.setProperty("metamaplite.staged.lookup.workers", workerCounts[1]);
+		}
+	      }
 	    } else if (fields[0].equals("--disable_chunker")) {
 	      optionsConfiguration.setProperty("metamaplite.disable.chunker","true");
 	    } else if (fields[0].equals("--brat_type_name")) {
@@ -1303,6 +1559,7 @@ public class MetaMapLite {
 						       verbose);
 	      BioCDocumentLoaderRegistry.register(properties);
 	      ResultFormatterRegistry.register(properties);
+	      BinaryResultFormatterRegistry.register(properties);
 	      displayHelp();
 	      System.exit(1);
 	    } else {
@@ -1446,10 +1703,15 @@ public class MetaMapLite {
 	} /*for filename */
       }
       metaMapLiteInst.logCacheInfo();
+      WarmCache.writeProfile(metaMapLiteInst.getProperties());
+      IndexWarmup.writeProfile(metaMapLiteInst.getProperties());
+      ResultCache.closeAll();
+      Metrics.shutdown();
     } else {
       // register default document loaders and result formatter for help display.
       BioCDocumentLoaderRegistry.register(defaultConfiguration);
       ResultFormatterRegistry.register(defaultConfiguration);
+      BinaryResultFormatterRegistry.register(defaultConfiguration);
       displayHelp();
       System.exit(1);
     }   
@@ -0,0 +1,468 @@
+//
+package gov.nih.nlm.nls.ner;
+
+import java.io.PrintWriter;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import bioc.BioCDocument;
+import bioc.BioCPassage;
+
+import gov.nih.nlm.nls.metamap.lite.Metrics;
+import gov.nih.nlm.nls.metamap.lite.types.Entity;
+import gov.nih.nlm.nls.metamap.lite.resultformats.ResultFormatter;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Staged execution of the MetaMapLite pipeline.
+ * <p>
+ * Documents flow through three stages connected by bounded queues:
+ * <dl>
+ * <dt>segment</dt><dd>sentence segmentation and abbreviation detection</dd>
+ * <dt>lookup</dt><dd>tokenization, part-of-speech tagging, chunking,
+ *                   normalization, dictionary lookup and negation</dd>
+ * <dt>format</dt><dd>rendering of results by the output formatter</dd>
+ * </dl>
+ * Each segment and lookup worker owns its own MetaMapLite instance
+ * (and therefore its own sentence extractor, part-of-speech tagger
+ * and chunker) because the OpenNLP models are not thread-safe.  The
+ * format stage is a single thread that writes documents in input
+ * order.  When a queue is full the upstream stage blocks, so a slow
+ * stage throttles the stages in front of it; the time each stage
+ * spends blocked on its input and output queues, along with the
+ * queue depths, is reported to help locate the bottleneck.
+ * <p>
+ * Note that the formatter is invoked once per document, so formats
+ * that aggregate over the whole input (e.g. cuilist) are emitted per
+ * document in this mode.
+ * <p>
+ * Configuration Properties:
+ * <dl>
+ * <dt>metamaplite.staged.segment.workers</dt><dd>number of segmentation threads (default: 2)</dd>
+ * <dt>metamaplite.staged.lookup.workers</dt><dd>number of lookup threads (default: number of processors)</dd>
+ * <dt>metamaplite.staged.queue.capacity</dt><dd>capacity of each inter-stage queue (default: 64)</dd>
+ * <dt>metamaplite.staged.report.interval</dt><dd>seconds between queue depth reports, 0 to disable (default: 30)</dd>
+ * </dl>
+ */
+
+public class StagedPipeline {
+  /** log4j logger instance */
+  private static final Logger logger = LogManager.getLogger(StagedPipeline.class);
+
+  /** unit of work passed between stages */
+  static class DocumentWork {
+    /** position of document in input, used to preserve output order */
+    int sequenceNumber;
+    BioCDocument document;
+    List<BioCPassage> segmentedPassageList;
+    List<Entity> entityList;
+    Exception failure;
+    /** time document entered pipeline, for document latency metrics */
+    long startNanos;
+    DocumentWork(int sequenceNumber, BioCDocument document) {
+      this.sequenceNumber = sequenceNumber;
+      this.document = document;
+      this.startNanos = Metrics.start();
+    }
+  }
+
+  /** end of input marker */
+  static final DocumentWork END_OF_INPUT = new DocumentWork(-1, null);
+
+  /** counters for one stage */
+  public static class StageStatistics {
+    String name;
+    int workerCount;
+    AtomicLong documentCount = new AtomicLong(0);
+    /** time spent doing work in nanoseconds (summed over workers) */
+    AtomicLong busyNanos = new AtomicLong(0);
+    /** time spent waiting for input in nanoseconds (summed over workers) */
+    AtomicLong inputWaitNanos = new AtomicLong(0);
+    /** time spent blocked on a full output queue in nanoseconds (summed over workers) */
+    AtomicLong outputWaitNanos = new AtomicLong(0);
+    StageStatistics(String name, int workerCount) {
+      this.name = name;
+      this.workerCount = workerCount;
+    }
+    public String toString() {
+      return this.name + ": workers: " + this.workerCount +
+	", documents: " + this.documentCount.get() +
+	", busy ms: " + this.busyNanos.get() / 1000000L +
+	", input wait ms: " + this.inputWaitNanos.get() / 1000000L +
+	", output wait ms: " + this.outputWaitNanos.get() / 1000000L;
+    }
+  }
+
+  Properties properties;
+  int segmentWorkerCount;
+  int lookupWorkerCount;
+  int queueCapacity;
+  int reportInterval;
+
+  BlockingQueue<DocumentWork> segmentQueue;
+  BlockingQueue<DocumentWork> lookupQueue;
+  BlockingQueue<DocumentWork> formatQueue;
+
+  StageStatistics readStatistics;
+  StageStatistics segmentStatistics;
+  StageStatistics lookupStatistics;
+  StageStatistics formatStatistics;
+
+  /** first failure encountered by any stage */
+  AtomicReference<Throwable> firstFailure = new AtomicReference<Throwable>();
+  /** true if a stage has failed and the pipeline is shutting down */
+  volatile boolean aborted = false;
+  /** worker threads and thread feeding the pipeline, interrupted on abort */
+  List<Thread> threadList;
+  Thread readThread;
+
+  /**
+   * Creates a new <code>StagedPipeline</code> instance.
+   * @param properties MetaMapLite configuration properties
+   */
+  public StagedPipeline(Properties properties) {
+    this.properties = properties;
+    this.segmentWorkerCount =
+      Integer.parseInt(properties.getProperty("metamaplite.staged.segment.workers", "2"));
+    this.lookupWorkerCount =
+      Integer.parseInt(properties.getProperty("metamaplite.staged.lookup.workers",
+					      Integer.toString(Runtime.getRuntime().availableProcessors())));
+    this.queueCapacity =
+      Integer.parseInt(properties.getProperty("metamaplite.staged.queue.capacity", "64"));
+    this.reportInterval =
+      Integer.parseInt(properties.getProperty("metamaplite.staged.report.interval", "30"));
+  }
+
+  /**
+   * Put work on queue, recording time spent blocked.
+   */
+  static void put(BlockingQueue<DocumentWork> queue, DocumentWork work, StageStatistics statistics)
+    throws InterruptedException
+  {
+    long start = System.nanoTime();
+    queue.put(work);
+    statistics.outputWaitNanos.addAndGet(System.nanoTime() - start);
+  }
+
+  /**
+   * Take work from queue, recording time spent waiting.
+   */
+  static DocumentWork take(BlockingQueue<DocumentWork> queue, StageStatistics statistics)
+    throws InterruptedException
+  {
+    long start = System.nanoTime();
+    DocumentWork work = queue.take();
+    statistics.inputWaitNanos.addAndGet(System.nanoTime() - start);
+    return work;
+  }
+
+  void recordFailure(DocumentWork work, Exception e) {
+    work.failure = e;
+    this.firstFailure.compareAndSet(null, e);
+    logger.error("failure processing document " +
+		 (work.document == null ? "" : work.document.getID()) + ": " + e);
+  }
+
+  /**
+   * Stop the pipeline after a failure that is not confined to one
+   * document (a stage died, the input could not be read, or a thread
+   * was interrupted): record the failure if it is the first and
+   * interrupt all other threads so none stays blocked on a queue.
+   * @param t failure
+   */
+  void abort(Throwable t) {
+    this.firstFailure.compareAndSet(null, t);
+    synchronized (this) {
+      if (this.aborted) {
+	return;
+      }
+      this.aborted = true;
+    }
+    logger.error("staged pipeline stopped: " + t);
+    for (Thread thread: this.threadList) {
+      if (thread != Thread.currentThread()) {
+	thread.interrupt();
+      }
+    }
+    if (this.readThread != Thread.currentThread()) {
+      this.readThread.interrupt();
+    }
+  }
+
+  /**
+   * Tell each worker of the next stage to stop, unless the pipeline
+   * has been aborted (the workers have been interrupted then).
+   */
+  void putEndOfInput(BlockingQueue<DocumentWork> queue, int workerCount, StageStatistics statistics) {
+    try {
+      for (int i = 0; (i < workerCount) && (! this.aborted); i++) {
+	put(queue, END_OF_INPUT, statistics);
+      }
+    } catch (InterruptedException ie) {
+      this.abort(ie);
+    }
+  }
+
+  /** Worker that applies segmentation to each document. */
+  class SegmentWorker implements Runnable {
+    MetaMapLite instance;
+    AtomicInteger remaining;
+    SegmentWorker(MetaMapLite instance, AtomicInteger remaining) {
+      this.instance = instance;
+      this.remaining = remaining;
+    }
+    public void run() {
+      try {
+	DocumentWork work;
+	while ((work = take(segmentQueue, segmentStatistics)) != END_OF_INPUT) {
+	  long start = System.nanoTime();
+	  try {
+	    MetaMapLite.prepareDocument(work.document);
+	    work.segmentedPassageList = new ArrayList<BioCPassage>();
+	    for (BioCPassage passage: work.document.getPassages()) {
+	      work.segmentedPassageList.add(this.instance.segmentPassage(passage));
+	    }
+	  } catch (Exception e) {
+	    recordFailure(work, e);
+	  }
+	  segmentStatistics.busyNanos.addAndGet(System.nanoTime() - start);
+	  segmentStatistics.documentCount.incrementAndGet();
+	  put(lookupQueue, work, segmentStatistics);
+	}
+      } catch (Throwable t) {
+	abort(t);
+      } finally {
+	// last segment worker to finish tells each lookup worker to stop.
+	if (this.remaining.decrementAndGet() == 0) {
+	  putEndOfInput(lookupQueue, lookupWorkerCount, segmentStatistics);
+	}
+      }
+    }
+  }
+
+  /** Worker that finds entities in each segmented document. */
+  class LookupWorker implements Runnable {
+    MetaMapLite instance;
+    AtomicInteger remaining;
+    LookupWorker(MetaMapLite instance, AtomicInteger remaining) {
+      this.instance = instance;
+      this.remaining = remaining;
+    }
+    public void run() {
+      try {
+	DocumentWork work;
+	while ((work = take(lookupQueue, lookupStatistics)) != END_OF_INPUT) {
+	  long start = System.nanoTime();
+	  if (work.failure == null) {
+	    try {
+	      work.entityList = new ArrayList<Entity>();
+	      this.instance.startDocument(work.document.getID());
+	      try {
+		for (BioCPassage passage: work.segmentedPassageList) {
+		  work.entityList.addAll(this.instance.lookupPassage(passage));
+		}
+	      } finally {
+		this.instance.endDocument();
+	      }
+	    } catch (Exception e) {
+	      recordFailure(work, e);
+	    }
+	  }
+	  work.segmentedPassageList = null;
+	  lookupStatistics.busyNanos.addAndGet(System.nanoTime() - start);
+	  lookupStatistics.documentCount.incrementAndGet();
+	  put(formatQueue, work, lookupStatistics);
+	}
+      } catch (Throwable t) {
+	abort(t);
+      } finally {
+	if (this.remaining.decrementAndGet() == 0) {
+	  putEndOfInput(formatQueue, 1, lookupStatistics);
+	}
+      }
+    }
+  }
+
+  /** Single worker that writes results in input order. */
+  class FormatWorker implements Runnable {
+    ResultFormatter formatter;
+    PrintWriter pw;
+    FormatWorker(ResultFormatter formatter, PrintWriter pw) {
+      this.formatter = formatter;
+      this.pw = pw;
+    }
+    public void run() {
+      // documents can arrive out of order from the lookup workers,
+      // hold them until their predecessors have been written.
+      Map<Integer,DocumentWork> pendingMap = new TreeMap<Integer,DocumentWork>();
+      int nextSequenceNumber = 0;
+      try {
+	DocumentWork work;
+	while ((work = take(formatQueue, formatStatistics)) != END_OF_INPUT) {
+	  pendingMap.put(work.sequenceNumber, work);
+	  while (pendingMap.containsKey(nextSequenceNumber)) {
+	    DocumentWork current = pendingMap.remove(nextSequenceNumber);
+	    long start = System.nanoTime();
+	    long metricsStart = Metrics.start();
+	    if (current.failure == null) {
+	      try {
+		this.formatter.entityListFormatter(this.pw, current.entityList);
+	      } catch (RuntimeException re) {
+		recordFailure(current, re);
+	      }
+	    }
+	    formatStatistics.busyNanos.addAndGet(System.nanoTime() - start);
+	    formatStatistics.documentCount.incrementAndGet();
+	    Metrics.stop("format", metricsStart);
+	    Metrics.recordDocument(current.document.getID(), current.startNanos);
+	    nextSequenceNumber++;
+	  }
+	}
+      } catch (Throwable t) {
+	abort(t);
+      } finally {
+	this.pw.flush();
+      }
+    }
+  }
+
+  /**
+   * Current depth of each inter-stage queue.
+   * @return queue depth report string
+   */
+  public String queueDepths() {
+    return "queue depths: segment: " + this.segmentQueue.size() +
+      ", lookup: " + this.lookupQueue.size() +
+      ", format: " + this.formatQueue.size() +
+      " (capacity: " + this.queueCapacity + ")";
+  }
+
+  /**
+   * @return per stage statistics, one string per stage
+   */
+  public List<String> listStatistics() {
+    List<String> statisticsList = new ArrayList<String>();
+    statisticsList.add(this.readStatistics.toString());
+    statisticsList.add(this.segmentStatistics.toString());
+    statisticsList.add(this.lookupStatistics.toString());
+    statisticsList.add(this.formatStatistics.toString());
+    return statisticsList;
+  }
+
+  /**
+   * Process documents from iterator writing results to supplied
+   * writer using formatter.  The calling thread feeds the segment
+   * stage and blocks when the segment queue is full.
+   * @param documentIterator source of documents
+   * @param formatter result formatter used by format stage
+   * @param pw output writer
+   * @throws Exception first exception thrown while processing any
+   *         document; if a stage fails outright or the input can't be
+   *         read, the remaining workers are interrupted and that
+   *         failure is thrown.
+   */
+  public void process(Iterator<BioCDocument> documentIterator,
+		      ResultFormatter formatter,
+		      PrintWriter pw)
+    throws Exception
+  {
+    this.segmentQueue = new ArrayBlockingQueue<DocumentWork>(this.queueCapacity);
+    this.lookupQueue = new ArrayBlockingQueue<DocumentWork>(this.queueCapacity);
+    this.formatQueue = new ArrayBlockingQueue<DocumentWork>(this.queueCapacity);
+    this.readStatistics = new StageStatistics("read", 1);
+    this.segmentStatistics = new StageStatistics("segment", this.segmentWorkerCount);
+    this.lookupStatistics = new StageStatistics("lookup", this.lookupWorkerCount);
+    this.formatStatistics = new StageStatistics("format", 1);
+
+    this.firstFailure.set(null);
+    this.aborted = false;
+    this.readThread = Thread.currentThread();
+    this.threadList = new ArrayList<Thread>();
+    List<Thread> threadList = this.threadList;
+    AtomicInteger remainingSegmentWorkers = new AtomicInteger(this.segmentWorkerCount);
+    for (int i = 0; i < this.segmentWorkerCount; i++) {
+      MetaMapLite instance = new MetaMapLite(this.properties);
+      threadList.add(new Thread(new SegmentWorker(instance, remainingSegmentWorkers),
+				"metamaplite-segment-" + i));
+    }
+    AtomicInteger remainingLookupWorkers = new AtomicInteger(this.lookupWorkerCount);
+    for (int i = 0; i < this.lookupWorkerCount; i++) {
+      MetaMapLite instance = new MetaMapLite(this.properties);
+      instance.initEntityLookup();
+      threadList.add(new Thread(new LookupWorker(instance, remainingLookupWorkers),
+				"metamaplite-lookup-" + i));
+    }
+    Thread formatThread = new Thread(new FormatWorker(formatter, pw), "metamaplite-format");
+    threadList.add(formatThread);
+    ScheduledExecutorService reporter = null;
+    try {
+      for (Thread thread: threadList) {
+	thread.start();
+      }
+      if (this.reportInterval > 0) {
+	reporter = Executors.newSingleThreadScheduledExecutor();
+	reporter.scheduleAtFixedRate(new Runnable() {
+	    public void run() {
+	      logger.info(queueDepths());
+	    }
+	  }, this.reportInterval, this.reportInterval, TimeUnit.SECONDS);
+      }
+
+      try {
+	int sequenceNumber = 0;
+	while ((! this.aborted) && documentIterator.hasNext()) {
+	  put(this.segmentQueue, new DocumentWork(sequenceNumber, documentIterator.next()),
+	      this.readStatistics);
+	  this.readStatistics.documentCount.incrementAndGet();
+	  sequenceNumber++;
+	}
+      } catch (Throwable t) {
+	this.abort(t);
+      } finally {
+	this.putEndOfInput(this.segmentQueue, this.segmentWorkerCount, this.readStatistics);
+      }
+      for (Thread thread: threadList) {
+	while (thread.isAlive()) {
+	  try {
+	    thread.join();
+	  } catch (InterruptedException ie) {
+	    this.abort(ie);
+	  }
+	}
+      }
+    } finally {
+      if (reporter != null) {
+	reporter.shutdownNow();
+      }
+    }
+    if (this.aborted) {
+      // clear interrupt posted to this thread by abort
+      Thread.interrupted();
+    }
+    for (String statistics: this.listStatistics()) {
+      logger.info(statistics);
+    }
+    Throwable failure = this.firstFailure.get();
+    if (failure instanceof Error) {
+      throw (Error)failure;
+    } else if (failure != null) {
+      throw (Exception)failure;
+    }
+  }
+}
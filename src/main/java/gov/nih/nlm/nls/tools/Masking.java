@@ -1,14 +1,31 @@
 package gov.nih.nlm.nls.tools;
 
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Properties;
+import gov.nih.nlm.nls.metamap.prefix.Token;
 import gov.nih.nlm.nls.metamap.prefix.Tokenize;
-import gov.nih.nlm.nls.metamap.prefix.TokenListMatch;
 
 /**
- * Describe class Masking here.
- *
+ * Mask terms in text by replacing their word characters with 'X'.
+ * <p>
+ * The terms to be masked are compiled into a token trie
+ * (TokenBasedTrie) and text is masked in one left-to-right pass over
+ * its tokens, taking the longest term starting at each token, so the
+ * cost of masking does not depend on the number of terms.  Masking
+ * keeps the length of the text, so offsets are not changed.
+ * <p>
+ * Properties:
+ * <dl>
+ * <dt>metamaplite.masking.enable</dt><dd>mask terms in sentences before lookup (default: false)</dd>
+ * <dt>metamaplite.masking.termfile</dt><dd>file of terms to mask, one per line (default: troublesomeList)</dd>
+ * </dl>
  *
  * Created: Thu Feb 21 08:59:09 2013
  *
@@ -33,6 +50,115 @@ public class Masking {
     }
   }
 
+  /** masking of troublesome terms */
+  static Masking troublesomeMasking = new Masking(Arrays.asList(troublesomeList));
+
+  /** trie of lowercase term tokens, including white space tokens */
+  TokenBasedTrie trie = new TokenBasedTrie();
+  int termCount = 0;
+
+  /**
+   * @param termList terms to be masked
+   */
+  public Masking(Collection<String> termList) {
+    for (String term: termList) {
+      this.addTerm(term);
+    }
+  }
+
+  /**
+   * Create masking from terms in file specified by
+   * metamaplite.masking.termfile, or troublesome terms if not
+   * specified.
+   * @param properties configuration properties
+   * @throws IOException i/o exception
+   */
+  public Masking(Properties properties)
+    throws IOException
+  {
+    String termFilename = properties.getProperty("metamaplite.masking.termfile");
+    if (termFilename == null) {
+      for (String term: troublesomeList) {
+	this.addTerm(term);
+      }
+    } else {
+      BufferedReader br = new BufferedReader(new FileReader(termFilename));
+      String line;
+      while ((line = br.readLine()) != null) {
+	if ((line.trim().length() > 0) && (! line.startsWith("#"))) {
+	  this.addTerm(line.trim());
+	}
+      }
+      br.close();
+    }
+  }
+
+  /**
+   * Add term to be masked, matching is case insensitive.
+   * @param term term
+   */
+  public void addTerm(String term) {
+    List<Token> tokenList = Tokenize.mmPosTokenize(term.toLowerCase(), Tokenize.KEEP_WHITE_SPACE);
+    Iterator<Token> iterator = tokenList.iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().getText().length() == 0) {
+	iterator.remove();
+      }
+    }
+    if (tokenList.size() > 0) {
+      this.trie.insert(tokenList);
+      this.termCount++;
+    }
+  }
+
+  /** @return number of terms added */
+  public int getTermCount() {
+    return this.termCount;
+  }
+
+  static boolean isWordChar(char c) {
+    return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) ||
+      ((c >= '0') && (c <= '9')) || (c == '_');
+  }
+
+  /**
+   * Mask terms in text.
+   * <p>
+   * Tokenize input text while preserving white space tokens and
+   * replace word characters of the longest term starting at each
+   * token with 'X'.
+   *
+   * @param inText text to be processed.
+   * @return text with terms X'ed out, inText if no term was found.
+   */
+  public String mask(String inText)
+  {
+    String[] inTokens = Tokenize.mmTokenize(inText, Tokenize.KEEP_WHITE_SPACE);
+    char[] outChars = null;
+    int position = 0;
+    int i = 0;
+    while (i < inTokens.length) {
+      int tokenCount = this.trie.longestMatch(inTokens, i, true);
+      if (tokenCount > 0) {
+	if (outChars == null) {
+	  outChars = inText.toCharArray();
+	}
+	for (int j = i; j < i + tokenCount; j++) {
+	  for (int k = 0; k < inTokens[j].length(); k++) {
+	    if (isWordChar(outChars[position])) {
+	      outChars[position] = 'X';
+	    }
+	    position++;
+	  }
+	}
+	i += tokenCount;
+      } else {
+	position += inTokens[i].length();
+	i++;
+      }
+    }
+    return (outChars == null) ? inText : new String(outChars);
+  }
 
   /**
    * Mask troublesome terms.
@@ -46,28 +172,7 @@ public class Masking {
    */
   public static String maskTroublesome(String inText)
   {
-    StringBuilder sb = new StringBuilder();
-    String[] inTokens = Tokenize.mmTokenize(inText, Tokenize.KEEP_WHITE_SPACE);
-    int i = 0;
-    while (i < inTokens.length){
-      int tokenCount = 1;
-      String outString = inTokens[i];
-      // traverse troublesome list
-      for (String[] troublesomeTokenArray: troublesomeTokenArrayList) {
-	if ((i+troublesomeTokenArray.length) <= inTokens.length) {
-	  String[] slice =
-	    Arrays.copyOfRange(inTokens, i, i+troublesomeTokenArray.length);
-	  if (TokenListMatch.tokenMatch(slice, troublesomeTokenArray, false)) {
-	    tokenCount = troublesomeTokenArray.length;
-	    outString = Tokenize.getTextFromTokenList(slice).replaceAll("\\w","X");
-	    break;
-	  } // if 
-	} // if 
-      } // for
-      i += tokenCount;
-      sb.append(outString);
-    }
-    return sb.toString();
+    return troublesomeMasking.mask(inText);
   }
 
   /**
@@ -37,4 +37,29 @@ public class TokenBasedTrie implements Serializable {
   public void insert(List<Token> tokenList) {
     r.insert(tokenList);
   }
+
+  /**
+   * Find longest token sequence in trie starting at position start
+   * of token array.
+   * @param tokenArray array of token strings
+   * @param start position of first token
+   * @param foldCase if true, lowercase tokens before matching (trie
+   *                 must have been built from lowercase tokens).
+   * @return number of tokens in longest matching sequence, 0 if no sequence matches.
+   */
+  public int longestMatch(String[] tokenArray, int start, boolean foldCase) {
+    int matchLength = 0;
+    TrieNode node = r;
+    for (int i = start; i < tokenArray.length; i++) {
+      String key = foldCase ? tokenArray[i].toLowerCase() : tokenArray[i];
+      node = ((ListTrieNode)node).childMap.get(key);
+      if (node == null) {
+	break;
+      }
+      if (node.getEndFlag()) {
+	matchLength = i - start + 1;
+      }
+    }
+    return matchLength;
+  }
 }
@@ -0,0 +1,291 @@
+//
+package irutils;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Convert a version 1 multi-key index (fixed width term dictionary
+ * records, fixed width extents, uncompressed postings) into the
+ * version 2 (compact) format read by CompactMultiKeyIndex.
+ * <p>
+ * Version 2 index directory:
+ * <dl>
+ * <dt>format.txt</dt>
+ * <dd>version|2, indexname, blocksize (terms per block) and postings (none or lz4)</dd>
+ * <dt>{indexname}-{column}-{termlength}-term-blocks</dt>
+ * <dd>front-coded blocks of terms: for each term the varint length
+ *     of the prefix shared with the previous term in the block
+ *     (0 for the first term), the varint length of the suffix, the
+ *     suffix, the varint number of postings and, for each posting, the
+ *     zigzag varint difference of its start from the previous start
+ *     and its varint length.</dd>
+ * <dt>{indexname}-{column}-{termlength}-term-index</dt>
+ * <dd>number of terms, number of blocks, and the first term and
+ *     offset of each block.</dd>
+ * <dt>{indexname}-{column}-{termlength}-term-dictionary-stats.txt</dt>
+ * <dd>statistics as in version 1 with format|2 added.</dd>
+ * <dt>postings</dt>
+ * <dd>the version 1 postings, or the postings compressed in blocks of
+ *     64KB using LZ4BlockCodec.</dd>
+ * <dt>postings-blocks</dt>
+ * <dd>(compressed only) uncompressed block size, postings length,
+ *     number of blocks, and the offset and compressed length of each block.</dd>
+ * </dl>
+ * Extents refer to positions in the uncompressed postings, so they are
+ * the same as in the version 1 index.
+ * <p>
+ * usage: CompactIndexWriter [--compress] [--blocksize=n] {v1indexdir} {v2indexdir}
+ */
+public class CompactIndexWriter {
+  public static final int DEFAULT_BLOCK_SIZE = 16;
+  public static final int POSTINGS_BLOCK_SIZE = 65536;
+
+  static void writeVarLong(OutputStream out, long value) throws IOException {
+    while ((value & ~0x7fL) != 0) {
+      out.write((int)((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int)value);
+  }
+
+  static int sharedPrefixLength(byte[] a, byte[] b) {
+    int n = Math.min(a.length, b.length);
+    int i = 0;
+    while ((i < n) && (a[i] == b[i])) {
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * Convert one partition.
+   * @param v1IndexDir version 1 index directory
+   * @param v2IndexDir version 2 index directory
+   * @param indexname name of index
+   * @param column column of partition
+   * @param termLength term length of partition
+   * @param blockSize number of terms per block
+   * @throws IOException i/o exception
+   */
+  static void convertPartition(String v1IndexDir, String v2IndexDir, String indexname,
+			       String column, String termLength, int blockSize)
+    throws IOException
+  {
+    String v1Prefix = v1IndexDir + "/" + indexname + "-" + column + "-" + termLength;
+    String v2Prefix = v2IndexDir + "/" + indexname + "-" + column + "-" + termLength;
+    Map<String,String> statsMap = MappedMultiKeyIndex.readStatsFile(v1Prefix + "-term-dictionary-stats.txt");
+    int recordnum = Integer.parseInt(statsMap.get("recordnum"));
+    int datalength = Integer.parseInt(statsMap.get("datalength"));
+    int reclength = Integer.parseInt(statsMap.get("reclength"));
+    MappedByteBuffer dictionary = CompactMultiKeyIndex.map(new File(v1Prefix + "-term-dictionary"));
+    MappedByteBuffer extents = CompactMultiKeyIndex.map(new File(v1Prefix + "-postings-offsets"));
+
+    OutputStream blocksOut = new BufferedOutputStream(new FileOutputStream(v2Prefix + "-term-blocks"), 65536);
+    List<byte[]> firstTermList = new ArrayList<byte[]>();
+    List<Integer> blockStartList = new ArrayList<Integer>();
+    ByteArrayOutputStream block = new ByteArrayOutputStream();
+    int blockStart = 0;
+    byte[] previous = null;
+    try {
+      for (int record = 0; record < recordnum; record++) {
+	int recordStart = record * reclength;
+	byte[] termBytes = new byte[reclength - datalength];
+	dictionary.position(recordStart);
+	dictionary.get(termBytes);
+	long count = dictionary.getLong();
+	long address = dictionary.getLong();
+	if ((record % blockSize) == 0) {
+	  if (block.size() > 0) {
+	    block.writeTo(blocksOut);
+	    blockStart += block.size();
+	    block.reset();
+	  }
+	  firstTermList.add(termBytes);
+	  blockStartList.add(blockStart);
+	  previous = null;
+	}
+	int shared = (previous == null) ? 0 : sharedPrefixLength(previous, termBytes);
+	writeVarLong(block, shared);
+	writeVarLong(block, termBytes.length - shared);
+	block.write(termBytes, shared, termBytes.length - shared);
+	writeVarLong(block, count);
+	long previousStart = 0;
+	for (long i = 0; i < count; i++) {
+	  int extentAddress = (int)(address + (i * 16));
+	  long start = extents.getLong(extentAddress);
+	  long length = extents.getLong(extentAddress + 8);
+	  long delta = start - previousStart;
+	  writeVarLong(block, (delta << 1) ^ (delta >> 63)); // zigzag
+	  writeVarLong(block, length);
+	  previousStart = start;
+	}
+	previous = termBytes;
+      }
+      block.writeTo(blocksOut);
+    } finally {
+      blocksOut.close();
+    }
+
+    DataOutputStream indexOut =
+      new DataOutputStream(new BufferedOutputStream(new FileOutputStream(v2Prefix + "-term-index")));
+    try {
+      indexOut.writeInt(recordnum);
+      indexOut.writeInt(firstTermList.size());
+      for (int i = 0; i < firstTermList.size(); i++) {
+	indexOut.writeInt(firstTermList.get(i).length);
+	indexOut.write(firstTermList.get(i));
+	indexOut.writeInt(blockStartList.get(i));
+      }
+    } finally {
+      indexOut.close();
+    }
+
+    BufferedWriter bw = new BufferedWriter(new FileWriter(v2Prefix + "-term-dictionary-stats.txt"));
+    bw.write("format|2\n");
+    bw.write("termlength|" + termLength + "\n");
+    bw.write("reclength|"  + reclength + "\n");
+    bw.write("datalength|" + datalength + "\n");
+    bw.write("recordnum|"  + recordnum + "\n");
+    bw.write("blocksize|"  + blockSize + "\n");
+    bw.write("blockcount|" + firstTermList.size() + "\n");
+    bw.close();
+  }
+
+  /**
+   * Write postings compressed in blocks.
+   * @param v1IndexDir version 1 index directory
+   * @param v2IndexDir version 2 index directory
+   * @throws IOException i/o exception
+   */
+  static void compressPostings(String v1IndexDir, String v2IndexDir)
+    throws IOException
+  {
+    File postingsFile = new File(v1IndexDir + "/postings");
+    List<Long> offsetList = new ArrayList<Long>();
+    List<Integer> lengthList = new ArrayList<Integer>();
+    InputStream in = new FileInputStream(postingsFile);
+    OutputStream out = new BufferedOutputStream(new FileOutputStream(v2IndexDir + "/postings"), 65536);
+    long offset = 0;
+    try {
+      byte[] buf = new byte[POSTINGS_BLOCK_SIZE];
+      int n;
+      while ((n = readBlock(in, buf)) > 0) {
+	byte[] compressed = LZ4BlockCodec.compress(buf, 0, n);
+	out.write(compressed);
+	offsetList.add(offset);
+	lengthList.add(compressed.length);
+	offset += compressed.length;
+      }
+    } finally {
+      out.close();
+      in.close();
+    }
+    DataOutputStream blocksOut =
+      new DataOutputStream(new BufferedOutputStream(new FileOutputStream(v2IndexDir + "/postings-blocks")));
+    try {
+      blocksOut.writeInt(POSTINGS_BLOCK_SIZE);
+      blocksOut.writeLong(postingsFile.length());
+      blocksOut.writeInt(offsetList.size());
+      for (int i = 0; i < offsetList.size(); i++) {
+	blocksOut.writeLong(offsetList.get(i));
+	blocksOut.writeInt(lengthList.get(i));
+      }
+    } finally {
+      blocksOut.close();
+    }
+    System.out.println("postings: " + postingsFile.length() + " bytes compressed to " + offset + " bytes.");
+  }
+
+  /** fill buffer from stream, returns number of bytes read (0 at end of stream) */
+  static int readBlock(InputStream in, byte[] buf) throws IOException {
+    int total = 0;
+    int n;
+    while ((total < buf.length) && ((n = in.read(buf, total, buf.length - total)) > 0)) {
+      total += n;
+    }
+    return total;
+  }
+
+  /**
+   * Convert version 1 index to version 2 index.
+   * @param v1IndexDir version 1 index directory
+   * @param v2IndexDir version 2 index directory (created if not present)
+   * @param compress if true, compress postings
+   * @param blockSize number of terms per block
+   * @throws IOException i/o exception
+   */
+  public static void convert(String v1IndexDir, String v2IndexDir, boolean compress, int blockSize)
+    throws IOException
+  {
+    File v1Dir = new File(v1IndexDir);
+    String indexname = v1Dir.getName();
+    new File(v2IndexDir).mkdirs();
+    String statsSuffix = "-term-dictionary-stats.txt";
+    int partitionCount = 0;
+    for (String filename: v1Dir.list()) {
+      if (filename.startsWith(indexname + "-") && filename.endsWith(statsSuffix)) {
+	String[] fields = filename.substring(indexname.length() + 1,
+					     filename.length() - statsSuffix.length()).split("-");
+	convertPartition(v1IndexDir, v2IndexDir, indexname, fields[0], fields[1], blockSize);
+	partitionCount++;
+      }
+    }
+    if (compress) {
+      compressPostings(v1IndexDir, v2IndexDir);
+    } else {
+      Files.copy(new File(v1IndexDir + "/postings").toPath(), new File(v2IndexDir + "/postings").toPath(),
+		 StandardCopyOption.REPLACE_EXISTING);
+    }
+    // written last: marks directory as a complete version 2 index
+    BufferedWriter bw = new BufferedWriter(new FileWriter(v2IndexDir + "/" + CompactMultiKeyIndex.FORMAT_FILENAME));
+    bw.write("version|2\n");
+    bw.write("indexname|" + indexname + "\n");
+    bw.write("blocksize|" + blockSize + "\n");
+    bw.write("postings|" + (compress ? "lz4" : "none") + "\n");
+    bw.close();
+    System.out.println("converted " + partitionCount + " partitions of " + v1IndexDir + " to " + v2IndexDir + ".");
+  }
+
+  /**
+   * main program
+   * @param args command line arguments
+   * @throws IOException i/o exception
+   */
+  public static void main(String[] args)
+    throws IOException
+  {
+    boolean compress = false;
+    int blockSize = DEFAULT_BLOCK_SIZE;
+    List<String> argList = new ArrayList<String>();
+    for (String arg: args) {
+      if (arg.equals("--compress")) {
+	compress = true;
+      } else if (arg.startsWith("--blocksize=")) {
+	blockSize = Integer.parseInt(arg.substring("--blocksize=".length()));
+      } else {
+	argList.add(arg);
+      }
+    }
+    if (argList.size() > 1) {
+      convert(argList.get(0), argList.get(1), compress, blockSize);
+    } else {
+      System.err.println("usage: irutils.CompactIndexWriter [--compress] [--blocksize=n] <v1indexdir> <v2indexdir>");
+    }
+  }
+}
@@ -0,0 +1,401 @@
+//
+package irutils;
+
+import java.io.DataInputStream;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reader for version 2 (compact) multi-key indexes, see
+ * CompactIndexWriter for the writer and a description of the files.
+ * <p>
+ * Each partition (column, term length) consists of a file of
+ * front-coded term blocks, each term followed by its varint encoded
+ * postings extents, and a sparse block index (first term and offset
+ * of each block) that is kept in memory.  A lookup binary searches
+ * the block index and scans one block.
+ * <p>
+ * Postings are either stored as in version 1 or compressed in blocks
+ * (LZ4BlockCodec); decompressed blocks are kept in a small LRU cache
+ * whose size is set by the system property
+ * irutils.postings.block.cache.size (default: 64 blocks).
+ * <p>
+ * Lookups do not change the position of shared buffers and may be
+ * performed by several threads.
+ */
+public class CompactMultiKeyIndex {
+  public static final String FORMAT_FILENAME = "format.txt";
+
+  String indexDirectoryName;
+  String indexname;
+  int blockSize;
+  boolean compressed;
+  /** postings, compressed or not */
+  MappedByteBuffer postingsBuffer;
+  /** uncompressed size of postings blocks */
+  int postingsBlockSize;
+  /** offset of each compressed postings block */
+  long[] postingsBlockOffsets;
+  /** compressed length of each postings block */
+  int[] postingsBlockLengths;
+  long postingsLength;
+  /** partition key -&gt; partition (null if partition is not present) */
+  Map<String,Partition> partitionMap = new HashMap<String,Partition>();
+  /** decompressed postings blocks, block number -&gt; data */
+  Map<Integer,byte[]> blockCache;
+  long blockCacheHits = 0;
+  long blockCacheMisses = 0;
+
+  /** one column, term length partition */
+  static class Partition {
+    int termLength;
+    int recordnum;
+    /** first term of each block */
+    String[] firstTerms;
+    /** offset of each block in term blocks buffer */
+    int[] blockStarts;
+    MappedByteBuffer termBlocks;
+  }
+
+  /**
+   * @param indexDirectoryName directory of index
+   * @return true if directory contains a version 2 index
+   */
+  public static boolean isCompact(String indexDirectoryName) {
+    return new File(indexDirectoryName, FORMAT_FILENAME).exists();
+  }
+
+  /**
+   * Open index.
+   * @param indexDirectoryName name of directory containing index.
+   * @throws FileNotFoundException file not found exception
+   * @throws IOException i/o exception
+   */
+  public CompactMultiKeyIndex(String indexDirectoryName)
+    throws FileNotFoundException, IOException
+  {
+    this.indexDirectoryName = indexDirectoryName;
+    Map<String,String> formatMap =
+      MappedMultiKeyIndex.readStatsFile(indexDirectoryName + "/" + FORMAT_FILENAME);
+    if (! "2".equals(formatMap.get("version"))) {
+      throw new IOException("unsupported index format version " + formatMap.get("version") +
+			    " in " + indexDirectoryName);
+    }
+    this.indexname = formatMap.get("indexname");
+    this.blockSize = Integer.parseInt(formatMap.get("blocksize"));
+    this.compressed = "lz4".equals(formatMap.get("postings"));
+    this.postingsBuffer = map(new File(indexDirectoryName + "/postings"));
+    if (this.compressed) {
+      this.readPostingsBlockIndex(indexDirectoryName + "/postings-blocks");
+      final int cacheSize = Integer.parseInt(System.getProperty("irutils.postings.block.cache.size", "64"));
+      this.blockCache = new LinkedHashMap<Integer,byte[]>(cacheSize, 0.75f, true) {
+	  protected boolean removeEldestEntry(Map.Entry<Integer,byte[]> eldest) {
+	    return size() > cacheSize;
+	  }
+	};
+    }
+  }
+
+  static MappedByteBuffer map(File file)
+    throws IOException
+  {
+    FileInputStream inputStream = new FileInputStream(file);
+    try {
+      FileChannel fileChannel = inputStream.getChannel();
+      return fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  void readPostingsBlockIndex(String filename)
+    throws IOException
+  {
+    DataInputStream in =
+      new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+    try {
+      this.postingsBlockSize = in.readInt();
+      this.postingsLength = in.readLong();
+      int blockCount = in.readInt();
+      this.postingsBlockOffsets = new long[blockCount];
+      this.postingsBlockLengths = new int[blockCount];
+      for (int i = 0; i < blockCount; i++) {
+	this.postingsBlockOffsets[i] = in.readLong();
+	this.postingsBlockLengths[i] = in.readInt();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  String partitionPath(int column, int termLength, String suffix) {
+    return this.indexDirectoryName + "/" + this.indexname + "-" + column + "-" + termLength + suffix;
+  }
+
+  /**
+   * Get partition, loading its block index on first use.
+   * @param column table column
+   * @param termLength length of term
+   * @return partition or null if not present.
+   * @throws IOException i/o exception
+   */
+  synchronized Partition getPartition(int column, int termLength)
+    throws IOException
+  {
+    String partitionKey = column + "|" + termLength;
+    if (this.partitionMap.containsKey(partitionKey)) {
+      return this.partitionMap.get(partitionKey);
+    }
+    Partition partition = null;
+    File termBlocksFile = new File(this.partitionPath(column, termLength, "-term-blocks"));
+    if (termBlocksFile.exists()) {
+      partition = new Partition();
+      partition.termLength = termLength;
+      partition.termBlocks = map(termBlocksFile);
+      DataInputStream in =
+	new DataInputStream
+	(new BufferedInputStream
+	 (new FileInputStream(this.partitionPath(column, termLength, "-term-index"))));
+      try {
+	partition.recordnum = in.readInt();
+	int blockCount = in.readInt();
+	partition.firstTerms = new String[blockCount];
+	partition.blockStarts = new int[blockCount];
+	for (int i = 0; i < blockCount; i++) {
+	  byte[] termBytes = new byte[in.readInt()];
+	  in.readFully(termBytes);
+	  partition.firstTerms[i] = new String(termBytes);
+	  partition.blockStarts[i] = in.readInt();
+	}
+      } finally {
+	in.close();
+      }
+    }
+    this.partitionMap.put(partitionKey, partition);
+    return partition;
+  }
+
+  /**
+   * Open partition and load its term blocks into physical memory.
+   * @param column table column
+   * @param termLength length of term
+   * @return number of bytes loaded
+   * @throws IOException i/o exception
+   */
+  public long preloadPartition(int column, int termLength)
+    throws IOException
+  {
+    Partition partition = this.getPartition(column, termLength);
+    if (partition == null) {
+      return 0;
+    }
+    partition.termBlocks.load();
+    return partition.termBlocks.capacity();
+  }
+
+  /**
+   * Read unsigned varint.
+   * @param buffer buffer positioned at varint
+   * @return value
+   */
+  static long readVarLong(ByteBuffer buffer) {
+    long value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = buffer.get();
+      value |= ((long)(b & 0x7f)) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+
+  /**
+   * Find extents of term in partition.
+   * @param partition partition
+   * @param word term (lowercase)
+   * @return array of start, length pairs or null if term is not present.
+   */
+  static long[] findExtents(Partition partition, String word) {
+    String[] firstTerms = partition.firstTerms;
+    // last block with first term less than or equal to word
+    int low = 0;
+    int high = firstTerms.length - 1;
+    int block = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cond = word.compareTo(firstTerms[mid]);
+      if (cond < 0) {
+	high = mid - 1;
+      } else {
+	block = mid;
+	if (cond == 0) {
+	  break;
+	}
+	low = mid + 1;
+      }
+    }
+    if (block < 0) {
+      return null;
+    }
+    ByteBuffer buffer = partition.termBlocks.duplicate();
+    buffer.position(partition.blockStarts[block]);
+    int blockEnd = (block + 1 < partition.blockStarts.length) ?
+      partition.blockStarts[block + 1] : buffer.limit();
+    byte[] termBytes = new byte[0];
+    while (buffer.position() < blockEnd) {
+      int shared = (int)readVarLong(buffer);
+      int suffixLength = (int)readVarLong(buffer);
+      byte[] newTermBytes = new byte[shared + suffixLength];
+      System.arraycopy(termBytes, 0, newTermBytes, 0, shared);
+      buffer.get(newTermBytes, shared, suffixLength);
+      termBytes = newTermBytes;
+      int count = (int)readVarLong(buffer);
+      int cond = word.compareTo(new String(termBytes));
+      if (cond == 0) {
+	long[] extents = new long[count * 2];
+	long start = 0;
+	for (int i = 0; i < count; i++) {
+	  long delta = readVarLong(buffer);
+	  start += (delta >>> 1) ^ -(delta & 1); // zigzag
+	  extents[i * 2] = start;
+	  extents[i * 2 + 1] = readVarLong(buffer);
+	}
+	return extents;
+      } else if (cond < 0) {
+	return null;
+      }
+      for (int i = 0; i < count * 2; i++) {
+	readVarLong(buffer);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get decompressed postings block.
+   * @param blockNumber number of block
+   * @return block data
+   */
+  byte[] getPostingsBlock(int blockNumber) {
+    synchronized (this.blockCache) {
+      byte[] block = this.blockCache.get(blockNumber);
+      if (block != null) {
+	this.blockCacheHits++;
+	return block;
+      }
+    }
+    byte[] compressedBlock = new byte[this.postingsBlockLengths[blockNumber]];
+    ByteBuffer buffer = this.postingsBuffer.duplicate();
+    buffer.position((int)this.postingsBlockOffsets[blockNumber]);
+    buffer.get(compressedBlock);
+    long blockStart = (long)blockNumber * this.postingsBlockSize;
+    byte[] block = new byte[(int)Math.min(this.postingsBlockSize, this.postingsLength - blockStart)];
+    LZ4BlockCodec.decompress(compressedBlock, 0, compressedBlock.length, block);
+    synchronized (this.blockCache) {
+      this.blockCacheMisses++;
+      this.blockCache.put(blockNumber, block);
+    }
+    return block;
+  }
+
+  /**
+   * Read posting.
+   * @param start start of posting in (uncompressed) postings
+   * @param length length of posting
+   * @return posting
+   */
+  String readPosting(long start, int length) {
+    byte[] buf = new byte[length];
+    if (this.compressed) {
+      int copied = 0;
+      while (copied < length) {
+	long position = start + copied;
+	int blockNumber = (int)(position / this.postingsBlockSize);
+	int blockOffset = (int)(position % this.postingsBlockSize);
+	byte[] block = this.getPostingsBlock(blockNumber);
+	int n = Math.min(length - copied, block.length - blockOffset);
+	System.arraycopy(block, blockOffset, buf, copied, n);
+	copied += n;
+      }
+    } else {
+      ByteBuffer buffer = this.postingsBuffer.duplicate();
+      buffer.position((int)start);
+      buffer.get(buf);
+    }
+    return new String(buf);
+  }
+
+  /**
+   * Lookup term in index for specified table column.
+   * @param term search term
+   * @param column table column index to use
+   * @return list of results matching term.
+   * @throws IOException i/o exception
+   */
+  public List<String> lookup(String term, int column)
+    throws IOException
+  {
+    return this.lookupWord(term.toLowerCase(), column);
+  }
+
+  /**
+   * Lookup term in index for specified table column without
+   * converting term to lowercase.
+   * @param word search term
+   * @param column table column index to use
+   * @return list of results matching term.
+   * @throws IOException i/o exception
+   */
+  public List<String> lookupWord(String word, int column)
+    throws IOException
+  {
+    List<String> resultList = new ArrayList<String>();
+    Partition partition = this.getPartition(column, word.length());
+    if (partition != null) {
+      long[] extents = findExtents(partition, word);
+      if (extents != null) {
+	for (int i = 0; i < extents.length; i += 2) {
+	  resultList.add(this.readPosting(extents[i], (int)extents[i + 1]));
+	}
+      }
+    }
+    return resultList;
+  }
+
+  /** @return true if postings are compressed */
+  public boolean isCompressed() {
+    return this.compressed;
+  }
+
+  /** @return number of postings block cache hits */
+  public long getBlockCacheHits() {
+    if (this.blockCache == null) {
+      return 0;
+    }
+    synchronized (this.blockCache) {
+      return this.blockCacheHits;
+    }
+  }
+
+  /** @return number of postings block cache misses */
+  public long getBlockCacheMisses() {
+    if (this.blockCache == null) {
+      return 0;
+    }
+    synchronized (this.blockCache) {
+      return this.blockCacheMisses;
+    }
+  }
+}
@@ -0,0 +1,340 @@
+//
+package irutils;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * In-memory index generation that identifies postings by row ordinal
+ * instead of by SHA-1 digest.
+ * <p>
+ * Identical table rows share one posting, as with the digest based
+ * MultiKeyIndexGeneration.  Duplicates are found using a 64-bit
+ * (non-cryptographic) hash of the row in an open addressing table of
+ * ordinals; rows with equal hashes are compared, so a hash collision
+ * never merges different rows.  Extents are kept in arrays indexed by
+ * ordinal and term dictionaries hold arrays of ordinals.
+ * <p>
+ * The files written (postings, term dictionaries, postings offsets
+ * and statistics) have the same layout as the ones written by
+ * MultiKeyIndexGeneration.  Postings are written in table order.
+ */
+public class HashedMultiKeyIndexGeneration {
+
+  /** growable list of posting ordinals */
+  static class OrdinalList {
+    int[] ordinals = new int[2];
+    int size = 0;
+    void add(int ordinal) {
+      if (this.size == this.ordinals.length) {
+	this.ordinals = Arrays.copyOf(this.ordinals, this.size * 2);
+      }
+      this.ordinals[this.size++] = ordinal;
+    }
+  }
+
+  /** unique posting rows, indexed by ordinal */
+  List<String> postingList = new ArrayList<String>();
+  /** hash of each posting row, indexed by ordinal */
+  long[] postingHashes = new long[1024];
+  /** open addressing table of ordinals (-1: empty) */
+  int[] slots;
+  int slotMask;
+  /** number of rows with the hash of a different row */
+  int collisionCount = 0;
+  /** start of each posting in postings file, indexed by ordinal */
+  long[] extentStarts;
+  /** length of each posting in postings file, indexed by ordinal */
+  long[] extentLengths;
+  /** column -&gt; termlength -&gt; term -&gt; ordinal list map */
+  Map<Integer,Map<Integer,Map<String,OrdinalList>>> columnLengthTermOrdinalMap;
+
+  public HashedMultiKeyIndexGeneration() {
+    this.slots = new int[4096];
+    Arrays.fill(this.slots, -1);
+    this.slotMask = this.slots.length - 1;
+  }
+
+  /**
+   * 64-bit FNV-1a hash of the characters of string followed by a
+   * finalization mix.
+   * @param value string to hash
+   * @return hash of string
+   */
+  public static long hash64(String value) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < value.length(); i++) {
+      hash ^= value.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    hash ^= (hash >>> 33);
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= (hash >>> 33);
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= (hash >>> 33);
+    return hash;
+  }
+
+  /**
+   * Add posting row if not already present.
+   * @param line posting row
+   * @return ordinal of posting
+   */
+  int addPosting(String line) {
+    long hash = hash64(line);
+    int slot = (int)hash & this.slotMask;
+    boolean collision = false;
+    while (this.slots[slot] >= 0) {
+      int ordinal = this.slots[slot];
+      if (this.postingHashes[ordinal] == hash) {
+	if (this.postingList.get(ordinal).equals(line)) {
+	  return ordinal;
+	}
+	collision = true;
+      }
+      slot = (slot + 1) & this.slotMask;
+    }
+    if (collision) {
+      this.collisionCount++;
+    }
+    int ordinal = this.postingList.size();
+    this.postingList.add(line);
+    if (ordinal == this.postingHashes.length) {
+      this.postingHashes = Arrays.copyOf(this.postingHashes, ordinal * 2);
+    }
+    this.postingHashes[ordinal] = hash;
+    this.slots[slot] = ordinal;
+    if ((this.postingList.size() * 2) > this.slots.length) {
+      this.rehash();
+    }
+    return ordinal;
+  }
+
+  /** double size of ordinal table */
+  void rehash() {
+    this.slots = new int[this.slots.length * 2];
+    Arrays.fill(this.slots, -1);
+    this.slotMask = this.slots.length - 1;
+    for (int ordinal = 0; ordinal < this.postingList.size(); ordinal++) {
+      int slot = (int)this.postingHashes[ordinal] & this.slotMask;
+      while (this.slots[slot] >= 0) {
+	slot = (slot + 1) & this.slotMask;
+      }
+      this.slots[slot] = ordinal;
+    }
+  }
+
+  /**
+   * Get field of pipe separated row, rows are split as by
+   * String.split("\\|").
+   * @param line row
+   * @param column field number
+   * @return field
+   */
+  static String field(String line, int column) {
+    int start = 0;
+    for (int i = 0; i < column; i++) {
+      int end = line.indexOf('|', start);
+      if (end < 0) {
+	throw new ArrayIndexOutOfBoundsException(column);
+      }
+      start = end + 1;
+    }
+    int end = line.indexOf('|', start);
+    if (end < 0) {
+      end = line.length();
+    }
+    if ((start == end) && (line.substring(start).replace("|", "").length() == 0)) {
+      // trailing empty fields are dropped by String.split
+      throw new ArrayIndexOutOfBoundsException(column);
+    }
+    return line.substring(start, end);
+  }
+
+  /**
+   * Add row to in-memory term dictionaries.
+   * @param line table row
+   * @param columns which columns of row to use as keys.
+   */
+  void addRow(String line, int[] columns) {
+    int ordinal = this.addPosting(line);
+    for (int column: columns) {
+      String term = field(line, column).toLowerCase();
+      Map<Integer,Map<String,OrdinalList>> lengthTermOrdinalMap = this.columnLengthTermOrdinalMap.get(column);
+      Map<String,OrdinalList> termOrdinalMap = lengthTermOrdinalMap.get(term.length());
+      if (termOrdinalMap == null) {
+	termOrdinalMap = new TreeMap<String,OrdinalList>();
+	lengthTermOrdinalMap.put(term.length(), termOrdinalMap);
+      }
+      OrdinalList ordinalList = termOrdinalMap.get(term);
+      if (ordinalList == null) {
+	ordinalList = new OrdinalList();
+	termOrdinalMap.put(term, ordinalList);
+      }
+      ordinalList.add(ordinal);
+    }
+  }
+
+  void initMaps(int[] columns) {
+    this.columnLengthTermOrdinalMap = new HashMap<Integer,Map<Integer,Map<String,OrdinalList>>>();
+    for (int column: columns) {
+      this.columnLengthTermOrdinalMap.put(column, new HashMap<Integer,Map<String,OrdinalList>>());
+    }
+  }
+
+  /**
+   * Generate in-memory term dictionary from table file.
+   * @param tableFilename name of file containing table of records with pipe-separated fields.
+   * @param columns which columns of records to use as keys.
+   * @throws IOException i/o exception
+   */
+  public void generateMaps(String tableFilename, int[] columns)
+    throws IOException
+  {
+    this.initMaps(columns);
+    BufferedReader br = new BufferedReader(new FileReader(tableFilename));
+    try {
+      String line;
+      while ((line = br.readLine()) != null) {
+	this.addRow(line, columns);
+      }
+    } finally {
+      br.close();
+    }
+  }
+
+  /**
+   * Generate in-memory term dictionary
+   * @param lineList list of table rows
+   * @param columns which columns of records to use as keys.
+   */
+  public void generateMaps(List<String> lineList, int[] columns) {
+    this.initMaps(columns);
+    for (String line: lineList) {
+      this.addRow(line, columns);
+    }
+  }
+
+  /**
+   * Write postings to posting pool file while filling extent arrays.
+   * @param workingDir working directory
+   * @param indexName name of index
+   * @throws IOException i/o exception
+   */
+  public void writePostings(String workingDir, String indexName)
+    throws IOException
+  {
+    int count = this.postingList.size();
+    this.extentStarts = new long[count];
+    this.extentLengths = new long[count];
+    OutputStream out =
+      new BufferedOutputStream(new FileOutputStream(workingDir + "/indices/" + indexName + "/postings"), 65536);
+    try {
+      long start = 0;
+      for (int ordinal = 0; ordinal < count; ordinal++) {
+	byte[] byteData = this.postingList.get(ordinal).getBytes(); // convert posting string to bytes
+	out.write(byteData);
+	this.extentStarts[ordinal] = start;
+	this.extentLengths[ordinal] = byteData.length;
+	start += byteData.length;
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Create partitions consisting of two files: a dictionary
+   * containing term, num-of-postings, and pointer to extent list and
+   * extent list pool containing offset length pairs, one for each
+   * posting.
+   *
+   * @param workingDir working directory
+   * @param indexName name of index
+   * @throws IOException i/o exception
+   */
+  public void writePartitions(String workingDir, String indexName)
+    throws IOException
+  {
+    for (Integer column: this.columnLengthTermOrdinalMap.keySet()) {
+      for (Entry<Integer,Map<String,OrdinalList>> lengthEntry:
+	     this.columnLengthTermOrdinalMap.get(column).entrySet()) {
+	Integer termLength = lengthEntry.getKey();
+	Map<String,OrdinalList> termOrdinalMap = lengthEntry.getValue();
+	DataOutputStream termDictionaryOut =
+	  new DataOutputStream
+	  (new BufferedOutputStream
+	   (new FileOutputStream(MultiKeyIndex.partitionPath(workingDir, indexName,
+							     column.toString(), termLength.toString(),
+							     "-term-dictionary"))));
+	DataOutputStream extentsOut =
+	  new DataOutputStream
+	  (new BufferedOutputStream
+	   (new FileOutputStream(MultiKeyIndex.partitionPath(workingDir, indexName,
+							     column.toString(), termLength.toString(),
+							     "-postings-offsets"))));
+	int recordnumber = termOrdinalMap.size();
+	long datalength = 16;
+	long recordlength = termLength.intValue() + datalength;
+	long extentsOffset = 0;
+	try {
+	  for (Entry<String,OrdinalList> termEntry: termOrdinalMap.entrySet()) {
+	    byte[] byteData = termEntry.getKey().getBytes();
+	    OrdinalList ordinalList = termEntry.getValue();
+	    long extentListOffset = extentsOffset;
+	    // write extents
+	    for (int i = 0; i < ordinalList.size; i++) {
+	      int ordinal = ordinalList.ordinals[i];
+	      extentsOut.writeLong(this.extentStarts[ordinal]);
+	      extentsOut.writeLong(this.extentLengths[ordinal]);
+	    }
+	    extentsOffset += 16L * ordinalList.size;
+	    // write dictionary
+	    termDictionaryOut.write(byteData);		      // term
+	    termDictionaryOut.writeLong(ordinalList.size);   // number of postings
+	    termDictionaryOut.writeLong(extentListOffset);   // offset to begining of extent list
+	    datalength = 16;
+	    recordlength = byteData.length + datalength;
+	  }
+	} finally {
+	  termDictionaryOut.close();
+	  extentsOut.close();
+	}
+	BufferedWriter bw =
+	  new BufferedWriter
+	  (new FileWriter
+	   (workingDir + "/indices/" + indexName + "/" + indexName + "-" +
+	    column.toString() + "-" + termLength.toString() + "-term-dictionary-stats.txt"));
+	bw.write("termlength|" + termLength + "\n");
+	bw.write("reclength|"  + recordlength + "\n");
+	bw.write("datalength|" + datalength + "\n");
+	bw.write("recordnum|"  + recordnumber + "\n");
+	bw.close();
+      }
+    }
+  }
+
+  /** @return number of unique postings */
+  public int getPostingCount() {
+    return this.postingList.size();
+  }
+
+  /** @return number of rows whose hash equals the hash of a different row */
+  public int getCollisionCount() {
+    return this.collisionCount;
+  }
+}
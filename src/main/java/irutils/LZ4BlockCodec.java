@@ -0,0 +1,157 @@
+//
+package irutils;
+
+import java.util.Arrays;
+
+/**
+ * Block compression using the LZ4 block format: a sequence of
+ * (token, literals, match offset, match length) records where the
+ * token holds 4-bit literal and match lengths, lengths of 15 or more
+ * are continued in following bytes and match offsets are 16-bit
+ * little endian.  The last sequence only contains literals.
+ * <p>
+ * Compression uses a single pass with a hash table of 4-byte
+ * sequences (no chains), which favours speed over ratio.
+ */
+public class LZ4BlockCodec {
+  static final int MIN_MATCH = 4;
+  /** number of literals at end of block */
+  static final int LAST_LITERALS = 5;
+  /** last match must start this many bytes before end of block */
+  static final int MF_LIMIT = 12;
+  static final int MAX_OFFSET = 65535;
+  static final int HASH_LOG = 12;
+
+  /**
+   * @param length length of uncompressed data
+   * @return maximum length of compressed data
+   */
+  public static int maxCompressedLength(int length) {
+    return length + (length / 255) + 16;
+  }
+
+  static int readInt(byte[] buf, int i) {
+    return (buf[i] & 0xff) | ((buf[i + 1] & 0xff) << 8) |
+      ((buf[i + 2] & 0xff) << 16) | ((buf[i + 3] & 0xff) << 24);
+  }
+
+  static int hash(int sequence) {
+    return (sequence * -1640531535) >>> (32 - HASH_LOG);
+  }
+
+  static int writeLength(byte[] dest, int op, int length) {
+    while (length >= 255) {
+      dest[op++] = (byte)255;
+      length -= 255;
+    }
+    dest[op++] = (byte)length;
+    return op;
+  }
+
+  static int writeSequence(byte[] dest, int op, byte[] src, int literalStart, int literalLength,
+			   int offset, int matchLength) {
+    int tokenOp = op++;
+    int token = (Math.min(literalLength, 15) << 4);
+    if (literalLength >= 15) {
+      op = writeLength(dest, op, literalLength - 15);
+    }
+    System.arraycopy(src, literalStart, dest, op, literalLength);
+    op += literalLength;
+    if (matchLength > 0) {
+      dest[op++] = (byte)offset;
+      dest[op++] = (byte)(offset >>> 8);
+      int matchCode = matchLength - MIN_MATCH;
+      token |= Math.min(matchCode, 15);
+      if (matchCode >= 15) {
+	op = writeLength(dest, op, matchCode - 15);
+      }
+    }
+    dest[tokenOp] = (byte)token;
+    return op;
+  }
+
+  /**
+   * Compress block.
+   * @param src source buffer
+   * @param srcOff start of data in source buffer
+   * @param srcLen length of data
+   * @return compressed block
+   */
+  public static byte[] compress(byte[] src, int srcOff, int srcLen) {
+    byte[] dest = new byte[maxCompressedLength(srcLen)];
+    int[] table = new int[1 << HASH_LOG];
+    Arrays.fill(table, -1);
+    int srcEnd = srcOff + srcLen;
+    int matchLimit = srcEnd - LAST_LITERALS;
+    int mfLimit = srcEnd - MF_LIMIT;
+    int anchor = srcOff;
+    int ip = srcOff;
+    int op = 0;
+    while (ip < mfLimit) {
+      int sequence = readInt(src, ip);
+      int h = hash(sequence);
+      int ref = table[h];
+      table[h] = ip;
+      if ((ref >= 0) && ((ip - ref) <= MAX_OFFSET) && (readInt(src, ref) == sequence)) {
+	int matchLength = MIN_MATCH;
+	while (((ip + matchLength) < matchLimit) && (src[ref + matchLength] == src[ip + matchLength])) {
+	  matchLength++;
+	}
+	op = writeSequence(dest, op, src, anchor, ip - anchor, ip - ref, matchLength);
+	ip += matchLength;
+	anchor = ip;
+      } else {
+	ip++;
+      }
+    }
+    op = writeSequence(dest, op, src, anchor, srcEnd - anchor, 0, 0);
+    return Arrays.copyOf(dest, op);
+  }
+
+  /**
+   * Decompress block.
+   * @param src compressed block buffer
+   * @param srcOff start of compressed block
+   * @param srcLen length of compressed block
+   * @param dest destination buffer, must be large enough for uncompressed data
+   * @return length of uncompressed data
+   */
+  public static int decompress(byte[] src, int srcOff, int srcLen, byte[] dest) {
+    int ip = srcOff;
+    int srcEnd = srcOff + srcLen;
+    int op = 0;
+    while (ip < srcEnd) {
+      int token = src[ip++] & 0xff;
+      int literalLength = token >>> 4;
+      if (literalLength == 15) {
+	int b;
+	do {
+	  b = src[ip++] & 0xff;
+	  literalLength += b;
+	} while (b == 255);
+      }
+      System.arraycopy(src, ip, dest, op, literalLength);
+      ip += literalLength;
+      op += literalLength;
+      if (ip >= srcEnd) {
+	break;			// last sequence
+      }
+      int offset = (src[ip] & 0xff) | ((src[ip + 1] & 0xff) << 8);
+      ip += 2;
+      int matchLength = token & 0x0f;
+      if (matchLength == 15) {
+	int b;
+	do {
+	  b = src[ip++] & 0xff;
+	  matchLength += b;
+	} while (b == 255);
+      }
+      matchLength += MIN_MATCH;
+      int ref = op - offset;
+      for (int i = 0; i < matchLength; i++) {
+	dest[op++] = dest[ref++]; // matches may overlap
+      }
+    }
+    return op;
+  }
+}
@@ -6,6 +6,8 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.HashMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
@@ -73,6 +75,15 @@ public class MappedMultiKeyIndex {
   Map<String,MappedByteBuffer> mapOfExtentsRafs = new HashMap<String,MappedByteBuffer>();
   /** map of stats maps for each partition, partitionName -&gt; StatsMap */
   Map<String,Map<String,String>> mapOfStatMaps = new HashMap<String,Map<String,String>>();
+  /** version 2 (compact) index, null if index is version 1. */
+  CompactMultiKeyIndex compactIndex = null;
+  /** partitions of version 1 index, opened on first lookup (see getPartitionTable). */
+  volatile PartitionTable partitionTable = null;
+
+  /** if true, lookups count accesses of each partition */
+  static volatile boolean recordPartitionAccess = false;
+  /** indexname|column|termlength -&gt; number of lookups */
+  static Map<String,AtomicLong> partitionAccessCountMap = new ConcurrentHashMap<String,AtomicLong>();
 
   /**
    * Open index using basename as name of index.
@@ -84,6 +95,10 @@ public class MappedMultiKeyIndex {
     this.indexDirectoryName = indexDirectoryName;
     String[] fields = indexDirectoryName.split("/");
     this.indexname = fields[fields.length - 1];
+    if (CompactMultiKeyIndex.isCompact(indexDirectoryName)) {
+      this.compactIndex = new CompactMultiKeyIndex(indexDirectoryName);
+      return;
+    }
     FileInputStream postingsInputStream =
       new FileInputStream(new File (indexDirectoryName + "/postings"));
     FileChannel postingsFileChannel = postingsInputStream.getChannel();
@@ -103,6 +118,10 @@ public class MappedMultiKeyIndex {
   {
     this.indexDirectoryName = workingDirectoryName +  "/indices/" + indexname ;
     this.indexname = indexname;
+    if (CompactMultiKeyIndex.isCompact(this.indexDirectoryName)) {
+      this.compactIndex = new CompactMultiKeyIndex(this.indexDirectoryName);
+      return;
+    }
 
     FileInputStream postingsInputStream =
       new FileInputStream(new File (indexDirectoryName + "/postings"));
@@ -119,7 +138,7 @@ public class MappedMultiKeyIndex {
    * @param filename of file to be mapped
    * @return memory mapped buffer of file.
    */
-  public MappedByteBuffer openMappedByteBuffer(String filename) 
+  public synchronized MappedByteBuffer openMappedByteBuffer(String filename) 
     throws FileNotFoundException, IOException
   {
     if (byteBufCache.containsKey(filename)) {
@@ -186,7 +205,7 @@ public class MappedMultiKeyIndex {
     return termDictionaryByteBuffer;
   }
 
-  public MappedByteBuffer getTermDictionaryFile(String columnString, String termLengthString)
+  public synchronized MappedByteBuffer getTermDictionaryFile(String columnString, String termLengthString)
     throws IOException
   {
     MappedByteBuffer termDictionaryByteBuffer;
@@ -208,7 +227,7 @@ public class MappedMultiKeyIndex {
 				 columnString, termLengthString, "-postings-offsets"));
   }
 
-  public MappedByteBuffer getExtentsFile(String columnString, String termLengthString)
+  public synchronized MappedByteBuffer getExtentsFile(String columnString, String termLengthString)
     throws IOException
   {
     MappedByteBuffer extentsByteBuffer;
@@ -226,6 +245,137 @@ public class MappedMultiKeyIndex {
     return this.postingsRaf;
   }
 
+  /**
+   * Enable or disable counting of partition accesses (see getPartitionAccessCountMap).
+   * @param record if true count partition accesses.
+   */
+  public static void setRecordPartitionAccess(boolean record) {
+    recordPartitionAccess = record;
+  }
+
+  /**
+   * @return map of indexname|column|termlength -&gt; number of lookups
+   */
+  public static Map<String,AtomicLong> getPartitionAccessCountMap() {
+    return partitionAccessCountMap;
+  }
+
+  /**
+   * Count access of partition if recording is enabled.
+   * @param column table column
+   * @param termLength length of term
+   */
+  public void recordAccess(int column, int termLength) {
+    if (recordPartitionAccess) {
+      String key = this.indexname + "|" + column + "|" + termLength;
+      AtomicLong count = partitionAccessCountMap.get(key);
+      if (count == null) {
+	partitionAccessCountMap.putIfAbsent(key, new AtomicLong());
+	count = partitionAccessCountMap.get(key);
+      }
+      count.incrementAndGet();
+    }
+  }
+
+  /** @return name of index */
+  public String getIndexname() {
+    return this.indexname;
+  }
+
+  /**
+   * List partitions of index.
+   * @return list of column, term length pairs.
+   */
+  public List<int[]> listPartitions() {
+    List<int[]> partitionList = new ArrayList<int[]>();
+    String prefix = this.indexname + "-";
+    String suffix = "-term-dictionary-stats.txt";
+    String[] filenames = new File(this.indexDirectoryName).list();
+    if (filenames != null) {
+      for (String filename: filenames) {
+	if (filename.startsWith(prefix) && filename.endsWith(suffix)) {
+	  String[] fields = filename.substring(prefix.length(), filename.length() - suffix.length()).split("-");
+	  partitionList.add(new int[] { Integer.parseInt(fields[0]), Integer.parseInt(fields[1]) });
+	}
+      }
+    }
+    return partitionList;
+  }
+
+  /**
+   * Open partition and load its files into physical memory.
+   * @param column table column
+   * @param termLength length of term
+   * @return number of bytes loaded
+   * @throws IOException i/o exception
+   */
+  public long preloadPartition(int column, int termLength)
+    throws IOException
+  {
+    if (this.compactIndex != null) {
+      return this.compactIndex.preloadPartition(column, termLength);
+    }
+    String columnString = Integer.toString(column);
+    String termLengthString = Integer.toString(termLength);
+    long size = 0;
+    this.getStatsMap(columnString, termLengthString);
+    MappedByteBuffer termDictionaryBuffer = this.getTermDictionaryFile(columnString, termLengthString);
+    if (termDictionaryBuffer != null) {
+      termDictionaryBuffer.load();
+      size += termDictionaryBuffer.capacity();
+    }
+    MappedByteBuffer extentsBuffer = this.getExtentsFile(columnString, termLengthString);
+    if (extentsBuffer != null) {
+      extentsBuffer.load();
+      size += extentsBuffer.capacity();
+    }
+    return size;
+  }
+
+  /**
+   * Load postings into physical memory.
+   * @return number of bytes loaded
+   */
+  public long preloadPostings() {
+    MappedByteBuffer buffer =
+      (this.compactIndex != null) ? this.compactIndex.postingsBuffer : this.postingsRaf;
+    buffer.load();
+    return buffer.capacity();
+  }
+
+  /**
+   * Get table of partitions, mapping the term dictionaries and
+   * extents of all partitions on first call; opening an index only
+   * maps its postings.
+   * @return table of partitions or null if index is in version 2 format.
+   * @throws IOException i/o exception while opening partitions
+   */
+  public PartitionTable getPartitionTable()
+    throws IOException
+  {
+    if (this.compactIndex != null) {
+      return null;
+    }
+    PartitionTable table = this.partitionTable;
+    if (table == null) {
+      synchronized (this) {
+	table = this.partitionTable;
+	if (table == null) {
+	  table = new PartitionTable(this);
+	  this.partitionTable = table;
+	}
+      }
+    }
+    return table;
+  }
+
+  /**
+   * @return version 2 (compact) index or null if index is in version 1 format.
+   */
+  public CompactMultiKeyIndex getCompactIndex() {
+    return this.compactIndex;
+  }
+
   public Map<String,String> readStatsFile(String columnString, String termLengthString)
     throws IOException
   {
@@ -239,7 +389,7 @@ public class MappedMultiKeyIndex {
    * @param termLengthString length of search term
    * @return Map of statistics keyed by type of statistic.
    */
-  public Map<String,String> getStatsMap(String columnString, String termLengthString)
+  public synchronized Map<String,String> getStatsMap(String columnString, String termLengthString)
     throws FileNotFoundException, IOException
   {
     Map<String,String> statsMap;
@@ -262,23 +412,11 @@ public class MappedMultiKeyIndex {
   public List<String> lookup(int column, String term)
     throws IOException, FileNotFoundException
   {
-    List<String> resultList = new ArrayList<String>();
-    String termLengthString = Integer.toString(term.length());
-    String columnString = Integer.toString(column);
-    String partitionKey = columnString + "|" + termLengthString;
-    MappedByteBuffer termDictionaryRaf = this.getTermDictionaryFile(columnString, termLengthString);
-    MappedByteBuffer extentsRaf = this.getExtentsFile(columnString, termLengthString);
-    Map<String,String> statsMap = this.getStatsMap(columnString, termLengthString);
-    int datalength = Integer.parseInt(statsMap.get("datalength"));
-    int recordnum = Integer.parseInt(statsMap.get("recordnum"));
-    
-    DictionaryEntry entry = 
-      dictionaryBinarySearch(termDictionaryRaf, term, 
-					   term.length(), datalength, recordnum );
-    if (entry != null) {
-      readPostings(extentsRaf, this.postingsRaf, resultList, entry);
-    } 
-    return resultList;
+    this.recordAccess(column, term.length());
+    if (this.compactIndex != null) {
+      return this.compactIndex.lookupWord(term, column);
+    }
+    return this.getPartitionTable().lookup(column, term);
   }
 
   /**
@@ -2,6 +2,7 @@ package irutils;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.HashMap;
@@ -41,6 +42,9 @@ import irutils.MultiKeyIndex.Record;
  *  C0000039|S0033298|5|Dipalmitoylphosphatidylcholine|NDFRT|SY
  *  C0000039|S0033298|4|Dipalmitoylphosphatidylcholine|SNMI|PT
  * </pre>
+ * Indexes in version 2 (compact) format (see CompactIndexWriter) are
+ * detected when the index is opened and looked up using
+ * CompactMultiKeyIndex.
  */
 
 public class MappedMultiKeyIndexLookup {
@@ -57,29 +61,65 @@ public class MappedMultiKeyIndexLookup {
     this.index = index;
   }
 
+  /** @return underlying index */
+  public MappedMultiKeyIndex getIndex() {
+    return this.index;
+  }
+
   public List<String> lookup(String term, int column)
     throws IOException, FileNotFoundException
   {
-    List<String> resultList = new ArrayList<String>();
-    String termLengthString = Integer.toString(term.length());
-    String columnString = Integer.toString(column);
+    this.index.recordAccess(column, term.length());
+    CompactMultiKeyIndex compactIndex = this.index.getCompactIndex();
+    if (compactIndex != null) {
+      return compactIndex.lookup(term, column);
+    }
+    return this.index.getPartitionTable().lookup(column, term.toLowerCase());
+  }
 
-    MappedByteBuffer termDictionaryRaf = this.index.getTermDictionaryFile(columnString, termLengthString);
-    if (termDictionaryRaf != null) {
-      MappedByteBuffer extentsRaf = this.index.getExtentsFile(columnString, termLengthString);
-      MappedByteBuffer postingsRaf = this.index.getPostingsFile();
-      Map<String,String> statsMap = this.index.getStatsMap(columnString, termLengthString);
-      int datalength = Integer.parseInt(statsMap.get("datalength"));
-      int recordnum = Integer.parseInt(statsMap.get("recordnum"));
-    
-      DictionaryEntry entry = 
-	MappedMultiKeyIndex.dictionaryBinarySearch(termDictionaryRaf, term.toLowerCase(), 
-						   term.length(), datalength, recordnum );
-      if (entry != null) {
-	MappedMultiKeyIndex.readPostings(extentsRaf, postingsRaf, resultList, entry);
+  /**
+   * Lookup many terms at once.  Terms are grouped by partition and
+   * sorted so that the binary searches of a partition share locality;
+   * results are returned in order of terms.
+   * @param termList terms to lookup
+   * @param columns table column of each term
+   * @return list of results for each term.
+   * @throws IOException i/o exception
+   * @throws FileNotFoundException file not found exception
+   */
+  public List<List<String>> lookup(List<String> termList, int[] columns)
+    throws IOException, FileNotFoundException
+  {
+    CompactMultiKeyIndex compactIndex = this.index.getCompactIndex();
+    if (compactIndex != null) {
+      List<List<String>> resultList = new ArrayList<List<String>>(termList.size());
+      for (int i = 0; i < termList.size(); i++) {
+	resultList.add(this.lookup(termList.get(i), columns[i]));
       }
+      return resultList;
     }
-    return resultList;
+    String[] terms = new String[termList.size()];
+    for (int i = 0; i < terms.length; i++) {
+      terms[i] = termList.get(i).toLowerCase();
+      this.index.recordAccess(columns[i], terms[i].length());
+    }
+    return this.index.getPartitionTable().lookup(columns, terms);
+  }
+
+  /**
+   * Lookup many terms in the same table column at once.
+   * @param termList terms to lookup
+   * @param column table column
+   * @return list of results for each term.
+   * @throws IOException i/o exception
+   * @throws FileNotFoundException file not found exception
+   */
+  public List<List<String>> lookup(List<String> termList, int column)
+    throws IOException, FileNotFoundException
+  {
+    int[] columns = new int[termList.size()];
+    Arrays.fill(columns, column);
+    return this.lookup(termList, columns);
   }
 
   /**
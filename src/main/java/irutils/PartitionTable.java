@@ -0,0 +1,294 @@
+//
+package irutils;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Table of the partitions of a version 1 multi-key index, opened
+ * once, on the first lookup of the index, and indexed by column and
+ * term length.  The statistics of each partition (data length, number of
+ * records) are parsed when the table is built, so a lookup does no
+ * partition key building, map lookups or parsing.
+ * <p>
+ * Lookups only use absolute reads of the mapped buffers and may be
+ * done concurrently.
+ * <p>
+ * Batch lookups (lookup(int[], String[])) sort the keys by partition
+ * and term so successive binary searches of a partition start from the
+ * position of the previous term, look up repeated keys once and read
+ * postings through one buffer for the whole batch.
+ */
+public class PartitionTable {
+
+  /** term dictionary and extents of one partition with its statistics. */
+  public static class Partition {
+    final MappedByteBuffer termDictionary;
+    final MappedByteBuffer extents;
+    final int termLength;
+    final int datalength;
+    final int recordnum;
+    /** length of term dictionary record */
+    final int reclength;
+
+    Partition(MappedByteBuffer termDictionary, MappedByteBuffer extents, int termLength,
+	      int datalength, int recordnum) {
+      this.termDictionary = termDictionary;
+      this.extents = extents;
+      this.termLength = termLength;
+      this.datalength = datalength;
+      this.recordnum = recordnum;
+      this.reclength = termLength + datalength;
+    }
+    public int getTermLength() { return this.termLength; }
+    public int getRecordnum() { return this.recordnum; }
+  }
+
+  static final Partition[] NO_PARTITIONS = new Partition[0];
+
+  /** partitions indexed by [column][termLength], null if not present */
+  Partition[][] partitions;
+  MappedByteBuffer postings;
+
+  /**
+   * Open all partitions of index.
+   * @param index version 1 index
+   * @throws IOException i/o exception
+   */
+  public PartitionTable(MappedMultiKeyIndex index)
+    throws IOException
+  {
+    this.postings = index.getPostingsFile();
+    List<int[]> partitionList = index.listPartitions();
+    int maxColumn = -1;
+    for (int[] partition: partitionList) {
+      maxColumn = Math.max(maxColumn, partition[0]);
+    }
+    int[] maxTermLength = new int[maxColumn + 1];
+    for (int[] partition: partitionList) {
+      maxTermLength[partition[0]] = Math.max(maxTermLength[partition[0]], partition[1]);
+    }
+    this.partitions = new Partition[maxColumn + 1][];
+    for (int column = 0; column <= maxColumn; column++) {
+      this.partitions[column] = NO_PARTITIONS;
+    }
+    for (int[] partition: partitionList) {
+      int column = partition[0];
+      int termLength = partition[1];
+      if (this.partitions[column] == NO_PARTITIONS) {
+	this.partitions[column] = new Partition[maxTermLength[column] + 1];
+      }
+      String columnString = Integer.toString(column);
+      String termLengthString = Integer.toString(termLength);
+      MappedByteBuffer termDictionary = index.getTermDictionaryFile(columnString, termLengthString);
+      if (termDictionary != null) {
+	Map<String,String> statsMap = index.getStatsMap(columnString, termLengthString);
+	this.partitions[column][termLength] =
+	  new Partition(termDictionary, index.getExtentsFile(columnString, termLengthString), termLength,
+			Integer.parseInt(statsMap.get("datalength")),
+			Integer.parseInt(statsMap.get("recordnum")));
+      }
+    }
+  }
+
+  /**
+   * @param column table column
+   * @param termLength length of term
+   * @return partition or null if index has no partition for column and term length.
+   */
+  public Partition getPartition(int column, int termLength) {
+    if ((column < 0) || (column >= this.partitions.length)) {
+      return null;
+    }
+    Partition[] columnPartitions = this.partitions[column];
+    return (termLength < columnPartitions.length) ? columnPartitions[termLength] : null;
+  }
+
+  /**
+   * Compare term with term of dictionary record, as
+   * term.compareTo(new String(record term bytes)) does.  Terms
+   * consisting of ASCII characters are compared without decoding the
+   * record.
+   * @param partition partition
+   * @param term search term
+   * @param recordStart offset of record in term dictionary
+   * @return negative, zero or positive as term is less than, equal to or greater than record term.
+   */
+  static int compareTerm(Partition partition, String term, int recordStart) {
+    MappedByteBuffer dictionary = partition.termDictionary;
+    int length = partition.termLength;
+    for (int i = 0; i < length; i++) {
+      int b = dictionary.get(recordStart + i) & 0xff;
+      char c = term.charAt(i);
+      if ((b >= 0x80) || (c >= 0x80)) {
+	byte[] termBytes = new byte[length];
+	for (int j = 0; j < length; j++) {
+	  termBytes[j] = dictionary.get(recordStart + j);
+	}
+	return term.compareTo(new String(termBytes));
+      }
+      if (c != b) {
+	return c - b;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Binary search of term dictionary of partition.
+   * @param partition partition
+   * @param term search term, length must be partition term length
+   * @return record number of term or -1 if not present.
+   */
+  public static int find(Partition partition, String term) {
+    int record = find(partition, term, 0);
+    return (record >= 0) ? record : -1;
+  }
+
+  /**
+   * Binary search of term dictionary of partition starting at record low.
+   * @param partition partition
+   * @param term search term, length must be partition term length
+   * @param low first record to search
+   * @return record number of term or (-(insertion point) - 1) if not present.
+   */
+  static int find(Partition partition, String term, int low) {
+    int high = partition.recordnum;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      int cond = compareTerm(partition, term, mid * partition.reclength);
+      if (cond < 0) {
+	high = mid;
+      } else if (cond > 0) {
+	low = mid + 1;
+      } else {
+	return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * Add postings of term dictionary record to list.
+   * @param partition partition
+   * @param record record number
+   * @param resultList list to add postings to.
+   */
+  void readPostings(Partition partition, int record, List<String> resultList) {
+    this.readPostings(partition, record, resultList, null);
+  }
+
+  /**
+   * Add postings of term dictionary record to list, reading postings
+   * through buffer.
+   * @param partition partition
+   * @param record record number
+   * @param resultList list to add postings to.
+   * @param buf buffer for postings, null to allocate one for each posting.
+   * @return buffer, replaced by a larger buffer if a posting did not fit.
+   */
+  byte[] readPostings(Partition partition, int record, List<String> resultList, byte[] buf) {
+    int dataStart = (record * partition.reclength) + partition.termLength;
+    long count = partition.termDictionary.getLong(dataStart);
+    int address = (int)partition.termDictionary.getLong(dataStart + 8);
+    for (int i = 0; i < count; i++) {
+      int offset = (int)partition.extents.getLong(address);
+      int length = (int)partition.extents.getLong(address + 8);
+      byte[] postingBuf = buf;
+      if ((postingBuf == null) || (postingBuf.length < length)) {
+	postingBuf = new byte[length];
+	if (buf != null) {
+	  buf = postingBuf;
+	}
+      }
+      for (int j = 0; j < length; j++) {
+	postingBuf[j] = this.postings.get(offset + j);
+      }
+      resultList.add(new String(postingBuf, 0, length));
+      address += 16;
+    }
+    return buf;
+  }
+
+  /**
+   * Lookup term in index for specified table column.
+   * @param column table column
+   * @param term search term (not case folded)
+   * @return list of postings matching term.
+   */
+  public List<String> lookup(int column, String term) {
+    List<String> resultList = new ArrayList<String>();
+    Partition partition = this.getPartition(column, term.length());
+    if (partition != null) {
+      int record = find(partition, term);
+      if (record >= 0) {
+	this.readPostings(partition, record, resultList);
+      }
+    }
+    return resultList;
+  }
+
+  /**
+   * Lookup many terms at once.
+   * @param columns table column of each term
+   * @param terms search terms (not case folded)
+   * @return list of postings matching each term, in order of terms.
+   */
+  public List<List<String>> lookup(final int[] columns, final String[] terms) {
+    int n = terms.length;
+    Integer[] order = new Integer[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+	public int compare(Integer a, Integer b) {
+	  if (columns[a] != columns[b]) {
+	    return columns[a] - columns[b];
+	  }
+	  if (terms[a].length() != terms[b].length()) {
+	    return terms[a].length() - terms[b].length();
+	  }
+	  return terms[a].compareTo(terms[b]);
+	}
+      });
+    List<List<String>> resultList = new ArrayList<List<String>>(n);
+    for (int i = 0; i < n; i++) {
+      resultList.add(null);
+    }
+    byte[] buf = new byte[256];
+    Partition previousPartition = null;
+    String previousTerm = null;
+    List<String> previousResult = null;
+    int low = 0;
+    for (Integer index: order) {
+      String term = terms[index];
+      Partition partition = this.getPartition(columns[index], term.length());
+      if (partition != previousPartition) {
+	low = 0;
+      } else if (term.equals(previousTerm)) {
+	resultList.set(index, new ArrayList<String>(previousResult));
+	continue;
+      }
+      List<String> result = new ArrayList<String>();
+      if (partition != null) {
+	int record = find(partition, term, low);
+	if (record >= 0) {
+	  buf = this.readPostings(partition, record, result, buf);
+	  low = record + 1;
+	} else {
+	  low = -(record + 1);
+	}
+      }
+      resultList.set(index, result);
+      previousPartition = partition;
+      previousTerm = term;
+      previousResult = result;
+    }
+    return resultList;
+  }
+}
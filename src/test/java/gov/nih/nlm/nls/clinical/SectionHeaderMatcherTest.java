@@ -0,0 +1,100 @@
+package gov.nih.nlm.nls.clinical;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Check section header detection (case folding, longest indicator,
+ * ':'/'-'/end of line after the indicator, headers only at line
+ * start) and that section spans are the same whether lines end with
+ * "\n", "\r\n" or "\r".
+ */
+@RunWith(JUnit4.class)
+public class SectionHeaderMatcherTest {
+
+  static SectionHeaderMatcher matcher() {
+    List<SectionIndicator> indicatorList = new ArrayList<SectionIndicator>();
+    indicatorList.add(new SectionIndicator(new String[] { "note", "HX", "history", "" }));
+    indicatorList.add(new SectionIndicator(new String[] { "note", "PMH", "past medical history", "" }));
+    indicatorList.add(new SectionIndicator(new String[] { "note", "PLAN", "plan", "" }));
+    return new SectionHeaderMatcher(indicatorList);
+  }
+
+  /** @return note with lines ending in terminator */
+  static String note(String terminator) {
+    return "Patient note." + terminator +
+      "HISTORY: cough." + terminator +
+      "history of asthma." + terminator +
+      "  Past Medical History - asthma." + terminator +
+      "Plan" + terminator +
+      "rest." + terminator;
+  }
+
+  /** @return expected sections of note(terminator) as "tag|start|bodyStart|end" */
+  static List<String> expectedSections(String text) {
+    int hx = text.indexOf("HISTORY");
+    int pmh = text.indexOf("  Past");
+    int plan = text.indexOf("Plan");
+    return Arrays.asList("|0|0|" + hx,
+			 "HX|" + hx + "|" + (hx + "HISTORY:".length()) + "|" + pmh,
+			 "PMH|" + pmh + "|" + (pmh + "  Past Medical History -".length()) + "|" + plan,
+			 "PLAN|" + plan + "|" + (plan + "Plan".length()) + "|" + text.length());
+  }
+
+  static List<String> sections(String text) {
+    List<String> result = new ArrayList<String>();
+    for (SectionHeaderMatcher.Section section: matcher().findSections(text)) {
+      result.add(section.toString());
+    }
+    return result;
+  }
+
+  @Test
+  public void testHeaders() {
+    SectionHeaderMatcher matcher = matcher();
+    org.junit.Assert.assertEquals(3, matcher.getIndicatorCount());
+    String[] tagHolder = new String[1];
+    org.junit.Assert.assertEquals(8, matcher.matchHeader("History: cough", 0, tagHolder));
+    org.junit.Assert.assertEquals("HX", tagHolder[0]);
+    org.junit.Assert.assertEquals(21, matcher.matchHeader("past medical history:", 0, tagHolder));
+    org.junit.Assert.assertEquals("PMH", tagHolder[0]);
+    org.junit.Assert.assertEquals(6, matcher.matchHeader("  PLAN\r\nrest", 0, tagHolder));
+    org.junit.Assert.assertEquals("PLAN", tagHolder[0]);
+    org.junit.Assert.assertEquals(-1, matcher.matchHeader("history of asthma", 0, tagHolder));
+    org.junit.Assert.assertEquals(-1, matcher.matchHeader("planned", 0, tagHolder));
+  }
+
+  @Test
+  public void testLineFeed() {
+    String text = note("\n");
+    org.junit.Assert.assertEquals(expectedSections(text), sections(text));
+  }
+
+  @Test
+  public void testCarriageReturnLineFeed() {
+    String text = note("\r\n");
+    org.junit.Assert.assertEquals(expectedSections(text), sections(text));
+  }
+
+  @Test
+  public void testCarriageReturn() {
+    String text = note("\r");
+    org.junit.Assert.assertEquals(expectedSections(text), sections(text));
+  }
+
+  @Test
+  public void testNoHeaders() {
+    SectionHeaderMatcher matcher = new SectionHeaderMatcher(new ArrayList<SectionIndicator>());
+    org.junit.Assert.assertEquals(0, matcher.getIndicatorCount());
+    String text = "History: cough.\r\nPlan\r\n";
+    org.junit.Assert.assertEquals(Arrays.asList("|0|0|" + text.length()),
+				  Arrays.asList(matcher.findSections(text).get(0).toString()));
+    org.junit.Assert.assertEquals(1, matcher.findSections(text).size());
+    org.junit.Assert.assertEquals(1, matcher.findSections("").size());
+  }
+}
@@ -0,0 +1,91 @@
+package gov.nih.nlm.nls.metamap.dfbuilder;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Check that the tables written by ExtractMrconsoTables in one pass
+ * over MRCONSO are identical to the ones written by
+ * ExtractMrconsoPreferredNames, ExtractMrconsoSources and
+ * ExtractMrstySemanticTypes, for inputs spanning several batches and
+ * any number of parser threads, and that a malformed record is
+ * reported with its text.
+ */
+@RunWith(JUnit4.class)
+public class ExtractMrconsoTablesTest {
+
+  static void assertSameFile(File expected, File actual) throws Exception {
+    org.junit.Assert.assertEquals(UmlsTestFiles.readLines(expected), UmlsTestFiles.readLines(actual));
+    org.junit.Assert.assertTrue(actual.getName(),
+				Arrays.equals(Files.readAllBytes(expected.toPath()),
+					      Files.readAllBytes(actual.toPath())));
+  }
+
+  @Test
+  public void testTablesMatchSingleTableExtractors() throws Exception {
+    File dir = UmlsTestFiles.workingDir("mrconsotables");
+    // more records than one batch
+    File mrconso = UmlsTestFiles.writeLines(new File(dir, "MRCONSO.RRF"),
+					    UmlsTestFiles.mrconsoRows(5000, 34L));
+    File mrsty = UmlsTestFiles.writeLines(new File(dir, "MRSTY.RRF"),
+					  UmlsTestFiles.mrstyRows(5000, 34L));
+    File cuiConcept = new File(dir, "tables/cuiconcept.txt");
+    File cuiSourceInfo = new File(dir, "tables/cuisourceinfo.txt");
+    File cuiSt = new File(dir, "tables/cuist.txt");
+    ExtractMrconsoPreferredNames.createTable(mrconso.getPath(), cuiConcept.getPath(),
+					     "ENG", true, "RRF");
+    ExtractMrconsoSources.createTable(mrconso.getPath(), cuiSourceInfo.getPath(),
+				      true, true, true, "RRF");
+    ExtractMrstySemanticTypes.createTable(mrsty.getPath(), cuiSt.getPath(),
+					  true, "RRF", null);
+    org.junit.Assert.assertTrue(cuiConcept.length() > 0);
+    org.junit.Assert.assertTrue(cuiSourceInfo.length() > 0);
+    org.junit.Assert.assertTrue(cuiSt.length() > 0);
+    for (int parserThreads: new int[] { 1, 3 }) {
+      File outDir = new File(dir, "out" + parserThreads);
+      outDir.mkdirs();
+      ExtractMrconsoTables.createTables(mrconso.getPath(), mrsty.getPath(),
+					outDir.getPath() + "/cuiconcept.txt",
+					outDir.getPath() + "/cuisourceinfo.txt",
+					outDir.getPath() + "/cuist.txt",
+					parserThreads);
+      assertSameFile(cuiConcept, new File(outDir, "cuiconcept.txt"));
+      assertSameFile(cuiSourceInfo, new File(outDir, "cuisourceinfo.txt"));
+      assertSameFile(cuiSt, new File(outDir, "cuist.txt"));
+    }
+  }
+
+  @Test
+  public void testParseLine() {
+    String line = UmlsTestFiles.mrconsoRows(1, 1L).get(0);
+    String[] fields = line.split("\\|");
+    ExtractMrconsoTables.Row row = ExtractMrconsoTables.parseLine(line);
+    org.junit.Assert.assertEquals(fields[0], row.cui);
+    org.junit.Assert.assertEquals(fields[1], row.lat);
+    org.junit.Assert.assertEquals(fields[2], row.ts);
+    org.junit.Assert.assertEquals(fields[4], row.stt);
+    org.junit.Assert.assertEquals(fields[5], row.sui);
+    org.junit.Assert.assertEquals(fields[11], row.sab);
+    org.junit.Assert.assertEquals(fields[12], row.tty);
+    org.junit.Assert.assertEquals(fields[14], row.str);
+    // string is last field, without delimiter
+    String shortLine = line.substring(0, line.indexOf("|0|N|256|"));
+    org.junit.Assert.assertEquals(fields[14], ExtractMrconsoTables.parseLine(shortLine).str);
+  }
+
+  @Test
+  public void testMalformedLine() {
+    String line = "C0000001|ENG|P|L0000001|PF|S0000001|Y|A00000001";
+    try {
+      ExtractMrconsoTables.parseLine(line);
+      org.junit.Assert.fail("malformed record was accepted");
+    } catch (ArrayIndexOutOfBoundsException exception) {
+      org.junit.Assert.assertTrue(exception.getMessage(), exception.getMessage().contains(line));
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package gov.nih.nlm.nls.metamap.dfbuilder;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Check that the indexes built by IndexBuildScheduler with several
+ * threads and a small memory budget are byte for byte the same as
+ * the ones built one after another, for both posting formats.
+ */
+@RunWith(JUnit4.class)
+public class IndexBuildSchedulerTest {
+
+  /**
+   * Create working directory with tables of a small fixture.
+   * @param prefix prefix of directory name
+   * @return working directory
+   */
+  static File createTables(String prefix) throws Exception {
+    File dir = UmlsTestFiles.workingDir(prefix);
+    CreateIndexes.prepareDirectories(dir.getPath());
+    File mrconso = UmlsTestFiles.writeLines(new File(dir, "MRCONSO.RRF"),
+					    UmlsTestFiles.mrconsoRows(300, 35L));
+    File mrsty = UmlsTestFiles.writeLines(new File(dir, "MRSTY.RRF"),
+					  UmlsTestFiles.mrstyRows(300, 35L));
+    CreateIndexes.createTables(mrconso.getPath(), mrsty.getPath(), dir.getPath());
+    List<String> varsList = new ArrayList<String>();
+    List<String> meshList = new ArrayList<String>();
+    for (int i = 0; i < UmlsTestFiles.words.length; i++) {
+      String word = UmlsTestFiles.words[i].toLowerCase();
+      varsList.add(word + "|noun|" + word + "s|noun|1|i|");
+      varsList.add(word + "|noun|" + word + "|noun|0||");
+      meshList.add(String.format("D%06d", i) + "|C" + (i % 4) + "." + i);
+    }
+    UmlsTestFiles.writeLines(new File(dir, "tables/vars.txt"), varsList);
+    UmlsTestFiles.writeLines(new File(dir, "tables/mesh_tc_relaxed.txt"), meshList);
+    return dir;
+  }
+
+  /** @return relative path -&gt; contents of every file below dir */
+  static Map<String,byte[]> readTree(File dir, String path, Map<String,byte[]> fileMap)
+    throws Exception
+  {
+    for (File file: dir.listFiles()) {
+      String relativePath = path + "/" + file.getName();
+      if (file.isDirectory()) {
+	readTree(file, relativePath, fileMap);
+      } else {
+	fileMap.put(relativePath, Files.readAllBytes(file.toPath()));
+      }
+    }
+    return fileMap;
+  }
+
+  static void assertSameIndexes(File expectedDir, File actualDir) throws Exception {
+    Map<String,byte[]> expected = readTree(new File(expectedDir, "indices"), "indices",
+					   new TreeMap<String,byte[]>());
+    Map<String,byte[]> actual = readTree(new File(actualDir, "indices"), "indices",
+					 new TreeMap<String,byte[]>());
+    org.junit.Assert.assertFalse(expected.isEmpty());
+    org.junit.Assert.assertEquals(expected.keySet(), actual.keySet());
+    for (Map.Entry<String,byte[]> entry: expected.entrySet()) {
+      org.junit.Assert.assertTrue(entry.getKey(),
+				  Arrays.equals(entry.getValue(), actual.get(entry.getKey())));
+    }
+  }
+
+  void checkScheduledMatchesSequential(boolean hashedPostings) throws Exception {
+    File sequentialDir = createTables("sequentialbuild");
+    File scheduledDir = createTables("scheduledbuild");
+    Map<String,String[]> tableConfig = CreateIndexes.generateTableConfig(sequentialDir.getPath());
+    CreateIndexes.createIndices(sequentialDir.getPath(), tableConfig, 1, 0, hashedPostings);
+    for (String indexName: tableConfig.keySet()) {
+      org.junit.Assert.assertTrue(indexName, new File(sequentialDir, "indices/" + indexName).list().length > 0);
+    }
+    // each small table is estimated at 1 MB: a 1 MB budget builds one
+    // table at a time, 3 MB keeps all three threads busy
+    for (int memoryBudgetMb: new int[] { 1, 3 }) {
+      IndexBuildScheduler scheduler =
+	new IndexBuildScheduler(scheduledDir.getPath(), 3, memoryBudgetMb);
+      scheduler.setHashedPostings(hashedPostings);
+      scheduler.createIndices(tableConfig);
+      assertSameIndexes(sequentialDir, scheduledDir);
+    }
+  }
+
+  @Test
+  public void testScheduledMatchesSequential() throws Exception {
+    checkScheduledMatchesSequential(false);
+  }
+
+  @Test
+  public void testScheduledMatchesSequentialHashed() throws Exception {
+    checkScheduledMatchesSequential(true);
+  }
+}
@@ -0,0 +1,126 @@
+package gov.nih.nlm.nls.metamap.dfbuilder;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Check that CreateIndexes.restrictTables reduces the cuiconcept,
+ * cuisourceinfo and cuist tables to exactly the concepts having one
+ * of the allowed semantic types and one of the allowed sources,
+ * keeping every record of those concepts unchanged, and that empty
+ * restrictions leave the tables alone.
+ */
+@RunWith(JUnit4.class)
+public class RestrictTablesTest {
+
+  static final String[] tableNames = { "cuiconcept.txt", "cuisourceinfo.txt", "cuist.txt" };
+
+  /** @return working directory holding unrestricted tables */
+  static File createTables(String prefix) throws Exception {
+    File dir = UmlsTestFiles.workingDir(prefix);
+    File mrconso = UmlsTestFiles.writeLines(new File(dir, "MRCONSO.RRF"),
+					    UmlsTestFiles.mrconsoRows(500, 33L));
+    File mrsty = UmlsTestFiles.writeLines(new File(dir, "MRSTY.RRF"),
+					  UmlsTestFiles.mrstyRows(500, 33L));
+    CreateIndexes.createTables(mrconso.getPath(), mrsty.getPath(), dir.getPath());
+    return dir;
+  }
+
+  /** @return cuis of records whose field in column is one of values */
+  static Set<String> cuisWith(List<String> lineList, int column, Set<String> valueSet) {
+    Set<String> cuiSet = new HashSet<String>();
+    for (String line: lineList) {
+      String[] fields = line.split("\\|");
+      if (valueSet.contains(fields[column])) {
+	cuiSet.add(fields[0]);
+      }
+    }
+    return cuiSet;
+  }
+
+  /** @return records whose cui is in cuiSet */
+  static List<String> recordsOf(List<String> lineList, Set<String> cuiSet) {
+    List<String> result = new ArrayList<String>();
+    for (String line: lineList) {
+      if (cuiSet.contains(line.substring(0, line.indexOf('|')))) {
+	result.add(line);
+      }
+    }
+    return result;
+  }
+
+  static Set<String> cuis(List<String> lineList) {
+    Set<String> cuiSet = new HashSet<String>();
+    for (String line: lineList) {
+      cuiSet.add(line.substring(0, line.indexOf('|')));
+    }
+    return cuiSet;
+  }
+
+  static List<List<String>> readTables(File dir) throws Exception {
+    List<List<String>> tableList = new ArrayList<List<String>>();
+    for (String tableName: tableNames) {
+      tableList.add(UmlsTestFiles.readLines(new File(dir, "tables/" + tableName)));
+    }
+    return tableList;
+  }
+
+  @Test
+  public void testRestrictToStsAndSources() throws Exception {
+    File dir = createTables("restricttables");
+    List<List<String>> fullTables = readTables(dir);
+    Set<String> stSet = new HashSet<String>(Arrays.asList("dsyn", "sosy"));
+    Set<String> sourceSet = new HashSet<String>(Arrays.asList("MSH", "NCI"));
+    Set<String> expectedCuis = cuisWith(fullTables.get(2), 1, stSet);
+    expectedCuis.retainAll(cuisWith(fullTables.get(1), 4, sourceSet));
+    // expected set is a proper, non-empty subset of the concepts
+    org.junit.Assert.assertFalse(expectedCuis.isEmpty());
+    org.junit.Assert.assertTrue(expectedCuis.size() < cuis(fullTables.get(0)).size());
+
+    CreateIndexes.restrictTables(dir.getPath(), stSet, sourceSet);
+    List<List<String>> slimTables = readTables(dir);
+    for (int i = 0; i < tableNames.length; i++) {
+      org.junit.Assert.assertEquals(tableNames[i], expectedCuis, cuis(slimTables.get(i)));
+      org.junit.Assert.assertEquals(tableNames[i], recordsOf(fullTables.get(i), expectedCuis),
+				    slimTables.get(i));
+    }
+    // every remaining concept has an allowed semantic type and source
+    for (String cui: cuis(slimTables.get(0))) {
+      Set<String> cuiSet = Collections.singleton(cui);
+      org.junit.Assert.assertFalse(cui, cuisWith(recordsOf(slimTables.get(2), cuiSet), 1, stSet).isEmpty());
+      org.junit.Assert.assertFalse(cui, cuisWith(recordsOf(slimTables.get(1), cuiSet), 4, sourceSet).isEmpty());
+    }
+  }
+
+  @Test
+  public void testRestrictToSourcesOnly() throws Exception {
+    File dir = createTables("restrictsources");
+    List<List<String>> fullTables = readTables(dir);
+    Set<String> sourceSet = Collections.singleton("LNC");
+    Set<String> expectedCuis = cuisWith(fullTables.get(1), 4, sourceSet);
+    org.junit.Assert.assertFalse(expectedCuis.isEmpty());
+    CreateIndexes.restrictTables(dir.getPath(), new HashSet<String>(), sourceSet);
+    List<List<String>> slimTables = readTables(dir);
+    for (int i = 0; i < tableNames.length; i++) {
+      org.junit.Assert.assertEquals(tableNames[i], recordsOf(fullTables.get(i), expectedCuis),
+				    slimTables.get(i));
+    }
+  }
+
+  @Test
+  public void testNoRestriction() throws Exception {
+    File dir = createTables("restrictnone");
+    List<List<String>> fullTables = readTables(dir);
+    CreateIndexes.restrictTables(dir.getPath(), new HashSet<String>(), new HashSet<String>());
+    org.junit.Assert.assertEquals(fullTables, readTables(dir));
+  }
+}
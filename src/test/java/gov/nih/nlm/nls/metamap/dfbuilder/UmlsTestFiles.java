@@ -0,0 +1,141 @@
+package gov.nih.nlm.nls.metamap.dfbuilder;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Small MRCONSO.RRF and MRSTY.RRF files shared by the table and index
+ * build tests.
+ */
+public class UmlsTestFiles {
+
+  static final String[] words = {
+    "heart", "attack", "blood", "sugar", "sleep", "apnea", "type", "diabetes",
+    "mellitus", "chest", "pain", "Aspirin", "fever", "acute", "renal", "failure"
+  };
+  static final String[] languages = { "ENG", "ENG", "ENG", "SPA", "FRE" };
+  static final String[] termStatuses = { "P", "S" };
+  static final String[] stringTypes = { "PF", "VO", "VC", "VW" };
+  static final String[] sources = { "MSH", "SNOMEDCT_US", "NCI", "LNC", "RXNORM" };
+  static final String[] termTypes = { "PT", "SY", "MH", "ET" };
+  static final String[] semanticTypes = {
+    "T047|B2.2.1.2.1|Disease or Syndrome",
+    "T184|A2.2.2|Sign or Symptom",
+    "T121|A1.4.1.1.1|Pharmacologic Substance",
+    "T023|A1.2.3.1|Body Part, Organ, or Organ Component"
+  };
+
+  /**
+   * MRCONSO (RRF) records of cuiCount concepts; several records per
+   * concept in different languages, sources and term types, with
+   * repeated strings.
+   * @param cuiCount number of concepts
+   * @param seed random seed
+   * @return list of records
+   */
+  static List<String> mrconsoRows(int cuiCount, long seed) {
+    Random random = new Random(seed);
+    List<String> rowList = new ArrayList<String>();
+    int aui = 0;
+    for (int c = 0; c < cuiCount; c++) {
+      String cui = String.format("C%07d", c);
+      int recordCount = 1 + random.nextInt(6);
+      for (int r = 0; r < recordCount; r++) {
+	StringBuilder term = new StringBuilder(words[random.nextInt(words.length)]);
+	int wordCount = random.nextInt(3);
+	for (int j = 0; j < wordCount; j++) {
+	  term.append(" ").append(words[random.nextInt(words.length)]);
+	}
+	String sab = sources[random.nextInt(sources.length)];
+	// first record of a concept is an English preferred form
+	String lat = (r == 0) ? "ENG" : languages[random.nextInt(languages.length)];
+	String ts = (r == 0) ? "P" : termStatuses[random.nextInt(termStatuses.length)];
+	String stt = (r == 0) ? "PF" : stringTypes[random.nextInt(stringTypes.length)];
+	String ispref = (r == 0) ? "Y" : ((random.nextInt(2) == 0) ? "Y" : "N");
+	rowList.add(cui + "|" + lat + "|" + ts + "|L" + String.format("%07d", random.nextInt(cuiCount * 2)) +
+		    "|" + stt + "|" + String.format("S%07d", random.nextInt(cuiCount * 3)) +
+		    "|" + ispref + "|" + String.format("A%08d", aui++) + "||||" + sab +
+		    "|" + termTypes[random.nextInt(termTypes.length)] + "|" + random.nextInt(100000) +
+		    "|" + term + "|0|N|256|");
+      }
+    }
+    return rowList;
+  }
+
+  /**
+   * MRSTY (RRF) records, one or two semantic types per concept.
+   * @param cuiCount number of concepts
+   * @param seed random seed
+   * @return list of records
+   */
+  static List<String> mrstyRows(int cuiCount, long seed) {
+    Random random = new Random(seed);
+    List<String> rowList = new ArrayList<String>();
+    for (int c = 0; c < cuiCount; c++) {
+      String cui = String.format("C%07d", c);
+      int first = random.nextInt(semanticTypes.length);
+      rowList.add(cui + "|" + semanticTypes[first] + "|AT" + c + "|256|");
+      if (random.nextInt(4) == 0) {
+	rowList.add(cui + "|" + semanticTypes[(first + 1) % semanticTypes.length] + "|AT" + c + "b|256|");
+      }
+    }
+    return rowList;
+  }
+
+  /**
+   * Create empty working directory containing tables and indices directories.
+   * @param prefix prefix of directory name
+   * @return working directory
+   * @throws IOException i/o exception
+   */
+  static File workingDir(String prefix) throws IOException {
+    File dir = File.createTempFile(prefix, "");
+    dir.delete();
+    new File(dir, "tables").mkdirs();
+    new File(dir, "indices").mkdirs();
+    return dir;
+  }
+
+  /**
+   * @param file file to write
+   * @param lineList lines
+   * @return file
+   * @throws IOException i/o exception
+   */
+  static File writeLines(File file, List<String> lineList)
+    throws IOException
+  {
+    BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+    for (String line: lineList) {
+      bw.write(line);
+      bw.write("\n");
+    }
+    bw.close();
+    return file;
+  }
+
+  /**
+   * @param file file to read
+   * @return lines of file
+   * @throws IOException i/o exception
+   */
+  static List<String> readLines(File file)
+    throws IOException
+  {
+    List<String> lineList = new ArrayList<String>();
+    BufferedReader br = new BufferedReader(new FileReader(file));
+    String line;
+    while ((line = br.readLine()) != null) {
+      lineList.add(line);
+    }
+    br.close();
+    return lineList;
+  }
+}
@@ -0,0 +1,123 @@
+package gov.nih.nlm.nls.metamap.lite;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import gov.nih.nlm.nls.clinical.SectionHeaderMatcher;
+import gov.nih.nlm.nls.types.Sentence;
+
+/**
+ * Check that clinical notes are split into sections at the headers
+ * of the section indicator file, that skipped sections produce no
+ * sentences and that sentence offsets are exact in the document,
+ * including sentences whose text repeats in several sections and
+ * notes with "\r\n" or "\r" line terminators.
+ */
+@RunWith(JUnit4.class)
+public class ClinicalSentenceExtractorTest {
+
+  static ClinicalSentenceExtractor extractor(String skipList)
+    throws IOException
+  {
+    File sectionFile = File.createTempFile("sections", ".csv");
+    sectionFile.deleteOnExit();
+    FileWriter writer = new FileWriter(sectionFile);
+    writer.write("note,HX,history,\n");
+    writer.write("note,PMH,past medical history,\n");
+    writer.write("note,PLAN,plan,\n");
+    writer.close();
+    Properties properties = new Properties();
+    properties.setProperty("metamaplite.clinical.section.file", sectionFile.getPath());
+    if (skipList != null) {
+      properties.setProperty("metamaplite.clinical.section.skip", skipList);
+    }
+    // sentence per line, offsets are exact
+    return new ClinicalSentenceExtractor(properties, new LineSentenceExtractor());
+  }
+
+  static String note(String terminator) {
+    return "Patient note." + terminator +
+      "History:" + terminator +
+      "No change." + terminator +
+      "Past medical history: No change." + terminator +
+      "asthma" + terminator +
+      "Plan: rest." + terminator;
+  }
+
+  /** @return sentences as "section|text|offset", checking offsets against text */
+  static List<String> sentences(List<Sentence> sentenceList, String text, int offset) {
+    List<String> result = new ArrayList<String>();
+    for (Sentence sentence: sentenceList) {
+      org.junit.Assert.assertEquals(sentence.getText(),
+				    text.substring(sentence.getOffset() - offset,
+						   sentence.getOffset() - offset + sentence.getText().length()));
+      result.add(sentence.getInfons().get(ClinicalSentenceExtractor.SECTION_INFON) + "|" +
+		 sentence.getText() + "|" + sentence.getOffset());
+    }
+    return result;
+  }
+
+  static List<String> expectedSentences(String text, int offset, boolean skipPlan) {
+    int hxChange = text.indexOf("No change.");
+    int pmhChange = text.indexOf("No change.", hxChange + 1);
+    List<String> expected = new ArrayList<String>();
+    expected.add("|Patient note.|" + offset);
+    expected.add("HX|No change.|" + (offset + hxChange));
+    expected.add("PMH| No change.|" + (offset + pmhChange - 1));
+    expected.add("PMH|asthma|" + (offset + text.indexOf("asthma")));
+    if (! skipPlan) {
+      expected.add("PLAN| rest.|" + (offset + text.indexOf(" rest.")));
+    }
+    return expected;
+  }
+
+  @Test
+  public void testSections() throws IOException {
+    ClinicalSentenceExtractor extractor = extractor(null);
+    String text = note("\n");
+    List<String> tagList = new ArrayList<String>();
+    for (SectionHeaderMatcher.Section section: extractor.findSections(text, null)) {
+      tagList.add(section.getTag());
+    }
+    org.junit.Assert.assertEquals(Arrays.asList("", "HX", "PMH", "PLAN"), tagList);
+  }
+
+  @Test
+  public void testSentenceOffsets() throws IOException {
+    ClinicalSentenceExtractor extractor = extractor(null);
+    String text = note("\n");
+    org.junit.Assert.assertEquals(expectedSentences(text, 0, false),
+				  sentences(extractor.createSentenceList(text), text, 0));
+    org.junit.Assert.assertEquals(expectedSentences(text, 250, false),
+				  sentences(extractor.createSentenceList(text, 250), text, 250));
+  }
+
+  @Test
+  public void testLineTerminators() throws IOException {
+    ClinicalSentenceExtractor extractor = extractor(null);
+    for (String terminator: new String[] { "\r\n", "\r" }) {
+      String text = note(terminator);
+      org.junit.Assert.assertEquals(expectedSentences(text, 40, false),
+				    sentences(extractor.createSentenceList(text, 40), text, 40));
+    }
+  }
+
+  @Test
+  public void testSkippedSection() throws IOException {
+    ClinicalSentenceExtractor extractor = extractor("PLAN, unknown");
+    org.junit.Assert.assertTrue(extractor.isSkipped("PLAN"));
+    org.junit.Assert.assertFalse(extractor.isSkipped("HX"));
+    String text = note("\r\n");
+    org.junit.Assert.assertEquals(expectedSentences(text, 0, true),
+				  sentences(extractor.createSentenceList(text), text, 0));
+  }
+}
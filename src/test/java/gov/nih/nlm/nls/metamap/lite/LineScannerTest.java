@@ -0,0 +1,184 @@
+package gov.nih.nlm.nls.metamap.lite;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import gov.nih.nlm.nls.types.Sentence;
+
+/**
+ * Check line scanning and LINES/BLANKLINES segmentation for "\n",
+ * "\r\n" and lone "\r" terminators, a "\r\n" pair split across the
+ * scanner's buffer boundary, trailing text without a terminator, and
+ * that scanning a Reader gives the same lines and offsets as scanning
+ * the equivalent String.
+ */
+@RunWith(JUnit4.class)
+public class LineScannerTest {
+
+  /** Reader returning at most chunkSize chars, with an empty read before each chunk. */
+  static class ChunkedReader extends Reader {
+    String text;
+    int chunkSize;
+    int position = 0;
+    boolean empty = true;
+    ChunkedReader(String text, int chunkSize) {
+      this.text = text;
+      this.chunkSize = chunkSize;
+    }
+    public int read(char[] cbuf, int off, int len) {
+      if (this.position >= this.text.length()) {
+	return -1;
+      }
+      if (this.empty) {
+	this.empty = false;
+	return 0;
+      }
+      this.empty = true;
+      int count = Math.min(Math.min(len, this.chunkSize), this.text.length() - this.position);
+      this.text.getChars(this.position, this.position + count, cbuf, off);
+      this.position += count;
+      return count;
+    }
+    public void close() { }
+  }
+
+  /** @return text, offset and terminator of each line as "text|offset|terminator" */
+  static List<String> scan(LineScanner scanner)
+    throws IOException
+  {
+    List<String> lineList = new ArrayList<String>();
+    while (scanner.nextLine()) {
+      lineList.add(scanner.getLineText() + "|" + scanner.getLineOffset() + "|" +
+		   scanner.getLineTerminator());
+    }
+    return lineList;
+  }
+
+  static List<String> sentences(List<Sentence> sentenceList) {
+    List<String> result = new ArrayList<String>();
+    for (Sentence sentence: sentenceList) {
+      result.add(sentence.getText() + "|" + sentence.getOffset());
+    }
+    return result;
+  }
+
+  static String repeat(char ch, int count) {
+    char[] chars = new char[count];
+    Arrays.fill(chars, ch);
+    return new String(chars);
+  }
+
+  @Test
+  public void testTerminators() throws IOException {
+    String text = "one\r\ntwo\r\rfour\nfive";
+    List<String> expected =
+      Arrays.asList("one|10|\r\n", "two|15|\r", "|19|\r", "four|20|\n", "five|25|");
+    org.junit.Assert.assertEquals(expected, scan(new LineScanner(text, 10)));
+    org.junit.Assert.assertEquals(expected, scan(new LineScanner(new StringReader(text), 10)));
+  }
+
+  @Test
+  public void testTrailingTerminator() throws IOException {
+    org.junit.Assert.assertEquals(Arrays.asList("a|0|\r"), scan(new LineScanner("a\r", 0)));
+    org.junit.Assert.assertEquals(Arrays.asList("a|0|\r\n"), scan(new LineScanner("a\r\n", 0)));
+    org.junit.Assert.assertEquals(Arrays.asList("a|0|\r"),
+				  scan(new LineScanner(new StringReader("a\r"), 0)));
+    org.junit.Assert.assertTrue(scan(new LineScanner("", 0)).isEmpty());
+    org.junit.Assert.assertTrue(scan(new LineScanner(new StringReader(""), 0)).isEmpty());
+  }
+
+  @Test
+  public void testCrLfSplitAcrossBuffer() throws IOException {
+    // CR is the last char of the first buffer, LF the first of the second
+    String first = repeat('a', LineScanner.BUFFER_SIZE - 1);
+    String text = first + "\r\nb\rc";
+    List<String> expected =
+      Arrays.asList(first + "|5|\r\n", "b|" + (5 + LineScanner.BUFFER_SIZE + 1) + "|\r",
+		    "c|" + (5 + LineScanner.BUFFER_SIZE + 3) + "|");
+    org.junit.Assert.assertEquals(expected, scan(new LineScanner(new StringReader(text), 5)));
+    org.junit.Assert.assertEquals(expected, scan(new LineScanner(text, 5)));
+  }
+
+  @Test
+  public void testLineLongerThanBuffer() throws IOException {
+    String longLine = repeat('x', (LineScanner.BUFFER_SIZE * 2) + 17);
+    String text = "a\n" + longLine + "\r\n" + "tail";
+    List<String> expected =
+      Arrays.asList("a|0|\n", longLine + "|2|\r\n", "tail|" + (2 + longLine.length() + 2) + "|");
+    org.junit.Assert.assertEquals(expected, scan(new LineScanner(new StringReader(text), 0)));
+    org.junit.Assert.assertEquals(expected, scan(new LineScanner(text, 0)));
+  }
+
+  @Test
+  public void testReaderStringParity() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    String[] terminators = { "\n", "\r\n", "\r", "\n\n", "\r\n\r\n", " \r" };
+    for (int i = 0; i < 3000; i++) {
+      sb.append("line ").append(i).append(terminators[i % terminators.length]);
+    }
+    sb.append("last line");
+    String text = sb.toString();
+    List<String> expected = scan(new LineScanner(text, 100));
+    org.junit.Assert.assertEquals(expected, scan(new LineScanner(new StringReader(text), 100)));
+    for (int chunkSize: new int[] { 1, 2, 3, 7, 4096 }) {
+      org.junit.Assert.assertEquals(expected, scan(new LineScanner(new ChunkedReader(text, chunkSize), 100)));
+    }
+    LineSentenceExtractor lineExtractor = new LineSentenceExtractor();
+    org.junit.Assert.assertEquals(sentences(lineExtractor.createSentenceList(text, 100)),
+				  sentences(lineExtractor.createSentenceList(new ChunkedReader(text, 3), 100)));
+    BlankLineSentenceExtractor blankLineExtractor = new BlankLineSentenceExtractor();
+    org.junit.Assert.assertEquals(sentences(blankLineExtractor.createSentenceList(text, 100)),
+				  sentences(blankLineExtractor.createSentenceList(new ChunkedReader(text, 3), 100)));
+  }
+
+  @Test
+  public void testEmptyReadsBounded() {
+    Reader reader = new Reader() {
+	public int read(char[] cbuf, int off, int len) { return 0; }
+	public void close() { }
+      };
+    try {
+      new LineScanner(reader, 0).nextLine();
+      org.junit.Assert.fail("reader that never returns chars was not detected");
+    } catch (IOException exception) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testLineSentences() throws IOException {
+    String text = "First line.\r\n  \r\nSecond line.\rThird line.\n\nlast";
+    List<String> expected =
+      Arrays.asList("First line.|0", "Second line.|17", "Third line.|30", "last|43");
+    LineSentenceExtractor extractor = new LineSentenceExtractor();
+    org.junit.Assert.assertEquals(expected, sentences(extractor.createSentenceList(text)));
+    org.junit.Assert.assertEquals(expected,
+				  sentences(extractor.createSentenceList(new StringReader(text), 0)));
+    for (String sentence: expected) {
+      String sentenceText = sentence.substring(0, sentence.lastIndexOf('|'));
+      int offset = Integer.parseInt(sentence.substring(sentence.lastIndexOf('|') + 1));
+      org.junit.Assert.assertEquals(sentenceText, text.substring(offset, offset + sentenceText.length()));
+    }
+  }
+
+  @Test
+  public void testBlankLineSentences() throws IOException {
+    String text = "Para one\r\ncontinued.\r\n \r\nPara two\rcontinued\n\n\r\nlast\nline";
+    List<String> expected =
+      Arrays.asList("Para one\r\ncontinued.|0", "Para two\rcontinued|25", "last\nline|47");
+    BlankLineSentenceExtractor extractor = new BlankLineSentenceExtractor();
+    org.junit.Assert.assertEquals(expected, sentences(extractor.createSentenceList(text)));
+    org.junit.Assert.assertEquals(expected,
+				  sentences(extractor.createSentenceList(new StringReader(text), 0)));
+    org.junit.Assert.assertEquals(expected,
+				  sentences(extractor.createSentenceList(new ChunkedReader(text, 1), 0)));
+  }
+}
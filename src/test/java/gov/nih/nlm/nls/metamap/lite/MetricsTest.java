@@ -0,0 +1,125 @@
+package gov.nih.nlm.nls.metamap.lite;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Properties;
+
+/**
+ * Check that nothing is recorded while metrics are disabled and that
+ * counters, timers and document statistics are updated once they are
+ * enabled.
+ */
+@RunWith(JUnit4.class)
+public class MetricsTest {
+
+  /** record one of everything */
+  static void recordAll() {
+    long startNanos = Metrics.start();
+    Metrics.increment("test.count");
+    Metrics.indexLookup("cuiconcept");
+    Metrics.cacheAccess("term", true);
+    Metrics.cacheAccess("term", false);
+    Metrics.stop("lookup", startNanos);
+    Metrics.recordDocument("doc1", startNanos);
+  }
+
+  @Test
+  public void testDisabledRecordsNothing() {
+    boolean wasEnabled = Metrics.enabled;
+    Metrics.resetAll();
+    try {
+      Metrics.enabled = false;
+      Properties properties = new Properties();
+      properties.setProperty("metamaplite.metrics.enable", "false");
+      Metrics.init(properties);
+      org.junit.Assert.assertFalse(Metrics.isEnabled());
+      org.junit.Assert.assertEquals(0L, Metrics.start());
+      for (int i = 0; i < 3; i++) {
+	recordAll();
+      }
+      org.junit.Assert.assertTrue(Metrics.counterMap.isEmpty());
+      org.junit.Assert.assertTrue(Metrics.timerMap.isEmpty());
+      org.junit.Assert.assertEquals(0, Metrics.documentCount.get());
+      org.junit.Assert.assertEquals(0, Metrics.documentNanos.get());
+      org.junit.Assert.assertTrue(Metrics.slowestDocuments().isEmpty());
+      for (int i = 0; i < Metrics.bucketBounds.length; i++) {
+	org.junit.Assert.assertEquals(0, Metrics.documentHistogram.get(i));
+      }
+    } finally {
+      Metrics.enabled = wasEnabled;
+      Metrics.resetAll();
+    }
+  }
+
+  @Test
+  public void testEnabledCounters() {
+    boolean wasEnabled = Metrics.enabled;
+    Metrics.resetAll();
+    try {
+      Metrics.enabled = true;
+      for (int i = 0; i < 3; i++) {
+	recordAll();
+      }
+      org.junit.Assert.assertEquals(3, Metrics.counterValue("test.count"));
+      org.junit.Assert.assertEquals(3, Metrics.counterValue("index.cuiconcept.lookups"));
+      org.junit.Assert.assertEquals(3, Metrics.counterValue("cache.term.hits"));
+      org.junit.Assert.assertEquals(3, Metrics.counterValue("cache.term.misses"));
+      org.junit.Assert.assertEquals(0.5, Metrics.hitRate("term"), 0.0);
+      org.junit.Assert.assertEquals(0, Metrics.counterValue("test.unused"));
+    } finally {
+      Metrics.enabled = wasEnabled;
+      Metrics.resetAll();
+    }
+  }
+
+  @Test
+  public void testEnabledTimers() throws InterruptedException {
+    boolean wasEnabled = Metrics.enabled;
+    Metrics.resetAll();
+    try {
+      Metrics.enabled = true;
+      long startNanos = Metrics.start();
+      org.junit.Assert.assertTrue(startNanos != 0L);
+      Thread.sleep(2);
+      Metrics.stop("format", startNanos);
+      Metrics.stop("format", Metrics.start());
+      Metrics.Timer timer = Metrics.timerMap.get("format");
+      org.junit.Assert.assertNotNull(timer);
+      org.junit.Assert.assertEquals(2, timer.getCount());
+      org.junit.Assert.assertTrue(timer.getMaxNanos() >= 2000000L);
+      org.junit.Assert.assertTrue(timer.getTotalNanos() >= timer.getMaxNanos());
+    } finally {
+      Metrics.enabled = wasEnabled;
+      Metrics.resetAll();
+    }
+  }
+
+  @Test
+  public void testEnabledDocuments() {
+    boolean wasEnabled = Metrics.enabled;
+    Metrics.resetAll();
+    try {
+      Metrics.enabled = true;
+      long now = System.nanoTime();
+      Metrics.recordDocument("fast", now);
+      Metrics.recordDocument("slow", now - 3000000000L);
+      org.junit.Assert.assertEquals(2, Metrics.documentCount.get());
+      org.junit.Assert.assertEquals("slow", Metrics.slowestDocuments().get(0).docid);
+      long histogramTotal = 0;
+      for (int i = 0; i < Metrics.bucketBounds.length; i++) {
+	histogramTotal += Metrics.documentHistogram.get(i);
+      }
+      org.junit.Assert.assertEquals(2, histogramTotal);
+      // 3000 ms falls in the "<=5000ms" bucket
+      org.junit.Assert.assertEquals(1, Metrics.documentHistogram.get(11));
+      Metrics.resetAll();
+      org.junit.Assert.assertEquals(0, Metrics.documentCount.get());
+      org.junit.Assert.assertTrue(Metrics.slowestDocuments().isEmpty());
+    } finally {
+      Metrics.enabled = wasEnabled;
+      Metrics.resetAll();
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package gov.nih.nlm.nls.metamap.lite;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+
+import gov.nih.nlm.nls.metamap.prefix.ERToken;
+import gov.nih.nlm.nls.metamap.prefix.Scanner;
+
+/**
+ * Check that the scoring context of a phrase finds the head of the
+ * phrase once however many candidate terms are scored against it,
+ * that it finds the same head as findHeadPos, and that tokenizations
+ * of matched texts and Metathesaurus strings are reused.
+ */
+@RunWith(JUnit4.class)
+public class PhraseScoringContextTest {
+
+  /** scoring context counting head position computations */
+  static class CountingContext extends EntityLookup5.PhraseScoringContext {
+    int headPosCount = 0;
+    CountingContext(List<ERToken> phraseTokenList, String phraseType) {
+      super(phraseTokenList, phraseType);
+    }
+    int computeHeadPos() {
+      this.headPosCount++;
+      return super.computeHeadPos();
+    }
+  }
+
+  /** tokens of "acute chest pain" tagged JJ NN NN */
+  static List<ERToken> phrase() {
+    List<ERToken> tokenList = Scanner.analyzeTextNoWS("acute chest pain");
+    String[] tags = { "JJ", "NN", "NN" };
+    for (int i = 0; i < tags.length; i++) {
+      tokenList.get(i).setPartOfSpeech(tags[i]);
+    }
+    return tokenList;
+  }
+
+  @Test public void testHeadFoundOncePerPhrase() {
+    CountingContext context = new CountingContext(phrase(), "NP");
+    org.junit.Assert.assertEquals(0, context.headPosCount);
+    String[] evTerms = { "chest pain", "Chest Pain, acute", "pain", "acute chest pain" };
+    for (String evTerm: evTerms) {
+      org.junit.Assert.assertEquals(1, context.getHeadPos());
+      context.tokenize(evTerm);
+      context.tokenize("chest pain");
+    }
+    org.junit.Assert.assertEquals(1, context.headPosCount);
+  }
+
+  @Test public void testHeadSameAsHeadPosition() {
+    List<ERToken> tokenList = phrase();
+    String[] phraseTypes = { "NP", "VP", "PP", "ADJP", "ADVP", "XX" };
+    for (String phraseType: phraseTypes) {
+      EntityLookup5.PhraseScoringContext context =
+	new EntityLookup5.PhraseScoringContext(tokenList, phraseType);
+      org.junit.Assert.assertEquals(EntityLookup5.headPosition(tokenList, phraseType),
+				    context.getHeadPos());
+    }
+  }
+
+  @Test public void testTokenizationReused() {
+    EntityLookup5.PhraseScoringContext context =
+      new EntityLookup5.PhraseScoringContext(phrase(), "NP");
+    List<ERToken> first = context.tokenize("chest pain");
+    org.junit.Assert.assertSame(first, context.tokenize("chest pain"));
+    org.junit.Assert.assertEquals(Scanner.analyzeTextNoWS("chest pain").size(), first.size());
+  }
+}
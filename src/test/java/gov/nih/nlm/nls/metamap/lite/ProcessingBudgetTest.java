@@ -0,0 +1,68 @@
+package gov.nih.nlm.nls.metamap.lite;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Properties;
+
+/**
+ * Check that every document started with startDocument gets a fresh
+ * budget, whatever its document id, and that open documents are not
+ * shared between threads.
+ */
+@RunWith(JUnit4.class)
+public class ProcessingBudgetTest {
+
+  static ProcessingBudget tokenLimitBudget() {
+    Properties properties = new Properties();
+    properties.setProperty("metamaplite.budget.sentence.tokens", "10");
+    return new ProcessingBudget(properties);
+  }
+
+  @Test public void testSameDocidGetsFreshBudget() {
+    ProcessingBudget budget = tokenLimitBudget();
+    budget.startDocument("00000000");
+    budget.document("00000000").startSentence(100);
+    org.junit.Assert.assertTrue(budget.document("00000000").isDegraded());
+    budget.endDocument();
+
+    budget.startDocument("00000000");
+    ProcessingBudget documentBudget = budget.document("00000000");
+    org.junit.Assert.assertFalse(documentBudget.isDegraded());
+    documentBudget.startSentence(5);
+    org.junit.Assert.assertFalse(documentBudget.isDegraded());
+    org.junit.Assert.assertEquals(20, documentBudget.windowSize(20));
+    budget.endDocument();
+  }
+
+  @Test public void testDegradedStateLastsForDocument() {
+    ProcessingBudget budget = tokenLimitBudget();
+    budget.startDocument("doc1");
+    budget.document("doc1").startSentence(100);
+    budget.document("doc1").startSentence(5);
+    org.junit.Assert.assertTrue(budget.document("doc1").isDegraded());
+    org.junit.Assert.assertEquals(5, budget.document("doc1").windowSize(20));
+    budget.endDocument();
+    org.junit.Assert.assertFalse(budget.isDocumentOpen());
+  }
+
+  @Test public void testOpenDocumentIsPerThread() throws InterruptedException {
+    final ProcessingBudget budget = tokenLimitBudget();
+    budget.startDocument("doc1");
+    budget.document("doc1").startSentence(100);
+    final boolean[] otherThread = new boolean[2];
+    Thread thread = new Thread(new Runnable() {
+	public void run() {
+	  otherThread[0] = budget.isDocumentOpen();
+	  otherThread[1] = budget.document("doc2").isDegraded();
+	}
+      });
+    thread.start();
+    thread.join();
+    org.junit.Assert.assertFalse(otherThread[0]);
+    org.junit.Assert.assertFalse(otherThread[1]);
+    org.junit.Assert.assertTrue(budget.document("doc1").isDegraded());
+    budget.endDocument();
+  }
+}
@@ -0,0 +1,113 @@
+package gov.nih.nlm.nls.metamap.lite;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import bioc.BioCPassage;
+
+import gov.nih.nlm.nls.metamap.lite.types.ConceptInfo;
+import gov.nih.nlm.nls.metamap.lite.types.Entity;
+import gov.nih.nlm.nls.metamap.lite.types.Ev;
+
+/**
+ * Check that results in the result cache log are reused by later
+ * caches with the same index and dropped when the contents of the
+ * index directory change.
+ */
+@RunWith(JUnit4.class)
+public class ResultCacheTest {
+
+  static void writeFile(File file, String content) throws IOException {
+    FileWriter writer = new FileWriter(file);
+    writer.write(content);
+    writer.close();
+  }
+
+  static Properties cacheProperties(File dir) {
+    Properties properties = new Properties();
+    properties.setProperty("metamaplite.index.directory", new File(dir, "index").getPath());
+    properties.setProperty("metamaplite.result.cache.file", new File(dir, "results.log").getPath());
+    return properties;
+  }
+
+  static BioCPassage passage() {
+    BioCPassage passage = new BioCPassage();
+    passage.setText("Patient denies chest pain.");
+    passage.setOffset(0);
+    return passage;
+  }
+
+  static List<Entity> entityList() {
+    ConceptInfo conceptInfo = new ConceptInfo("C0008031", "Chest Pain", "chest pain",
+					      new HashSet<String>(), new HashSet<String>());
+    Set<Ev> evSet = new HashSet<Ev>();
+    evSet.add(new Ev(conceptInfo, "chest pain", "chest pain", 15, 10, 1000.0, "noun"));
+    List<Entity> entityList = new ArrayList<Entity>();
+    entityList.add(new Entity("E1", "doc1", "text", "chest pain", "noun", 0, 15, 10, 1.0, evSet));
+    return entityList;
+  }
+
+  static List<Entity> lookup(Properties properties) throws IOException {
+    ResultCache cache = new ResultCache(properties);
+    try {
+      return cache.get(cache.digest("", passage()), "doc2", 0);
+    } finally {
+      ResultCache.closeAll();
+    }
+  }
+
+  static File workingDir() throws IOException {
+    File dir = File.createTempFile("resultcache", "");
+    dir.delete();
+    new File(dir, "index").mkdirs();
+    writeFile(new File(dir, "index/postings"), "0123456789");
+    return dir;
+  }
+
+  @Test public void testReuseWithSameIndex() throws IOException {
+    File dir = workingDir();
+    Properties properties = cacheProperties(dir);
+    ResultCache cache = new ResultCache(properties);
+    cache.put(cache.digest("", passage()), 0, entityList());
+    ResultCache.closeAll();
+
+    List<Entity> cachedList = lookup(properties);
+    org.junit.Assert.assertNotNull(cachedList);
+    org.junit.Assert.assertEquals(1, cachedList.size());
+    org.junit.Assert.assertEquals("doc2", cachedList.get(0).getDocid());
+    org.junit.Assert.assertEquals(15, cachedList.get(0).getStart());
+  }
+
+  @Test public void testIndexChangeInvalidatesLog() throws IOException {
+    File dir = workingDir();
+    Properties properties = cacheProperties(dir);
+    ResultCache cache = new ResultCache(properties);
+    cache.put(cache.digest("", passage()), 0, entityList());
+    ResultCache.closeAll();
+    long logLength = new File(dir, "results.log").length();
+    org.junit.Assert.assertTrue(logLength > ResultCache.HEADER_SIZE);
+
+    writeFile(new File(dir, "index/partition"), "rebuilt");
+    org.junit.Assert.assertNull(lookup(properties));
+    org.junit.Assert.assertEquals(ResultCache.HEADER_SIZE, new File(dir, "results.log").length());
+  }
+
+  @Test public void testFingerprintDependsOnIndexContents() throws IOException {
+    File dir = workingDir();
+    Properties properties = cacheProperties(dir);
+    byte[] fingerprint = ResultCache.fingerprint(properties);
+    org.junit.Assert.assertArrayEquals(fingerprint, ResultCache.fingerprint(properties));
+    writeFile(new File(dir, "index/postings"), "01234567890123456789");
+    org.junit.Assert.assertFalse(java.util.Arrays.equals(fingerprint, ResultCache.fingerprint(properties)));
+  }
+}
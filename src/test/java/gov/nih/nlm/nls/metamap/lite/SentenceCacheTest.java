@@ -0,0 +1,87 @@
+package gov.nih.nlm.nls.metamap.lite;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import gov.nih.nlm.nls.metamap.lite.types.ConceptInfo;
+import gov.nih.nlm.nls.metamap.lite.types.Entity;
+import gov.nih.nlm.nls.metamap.lite.types.Ev;
+
+/**
+ * Check that entities returned by the sentence cache are re-based to
+ * the offset and sentence number of the requesting sentence rather
+ * than keeping those of the sentence they were stored from, and that
+ * frequent sentences survive a stream of unique ones.
+ */
+@RunWith(JUnit4.class)
+public class SentenceCacheTest {
+
+  static final String SENTENCE = "Patient denies chest pain.";
+
+  /** entity of "chest pain" in SENTENCE at offset and sentence number */
+  static List<Entity> entityList(String docid, int offset, int sentenceNumber) {
+    ConceptInfo conceptInfo = new ConceptInfo("C0008031", "Chest Pain", "chest pain",
+					      new HashSet<String>(), new HashSet<String>());
+    Set<Ev> evSet = new HashSet<Ev>();
+    evSet.add(new Ev(conceptInfo, "chest pain", "chest pain", offset + 15, 10, 1000.0, "noun"));
+    Entity entity = new Entity("E1", docid, "text", "chest pain", "noun", sentenceNumber,
+			       offset + 15, 10, 1.0, evSet);
+    entity.setNegated(true);
+    entity.setTemporality("recent");
+    List<Entity> entityList = new ArrayList<Entity>();
+    entityList.add(entity);
+    return entityList;
+  }
+
+  @Test public void testRebase() {
+    SentenceCache cache = new SentenceCache(10);
+    cache.put(SENTENCE, 100, 3, entityList("doc1", 100, 5));
+    Set<Entity> entitySet = cache.get(SENTENCE, "doc2", "title", 40, 7);
+    org.junit.Assert.assertNotNull(entitySet);
+    org.junit.Assert.assertEquals(1, entitySet.size());
+    Entity entity = entitySet.iterator().next();
+    org.junit.Assert.assertEquals("doc2", entity.getDocid());
+    org.junit.Assert.assertEquals("title", entity.getFieldId());
+    org.junit.Assert.assertEquals(55, entity.getStart());
+    org.junit.Assert.assertEquals(55, entity.getEvList().get(0).getStart());
+    org.junit.Assert.assertEquals(9, entity.getSentenceNumber());
+    org.junit.Assert.assertTrue(entity.isNegated());
+    org.junit.Assert.assertEquals("recent", entity.getTemporality());
+  }
+
+  @Test public void testSameBaseKeepsSentenceNumber() {
+    SentenceCache cache = new SentenceCache(10);
+    cache.put(SENTENCE, 0, 0, entityList("doc1", 0, 2));
+    Entity entity = cache.get(SENTENCE, "doc2", "text", 200, 0).iterator().next();
+    org.junit.Assert.assertEquals(2, entity.getSentenceNumber());
+    org.junit.Assert.assertEquals(215, entity.getStart());
+  }
+
+  @Test public void testCopiesAreIndependent() {
+    SentenceCache cache = new SentenceCache(10);
+    List<Entity> storedList = entityList("doc1", 0, 0);
+    cache.put(SENTENCE, 0, 0, storedList);
+    storedList.get(0).setNegated(false);
+    Entity first = cache.get(SENTENCE, "doc2", "text", 0, 0).iterator().next();
+    first.setNegated(false);
+    org.junit.Assert.assertTrue(cache.get(SENTENCE, "doc3", "text", 0, 0).iterator().next().isNegated());
+  }
+
+  @Test public void testFrequentSentenceSurvivesUniqueSentences() {
+    SentenceCache cache = new SentenceCache(10);
+    cache.put(SENTENCE, 0, 0, entityList("doc1", 0, 0));
+    org.junit.Assert.assertNotNull(cache.get(SENTENCE, "doc2", "text", 0, 0));
+    for (int i = 0; i < 100; i++) {
+      cache.put("unique sentence " + i, 0, 0, new ArrayList<Entity>());
+    }
+    org.junit.Assert.assertNotNull(cache.get(SENTENCE, "doc3", "text", 0, 0));
+    org.junit.Assert.assertNull(cache.get("unique sentence 0", "doc3", "text", 0, 0));
+    org.junit.Assert.assertEquals(10, cache.size());
+  }
+}
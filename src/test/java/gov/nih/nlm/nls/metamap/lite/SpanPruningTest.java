@@ -0,0 +1,94 @@
+package gov.nih.nlm.nls.metamap.lite;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import gov.nih.nlm.nls.metamap.lite.types.Entity;
+import gov.nih.nlm.nls.metamap.lite.types.Ev;
+
+/**
+ * Check that SpanPruning produces the same results as the pairwise
+ * subsumption test of EntityLookup4/5 and the start/end map pruning
+ * of BioCLRLongestMatchLookup on randomized span sets.
+ */
+@RunWith(JUnit4.class)
+public class SpanPruningTest {
+
+  static final String text =
+    "obstructive sleep apnea and blood sugar level in patients with type 2 diabetes mellitus";
+
+  /** pairwise subsumption test formerly used by EntityLookup5.removeSubsumedEntities */
+  static Set<Entity> pairwiseRemoveSubsumedEntities(Set<Entity> entitySet) {
+    Set<Entity> newEntitySet = new HashSet<Entity>();
+    for (Entity entity: entitySet) {
+      boolean subsumed = false;
+      for (Entity otherEntity: entitySet) {
+	if ((entity.getText() != otherEntity.getText()) &&
+	    (entity.getStart() >= otherEntity.getStart()) &&
+	    (entity.getStart()+entity.getLength() <= otherEntity.getStart()+otherEntity.getLength())) {
+	  subsumed = true;
+	}
+      }
+      if (! subsumed) {
+	newEntitySet.add(entity);
+      }
+    }
+    return newEntitySet;
+  }
+
+  /** map based pruning formerly used by BioCLRLongestMatchLookup.removeSubsumingEntities */
+  static Set<Entity> mapRemoveSubsumingEntities(Set<Entity> entitySet) {
+    Map<Integer,Entity> startMap = new HashMap<Integer,Entity>();
+    for (Entity entity: entitySet) {
+      Integer key = entity.getStart();
+      if ((! startMap.containsKey(key)) || (startMap.get(key).getLength() < entity.getLength())) {
+	startMap.put(key, entity);
+      }
+    }
+    Map<Integer,Entity> endMap = new HashMap<Integer,Entity>();
+    for (Entity entity: startMap.values()) {
+      Integer key = entity.getStart() + entity.getLength();
+      if ((! endMap.containsKey(key)) || (endMap.get(key).getStart() > entity.getStart())) {
+	endMap.put(key, entity);
+      }
+    }
+    return new HashSet<Entity>(endMap.values());
+  }
+
+  static Set<Entity> randomEntitySet(Random random) {
+    Set<Entity> entitySet = new HashSet<Entity>();
+    int count = random.nextInt(40);
+    for (int i = 0; i < count; i++) {
+      int start = random.nextInt(text.length() - 1);
+      int length = 1 + random.nextInt(Math.min(25, text.length() - start));
+      entitySet.add(new Entity("00", text.substring(start, start + length),
+			       start, length, 0.0, new HashSet<Ev>()));
+    }
+    return entitySet;
+  }
+
+  @Test public void testRemoveSubsumedEntitiesParity() {
+    Random random = new Random(20170420L);
+    for (int trial = 0; trial < 2000; trial++) {
+      Set<Entity> entitySet = randomEntitySet(random);
+      org.junit.Assert.assertEquals(pairwiseRemoveSubsumedEntities(entitySet),
+				    SpanPruning.removeSubsumedEntities(entitySet));
+    }
+  }
+
+  @Test public void testRemoveSharedBoundaryEntitiesParity() {
+    Random random = new Random(20170421L);
+    for (int trial = 0; trial < 2000; trial++) {
+      Set<Entity> entitySet = randomEntitySet(random);
+      org.junit.Assert.assertEquals(mapRemoveSubsumingEntities(entitySet),
+				    SpanPruning.removeSharedBoundaryEntities(entitySet));
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package gov.nih.nlm.nls.metamap.lite;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import gov.nih.nlm.nls.metamap.lite.types.ConceptInfo;
+import gov.nih.nlm.nls.metamap.prefix.ClassifiedTokenImpl;
+import gov.nih.nlm.nls.metamap.prefix.PosTokenImpl;
+import gov.nih.nlm.nls.metamap.prefix.Token;
+
+/**
+ * Check that a batch lookup looks each distinct missed term up once
+ * and that a term occurring more than once in a batch gets the same
+ * concepts at each occurrence without the set returned for an
+ * earlier occurrence being modified.
+ */
+@RunWith(JUnit4.class)
+public class TermConceptInfoCacheBatchTest {
+
+  /** term cache with postings from a map, recording each batch of terms looked up */
+  static class MapTermConceptInfoCache extends TermConceptInfoCache {
+    Map<String,List<String>> postingMap = new HashMap<String,List<String>>();
+    List<List<String>> lookupList = new ArrayList<List<String>>();
+    MapTermConceptInfoCache(boolean enableCache) {
+      super(new Properties(), null, null, null, null, new SpecialTerms());
+      this.enableTermConceptInfoCache = enableCache;
+    }
+    void addPosting(String cui, String term) {
+      if (! this.postingMap.containsKey(term)) {
+	this.postingMap.put(term, new ArrayList<String>());
+      }
+      this.postingMap.get(term).add(cui + "|S0000001|1|" + term);
+    }
+    List<List<String>> lookupPostings(List<String> normTermList) {
+      this.lookupList.add(new ArrayList<String>(normTermList));
+      List<List<String>> postingListList = new ArrayList<List<String>>();
+      for (String normTerm: normTermList) {
+	postingListList.add(this.postingMap.containsKey(normTerm) ?
+			    this.postingMap.get(normTerm) : new ArrayList<String>());
+      }
+      return postingListList;
+    }
+    ConceptInfo buildConceptInfo(String cui, String docStr) {
+      return new ConceptInfo(cui, cui, docStr, new HashSet<String>(), new HashSet<String>());
+    }
+  }
+
+  static List<Token> posTokenList(String term) {
+    return Arrays.asList((Token)new PosTokenImpl(term, 0));
+  }
+
+  static List<Token> plainTokenList(String term) {
+    return Arrays.asList((Token)new ClassifiedTokenImpl(term, "uc"));
+  }
+
+  static Set<String> cuis(Set<ConceptInfo> conceptInfoSet) {
+    Set<String> cuiSet = new HashSet<String>();
+    for (ConceptInfo conceptInfo: conceptInfoSet) {
+      cuiSet.add(conceptInfo.getCUI());
+    }
+    return cuiSet;
+  }
+
+  @Test
+  public void testDuplicateTermLookedUpOnce() throws Exception {
+    for (boolean enableCache: new boolean[] { true, false }) {
+      String mi = enableCache ? "bmi" : "cmi";
+      String copd = enableCache ? "bcpd" : "ccpd";
+      MapTermConceptInfoCache cache = new MapTermConceptInfoCache(enableCache);
+      cache.addPosting("C0027051", mi);
+      cache.addPosting("C0024117", copd);
+      List<String> termList = Arrays.asList(mi, copd, mi);
+      List<Set<ConceptInfo>> resultList =
+	cache.lookupTermConceptInfo(termList, termList,
+				    Arrays.asList(posTokenList(mi), posTokenList(copd), posTokenList(mi)));
+      org.junit.Assert.assertEquals(Arrays.asList(Arrays.asList(mi, copd)), cache.lookupList);
+      org.junit.Assert.assertEquals(new HashSet<String>(Arrays.asList("C0027051")), cuis(resultList.get(0)));
+      org.junit.Assert.assertEquals(new HashSet<String>(Arrays.asList("C0024117")), cuis(resultList.get(1)));
+      org.junit.Assert.assertEquals(cuis(resultList.get(0)), cuis(resultList.get(2)));
+    }
+  }
+
+  @Test
+  public void testDuplicateTermDoesNotModifyEarlierResult() throws Exception {
+    String term = "dmi";
+    MapTermConceptInfoCache cache = new MapTermConceptInfoCache(true);
+    cache.addPosting("C0027051", term);
+    List<String> termList = Arrays.asList(term, term);
+    // concepts are only kept for a term with part of speech tokens,
+    // so the two occurrences would give different sets if looked up separately.
+    List<Set<ConceptInfo>> resultList =
+      cache.lookupTermConceptInfo(termList, termList,
+				  Arrays.asList(plainTokenList(term), posTokenList(term)));
+    org.junit.Assert.assertTrue(resultList.get(0).isEmpty());
+    // same as a later single lookup, which finds the cached set
+    org.junit.Assert.assertEquals(cuis(resultList.get(0)), cuis(resultList.get(1)));
+    org.junit.Assert.assertTrue(cuis(TermConceptInfoCache.termConceptCache.get(cache.cacheKey(term))).isEmpty());
+
+    // a later batch is answered from the cache
+    List<Set<ConceptInfo>> laterList =
+      cache.lookupTermConceptInfo(Arrays.asList(term), Arrays.asList(term),
+				  Arrays.asList(posTokenList(term)));
+    org.junit.Assert.assertEquals(1, cache.lookupList.size());
+    org.junit.Assert.assertTrue(laterList.get(0).isEmpty());
+    org.junit.Assert.assertTrue(resultList.get(0).isEmpty());
+  }
+}
@@ -0,0 +1,159 @@
+package gov.nih.nlm.nls.metamap.lite;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import gov.nih.nlm.nls.metamap.lite.types.ConceptInfo;
+
+/**
+ * Check that warm cache hits return the concepts, preferred names
+ * and normalized strings stored in the cache, the same on every
+ * lookup, that misses return null, and that the term profile and
+ * the top-N selection respect their configured bounds.
+ */
+@RunWith(JUnit4.class)
+public class WarmCacheTest {
+
+  /** @return cache file holding a few terms, cuis and normalized strings */
+  static File writeCache() throws IOException {
+    Map<String,String> termTable = new HashMap<String,String>();
+    termTable.put("flu", "C0021400|Influenza|flu|MSH,SNOMEDCT_US|dsyn\n" +
+		  "C0016479|Food, Flour|FLU|MSH|food\n" +
+		  "C9999999|Excluded|flux|MSH|dsyn");
+    termTable.put("cold", "C0009443|Common Cold|cold|MSH|dsyn");
+    termTable.put("empty", "");
+    Map<String,String> cuiTable = new HashMap<String,String>();
+    cuiTable.put("C0021400", "Influenza");
+    cuiTable.put("C0009443", "Common Cold");
+    Map<String,String> normStringTable = new HashMap<String,String>();
+    normStringTable.put("Influenza", "influenza");
+    normStringTable.put("na\u00efve", "naive");
+    List<Map<String,String>> tableList = new ArrayList<Map<String,String>>();
+    tableList.add(termTable);
+    tableList.add(cuiTable);
+    tableList.add(normStringTable);
+    File cacheFile = File.createTempFile("warmcache", ".bin");
+    cacheFile.deleteOnExit();
+    WarmCache.writeTables(cacheFile.getPath(), tableList);
+    return cacheFile;
+  }
+
+  static String sorted(Set<String> stringSet) {
+    List<String> stringList = new ArrayList<String>(stringSet);
+    Collections.sort(stringList);
+    return stringList.toString();
+  }
+
+  /** @return concepts as sorted "cui|preferred name|concept string|sources|semtypes" strings */
+  static List<String> render(Set<ConceptInfo> conceptInfoSet) {
+    List<String> result = new ArrayList<String>();
+    for (ConceptInfo conceptInfo: conceptInfoSet) {
+      result.add(conceptInfo.getCUI() + "|" + conceptInfo.getPreferredName() + "|" +
+		 conceptInfo.getConceptString() + "|" +
+		 sorted(conceptInfo.getSourceSet()) + "|" +
+		 sorted(conceptInfo.getSemanticTypeSet()));
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  @Test
+  public void testHitsIdentical() throws IOException {
+    WarmCache warmCache = new WarmCache(writeCache().getPath());
+    SpecialTerms excludedTerms = new SpecialTerms(new HashSet<String>());
+    List<String> expected = new ArrayList<String>();
+    expected.add("C0016479|Food, Flour|FLU|[MSH]|[food]");
+    expected.add("C0021400|Influenza|flu|[MSH, SNOMEDCT_US]|[dsyn]");
+    boolean registryEnabled = ConceptInfoRegistry.isEnabled();
+    try {
+      for (boolean enable: new boolean[] { false, true }) {
+	ConceptInfoRegistry.setEnabled(enable);
+	for (int i = 0; i < 3; i++) {
+	  org.junit.Assert.assertEquals
+	    (expected, render(warmCache.lookupTermConceptInfo("Flu", "flu", excludedTerms)));
+	}
+      }
+    } finally {
+      ConceptInfoRegistry.setEnabled(registryEnabled);
+    }
+    org.junit.Assert.assertEquals(6, warmCache.getTermHits());
+    org.junit.Assert.assertTrue(warmCache.lookupTermConceptInfo("", "empty", excludedTerms).isEmpty());
+    org.junit.Assert.assertEquals("Influenza", warmCache.lookupPreferredName("C0021400"));
+    org.junit.Assert.assertEquals("Common Cold", warmCache.lookupPreferredName("C0009443"));
+    org.junit.Assert.assertEquals("influenza", warmCache.lookupNormalizedString("Influenza"));
+    org.junit.Assert.assertEquals("naive", warmCache.lookupNormalizedString("na\u00efve"));
+  }
+
+  @Test
+  public void testMisses() throws IOException {
+    WarmCache warmCache = new WarmCache(writeCache().getPath());
+    SpecialTerms excludedTerms = new SpecialTerms(new HashSet<String>());
+    org.junit.Assert.assertNull(warmCache.lookupTermConceptInfo("fever", "fever", excludedTerms));
+    org.junit.Assert.assertNull(warmCache.lookupTermConceptInfo("fl", "fl", excludedTerms));
+    org.junit.Assert.assertNull(warmCache.lookupPreferredName("C0000000"));
+    org.junit.Assert.assertNull(warmCache.lookupNormalizedString("influenza"));
+    org.junit.Assert.assertEquals(2, warmCache.getTermMisses());
+    org.junit.Assert.assertEquals(0, warmCache.getTermHits());
+  }
+
+  @Test
+  public void testNotWarmCache() throws IOException {
+    File file = File.createTempFile("warmcache", ".txt");
+    file.deleteOnExit();
+    try {
+      new WarmCache(file.getPath());
+      org.junit.Assert.fail("empty file accepted as warm cache");
+    } catch (IOException exception) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testProfileBound() {
+    Properties properties = new Properties();
+    properties.setProperty("metamaplite.warmcache.profile.output", "unused");
+    properties.setProperty("metamaplite.warmcache.profile.size", "3");
+    try {
+      WarmCache.initProfile(properties);
+      for (int i = 0; i < 10; i++) {
+	WarmCache.recordTerm("Term" + i, "term" + i);
+	WarmCache.recordTerm("Term0", "term0");
+      }
+      org.junit.Assert.assertEquals(3, WarmCache.termProfile.size());
+      org.junit.Assert.assertEquals
+	(11, WarmCache.termProfile.get(new WarmCache.TermPair("Term0", "term0")).get());
+      org.junit.Assert.assertEquals
+	(1, WarmCache.termProfile.get(new WarmCache.TermPair("Term2", "term2")).get());
+      org.junit.Assert.assertNull(WarmCache.termProfile.get(new WarmCache.TermPair("Term3", "term3")));
+    } finally {
+      WarmCache.termProfile = null;
+      WarmCache.termProfileLimit = 1000000;
+    }
+  }
+
+  @Test
+  public void testTopKeysBound() {
+    Map<String,Long> countMap = new HashMap<String,Long>();
+    for (int i = 0; i < 10; i++) {
+      countMap.put("term" + i, (long)i);
+    }
+    List<String> expected = new ArrayList<String>();
+    expected.add("term9");
+    expected.add("term8");
+    expected.add("term7");
+    org.junit.Assert.assertEquals(expected, WarmCache.topKeys(countMap, 3));
+    org.junit.Assert.assertEquals(10, WarmCache.topKeys(countMap, 100).size());
+  }
+}
@@ -0,0 +1,67 @@
+package gov.nih.nlm.nls.metamap.lite.metamap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Properties;
+
+import irutils.MappedMultiKeyIndex;
+
+/**
+ * Check that index warm-up is started once per index root, that a
+ * finished warm-up releases its indexes and that the most recently
+ * started warm-up is not kept reachable by IndexWarmup.
+ */
+@RunWith(JUnit4.class)
+public class IndexWarmupTest {
+
+  static String root(String name) {
+    return "warmup-test-" + name + "-" + System.nanoTime();
+  }
+
+  @Test
+  public void testOncePerRoot() throws InterruptedException {
+    Properties properties = new Properties();
+    String root = root("once");
+    IndexWarmup warmup = IndexWarmup.start(root, new ArrayList<MappedMultiKeyIndex>(), properties);
+    org.junit.Assert.assertNotNull(warmup);
+    org.junit.Assert.assertTrue(warmup.awaitCompletion(10000));
+    org.junit.Assert.assertNull(IndexWarmup.start(root, new ArrayList<MappedMultiKeyIndex>(), properties));
+    // still not restarted after the first warm-up has finished
+    org.junit.Assert.assertNull(IndexWarmup.start(root, new ArrayList<MappedMultiKeyIndex>(), properties));
+
+    IndexWarmup otherWarmup =
+      IndexWarmup.start(root("other"), new ArrayList<MappedMultiKeyIndex>(), properties);
+    org.junit.Assert.assertNotNull(otherWarmup);
+    org.junit.Assert.assertTrue(otherWarmup.awaitCompletion(10000));
+  }
+
+  @Test
+  public void testFinishedWarmupReleasesIndexes() throws InterruptedException {
+    IndexWarmup warmup =
+      IndexWarmup.start(root("release"), new ArrayList<MappedMultiKeyIndex>(), new Properties());
+    org.junit.Assert.assertTrue(warmup.awaitCompletion(10000));
+    org.junit.Assert.assertTrue(warmup.isFinished());
+    org.junit.Assert.assertEquals(1.0, warmup.getProgress(), 0.0);
+    org.junit.Assert.assertNull(warmup.indexList);
+    org.junit.Assert.assertNull(warmup.taskList);
+  }
+
+  @Test
+  public void testCurrentHeldWeakly() throws InterruptedException {
+    IndexWarmup warmup =
+      IndexWarmup.start(root("current"), new ArrayList<MappedMultiKeyIndex>(), new Properties());
+    org.junit.Assert.assertSame(warmup, IndexWarmup.getCurrent());
+    org.junit.Assert.assertSame(warmup, IndexWarmup.current.get());
+    org.junit.Assert.assertTrue(warmup.awaitCompletion(10000));
+  }
+
+  @Test
+  public void testDisabled() {
+    Properties properties = new Properties();
+    properties.setProperty("metamaplite.ivf.warmup.enable", "false");
+    org.junit.Assert.assertNull(IndexWarmup.start((MetaMapIvfIndexes)null, properties));
+  }
+}
@@ -0,0 +1,89 @@
+package gov.nih.nlm.nls.metamap.lite.pipeline.plugins;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Check that Plugin.invoke returns the result of the bound stage,
+ * wraps exceptions thrown by the plugin in InvocationTargetException,
+ * rethrows errors unchanged, and counts every call.
+ */
+@RunWith(JUnit4.class)
+public class PluginTest {
+
+  public static Object upperCase(Object input) {
+    return ((String)input).toUpperCase();
+  }
+
+  /** stage throwing the given throwable */
+  static PluginStage throwingStage(final Throwable throwable) {
+    return new PluginStage() {
+      public Object process(Object input) throws Throwable {
+	throw throwable;
+      }
+    };
+  }
+
+  static Plugin plugin(PluginStage stage) {
+    return new Plugin("test", "test plugin", null, null, stage);
+  }
+
+  @Test
+  public void testResult() throws Exception {
+    Plugin plugin = new Plugin("upper", "upper case", null,
+			       PluginTest.class.getMethod("upperCase", Object.class));
+    org.junit.Assert.assertEquals("ABC", plugin.invoke("abc"));
+    org.junit.Assert.assertEquals(1, plugin.getCallCount());
+  }
+
+  @Test
+  public void testExceptionWrapped() {
+    IOException ioException = new IOException("checked");
+    RuntimeException runtimeException = new IllegalStateException("unchecked");
+    for (Exception exception: new Exception[] { ioException, runtimeException }) {
+      Plugin plugin = plugin(throwingStage(exception));
+      try {
+	plugin.invoke("abc");
+	org.junit.Assert.fail("exception not thrown");
+      } catch (InvocationTargetException wrapper) {
+	org.junit.Assert.assertSame(exception, wrapper.getCause());
+      }
+      org.junit.Assert.assertEquals(1, plugin.getCallCount());
+    }
+  }
+
+  @Test
+  public void testErrorRethrown() throws InvocationTargetException {
+    Error[] errors = { new OutOfMemoryError("test"), new StackOverflowError(), new AssertionError("test") };
+    for (Error error: errors) {
+      Plugin plugin = plugin(throwingStage(error));
+      try {
+	plugin.invoke("abc");
+	org.junit.Assert.fail("error not thrown");
+      } catch (Error thrown) {
+	org.junit.Assert.assertSame(error, thrown);
+      }
+      org.junit.Assert.assertEquals(1, plugin.getCallCount());
+    }
+  }
+
+  @Test
+  public void testResetStatistics() throws InvocationTargetException {
+    Plugin plugin = plugin(new PluginStage() {
+	public Object process(Object input) {
+	  return input;
+	}
+      });
+    for (int i = 0; i < 3; i++) {
+      plugin.invoke("abc");
+    }
+    org.junit.Assert.assertEquals(3, plugin.getCallCount());
+    plugin.resetStatistics();
+    org.junit.Assert.assertEquals(0, plugin.getCallCount());
+    org.junit.Assert.assertEquals(0, plugin.getElapsedNanos());
+  }
+}
@@ -0,0 +1,172 @@
+package gov.nih.nlm.nls.metamap.lite.resultformats;
+
+import java.io.BufferedWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import gov.nih.nlm.nls.metamap.lite.resultformats.mmi.MMI;
+import gov.nih.nlm.nls.metamap.lite.types.ConceptInfo;
+import gov.nih.nlm.nls.metamap.lite.types.Entity;
+import gov.nih.nlm.nls.metamap.lite.types.Ev;
+
+/**
+ * Throughput of the Brat, CuiList and MMI formatters on a batch of
+ * synthetic documents, comparing the string building output path
+ * (annotationListToString, renderEntityList(StringBuilder, ...)) with
+ * the BufferedResultWriter path used by entityListFormatter.  The
+ * output of both paths is compared before timing.  MMI output is
+ * rendered without MeSH treecodes.  FormatterParityTest checks the
+ * output of both paths on fixed entities.
+ * <p>
+ * Usage (from the test classpath):
+ * <pre>
+ * FormatterBenchmark [documents (default: 100000)] [entities per document (default: 30)]
+ * </pre>
+ */
+public class FormatterBenchmark {
+
+  static final String[] SEMANTIC_TYPES = {
+    "dsyn", "phsu", "sosy", "bpoc", "orch", "aapp", "gngm", "neop", "patf", "topp" };
+
+  /** Writer discarding its output. */
+  static class NullWriter extends Writer {
+    long count = 0;
+    public void write(char[] cbuf, int off, int len) { this.count += len; }
+    public void flush() { }
+    public void close() { }
+  }
+
+  /** Output path being measured. */
+  interface OutputPath {
+    void format(PrintWriter pw, List<Entity> entityList);
+  }
+
+  static List<List<Entity>> generateDocuments(int documentCount, int entityCount) {
+    Random random = new Random(48);
+    List<ConceptInfo> conceptList = new ArrayList<ConceptInfo>();
+    for (int i = 0; i < 5000; i++) {
+      Set<String> semanticTypeSet = new HashSet<String>();
+      for (int j = 0; j <= random.nextInt(3); j++) {
+	semanticTypeSet.add(SEMANTIC_TYPES[random.nextInt(SEMANTIC_TYPES.length)]);
+      }
+      Set<String> sourceSet = new HashSet<String>();
+      sourceSet.add("MSH");
+      conceptList.add(ConceptInfo.createCore(String.format("C%07d", i), "concept " + i,
+					     sourceSet, semanticTypeSet));
+    }
+    List<List<Entity>> documentList = new ArrayList<List<Entity>>(documentCount);
+    for (int d = 0; d < documentCount; d++) {
+      List<Entity> entityList = new ArrayList<Entity>(entityCount);
+      for (int i = 0; i < entityCount; i++) {
+	ConceptInfo core = conceptList.get(Math.min(conceptList.size() - 1,
+						    (int)Math.abs(random.nextGaussian() * 1000)));
+	String text = core.getPreferredName();
+	Set<Ev> evSet = new HashSet<Ev>();
+	evSet.add(new Ev(new ConceptInfo(core, text), text, text, i * 25, text.length(),
+			 random.nextInt(1000), "noun"));
+	Entity entity = new Entity("E" + i, "doc" + d, (i < 3) ? "title" : "text", text, "noun",
+				   i / 8, i * 25, text.length(), random.nextDouble(), evSet);
+	entity.setNegated(random.nextInt(8) == 0);
+	entityList.add(entity);
+      }
+      documentList.add(entityList);
+    }
+    return documentList;
+  }
+
+  static String render(OutputPath path, List<Entity> entityList) {
+    StringWriter sw = new StringWriter();
+    PrintWriter pw = new PrintWriter(sw);
+    path.format(pw, new ArrayList<Entity>(entityList));
+    pw.flush();
+    return sw.toString();
+  }
+
+  static long time(OutputPath path, List<List<Entity>> documentList) {
+    NullWriter nullWriter = new NullWriter();
+    PrintWriter pw = new PrintWriter(new BufferedWriter(nullWriter));
+    long start = System.nanoTime();
+    for (List<Entity> entityList: documentList) {
+      path.format(pw, entityList);
+    }
+    pw.flush();
+    return System.nanoTime() - start;
+  }
+
+  static void compare(String name, OutputPath oldPath, OutputPath newPath,
+		      List<List<Entity>> documentList) {
+    for (List<Entity> entityList: documentList.subList(0, Math.min(1000, documentList.size()))) {
+      if (! render(oldPath, entityList).equals(render(newPath, entityList))) {
+	System.out.println(name + ": output differs for document " + entityList.get(0).getDocid());
+	return;
+      }
+    }
+    for (int round = 0; round < 3; round++) {
+      long oldTime = time(oldPath, documentList);
+      long newTime = time(newPath, documentList);
+      System.out.printf("%s round %d: string building %.0f docs/s, buffered writer %.0f docs/s (%.2fx)%n",
+			name, round,
+			documentList.size() * 1e9 / oldTime,
+			documentList.size() * 1e9 / newTime,
+			(double)oldTime / newTime);
+    }
+  }
+
+  public static void main(String[] args) {
+    int documentCount = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+    int entityCount = (args.length > 1) ? Integer.parseInt(args[1]) : 30;
+    List<List<Entity>> documentList = generateDocuments(documentCount, entityCount);
+    final Brat brat = new Brat();
+    final MMI mmi = new MMI();
+    final CuiList cuiList = new CuiList();
+    compare("brat",
+	    new OutputPath() {
+	      public void format(PrintWriter pw, List<Entity> entityList) {
+		pw.println(Brat.annotationListToString(brat.textLabel, entityList));
+	      }
+	    },
+	    new OutputPath() {
+	      public void format(PrintWriter pw, List<Entity> entityList) {
+		brat.entityListFormatter(pw, entityList);
+	      }
+	    },
+	    documentList);
+    compare("mmi",
+	    new OutputPath() {
+	      public void format(PrintWriter pw, List<Entity> entityList) {
+		for (Map.Entry<String,List<Entity>> entry: MMI.genDocidEntityMap(entityList).entrySet()) {
+		  StringBuilder sb = new StringBuilder();
+		  mmi.renderEntityList(sb, entry.getKey(), entry.getValue());
+		  pw.print(sb.toString());
+		}
+	      }
+	    },
+	    new OutputPath() {
+	      public void format(PrintWriter pw, List<Entity> entityList) {
+		mmi.entityListFormatter(pw, entityList);
+	      }
+	    },
+	    documentList);
+    compare("cuilist",
+	    new OutputPath() {
+	      public void format(PrintWriter pw, List<Entity> entityList) {
+		for (String cui: CuiList.entityListToCuiSet(entityList)) {
+		  pw.print(cui + "\n");
+		}
+	      }
+	    },
+	    new OutputPath() {
+	      public void format(PrintWriter pw, List<Entity> entityList) {
+		cuiList.entityListFormatter(pw, entityList);
+	      }
+	    },
+	    documentList);
+  }
+}
@@ -0,0 +1,131 @@
+package gov.nih.nlm.nls.metamap.lite.resultformats;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import gov.nih.nlm.nls.metamap.lite.resultformats.mmi.MMI;
+import gov.nih.nlm.nls.metamap.lite.types.ConceptInfo;
+import gov.nih.nlm.nls.metamap.lite.types.Entity;
+import gov.nih.nlm.nls.metamap.lite.types.Ev;
+
+/**
+ * Check that the Brat, CuiList and MMI formatters give the same
+ * output through BufferedResultWriter (entityListFormatter,
+ * entityListFormatToString) as through the string building path
+ * (annotationListToString, renderEntityList(StringBuilder, ...)),
+ * for entities sharing a position, matched text spanning lines,
+ * temporality, negation and several documents in one list.
+ */
+@RunWith(JUnit4.class)
+public class FormatterParityTest {
+
+  static ConceptInfo concept(String cui, String name, String... semanticTypes) {
+    return new ConceptInfo(cui, name, name.toLowerCase(),
+			   new HashSet<String>(Arrays.asList("MSH", "SNOMEDCT_US")),
+			   new HashSet<String>(Arrays.asList(semanticTypes)));
+  }
+
+  static Entity entity(String docid, String fieldid, int start, String text,
+		       double score, ConceptInfo... concepts) {
+    Set<Ev> evSet = new LinkedHashSet<Ev>();
+    for (ConceptInfo conceptInfo: concepts) {
+      evSet.add(new Ev(conceptInfo, text, conceptInfo.getConceptString(),
+		       start, text.length(), score, "noun"));
+    }
+    return new Entity("E" + start, docid, fieldid, text, "noun", 0,
+		      start, text.length(), score, evSet);
+  }
+
+  static List<Entity> fixture() {
+    ConceptInfo infarction = concept("C0027051", "Myocardial Infarction", "dsyn");
+    ConceptInfo heartAttack = concept("C0155626", "Acute myocardial infarction", "dsyn", "fndg");
+    ConceptInfo chestPain = concept("C0008031", "Chest Pain", "sosy");
+    ConceptInfo aspirin = concept("C0004057", "Aspirin", "phsu", "orch");
+    List<Entity> entityList = new ArrayList<Entity>();
+    // two entities at the same position
+    entityList.add(entity("00000001", "title", 0, "heart attack", 3.5, infarction));
+    entityList.add(entity("00000001", "title", 0, "heart attack", 3.5, heartAttack));
+    // same start, different length
+    entityList.add(entity("00000001", "title", 0, "heart", 1.0, heartAttack));
+    // matched text spanning lines, negated
+    Entity multiLine = entity("00000001", "text", 20, "chest\npain", 2.0, chestPain);
+    multiLine.setNegated(true);
+    entityList.add(multiLine);
+    // temporality
+    Entity recent = entity("00000001", "text", 40, "aspirin", 2.5, aspirin);
+    recent.setTemporality("recent");
+    entityList.add(recent);
+    Entity historical = entity("00000002", "text", 7, "chest pain", 1.5, chestPain, infarction);
+    historical.setTemporality("historical");
+    entityList.add(historical);
+    entityList.add(entity("00000002", "text", 30, "aspirin", 1.0, aspirin));
+    return entityList;
+  }
+
+  static String printed(ResultFormatter formatter, List<Entity> entityList) {
+    StringWriter sw = new StringWriter();
+    PrintWriter pw = new PrintWriter(sw);
+    formatter.entityListFormatter(pw, new ArrayList<Entity>(entityList));
+    pw.flush();
+    return sw.toString();
+  }
+
+  @Test public void testBrat() {
+    Brat brat = new Brat();
+    List<Entity> entityList = fixture();
+    String expected = Brat.annotationListToString(brat.textLabel, entityList);
+    org.junit.Assert.assertTrue(expected.indexOf("Temporality") >= 0);
+    org.junit.Assert.assertEquals(expected, brat.entityListFormatToString(entityList));
+    StringWriter sw = new StringWriter();
+    PrintWriter pw = new PrintWriter(sw);
+    pw.println(expected);
+    pw.flush();
+    org.junit.Assert.assertEquals(sw.toString(), printed(brat, entityList));
+  }
+
+  @Test public void testMMI() {
+    MMI mmi = new MMI();
+    List<Entity> entityList = fixture();
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String,List<Entity>> entry: MMI.genDocidEntityMap(entityList).entrySet()) {
+      mmi.renderEntityList(sb, entry.getKey(), entry.getValue());
+    }
+    String expected = sb.toString();
+    org.junit.Assert.assertTrue(expected.indexOf("00000002") >= 0);
+    org.junit.Assert.assertEquals(expected, printed(mmi, entityList));
+    org.junit.Assert.assertEquals(expected, mmi.entityListFormatToString(entityList));
+  }
+
+  @Test public void testCuiList() {
+    CuiList cuiList = new CuiList();
+    List<Entity> entityList = fixture();
+    StringBuilder sb = new StringBuilder();
+    for (String cui: CuiList.entityListToCuiSet(entityList)) {
+      sb.append(cui).append("\n");
+    }
+    String expected = sb.toString();
+    org.junit.Assert.assertEquals(expected, printed(cuiList, entityList));
+    org.junit.Assert.assertEquals(expected, cuiList.entityListFormatToString(entityList));
+  }
+
+  @Test public void testEmptyList() {
+    List<Entity> entityList = new ArrayList<Entity>();
+    Brat brat = new Brat();
+    org.junit.Assert.assertEquals(Brat.annotationListToString(brat.textLabel, entityList),
+				  brat.entityListFormatToString(entityList));
+    MMI mmi = new MMI();
+    org.junit.Assert.assertEquals("", mmi.entityListFormatToString(entityList));
+    org.junit.Assert.assertEquals("", new CuiList().entityListFormatToString(entityList));
+  }
+}
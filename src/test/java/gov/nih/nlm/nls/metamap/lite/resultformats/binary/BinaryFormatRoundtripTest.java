@@ -0,0 +1,149 @@
+package gov.nih.nlm.nls.metamap.lite.resultformats.binary;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import gov.nih.nlm.nls.metamap.lite.resultformats.ResultFormatter;
+import gov.nih.nlm.nls.metamap.lite.types.ConceptInfo;
+import gov.nih.nlm.nls.metamap.lite.types.Entity;
+import gov.nih.nlm.nls.metamap.lite.types.Ev;
+
+/**
+ * Check that entities written by BinaryFormat, read back by
+ * BinaryResultReader and converted by BinaryResultConverter give the
+ * same MMI and Brat output as formatting the entities directly, for
+ * files of one and of several segments.
+ */
+@RunWith(JUnit4.class)
+public class BinaryFormatRoundtripTest {
+
+  static ConceptInfo concept(String cui, String name, String... semanticTypes) {
+    return new ConceptInfo(cui, name, name.toLowerCase(),
+			   new HashSet<String>(Arrays.asList("MSH", "SNOMEDCT_US")),
+			   new HashSet<String>(Arrays.asList(semanticTypes)));
+  }
+
+  static Entity entity(String docid, String fieldid, int sentenceNumber, int start,
+		       String text, double score, ConceptInfo... concepts) {
+    Set<Ev> evSet = new LinkedHashSet<Ev>();
+    for (ConceptInfo conceptInfo: concepts) {
+      evSet.add(new Ev(conceptInfo, text, conceptInfo.getConceptString(),
+		       start, text.length(), score, "noun"));
+    }
+    return new Entity("E" + start, docid, fieldid, text, "noun", sentenceNumber,
+		      start, text.length(), score, evSet);
+  }
+
+  /** entities of two documents, with negation, temporality and shared concepts */
+  static List<Entity> firstSegment() {
+    ConceptInfo heartAttack = concept("C0027051", "Myocardial Infarction", "dsyn");
+    ConceptInfo aspirin = concept("C0004057", "Aspirin", "phsu", "orch");
+    ConceptInfo pain = concept("C0030193", "Pain", "sosy");
+    List<Entity> entityList = new ArrayList<Entity>();
+    entityList.add(entity("00000001", "title", 0, 0, "heart attack", 3.5, heartAttack));
+    Entity negated = entity("00000001", "text", 1, 40, "pain", 1.0, pain);
+    negated.setNegated(true);
+    entityList.add(negated);
+    Entity recent = entity("00000001", "text", 2, 60, "aspirin", 2.0, aspirin);
+    recent.setTemporality("recent");
+    entityList.add(recent);
+    entityList.add(entity("00000002", "text", 0, 5, "heart attack", 3.5, heartAttack, pain));
+    return entityList;
+  }
+
+  static List<Entity> secondSegment() {
+    ConceptInfo fever = concept("C0015967", "Fever", "sosy", "fndg");
+    List<Entity> entityList = new ArrayList<Entity>();
+    entityList.add(entity("00000003", "text", 0, 12, "fever", 1.5, fever));
+    return entityList;
+  }
+
+  static String direct(ResultFormatter formatter, List<List<Entity>> segmentList) {
+    StringWriter sw = new StringWriter();
+    PrintWriter pw = new PrintWriter(sw);
+    for (List<Entity> entityList: segmentList) {
+      formatter.entityListFormatter(pw, entityList);
+    }
+    pw.flush();
+    return sw.toString();
+  }
+
+  static String roundtrip(ResultFormatter formatter, List<List<Entity>> segmentList)
+    throws IOException
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinaryFormat binaryFormat = new BinaryFormat();
+    for (List<Entity> entityList: segmentList) {
+      binaryFormat.entityListFormatter(out, entityList);
+    }
+    BinaryResultReader reader = new BinaryResultReader(new ByteArrayInputStream(out.toByteArray()));
+    StringWriter sw = new StringWriter();
+    PrintWriter pw = new PrintWriter(sw);
+    BinaryResultConverter.convert(reader, formatter, pw);
+    reader.close();
+    return sw.toString();
+  }
+
+  static void checkFormat(String formatName, List<List<Entity>> segmentList)
+    throws IOException
+  {
+    String expected = direct(BinaryResultConverter.createFormatter(formatName, null), segmentList);
+    org.junit.Assert.assertTrue(expected.length() > 0);
+    org.junit.Assert.assertEquals(expected,
+				  roundtrip(BinaryResultConverter.createFormatter(formatName, null),
+					    segmentList));
+  }
+
+  @Test public void testSingleSegment() throws IOException {
+    List<List<Entity>> segmentList = new ArrayList<List<Entity>>();
+    segmentList.add(firstSegment());
+    checkFormat("mmi", segmentList);
+    checkFormat("brat", segmentList);
+  }
+
+  @Test public void testSeveralSegments() throws IOException {
+    List<List<Entity>> segmentList = new ArrayList<List<Entity>>();
+    segmentList.add(firstSegment());
+    segmentList.add(secondSegment());
+    checkFormat("mmi", segmentList);
+    checkFormat("brat", segmentList);
+  }
+
+  @Test public void testEntityFields() throws IOException {
+    List<Entity> entityList = firstSegment();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new BinaryFormat().entityListFormatter(out, entityList);
+    BinaryResultReader reader = new BinaryResultReader(new ByteArrayInputStream(out.toByteArray()));
+    List<Entity> readList = new ArrayList<Entity>();
+    while (reader.nextDocument()) {
+      readList.addAll(reader.getEntityList());
+    }
+    reader.close();
+    org.junit.Assert.assertEquals(entityList.size(), readList.size());
+    for (int i = 0; i < entityList.size(); i++) {
+      Entity expected = entityList.get(i);
+      Entity actual = readList.get(i);
+      org.junit.Assert.assertEquals(expected.getDocid(), actual.getDocid());
+      org.junit.Assert.assertEquals(expected.getFieldId(), actual.getFieldId());
+      org.junit.Assert.assertEquals(expected.getStart(), actual.getStart());
+      org.junit.Assert.assertEquals(expected.getLength(), actual.getLength());
+      org.junit.Assert.assertEquals(expected.getSentenceNumber(), actual.getSentenceNumber());
+      org.junit.Assert.assertEquals(expected.isNegated(), actual.isNegated());
+      org.junit.Assert.assertEquals(expected.getTemporality(), actual.getTemporality());
+      org.junit.Assert.assertEquals(expected.getEvList().size(), actual.getEvList().size());
+    }
+  }
+}
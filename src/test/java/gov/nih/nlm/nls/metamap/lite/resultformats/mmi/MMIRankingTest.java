@@ -0,0 +1,241 @@
+package gov.nih.nlm.nls.metamap.lite.resultformats.mmi;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import irutils.MappedMultiKeyIndex;
+import irutils.MappedMultiKeyIndexLookup;
+import gov.nih.nlm.nls.metamap.lite.types.ConceptInfo;
+import gov.nih.nlm.nls.metamap.lite.types.Entity;
+import gov.nih.nlm.nls.metamap.lite.types.Ev;
+import gov.nih.nlm.nls.metamap.lite.types.Position;
+import gov.nih.nlm.nls.metamap.lite.types.PositionImpl;
+import gov.nih.nlm.nls.metamap.mmi.AATF;
+import gov.nih.nlm.nls.metamap.mmi.Ranking;
+import gov.nih.nlm.nls.metamap.mmi.TermFrequency;
+import gov.nih.nlm.nls.metamap.mmi.Tuple;
+import gov.nih.nlm.nls.metamap.mmi.Tuple7;
+
+/**
+ * Check that MMIRanking gives the same ranks, in the same order, as
+ * Ranking.processTF and Ranking.processTF1 applied to the term
+ * frequencies of the same entities (including ties, title concepts
+ * and concepts without treecodes), and that the tree-depth sums kept
+ * in the per-index treecode cache give the same tree-depth
+ * specificity as Ranking.computeTreeDepthSpecificity.
+ */
+@RunWith(JUnit4.class)
+public class MMIRankingTest {
+
+  /** treecode index backed by a map, counting lookups */
+  static class TreecodeLookup extends MappedMultiKeyIndexLookup {
+    Map<String,List<String>> treecodeMap;
+    int lookupCount = 0;
+    TreecodeLookup(Map<String,List<String>> treecodeMap) {
+      super((MappedMultiKeyIndex)null);
+      this.treecodeMap = treecodeMap;
+    }
+    public List<String> lookup(String term, int column) {
+      this.lookupCount++;
+      List<String> hitList = new ArrayList<String>();
+      if (this.treecodeMap.containsKey(term)) {
+	for (String treecode: this.treecodeMap.get(term)) {
+	  hitList.add(term + "|" + treecode);
+	}
+      }
+      return hitList;
+    }
+  }
+
+  static Map<String,List<String>> treecodeMap() {
+    Map<String,List<String>> treecodeMap = new HashMap<String,List<String>>();
+    treecodeMap.put("asthma", Arrays.asList("C08.127.108", "C08.381.495.108", "C20.543.480.680.095"));
+    treecodeMap.put("cough", Arrays.asList("C08.618.248", "C23.888.852.293"));
+    treecodeMap.put("lung", Arrays.asList("A04.411"));
+    treecodeMap.put("fever", Arrays.asList("C23.888.119.344"));
+    treecodeMap.put("pyrexia", Arrays.asList("C23.888.119.344"));
+    return treecodeMap;
+  }
+
+  static Entity entity(String fieldId, int sentenceNumber, int start, String cui, String preferredName,
+		       String conceptString, double score) {
+    Set<String> semanticTypeSet = new HashSet<String>();
+    semanticTypeSet.add("dsyn");
+    ConceptInfo conceptInfo = new ConceptInfo(cui, preferredName, conceptString,
+					      new HashSet<String>(), semanticTypeSet);
+    Set<Ev> evSet = new HashSet<Ev>();
+    evSet.add(new Ev(conceptInfo, conceptString, conceptString, start, conceptString.length(), score, "noun"));
+    return new Entity("E" + start, "doc1", fieldId, conceptString, "noun", sentenceNumber,
+		      start, conceptString.length(), score, evSet);
+  }
+
+  static List<Entity> entityList() {
+    List<Entity> entityList = new ArrayList<Entity>();
+    entityList.add(entity("title", 0, 0, "C0004096", "Asthma", "asthma", 1000.0));
+    entityList.add(entity("text", 0, 20, "C0010200", "Coughing", "cough", 1000.0));
+    entityList.add(entity("text", 1, 40, "C0004096", "Asthma", "asthma", 1000.0));
+    entityList.add(entity("text", 1, 60, "C0024109", "Lung", "lung", 861.0));
+    entityList.add(entity("text", 2, 80, "C0010200", "Coughing", "cough", 1000.0));
+    // no treecodes
+    entityList.add(entity(null, 2, 100, "C0231221", "Asymptomatic", "asymptomatic", 694.0));
+    entityList.add(entity("TI", 3, 120, "C0030193", "Pain", "pain", 1000.0));
+    // equal rank and equal name: first seen first
+    entityList.add(entity("text", 3, 140, "C0015967", "Fever", "fever", 1000.0));
+    entityList.add(entity("text", 3, 160, "C0015968", "Fever", "pyrexia", 1000.0));
+    // equal rank, different name: ordered by name
+    entityList.add(entity("text", 4, 180, "C0000002", "Beta", "beta", 1000.0));
+    entityList.add(entity("text", 4, 200, "C0000001", "Alpha", "alpha", 1000.0));
+    return entityList;
+  }
+
+  /** @return term frequencies of entities in order of first occurrence (see MMI.entityToTermFrequencyInfo) */
+  static List<TermFrequency> termFrequencyList(List<Entity> entityList, Map<String,List<String>> treecodeMap) {
+    Map<String,TermFrequency> termFreqMap = new LinkedHashMap<String,TermFrequency>();
+    for (Entity entity: entityList) {
+      for (Ev ev: entity.getEvList()) {
+	String cui = ev.getConceptInfo().getCUI();
+	List<Position> posInfo = new ArrayList<Position>();
+	posInfo.add(new PositionImpl(ev.getStart(), ev.getStart() + ev.getLength()));
+	Tuple tuple = new Tuple7(ev.getConceptInfo().getConceptString(),
+				 entity.getFieldId() == null ? "text" : entity.getFieldId(),
+				 entity.getSentenceNumber(),
+				 ev.getMatchedText(),
+				 entity.getLexicalCategory(),
+				 entity.isNegated() ? 1 : 0,
+				 posInfo);
+	TermFrequency tf = termFreqMap.get(cui);
+	if (tf != null) {
+	  tf.getTupleSet().add(tuple);
+	  tf.setFrequencyCount(tf.getFrequencyCount() + 1);
+	} else {
+	  Set<Tuple> tupleSet = new LinkedHashSet<Tuple>();
+	  tupleSet.add(tuple);
+	  List<String> treecodes = treecodeMap.containsKey(ev.getConceptInfo().getConceptString()) ?
+	    new ArrayList<String>(treecodeMap.get(ev.getConceptInfo().getConceptString())) :
+	    new ArrayList<String>();
+	  termFreqMap.put(cui, new TermFrequency(ev.getConceptInfo().getPreferredName(),
+						 new ArrayList<String>(ev.getConceptInfo().getSemanticTypeSet()),
+						 tupleSet,
+						 entity.getFieldId() == null ? false :
+						 (entity.getFieldId().equals("title") ||
+						  entity.getFieldId().equals("TI")),
+						 cui, 1, ev.getScore(), treecodes));
+	}
+      }
+    }
+    return new ArrayList<TermFrequency>(termFreqMap.values());
+  }
+
+  static List<String> strings(List<AATF> aatfList) {
+    List<String> result = new ArrayList<String>();
+    for (AATF aatf: aatfList) {
+      result.add(aatf.toString());
+    }
+    return result;
+  }
+
+  @Test
+  public void testProcessTFParity() {
+    Map<String,List<String>> treecodeMap = treecodeMap();
+    List<Entity> entityList = entityList();
+    MMIRanking ranking = new MMIRanking(new TreecodeLookup(treecodeMap));
+    ranking.addAll(entityList);
+    List<String> rankList = strings(ranking.rank(1000.0));
+
+    List<TermFrequency> tfList = termFrequencyList(entityList, treecodeMap);
+    List<AATF> expected = Ranking.processTF(tfList, 1000.0);
+    // stable sort: equal concepts keep first-seen order
+    Collections.sort(expected);
+    org.junit.Assert.assertEquals(strings(expected), rankList);
+
+    List<AATF> expected1 = Ranking.processTF1(tfList, 1000.0, 0, -5, 0, -10, 0, 0, 0, 1, 14, 1, 0);
+    Collections.sort(expected1);
+    org.junit.Assert.assertEquals(strings(expected1), rankList);
+  }
+
+  @Test
+  public void testTiesAndTitles() {
+    MMIRanking ranking = new MMIRanking(new TreecodeLookup(treecodeMap()));
+    ranking.addAll(entityList());
+    org.junit.Assert.assertEquals(9, ranking.size());
+    List<String> cuiList = new ArrayList<String>();
+    Map<String,Double> rankMap = new HashMap<String,Double>();
+    for (AATF aatf: ranking.rank(1000.0)) {
+      cuiList.add(aatf.getCui());
+      rankMap.put(aatf.getCui(), aatf.getNegNRank());
+    }
+    org.junit.Assert.assertTrue(cuiList.indexOf("C0015967") + 1 == cuiList.indexOf("C0015968"));
+    org.junit.Assert.assertTrue(cuiList.indexOf("C0000001") + 1 == cuiList.indexOf("C0000002"));
+    org.junit.Assert.assertEquals(rankMap.get("C0015967"), rankMap.get("C0015968"));
+    // a title concept is ranked by specificity alone
+    org.junit.Assert.assertTrue(rankMap.get("C0030193") < rankMap.get("C0000001"));
+  }
+
+  @Test
+  public void testNoTreecodeIndex() {
+    List<Entity> entityList = entityList();
+    MMIRanking ranking = new MMIRanking(null);
+    ranking.addAll(entityList);
+    List<AATF> expected = Ranking.processTF(termFrequencyList(entityList, new HashMap<String,List<String>>()), 1000.0);
+    Collections.sort(expected);
+    org.junit.Assert.assertEquals(strings(expected), strings(ranking.rank(1000.0)));
+  }
+
+  @Test
+  public void testClear() {
+    List<Entity> entityList = entityList();
+    MMIRanking ranking = new MMIRanking(new TreecodeLookup(treecodeMap()));
+    ranking.addAll(entityList.subList(0, 4));
+    ranking.rank(1000.0);
+    ranking.clear();
+    org.junit.Assert.assertEquals(0, ranking.size());
+    ranking.addAll(entityList);
+    List<AATF> expected = Ranking.processTF(termFrequencyList(entityList, treecodeMap()), 1000.0);
+    Collections.sort(expected);
+    org.junit.Assert.assertEquals(strings(expected), strings(ranking.rank(1000.0)));
+  }
+
+  @Test
+  public void testTreeDepthCache() throws IOException {
+    Map<String,List<String>> treecodeMap = treecodeMap();
+    TreecodeLookup index = new TreecodeLookup(treecodeMap);
+    MMIRanking ranking = new MMIRanking(index);
+    List<String> conceptStringList = Arrays.asList("asthma", "cough", "lung", "fever", "asymptomatic");
+    for (String conceptString: conceptStringList) {
+      MMIRanking.TreecodeInfo info = ranking.getTreecodeInfo(conceptString);
+      List<String> treecodes = treecodeMap.containsKey(conceptString) ?
+	treecodeMap.get(conceptString) : new ArrayList<String>();
+      org.junit.Assert.assertEquals(treecodes, info.treecodes);
+      org.junit.Assert.assertEquals(Ranking.computeTreeDepthSpecificity(treecodes, 1.0),
+				    Math.max(1.0, info.treeDepthSum), 0.0);
+    }
+    org.junit.Assert.assertEquals(conceptStringList.size(), index.lookupCount);
+
+    // another ranking over the same index uses the cached values
+    MMIRanking ranking2 = new MMIRanking(index);
+    for (String conceptString: conceptStringList) {
+      org.junit.Assert.assertSame(ranking.getTreecodeInfo(conceptString),
+				  ranking2.getTreecodeInfo(conceptString));
+    }
+    org.junit.Assert.assertEquals(conceptStringList.size(), index.lookupCount);
+
+    // a different index has its own cache
+    TreecodeLookup otherIndex = new TreecodeLookup(new HashMap<String,List<String>>());
+    MMIRanking otherRanking = new MMIRanking(otherIndex);
+    org.junit.Assert.assertTrue(otherRanking.getTreecodeInfo("asthma").treecodes.isEmpty());
+    org.junit.Assert.assertEquals(1, otherIndex.lookupCount);
+  }
+}
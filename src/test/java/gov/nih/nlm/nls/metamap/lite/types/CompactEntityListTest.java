@@ -0,0 +1,111 @@
+package gov.nih.nlm.nls.metamap.lite.types;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Check that a CompactEntityList keeps the same entities and evidence
+ * as an ArrayList through set and sort, and that set and sort don't
+ * leave the evidence arrays growing.
+ */
+@RunWith(JUnit4.class)
+public class CompactEntityListTest {
+
+  static final Comparator<Entity> startComparator = new Comparator<Entity>() {
+      public int compare(Entity a, Entity b) {
+	int cond = Integer.compare(b.getStart(), a.getStart());
+	return (cond != 0) ? cond : Integer.compare(a.getLength(), b.getLength());
+      }
+    };
+
+  static Entity entity(Random random, int i) {
+    Set<Ev> evSet = new HashSet<Ev>();
+    int evCount = random.nextInt(4);
+    for (int j = 0; j < evCount; j++) {
+      String cui = String.format("C%07d", random.nextInt(50));
+      ConceptInfo conceptInfo = new ConceptInfo(cui, "name " + cui, "term " + cui,
+						new HashSet<String>(), new HashSet<String>());
+      evSet.add(new Ev(conceptInfo, "text" + i, "term " + cui, i * 10 + j, 5, 1000.0, "noun"));
+    }
+    Entity entity = new Entity("E" + i, "doc" + (i % 3), "text", "text" + i, "noun",
+			       i % 7, i * 10, 1 + random.nextInt(9), random.nextDouble(), evSet);
+    entity.setNegated(random.nextBoolean());
+    entity.setTemporality((i % 2 == 0) ? "recent" : null);
+    return entity;
+  }
+
+  /** fields and evidence of entity, evidence in a fixed order */
+  static String describe(Entity entity) {
+    List<String> evStringList = new ArrayList<String>();
+    for (Ev ev: entity.getEvList()) {
+      evStringList.add(ev.getConceptInfo().getCUI() + "/" + ev.getStart() + "/" + ev.getLength());
+    }
+    Collections.sort(evStringList);
+    return entity.getId() + "|" + entity.getDocid() + "|" + entity.getStart() + "|" +
+      entity.getLength() + "|" + entity.getScore() + "|" + entity.isNegated() + "|" +
+      entity.getTemporality() + "|" + entity.getSentenceNumber() + "|" + evStringList;
+  }
+
+  static void checkSame(List<Entity> expected, List<Entity> actual) {
+    org.junit.Assert.assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      org.junit.Assert.assertEquals(describe(expected.get(i)), describe(actual.get(i)));
+    }
+  }
+
+  @Test public void testSortParity() {
+    Random random = new Random(42L);
+    List<Entity> entityList = new ArrayList<Entity>();
+    for (int i = 0; i < 500; i++) {
+      entityList.add(entity(random, i));
+    }
+    CompactEntityList compactList = new CompactEntityList(entityList);
+    int evSize = compactList.evSize;
+    Collections.sort(entityList, startComparator);
+    Collections.sort(compactList, startComparator);
+    checkSame(entityList, compactList);
+    org.junit.Assert.assertEquals(evSize, compactList.evSize);
+  }
+
+  @Test public void testSetParity() {
+    Random random = new Random(43L);
+    List<Entity> entityList = new ArrayList<Entity>();
+    for (int i = 0; i < 200; i++) {
+      entityList.add(entity(random, i));
+    }
+    CompactEntityList compactList = new CompactEntityList(entityList);
+    for (int n = 0; n < 5000; n++) {
+      int i = random.nextInt(entityList.size());
+      Entity entity;
+      if (random.nextBoolean()) {
+	entity = entity(random, 1000 + n);
+      } else {
+	// element of the same list, possibly itself
+	int k = random.nextInt(entityList.size());
+	entity = compactList.get(k);
+	org.junit.Assert.assertEquals(describe(entityList.get(k)), describe(entity));
+	entity = entityList.get(k);
+	compactList.set(i, compactList.get(k));
+	entityList.set(i, entity);
+	continue;
+      }
+      compactList.set(i, entity);
+      entityList.set(i, entity);
+    }
+    checkSame(entityList, compactList);
+    int liveEvCount = 0;
+    for (Entity entity: entityList) {
+      liveEvCount += entity.getEvList().size();
+    }
+    org.junit.Assert.assertTrue(compactList.evSize <= 2 * liveEvCount + 1);
+  }
+}
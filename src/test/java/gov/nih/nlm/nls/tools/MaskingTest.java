@@ -0,0 +1,103 @@
+package gov.nih.nlm.nls.tools;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import gov.nih.nlm.nls.metamap.prefix.TokenListMatch;
+import gov.nih.nlm.nls.metamap.prefix.Tokenize;
+
+/**
+ * Check that trie based Masking produces the same output as the term
+ * list scan formerly used by Masking.maskTroublesome.
+ */
+@RunWith(JUnit4.class)
+public class MaskingTest {
+
+  /** term list scan formerly used by Masking.maskTroublesome */
+  static String scanMaskTroublesome(String inText) {
+    StringBuilder sb = new StringBuilder();
+    String[] inTokens = Tokenize.mmTokenize(inText, Tokenize.KEEP_WHITE_SPACE);
+    int i = 0;
+    while (i < inTokens.length){
+      int tokenCount = 1;
+      String outString = inTokens[i];
+      for (String[] troublesomeTokenArray: Masking.troublesomeTokenArrayList) {
+	if ((i+troublesomeTokenArray.length) <= inTokens.length) {
+	  String[] slice =
+	    Arrays.copyOfRange(inTokens, i, i+troublesomeTokenArray.length);
+	  if (TokenListMatch.tokenMatch(slice, troublesomeTokenArray, false)) {
+	    tokenCount = troublesomeTokenArray.length;
+	    outString = Tokenize.getTextFromTokenList(slice).replaceAll("\\w","X");
+	    break;
+	  }
+	}
+      }
+      i += tokenCount;
+      sb.append(outString);
+    }
+    return sb.toString();
+  }
+
+  static final String[] fillers = {
+    "The", "patient", "was", "given", "an", "with", ",", ".", "(", ")", "and", "no",
+    "array", "cgh", "vitamin", "b12", "ace", "inhibitor", "-", "insulin", "chain", "  "
+  };
+
+  /** sentences mixing troublesome terms, parts of them and other words */
+  static List<String> sentences(int count, long seed) {
+    Random random = new Random(seed);
+    List<String> sentenceList = new ArrayList<String>();
+    for (int n = 0; n < count; n++) {
+      StringBuilder sb = new StringBuilder();
+      int partCount = 1 + random.nextInt(12);
+      for (int p = 0; p < partCount; p++) {
+	String part;
+	if (random.nextInt(3) == 0) {
+	  part = Masking.troublesomeList[random.nextInt(Masking.troublesomeList.length)];
+	  if (random.nextBoolean()) {
+	    part = part.toUpperCase();
+	  }
+	} else {
+	  part = fillers[random.nextInt(fillers.length)];
+	}
+	sb.append(part);
+	if (random.nextInt(4) != 0) {
+	  sb.append(" ");
+	}
+      }
+      sentenceList.add(sb.toString());
+    }
+    return sentenceList;
+  }
+
+  @Test public void testTroublesomeParity() {
+    List<String> sentenceList = new ArrayList<String>();
+    sentenceList.add("The substance vitamin b12 was present, along with ace-inhibitors.");
+    sentenceList.add("The substance vitamin-b12 was present.");
+    sentenceList.add("microarray cgh array cgh microarray");
+    sentenceList.add("");
+    sentenceList.add("   ");
+    sentenceList.addAll(Arrays.asList(Masking.troublesomeList));
+    sentenceList.addAll(sentences(2000, 45L));
+    for (String sentence: sentenceList) {
+      String masked = Masking.maskTroublesome(sentence);
+      org.junit.Assert.assertEquals(sentence, scanMaskTroublesome(sentence), masked);
+      org.junit.Assert.assertEquals(sentence.length(), masked.length());
+    }
+  }
+
+  @Test public void testTermListMasking() {
+    Masking masking = new Masking(Arrays.asList("heart attack", "heart", "Attack Rate"));
+    org.junit.Assert.assertEquals(3, masking.getTermCount());
+    org.junit.Assert.assertEquals("a XXXXX XXXXXX rate", masking.mask("a heart attack rate"));
+    org.junit.Assert.assertEquals("XXXXX, XXXXXX XXXX.", masking.mask("heart, attack rate."));
+    String unmasked = "no terms here";
+    org.junit.Assert.assertSame(unmasked, masking.mask(unmasked));
+  }
+}
@@ -0,0 +1,60 @@
+package irutils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Check that version 2 (compact) indexes written by CompactIndexWriter
+ * return the same postings as the version 1 indexes they were
+ * converted from, with and without compressed postings.
+ */
+@RunWith(JUnit4.class)
+public class CompactMultiKeyIndexTest {
+
+  void checkParity(boolean compress, int blockSize) throws Exception {
+    int[] columns = {0, 1, 2};
+    // large enough for postings to span several compressed blocks
+    List<String> rowList = IndexTestTables.rows(5000, 37L);
+    File workingDir = IndexTestTables.workingDir("compact");
+    String v1IndexDir =
+      IndexTestTables.buildDigestIndex(workingDir, "concepts",
+				       IndexTestTables.writeTable(workingDir, "concepts.txt", rowList),
+				       columns);
+    String v2IndexDir = workingDir.getPath() + "/v2/concepts";
+    CompactIndexWriter.convert(v1IndexDir, v2IndexDir, compress, blockSize);
+    org.junit.Assert.assertFalse(CompactMultiKeyIndex.isCompact(v1IndexDir));
+    org.junit.Assert.assertTrue(CompactMultiKeyIndex.isCompact(v2IndexDir));
+
+    MappedMultiKeyIndexLookup v1Lookup = new MappedMultiKeyIndexLookup(v1IndexDir);
+    MappedMultiKeyIndexLookup v2Lookup = new MappedMultiKeyIndexLookup(v2IndexDir);
+    org.junit.Assert.assertNotNull(v2Lookup.getIndex().getCompactIndex());
+    org.junit.Assert.assertEquals(compress, v2Lookup.getIndex().getCompactIndex().isCompressed());
+    int hitCount = 0;
+    for (int column: columns) {
+      for (String term: IndexTestTables.lookupTerms(rowList, column)) {
+	List<String> expected = v1Lookup.lookup(term, column);
+	org.junit.Assert.assertEquals(term, expected, v2Lookup.lookup(term, column));
+	if (expected.size() > 0) {
+	  hitCount++;
+	}
+      }
+    }
+    org.junit.Assert.assertTrue(hitCount > 0);
+  }
+
+  @Test public void testUncompressedParity() throws Exception {
+    checkParity(false, CompactIndexWriter.DEFAULT_BLOCK_SIZE);
+  }
+
+  @Test public void testCompressedParity() throws Exception {
+    checkParity(true, CompactIndexWriter.DEFAULT_BLOCK_SIZE);
+  }
+
+  @Test public void testSingleTermBlockParity() throws Exception {
+    checkParity(true, 1);
+  }
+}
@@ -0,0 +1,72 @@
+package irutils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Check that indexes built by HashedMultiKeyIndexGeneration return the
+ * same postings as indexes built by the digest based
+ * MultiKeyIndexGeneration.
+ */
+@RunWith(JUnit4.class)
+public class HashedMultiKeyIndexGenerationTest {
+
+  @Test public void testLookupParity() throws Exception {
+    int[] columns = {0, 1};
+    List<String> rowList = IndexTestTables.rows(2000, 36L);
+    File digestDir = IndexTestTables.workingDir("digest");
+    File hashedDir = IndexTestTables.workingDir("hashed");
+    MappedMultiKeyIndexLookup digestLookup =
+      new MappedMultiKeyIndexLookup
+      (IndexTestTables.buildDigestIndex(digestDir, "concepts",
+					IndexTestTables.writeTable(digestDir, "concepts.txt", rowList),
+					columns));
+    MappedMultiKeyIndexLookup hashedLookup =
+      new MappedMultiKeyIndexLookup
+      (IndexTestTables.buildHashedIndex(hashedDir, "concepts",
+					IndexTestTables.writeTable(hashedDir, "concepts.txt", rowList),
+					columns));
+    int hitCount = 0;
+    for (int column: columns) {
+      for (String term: IndexTestTables.lookupTerms(rowList, column)) {
+	List<String> expected = digestLookup.lookup(term, column);
+	org.junit.Assert.assertEquals(term, IndexTestTables.sorted(expected),
+				      IndexTestTables.sorted(hashedLookup.lookup(term, column)));
+	if (expected.size() > 0) {
+	  hitCount++;
+	}
+      }
+    }
+    org.junit.Assert.assertTrue(hitCount > 0);
+  }
+
+  @Test public void testDuplicateRowsSharePosting() {
+    List<String> rowList = IndexTestTables.rows(500, 7L);
+    HashedMultiKeyIndexGeneration instance = new HashedMultiKeyIndexGeneration();
+    instance.generateMaps(rowList, new int[] {0, 1});
+    org.junit.Assert.assertEquals(new HashSet<String>(rowList).size(), instance.getPostingCount());
+    org.junit.Assert.assertEquals(0, instance.getCollisionCount());
+  }
+
+  @Test public void testFieldMatchesSplit() {
+    String[] lines = { "a|b|c", "a||c", "|b|c", "a|b|", "a", "a|b||" };
+    for (String line: lines) {
+      String[] fields = line.split("\\|");
+      for (int column = 0; column < 4; column++) {
+	String expected = (column < fields.length) ? fields[column] : null;
+	String actual;
+	try {
+	  actual = HashedMultiKeyIndexGeneration.field(line, column);
+	} catch (ArrayIndexOutOfBoundsException exception) {
+	  actual = null;
+	}
+	org.junit.Assert.assertEquals(line + " " + column, expected, actual);
+      }
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package irutils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tables and index builds shared by the index tests.
+ */
+public class IndexTestTables {
+
+  static final String[] words = {
+    "heart", "attack", "blood", "sugar", "sleep", "apnea", "type", "diabetes",
+    "mellitus", "chest", "pain", "Aspirin", "fever", "acute", "renal", "failure"
+  };
+
+  /**
+   * Rows of the form cui|term|source, with duplicate rows, terms
+   * shared by several concepts and mixed case terms.
+   * @param rowCount number of rows
+   * @param seed random seed
+   * @return list of rows
+   */
+  static List<String> rows(int rowCount, long seed) {
+    Random random = new Random(seed);
+    List<String> rowList = new ArrayList<String>();
+    for (int i = 0; i < rowCount; i++) {
+      if ((i > 0) && (random.nextInt(10) == 0)) {
+	// duplicate row
+	rowList.add(rowList.get(random.nextInt(rowList.size())));
+	continue;
+      }
+      StringBuilder term = new StringBuilder(words[random.nextInt(words.length)]);
+      int wordCount = random.nextInt(3);
+      for (int j = 0; j < wordCount; j++) {
+	term.append(" ").append(words[random.nextInt(words.length)]);
+      }
+      rowList.add(String.format("C%07d", random.nextInt(rowCount / 2 + 1)) + "|" +
+		  term + "|" + ((random.nextInt(2) == 0) ? "MSH" : "SNOMEDCT_US"));
+    }
+    return rowList;
+  }
+
+  /**
+   * Create empty working directory containing tables and indices directories.
+   * @param prefix prefix of directory name
+   * @return working directory
+   * @throws IOException i/o exception
+   */
+  static File workingDir(String prefix) throws IOException {
+    File dir = File.createTempFile(prefix, "");
+    dir.delete();
+    new File(dir, "tables").mkdirs();
+    new File(dir, "indices").mkdirs();
+    return dir;
+  }
+
+  /**
+   * Write rows to table file of working directory.
+   * @param workingDir working directory
+   * @param tableName name of table file
+   * @param rowList rows
+   * @return table file
+   * @throws IOException i/o exception
+   */
+  static File writeTable(File workingDir, String tableName, List<String> rowList)
+    throws IOException
+  {
+    File tableFile = new File(workingDir, "tables/" + tableName);
+    BufferedWriter bw = new BufferedWriter(new FileWriter(tableFile));
+    for (String row: rowList) {
+      bw.write(row);
+      bw.write("\n");
+    }
+    bw.close();
+    return tableFile;
+  }
+
+  /**
+   * Build version 1 index using digest based MultiKeyIndexGeneration.
+   * @param workingDir working directory
+   * @param indexName name of index
+   * @param tableFile table file
+   * @param columns key columns
+   * @return index directory
+   * @throws Exception any exception
+   */
+  static String buildDigestIndex(File workingDir, String indexName, File tableFile, int[] columns)
+    throws Exception
+  {
+    new File(workingDir, "indices/" + indexName).mkdirs();
+    MultiKeyIndexGeneration instance = new MultiKeyIndexGeneration();
+    instance.generateMaps(MultiKeyIndex.loadTable(tableFile.getPath()), columns);
+    instance.writePartitions(workingDir.getPath(), indexName,
+			     instance.writePostings(workingDir.getPath(), indexName));
+    return workingDir.getPath() + "/indices/" + indexName;
+  }
+
+  /**
+   * Build version 1 index using HashedMultiKeyIndexGeneration.
+   * @param workingDir working directory
+   * @param indexName name of index
+   * @param tableFile table file
+   * @param columns key columns
+   * @return index directory
+   * @throws Exception any exception
+   */
+  static String buildHashedIndex(File workingDir, String indexName, File tableFile, int[] columns)
+    throws Exception
+  {
+    new File(workingDir, "indices/" + indexName).mkdirs();
+    HashedMultiKeyIndexGeneration instance = new HashedMultiKeyIndexGeneration();
+    instance.generateMaps(tableFile.getPath(), columns);
+    instance.writePostings(workingDir.getPath(), indexName);
+    instance.writePartitions(workingDir.getPath(), indexName);
+    return workingDir.getPath() + "/indices/" + indexName;
+  }
+
+  /**
+   * Terms to look up in column: every term of the table, terms
+   * differing in case and terms that are not present.
+   * @param rowList rows
+   * @param column column
+   * @return list of terms
+   */
+  static List<String> lookupTerms(List<String> rowList, int column) {
+    List<String> termList = new ArrayList<String>();
+    for (String row: rowList) {
+      String term = row.split("\\|")[column];
+      termList.add(term);
+      termList.add(term.toUpperCase());
+      termList.add(term + "x");
+      termList.add("a" + term);
+    }
+    return termList;
+  }
+
+  /**
+   * @param list list of strings
+   * @return sorted copy of list
+   */
+  static List<String> sorted(List<String> list) {
+    List<String> sortedList = new ArrayList<String>(list);
+    Collections.sort(sortedList);
+    return sortedList;
+  }
+}
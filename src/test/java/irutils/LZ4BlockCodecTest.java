@@ -0,0 +1,80 @@
+package irutils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Check that blocks compressed by LZ4BlockCodec decompress to the
+ * original data, including empty, very short, incompressible and
+ * highly repetitive blocks.
+ */
+@RunWith(JUnit4.class)
+public class LZ4BlockCodecTest {
+
+  /** compress data at an offset in a larger buffer and decompress it */
+  static void checkRoundtrip(byte[] data) {
+    byte[] src = new byte[data.length + 10];
+    System.arraycopy(data, 0, src, 7, data.length);
+    byte[] compressed = LZ4BlockCodec.compress(src, 7, data.length);
+    org.junit.Assert.assertTrue(compressed.length <= LZ4BlockCodec.maxCompressedLength(data.length));
+    byte[] dest = new byte[data.length];
+    int length = LZ4BlockCodec.decompress(compressed, 0, compressed.length, dest);
+    org.junit.Assert.assertEquals(data.length, length);
+    org.junit.Assert.assertArrayEquals(data, dest);
+  }
+
+  @Test public void testEmptyBlock() {
+    checkRoundtrip(new byte[0]);
+  }
+
+  @Test public void testShortBlocks() {
+    Random random = new Random(1L);
+    for (int length = 1; length <= 32; length++) {
+      byte[] data = new byte[length];
+      random.nextBytes(data);
+      checkRoundtrip(data);
+      Arrays.fill(data, (byte)'a');
+      checkRoundtrip(data);
+    }
+  }
+
+  @Test public void testIncompressibleBlock() {
+    byte[] data = new byte[CompactIndexWriter.POSTINGS_BLOCK_SIZE];
+    new Random(2L).nextBytes(data);
+    checkRoundtrip(data);
+  }
+
+  @Test public void testRepetitiveBlock() {
+    byte[] data = new byte[CompactIndexWriter.POSTINGS_BLOCK_SIZE];
+    Arrays.fill(data, (byte)'x');
+    checkRoundtrip(data);
+    org.junit.Assert.assertTrue(LZ4BlockCodec.compress(data, 0, data.length).length < data.length / 100);
+  }
+
+  @Test public void testTableRowsBlock() {
+    StringBuilder sb = new StringBuilder();
+    for (String row: IndexTestTables.rows(3000, 3L)) {
+      sb.append(row);
+    }
+    byte[] data = sb.toString().getBytes();
+    checkRoundtrip(Arrays.copyOf(data, Math.min(data.length, CompactIndexWriter.POSTINGS_BLOCK_SIZE)));
+  }
+
+  @Test public void testLongLiteralsAndMatches() {
+    // random run longer than 270 bytes (extended literal length)
+    // followed by a repeat longer than 270 bytes (extended match length)
+    byte[] data = new byte[1800];
+    Random random = new Random(4L);
+    byte[] run = new byte[600];
+    random.nextBytes(run);
+    System.arraycopy(run, 0, data, 0, run.length);
+    System.arraycopy(run, 0, data, run.length, run.length);
+    random.nextBytes(run);
+    System.arraycopy(run, 0, data, 2 * run.length, data.length - 2 * run.length);
+    checkRoundtrip(data);
+  }
+}
@@ -0,0 +1,106 @@
+package irutils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Check that batched lookup returns, for every term, the same
+ * postings as looking up the terms one at a time, and that opening
+ * an index doesn't open its partitions before the first lookup.
+ */
+@RunWith(JUnit4.class)
+public class MappedMultiKeyIndexLookupTest {
+
+  static final int[] columns = {0, 1, 2};
+
+  /**
+   * Terms of all columns in random order, with repeated terms, case
+   * variants, absent terms and terms with lengths that have no
+   * partition.
+   */
+  static void batch(List<String> rowList, List<String> termList, List<Integer> columnList) {
+    for (int column: columns) {
+      for (String term: IndexTestTables.lookupTerms(rowList, column)) {
+	termList.add(term);
+	columnList.add(column);
+      }
+      termList.add("");
+      columnList.add(column);
+      termList.add("a term much longer than any term in the generated table");
+      columnList.add(column);
+    }
+    long seed = 40L;
+    Collections.shuffle(termList, new Random(seed));
+    Collections.shuffle(columnList, new Random(seed));
+  }
+
+  void checkParity(MappedMultiKeyIndexLookup lookup, List<String> rowList) throws Exception {
+    List<String> termList = new ArrayList<String>();
+    List<Integer> columnList = new ArrayList<Integer>();
+    batch(rowList, termList, columnList);
+    int[] termColumns = new int[columnList.size()];
+    for (int i = 0; i < termColumns.length; i++) {
+      termColumns[i] = columnList.get(i);
+    }
+    List<List<String>> resultList = lookup.lookup(termList, termColumns);
+    org.junit.Assert.assertEquals(termList.size(), resultList.size());
+    for (int i = 0; i < termList.size(); i++) {
+      org.junit.Assert.assertEquals(termList.get(i) + " " + termColumns[i],
+				    lookup.lookup(termList.get(i), termColumns[i]),
+				    resultList.get(i));
+    }
+    // single column form
+    List<String> column1TermList = IndexTestTables.lookupTerms(rowList, 1);
+    List<List<String>> column1ResultList = lookup.lookup(column1TermList, 1);
+    for (int i = 0; i < column1TermList.size(); i++) {
+      org.junit.Assert.assertEquals(lookup.lookup(column1TermList.get(i), 1), column1ResultList.get(i));
+    }
+    org.junit.Assert.assertEquals(0, lookup.lookup(new ArrayList<String>(), new int[0]).size());
+  }
+
+  @Test public void testBatchLookupParity() throws Exception {
+    List<String> rowList = IndexTestTables.rows(2000, 40L);
+    File workingDir = IndexTestTables.workingDir("batch");
+    String indexDir =
+      IndexTestTables.buildDigestIndex(workingDir, "concepts",
+				       IndexTestTables.writeTable(workingDir, "concepts.txt", rowList),
+				       columns);
+    checkParity(new MappedMultiKeyIndexLookup(indexDir), rowList);
+  }
+
+  @Test public void testCompactBatchLookupParity() throws Exception {
+    List<String> rowList = IndexTestTables.rows(2000, 41L);
+    File workingDir = IndexTestTables.workingDir("batch");
+    String indexDir =
+      IndexTestTables.buildDigestIndex(workingDir, "concepts",
+				       IndexTestTables.writeTable(workingDir, "concepts.txt", rowList),
+				       columns);
+    String v2IndexDir = workingDir.getPath() + "/v2/concepts";
+    CompactIndexWriter.convert(indexDir, v2IndexDir, true, CompactIndexWriter.DEFAULT_BLOCK_SIZE);
+    checkParity(new MappedMultiKeyIndexLookup(v2IndexDir), rowList);
+  }
+
+  @Test public void testPartitionsOpenedOnFirstLookup() throws Exception {
+    List<String> rowList = IndexTestTables.rows(200, 42L);
+    File workingDir = IndexTestTables.workingDir("batch");
+    String indexDir =
+      IndexTestTables.buildDigestIndex(workingDir, "concepts",
+				       IndexTestTables.writeTable(workingDir, "concepts.txt", rowList),
+				       columns);
+    MappedMultiKeyIndexLookup lookup = new MappedMultiKeyIndexLookup(indexDir);
+    org.junit.Assert.assertNull(lookup.getIndex().partitionTable);
+    String term = rowList.get(0).split("\\|")[1];
+    org.junit.Assert.assertTrue(lookup.lookup(term, 1).size() > 0);
+    PartitionTable table = lookup.getIndex().partitionTable;
+    org.junit.Assert.assertNotNull(table);
+    lookup.lookup(term, 1);
+    org.junit.Assert.assertSame(table, lookup.getIndex().getPartitionTable());
+  }
+}